@@ -24,6 +24,8 @@ import java.util.*;
 
 public class Parser {
     static boolean explain = false;
+    // the number of threads each table is scanned with
+    static int parallelism = 1;
 
     public static Predicate.Op getOp(String s) throws simpledb.ParsingException {
         if (s.equals("="))
@@ -143,6 +145,7 @@ public class Parser {
         List<ZFromItem> from = q.getFrom();
         LogicalPlan lp = new LogicalPlan();
         lp.setQuery(q.toString());
+        lp.setParallelism(parallelism);
         // walk through tables in the FROM clause
         for (int i = 0; i < from.size(); i++) {
             ZFromItem fromIt = from.get(i);
@@ -588,7 +591,7 @@ public class Parser {
 
     public static void main(String[] argv) throws IOException {
 
-        if (argv.length < 1 || argv.length > 4) {
+        if (argv.length < 1 || argv.length > 6) {
             System.out.println("Invalid number of arguments.\n" + usage);
             System.exit(0);
         }
@@ -598,7 +601,7 @@ public class Parser {
         p.start(argv);
     }
 
-    static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
+    static final String usage = "Usage: parser catalogFile [-explain] [-f queryFile] [-parallel threads]";
     static final int SLEEP_TIME = 1000;
 
     protected void shutdown() {
@@ -628,6 +631,18 @@ public class Parser {
                     }
                     queryFile = argv[i];
 
+                } else if (argv[i].equals("-parallel")) {
+                    try {
+                        parallelism = Integer.parseInt(argv[++i]);
+                    } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+                        parallelism = 0;
+                    }
+                    if (parallelism < 1) {
+                        System.out.println("Expected a number of threads after -parallel\n"
+                                + usage);
+                        System.exit(0);
+                    }
+                    System.out.println("Scanning tables with " + parallelism + " threads.");
                 } else {
                     System.out.println("Unknown argument " + argv[i] + "\n "
                             + usage);
@@ -1,5 +1,8 @@
 package simpledb.common;
 
+import simpledb.index.BTreeFile;
+import simpledb.index.HashIndex;
+import simpledb.storage.ColumnFile;
 import simpledb.storage.DbFile;
 import simpledb.storage.HeapFile;
 import simpledb.storage.TupleDesc;
@@ -27,6 +30,7 @@ public class Catalog {
     private final Map<String, Integer> name2id;
     private final Map<Integer, String> id2name;
     private final Map<Integer, String> pkey;
+    private final Map<Integer, List<HashIndex>> indexes;
 
     /**
      * Constructor.
@@ -38,7 +42,7 @@ public class Catalog {
         name2id = new ConcurrentHashMap<>();
         id2name = new ConcurrentHashMap<>();
         pkey = new ConcurrentHashMap<>();
-
+        indexes = new ConcurrentHashMap<>();
     }
 
     /**
@@ -58,6 +62,7 @@ public class Catalog {
         if (name2id.containsKey(name)) {
             id2table.remove(name2id.get(name));
             id2tupledesc.remove(name2id.get(name));
+            indexes.remove(name2id.get(name));
             name2id.remove(name);
         }
 
@@ -67,7 +72,7 @@ public class Catalog {
         id2name.put(file.getId(), name);
 
         pkey.put(file.getId(), pkeyField);
-
+        indexes.remove(file.getId());
     }
 
     public void addTable(DbFile file, String name) {
@@ -135,6 +140,36 @@ public class Catalog {
         return id2name.get(id);
     }
 
+    /**
+     * Add an index to the catalog, on a table that is already in it. Adding
+     * the table again drops its indexes.
+     */
+    public void addIndex(HashIndex index) {
+        indexes.compute(index.getTable().getId(), (id, l) -> {
+            List<HashIndex> added = l == null ? new ArrayList<>() : new ArrayList<>(l);
+            added.add(index);
+            return Collections.unmodifiableList(added);
+        });
+    }
+
+    /**
+     * @return the indexes on the specified table (possibly none)
+     */
+    public List<HashIndex> getIndexes(int tableid) {
+        return indexes.getOrDefault(tableid, Collections.emptyList());
+    }
+
+    /**
+     * @return an index on the specified field of the specified table, or null
+     *         if there is none
+     */
+    public HashIndex getIndex(int tableid, int field) {
+        for (HashIndex index : getIndexes(tableid))
+            if (index.getKeyField() == field)
+                return index;
+        return null;
+    }
+
     /**
      * Delete all tables from the catalog
      */
@@ -144,6 +179,7 @@ public class Catalog {
         name2id.clear();
         id2name.clear();
         pkey.clear();
+        indexes.clear();
     }
 
     /**
@@ -166,6 +202,8 @@ public class Catalog {
                 List<String> names = new ArrayList<>();
                 List<Type> types = new ArrayList<>();
                 String primaryKey = "";
+                int primaryKeyField = -1;
+                int btreeKey = -1;
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
@@ -177,20 +215,45 @@ public class Catalog {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
                     }
-                    if (els2.length == 3) {
-                        if (els2[2].trim().equals("pk"))
+                    // pk: the primary key, with a hash index on it unless
+                    // the table is a B+ tree; btree: store the table in a B+
+                    // tree keyed on this field
+                    for (int i = 2; i < els2.length; i++) {
+                        if (els2[i].trim().equals("pk")) {
                             primaryKey = els2[0].trim();
+                            primaryKeyField = names.size() - 1;
+                        }
+                        else if (els2[i].trim().equals("btree"))
+                            btreeKey = names.size() - 1;
                         else {
-                            System.out.println("Unknown annotation " + els2[2]);
+                            System.out.println("Unknown annotation " + els2[i]);
                             System.exit(0);
                         }
                     }
                 }
+                // columnar, after the fields: store the table by column
+                boolean columnar = false;
+                String storage = line.substring(line.indexOf(")") + 1).trim();
+                if (storage.equals("columnar"))
+                    columnar = true;
+                else if (!storage.isEmpty()) {
+                    System.out.println("Unknown annotation " + storage);
+                    System.exit(0);
+                }
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder + "/" + name + ".dat"), t);
-                addTable(tabHf, name, primaryKey);
+                File tabFile = new File(baseFolder + "/" + name + ".dat");
+                DbFile tab;
+                if (btreeKey >= 0)
+                    tab = new BTreeFile(tabFile, btreeKey, t);
+                else if (columnar)
+                    tab = new ColumnFile(tabFile, t);
+                else
+                    tab = new HeapFile(tabFile, t);
+                addTable(tab, name, primaryKey);
+                if (tab instanceof HeapFile && primaryKeyField >= 0)
+                    addIndex(new HashIndex((HeapFile) tab, primaryKeyField));
                 System.out.println("Added table : " + name + " with schema " + t);
             }
         } catch (IOException e) {
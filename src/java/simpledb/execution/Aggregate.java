@@ -3,24 +3,55 @@ package simpledb.execution;
 import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.execution.Aggregator.Op;
+import simpledb.storage.SpillFile;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionAbortedException;
 
-import java.util.NoSuchElementException;
+import java.io.IOException;
+import java.util.*;
 
 /**
  * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
  * min). Note that we only support aggregates over a single column, grouped by a
  * single column.
+ * <p>
+ * The aggregator holds at most a budget of groups in memory. When it goes
+ * over, the partial state of its groups (see
+ * {@link Aggregator#partialIterator()}) is hash-partitioned by group value
+ * to {@link SpillFile}s and a fresh aggregator takes over. Once the child is
+ * done, each partition's partial states are merged by group, partition by
+ * partition; a partition with more groups than the budget is partitioned
+ * again with a different hash.
  */
 public class Aggregate extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /**
+     * Default memory budget, in groups
+     */
+    public final static int MAX_GROUPS = 50000;
+    /**
+     * Number of partitions spilled groups are split into
+     */
+    public final static int PARTITIONS = 16;
+    /**
+     * Levels of partitioning after which the budget is ignored
+     */
+    private final static int MAX_DEPTH = 4;
+
     private final TupleDesc td;
     private OpIterator child;
     private OpIterator it = null;
-    private final Aggregator agg;
+    // the parameters of the aggregators, one per pass over the input
+    private final boolean integerAggregate;
+    private final int aggGbField, aggAField;
+    private final Type aggGbType;
+    private final int maxGroups;
+    // partitions of partial groups still to be merged, with their depth
+    transient private Deque<Map.Entry<SpillFile, Integer>> pending;
+    transient private boolean aggregated, spilled;
     private final Aggregator.Op aop;
     private String gFieldName = null;
     private final String aFieldName;
@@ -40,6 +71,23 @@ public class Aggregate extends Operator {
      * @param aop    The aggregation operator to use
      */
     public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop) {
+        this(child, afield, gfield, aop, MAX_GROUPS);
+    }
+
+    /**
+     * Constructor with an explicit memory budget.
+     *
+     * @param child     The OpIterator that is feeding us tuples.
+     * @param afield    The column over which we are computing an aggregate.
+     * @param gfield    The column over which we are grouping the result, or -1
+     *                  if there is no grouping
+     * @param aop       The aggregation operator to use
+     * @param maxGroups The number of groups the aggregate may hold in memory
+     */
+    public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop, int maxGroups) {
+        if (maxGroups < 1)
+            throw new IllegalArgumentException("memory budget must be at least one group");
+        this.maxGroups = maxGroups;
         this.child = child;
         this.afield = afield;
         this.gfield = gfield;
@@ -53,15 +101,13 @@ public class Aggregate extends Operator {
             }
         TupleDesc child_td = child.getTupleDesc();
 
-        if (child_td.getFieldType(afield) == Type.INT_TYPE) {
-            this.agg = new IntegerAggregator(gfield,
-                    gfield == Aggregator.NO_GROUPING ? null
-                            : child_td.getFieldType(gfield), afield, aop);
-        } else {
-            this.agg = new StringAggregator(gfield,
-                    gfield == Aggregator.NO_GROUPING ? null
-                            : child_td.getFieldType(gfield), afield, aop);
-        }
+        this.integerAggregate = child_td.getFieldType(afield) == Type.INT_TYPE;
+        this.aggGbField = gfield;
+        this.aggAField = afield;
+        this.aggGbType = gfield == Aggregator.NO_GROUPING ? null
+                : child_td.getFieldType(gfield);
+        // fail fast on operators the aggregator does not support
+        newAggregator();
 
         if (gfield == Aggregator.NO_GROUPING) {
             int nFields = 1;
@@ -166,7 +212,13 @@ public class Aggregate extends Operator {
     public void open() throws NoSuchElementException, DbException,
             TransactionAbortedException {
         child.open();
-        if (it != null)
+        if (spilled) {
+            // the results were produced partition by partition and are
+            // gone; aggregate again
+            it = null;
+            aggregated = false;
+            spilled = false;
+        } else if (it != null)
             it.open();
         super.open();
     }
@@ -180,21 +232,102 @@ public class Aggregate extends Operator {
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         // Actually perform the aggregation
-        if (it == null) {
-            while (child.hasNext()) {
-                Tuple t = child.next();
-                agg.mergeTupleIntoGroup(t);
+        if (!aggregated) {
+            aggregated = true;
+            pending = new ArrayDeque<>();
+            it = aggregate(newAggregator(), child, false, 0);
+            spilled = it == null;
+            if (it != null)
+                it.open();
+        }
+
+        while (true) {
+            if (it != null && it.hasNext())
+                return it.next();
+            if (pending.isEmpty())
+                return null;
+
+            // merge the next partition of spilled groups
+            Map.Entry<SpillFile, Integer> p = pending.pop();
+            OpIterator in;
+            try {
+                in = p.getKey().iterator();
+            } catch (IOException e) {
+                throw new DbException("could not read spilled groups: " + e.getMessage());
             }
+            in.open();
+            it = aggregate(newAggregator(), in, true, p.getValue());
+            in.close();
+            p.getKey().delete();
+            if (it != null)
+                it.open();
+        }
+    }
 
-            it = agg.iterator();
-            it.open();
+    /**
+     * Aggregates the tuples of input (partial states if partial is set) into
+     * aggregator a, spilling its groups whenever it holds more than the
+     * budget.
+     *
+     * @return the results, or null if groups were spilled, in which case the
+     *         partitions have been added to pending
+     */
+    private OpIterator aggregate(Aggregator a, OpIterator input, boolean partial, int depth)
+            throws DbException, TransactionAbortedException {
+        SpillFile[] parts = null;
+        while (input.hasNext()) {
+            Tuple t = input.next();
+            if (partial)
+                a.mergePartialIntoGroup(t);
+            else
+                a.mergeTupleIntoGroup(t);
+            if (a.numGroups() > maxGroups && depth < MAX_DEPTH) {
+                if (parts == null)
+                    parts = new SpillFile[PARTITIONS];
+                spill(a, parts, depth);
+                a = newAggregator();
+            }
         }
+        if (parts == null)
+            return a.iterator();
 
-        if (it.hasNext())
-            return it.next();
+        spill(a, parts, depth);
+        for (SpillFile f : parts)
+            if (f != null)
+                pending.push(new AbstractMap.SimpleEntry<>(f, depth + 1));
         return null;
     }
 
+    /**
+     * Writes the partial state of each group of a to the partition of its
+     * group value.
+     */
+    private void spill(Aggregator a, SpillFile[] parts, int depth)
+            throws DbException, TransactionAbortedException {
+        OpIterator groups = a.partialIterator();
+        groups.open();
+        try {
+            while (groups.hasNext()) {
+                Tuple t = groups.next();
+                // salted by the depth so that a partition is split differently
+                // when it is partitioned again
+                int p = Partitioning.partition(t.getField(0).hashCode(), depth, PARTITIONS);
+                if (parts[p] == null)
+                    parts[p] = new SpillFile(a.partialTupleDesc());
+                parts[p].add(t);
+            }
+        } catch (IOException e) {
+            throw new DbException("could not spill groups: " + e.getMessage());
+        }
+        groups.close();
+    }
+
+    private Aggregator newAggregator() {
+        if (integerAggregate)
+            return new IntegerAggregator(aggGbField, aggGbType, aggAField, aop);
+        return new StringAggregator(aggGbField, aggGbType, aggAField, aop);
+    }
+
     public void rewind() throws DbException, TransactionAbortedException {
         close();
         open();
@@ -221,6 +354,11 @@ public class Aggregate extends Operator {
         if (it != null) {
             it.close();
         }
+        if (pending != null) {
+            for (Map.Entry<SpillFile, Integer> p : pending)
+                p.getKey().delete();
+            pending.clear();
+        }
     }
 
     @Override
@@ -1,6 +1,7 @@
 package simpledb.execution;
 
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
 import simpledb.storage.TupleIterator;
 
 import java.io.Serializable;
@@ -85,4 +86,33 @@ public interface Aggregator extends Serializable {
      */
     OpIterator iterator();
 
+    /**
+     * @return the number of distinct group values merged so far (1 once a
+     *         tuple has been merged, if there is no grouping)
+     */
+    int numGroups();
+
+    /**
+     * Create a OpIterator over the partial state of each group: the group
+     * value (if grouping) followed by the aggregator's accumulators, as
+     * described by {@link #partialTupleDesc()}. Merging these tuples into
+     * another aggregator with {@link #mergePartialIntoGroup} has the same
+     * effect as merging the original tuples into it.
+     */
+    OpIterator partialIterator();
+
+    /**
+     * @return the TupleDesc of the tuples returned by {@link #partialIterator()}
+     */
+    TupleDesc partialTupleDesc();
+
+    /**
+     * Merge the partial state of a group, as returned by
+     * {@link #partialIterator()} of an aggregator with the same parameters,
+     * into the aggregate.
+     *
+     * @param partial a tuple with the group value and accumulators
+     */
+    void mergePartialIntoGroup(Tuple partial);
+
 }
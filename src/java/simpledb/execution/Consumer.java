@@ -0,0 +1,80 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * The receiving end of an {@link Exchange}: returns the tuples that a number
+ * of worker threads ({@link Producer}s) put on a queue, in the order they
+ * arrive, until every worker has marked the end of its stream. An exception
+ * thrown below the exchange on a worker is rethrown by {@link #next()}.
+ */
+public abstract class Consumer extends Exchange {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The default capacity, in tuples, of the queue between the workers and
+     * the consumer.
+     */
+    public static final int QUEUE_SIZE = 1024;
+
+    private transient BlockingQueue<Object> queue;
+    private int producers;
+    private int ended;
+
+    /**
+     * Starts returning the tuples on a queue.
+     *
+     * @param queue     the queue the workers put their tuples on
+     * @param producers the number of workers, each of which sends an end
+     *                  marker when it is done
+     */
+    protected void consume(BlockingQueue<Object> queue, int producers) {
+        this.queue = queue;
+        this.producers = producers;
+        this.ended = 0;
+    }
+
+    @Override
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (ended < producers) {
+            Object o;
+            try {
+                o = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DbException("interrupted while waiting for the workers of " + getName());
+            }
+            if (o instanceof Tuple)
+                return (Tuple) o;
+            if (o == Producer.END) {
+                ended++;
+                continue;
+            }
+            ended = producers;
+            if (o instanceof DbException)
+                throw (DbException) o;
+            if (o instanceof TransactionAbortedException)
+                throw (TransactionAbortedException) o;
+            if (o instanceof RuntimeException)
+                throw (RuntimeException) o;
+            if (o instanceof Error)
+                throw (Error) o;
+            DbException e = new DbException("a worker of " + getName() + " failed: " + o);
+            e.initCause((Throwable) o);
+            throw e;
+        }
+        return null;
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        queue = null;
+        producers = 0;
+    }
+}
@@ -0,0 +1,22 @@
+package simpledb.execution;
+
+/**
+ * An Exchange is the boundary between parts of a query plan that run on
+ * different threads. The operators below an exchange are run by worker
+ * threads it starts, which hand their tuples over to the operators above
+ * through bounded queues, so that a slow consumer holds the workers back
+ * instead of letting them fill memory.
+ * <p>
+ * The concrete exchanges, {@link Gather} and {@link Repartition}, extend
+ * {@link Consumer}, which implements the receiving end.
+ */
+public abstract class Exchange extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * @return a short description of this exchange, used when the plan is
+     *         printed
+     */
+    public abstract String getName();
+}
@@ -0,0 +1,113 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Gather runs each of its children on a thread of its own and merges their
+ * output into one stream, e.g. to scan and filter the parts of a table
+ * (see {@link SeqScan#SeqScan(simpledb.transaction.TransactionId, int, String, int[], int, int)})
+ * on all cores. The tuples of different children are interleaved in no
+ * particular order.
+ * <p>
+ * The children are opened, read and closed by the worker threads, so
+ * everything below a Gather must only be used through it.
+ */
+public class Gather extends Consumer {
+
+    private static final long serialVersionUID = 1L;
+
+    private OpIterator[] children;
+    private final int queueSize;
+    private transient List<Producer> workers;
+
+    /**
+     * Creates a Gather whose workers hand their tuples over through a queue
+     * of {@link #QUEUE_SIZE} tuples.
+     *
+     * @param children the subplans to run in parallel; they must all have the
+     *                 same schema
+     */
+    public Gather(OpIterator[] children) {
+        this(children, QUEUE_SIZE);
+    }
+
+    /**
+     * @param children  the subplans to run in parallel; they must all have the
+     *                  same schema
+     * @param queueSize the number of tuples the workers can get ahead of the
+     *                  consumer
+     */
+    public Gather(OpIterator[] children, int queueSize) {
+        if (children.length == 0)
+            throw new IllegalArgumentException("nothing to gather");
+        if (queueSize < 1)
+            throw new IllegalArgumentException("queue size must be positive");
+        setChildren(children);
+        this.queueSize = queueSize;
+    }
+
+    @Override
+    public String getName() {
+        return "gather(" + children.length + ")";
+    }
+
+    @Override
+    public TupleDesc getTupleDesc() {
+        return children[0].getTupleDesc();
+    }
+
+    @Override
+    public void open() throws DbException, TransactionAbortedException {
+        BlockingQueue<Object> queue = new ArrayBlockingQueue<>(queueSize);
+        AtomicReferenceArray<BlockingQueue<Object>> queues = new AtomicReferenceArray<>(1);
+        queues.set(0, queue);
+        workers = new ArrayList<>(children.length);
+        for (int i = 0; i < children.length; i++) {
+            Producer p = new Producer("Gather worker " + i, children[i], queues, -1);
+            workers.add(p);
+            p.start();
+        }
+        consume(queue, children.length);
+        super.open();
+    }
+
+    @Override
+    public void close() {
+        if (workers != null) {
+            for (Producer p : workers)
+                p.finish();
+            workers = null;
+        }
+        super.close();
+    }
+
+    /**
+     * Runs the children again from the start.
+     */
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return children.clone();
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        for (OpIterator child : children)
+            if (!child.getTupleDesc().equals(children[0].getTupleDesc()))
+                throw new IllegalArgumentException("gathered subplans must have the same schema");
+        this.children = children.clone();
+    }
+}
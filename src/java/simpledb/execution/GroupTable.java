@@ -0,0 +1,158 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+
+import java.util.Arrays;
+
+/**
+ * GroupTable maps the group-by values seen by an aggregator to dense group
+ * numbers 0, 1, 2, ..., in the order the groups were first seen, so that
+ * the aggregator can keep its accumulators in parallel primitive arrays
+ * indexed by group number.
+ * <p>
+ * The table uses open addressing with linear probing. INT keys are stored
+ * in an int array, STRING keys as the strings themselves (Latin-1 strings,
+ * which is all a page can hold, are backed by a byte array), with their hash
+ * codes kept alongside to skip most comparisons. A table without a key type
+ * has a single group, 0.
+ */
+public class GroupTable {
+
+    private final Type keyType;
+    // group number + 1 of the key hashed to each slot, 0 if the slot is empty
+    private int[] slots;
+    private int mask;
+    private int size;
+    // keys, by group number
+    private int[] intKeys;
+    private String[] stringKeys;
+    private int[] hashes;
+
+    /**
+     * @param keyType the type of the group-by values, or null if there is no
+     *                grouping
+     */
+    public GroupTable(Type keyType) {
+        this.keyType = keyType;
+        if (keyType == null) {
+            size = 1;
+            return;
+        }
+        slots = new int[16];
+        mask = slots.length - 1;
+        if (keyType == Type.INT_TYPE) {
+            intKeys = new int[8];
+        } else {
+            stringKeys = new String[8];
+            hashes = new int[8];
+        }
+    }
+
+    /**
+     * @return the number of groups
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the group number of a group-by value, adding a new group if the
+     * value has not been seen before.
+     *
+     * @param key the group-by value; ignored if there is no grouping
+     */
+    public int groupOf(Field key) {
+        if (keyType == null)
+            return 0;
+        if (keyType == Type.INT_TYPE)
+            return groupOf(((IntField) key).getValue());
+        return groupOf(((StringField) key).getValue());
+    }
+
+    private int groupOf(int key) {
+        int h = mix(key) & mask;
+        int g;
+        while ((g = slots[h]) != 0) {
+            if (intKeys[g - 1] == key)
+                return g - 1;
+            h = (h + 1) & mask;
+        }
+        if (size == intKeys.length)
+            intKeys = Arrays.copyOf(intKeys, size * 2);
+        intKeys[size] = key;
+        return insert(h);
+    }
+
+    private int groupOf(String key) {
+        int hash = key.hashCode();
+        int h = mix(hash) & mask;
+        int g;
+        while ((g = slots[h]) != 0) {
+            if (hashes[g - 1] == hash && stringKeys[g - 1].equals(key))
+                return g - 1;
+            h = (h + 1) & mask;
+        }
+        if (size == stringKeys.length) {
+            stringKeys = Arrays.copyOf(stringKeys, size * 2);
+            hashes = Arrays.copyOf(hashes, size * 2);
+        }
+        stringKeys[size] = key;
+        hashes[size] = hash;
+        return insert(h);
+    }
+
+    /**
+     * Adds the group whose key was just stored at index size to empty slot h,
+     * growing the table past half full.
+     */
+    private int insert(int h) {
+        slots[h] = ++size;
+        if (size * 2 > slots.length)
+            rehash();
+        return size - 1;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        mask = slots.length - 1;
+        for (int g = 0; g < size; g++) {
+            int h = mix(keyType == Type.INT_TYPE ? intKeys[g] : hashes[g]) & mask;
+            while (slots[h] != 0)
+                h = (h + 1) & mask;
+            slots[h] = g + 1;
+        }
+    }
+
+    private static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return the group-by value of a group, as a field
+     * @throws IllegalStateException if there is no grouping
+     */
+    public Field key(int group) {
+        if (keyType == null)
+            throw new IllegalStateException("no grouping");
+        if (keyType == Type.INT_TYPE)
+            return new IntField(intKeys[group]);
+        return new StringField(stringKeys[group], Type.STRING_LEN);
+    }
+
+    /**
+     * Grows an accumulator array so that it has a slot for every group; new
+     * slots are set to init.
+     */
+    static int[] ensureCapacity(int[] acc, int groups, int init) {
+        if (acc.length >= groups)
+            return acc;
+        int old = acc.length;
+        acc = Arrays.copyOf(acc, Math.max(groups, old * 2));
+        Arrays.fill(acc, old, acc.length, init);
+        return acc;
+    }
+}
@@ -1,14 +1,31 @@
 package simpledb.execution;
 
 import simpledb.common.DbException;
+import simpledb.storage.Field;
+import simpledb.storage.SpillFile;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionAbortedException;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
- * The Join operator implements the relational join operation.
+ * The HashEquiJoin operator implements an equality join with a hybrid hash
+ * join.
+ * <p>
+ * The left (build) child is read into in-memory hash tables, one per
+ * partition of the join key's hash. When more than the memory budget of
+ * build tuples is in memory, the largest resident partition is written to a
+ * {@link SpillFile} and the rest of its build tuples follow it there. The
+ * right (probe) child is then streamed once: tuples of resident partitions
+ * are joined straight away, tuples of spilled partitions are written to a
+ * probe spill file. Finally each pair of spilled partitions is joined by a
+ * nested HashEquiJoin that partitions with a different hash, so that
+ * oversized partitions are split again. Each input is thus read once and
+ * each spilled tuple written and read once per level of partitioning. A
+ * partition that does not get smaller when it is split (e.g. all one key)
+ * is joined in budget-sized chunks, rescanning its probe side per chunk.
  */
 public class HashEquiJoin extends Operator {
 
@@ -19,6 +36,23 @@ public class HashEquiJoin extends Operator {
     transient private Tuple t1 = null;
     transient private Tuple t2 = null;
 
+    /**
+     * Default memory budget, in build tuples
+     */
+    public final static int MAP_SIZE = 20000;
+    /**
+     * Number of hash partitions the build and probe inputs are split into
+     */
+    public final static int PARTITIONS = 16;
+    /**
+     * Levels of partitioning after which partitions are joined in chunks
+     */
+    private final static int MAX_DEPTH = 4;
+
+    private final int maxTuples;
+    private final int depth;
+    private final boolean chunked;
+
     /**
      * Constructor. Accepts to children to join and the predicate to join them
      * on
@@ -28,9 +62,31 @@ public class HashEquiJoin extends Operator {
      * @param child2 Iterator for the right(inner) relation to join
      */
     public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, MAP_SIZE);
+    }
+
+    /**
+     * Constructor with an explicit memory budget.
+     *
+     * @param p         The predicate to use to join the children
+     * @param child1    Iterator for the left (build) relation to join
+     * @param child2    Iterator for the right (probe) relation to join
+     * @param maxTuples The number of build tuples the join may hold in memory
+     */
+    public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2, int maxTuples) {
+        this(p, child1, child2, maxTuples, 0, false);
+    }
+
+    private HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2,
+                         int maxTuples, int depth, boolean chunked) {
+        if (maxTuples < 1)
+            throw new IllegalArgumentException("memory budget must be at least one tuple");
         this.pred = p;
         this.child1 = child1;
         this.child2 = child2;
+        this.maxTuples = maxTuples;
+        this.depth = depth;
+        this.chunked = chunked;
         comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
@@ -50,18 +106,94 @@ public class HashEquiJoin extends Operator {
         return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
     }
 
+    // resident partitions (null once spilled) and their sizes
+    transient private List<Map<Field, List<Tuple>>> parts;
+    transient private int[] partSizes;
+    transient private SpillFile[] buildSpill, probeSpill;
+    transient private int inMemory, buildSize;
+    transient private boolean probing;
+    // the nested join of spilled partition nextPartition - 1
+    transient private HashEquiJoin partitionJoin;
+    transient private int nextPartition;
+
+    // chunked mode: the current chunk of the build side
     final Map<Object, List<Tuple>> map = new HashMap<>();
-    public final static int MAP_SIZE = 20000;
+
+    /**
+     * Partitions the build side, keeping as many partitions in memory as the
+     * budget allows and spilling the others.
+     */
+    private void build() throws DbException, TransactionAbortedException {
+        parts = new ArrayList<>(PARTITIONS);
+        for (int i = 0; i < PARTITIONS; i++)
+            parts.add(new HashMap<>());
+        partSizes = new int[PARTITIONS];
+        buildSpill = new SpillFile[PARTITIONS];
+        probeSpill = new SpillFile[PARTITIONS];
+        inMemory = 0;
+        buildSize = 0;
+        nextPartition = 0;
+
+        while (child1.hasNext()) {
+            Tuple t = child1.next();
+            buildSize++;
+            Field f = t.getField(pred.getField1());
+            int p = partition(f);
+            if (buildSpill[p] != null) {
+                spill(buildSpill[p], t);
+                continue;
+            }
+            parts.get(p).computeIfAbsent(f, k -> new ArrayList<>()).add(t);
+            partSizes[p]++;
+            if (++inMemory > maxTuples)
+                spillLargestPartition();
+        }
+        probing = true;
+    }
+
+    private void spillLargestPartition() throws DbException {
+        int victim = -1;
+        for (int i = 0; i < PARTITIONS; i++)
+            if (parts.get(i) != null && (victim < 0 || partSizes[i] > partSizes[victim]))
+                victim = i;
+        try {
+            buildSpill[victim] = new SpillFile(child1.getTupleDesc());
+            probeSpill[victim] = new SpillFile(child2.getTupleDesc());
+        } catch (IOException e) {
+            throw new DbException("could not create spill file: " + e.getMessage());
+        }
+        for (List<Tuple> l : parts.get(victim).values())
+            for (Tuple t : l)
+                spill(buildSpill[victim], t);
+        parts.set(victim, null);
+        inMemory -= partSizes[victim];
+        partSizes[victim] = 0;
+    }
+
+    private void spill(SpillFile f, Tuple t) throws DbException {
+        try {
+            f.add(t);
+        } catch (IOException e) {
+            throw new DbException("could not write spill file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Maps a join key to a partition. The hash is salted with the depth so
+     * that a nested join splits its partition differently from its parent.
+     */
+    private int partition(Field f) {
+        return Partitioning.partition(f.hashCode(), depth, PARTITIONS);
+    }
 
     private boolean loadMap() throws DbException, TransactionAbortedException {
         int cnt = 0;
         map.clear();
-        while (child1.hasNext()) {
+        while (cnt < maxTuples && child1.hasNext()) {
             t1 = child1.next();
             List<Tuple> list = map.computeIfAbsent(t1.getField(pred.getField1()), k -> new ArrayList<>());
             list.add(t1);
-            if (cnt++ == MAP_SIZE)
-                return true;
+            cnt++;
         }
         return cnt > 0;
 
@@ -71,7 +203,10 @@ public class HashEquiJoin extends Operator {
             TransactionAbortedException {
         child1.open();
         child2.open();
-        loadMap();
+        if (chunked)
+            loadMap();
+        else
+            build();
         super.open();
     }
 
@@ -79,15 +214,43 @@ public class HashEquiJoin extends Operator {
         super.close();
         child2.close();
         child1.close();
+        release();
+    }
+
+    /**
+     * Drops the hash tables and the spill files.
+     */
+    private void release() {
         this.t1 = null;
         this.t2 = null;
         this.listIt = null;
         this.map.clear();
+        this.parts = null;
+        this.probing = false;
+        if (partitionJoin != null) {
+            partitionJoin.close();
+            partitionJoin = null;
+        }
+        if (buildSpill != null) {
+            for (int i = 0; i < PARTITIONS; i++) {
+                if (buildSpill[i] != null) {
+                    buildSpill[i].delete();
+                    probeSpill[i].delete();
+                }
+            }
+            buildSpill = null;
+            probeSpill = null;
+        }
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
+        release();
         child1.rewind();
         child2.rewind();
+        if (chunked)
+            loadMap();
+        else
+            build();
     }
 
     transient Iterator<Tuple> listIt = null;
@@ -95,8 +258,7 @@ public class HashEquiJoin extends Operator {
     /**
      * Returns the next tuple generated by the join, or null if there are no
      * more tuples. Logically, this is the next tuple in r1 cross r2 that
-     * satisfies the join predicate. There are many possible implementations;
-     * the simplest is a nested loops join.
+     * satisfies the join predicate.
      * <p>
      * Note that the tuples returned from this particular implementation of Join
      * are simply the concatenation of joining tuples from the left and right
@@ -130,28 +292,93 @@ public class HashEquiJoin extends Operator {
         if (listIt != null && listIt.hasNext()) {
             return processList();
         }
+        if (chunked)
+            return fetchNextChunked();
 
-        // loop around child2
-        while (child2.hasNext()) {
-            t2 = child2.next();
+        if (probing) {
+            while (child2.hasNext()) {
+                t2 = child2.next();
+                Field f = t2.getField(pred.getField2());
+                int p = partition(f);
+                if (probeSpill[p] != null) {
+                    spill(probeSpill[p], t2);
+                    continue;
+                }
+                List<Tuple> l = parts.get(p).get(f);
+                if (l == null)
+                    continue;
+                listIt = l.iterator();
+                return processList();
+            }
+            // the resident partitions are done; free them before joining
+            // the spilled ones
+            probing = false;
+            listIt = null;
+            parts = null;
+        }
+        return fetchNextPartition();
+    }
 
-            // if match, create a combined tuple and fill it with the values
-            // from both tuples
-            List<Tuple> l = map.get(t2.getField(pred.getField2()));
-            if (l == null)
-                continue;
-            listIt = l.iterator();
+    /**
+     * Returns the next tuple from the joins of the spilled partitions.
+     */
+    private Tuple fetchNextPartition() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (partitionJoin != null) {
+                if (partitionJoin.hasNext())
+                    return partitionJoin.next();
+                partitionJoin.close();
+                partitionJoin = null;
+                buildSpill[nextPartition - 1].delete();
+                probeSpill[nextPartition - 1].delete();
+            }
 
-            return processList();
+            while (nextPartition < PARTITIONS
+                    && (buildSpill[nextPartition] == null || probeSpill[nextPartition].size() == 0))
+                nextPartition++;
+            if (nextPartition == PARTITIONS)
+                return null;
 
+            SpillFile build = buildSpill[nextPartition];
+            SpillFile probe = probeSpill[nextPartition];
+            nextPartition++;
+            // splitting again won't help a partition that did not shrink
+            boolean chunk = depth + 1 >= MAX_DEPTH || build.size() >= buildSize;
+            try {
+                partitionJoin = new HashEquiJoin(pred, build.iterator(), probe.iterator(),
+                        maxTuples, depth + 1, chunk);
+            } catch (IOException e) {
+                throw new DbException("could not read spill file: " + e.getMessage());
+            }
+            partitionJoin.open();
         }
+    }
 
-        // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
-            return fetchNext();
-        }
+    /**
+     * Joins a chunk of the build side at a time, rescanning the probe side
+     * for each chunk.
+     */
+    private Tuple fetchNextChunked() throws TransactionAbortedException, DbException {
+        while (!map.isEmpty()) {
+            // loop around child2
+            while (child2.hasNext()) {
+                t2 = child2.next();
+
+                // if match, create a combined tuple and fill it with the values
+                // from both tuples
+                List<Tuple> l = map.get(t2.getField(pred.getField2()));
+                if (l == null)
+                    continue;
+                listIt = l.iterator();
 
+                return processList();
+
+            }
+
+            // child2 is done: advance child1
+            child2.rewind();
+            loadMap();
+        }
         return null;
     }
 
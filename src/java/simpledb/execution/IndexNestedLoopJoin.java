@@ -0,0 +1,226 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * The IndexNestedLoopJoin operator joins each outer tuple with the inner
+ * tuples an index lookup finds for it, instead of scanning the inner
+ * relation once per outer tuple (or block of them). The inner child must be
+ * a base table: a {@link SeqScan} of the whole table or an {@link IndexScan},
+ * possibly below some {@link Filter}s, whose table has an index on the join
+ * field that answers the join predicate (see {@link #canProbe}). The scan is
+ * not run; for each outer tuple an IndexScan looks up the matching inner
+ * tuples, and the predicates of the filters (and of an inner IndexScan) are
+ * applied to them.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate pred;
+    private OpIterator outer, inner;
+    private final TupleDesc comboTD;
+
+    // the scan below the inner child and the predicates it and the
+    // filters above it apply
+    private OpIterator innerScan;
+    private List<Predicate> innerPreds;
+
+    transient private IndexScan probe;
+    transient private Tuple current;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join
+     * them on.
+     *
+     * @param p     The predicate to use to join the children
+     * @param outer Iterator for the left (outer) relation to join
+     * @param inner Iterator for the right (inner) relation to join, an
+     *              index of which is probed for each outer tuple
+     * @throws IllegalArgumentException if the inner child cannot be probed
+     *                                  (see {@link #canProbe})
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, OpIterator outer, OpIterator inner) {
+        this.pred = p;
+        setChildren(new OpIterator[]{outer, inner});
+        comboTD = TupleDesc.merge(outer.getTupleDesc(), inner.getTupleDesc());
+    }
+
+    /**
+     * @return the scan of a whole table below the filters at the top of an
+     *         iterator, or null if there is none; the predicates the filters
+     *         and the scan apply are added to preds
+     */
+    private static OpIterator baseScan(OpIterator it, List<Predicate> preds) {
+        while (it instanceof Filter) {
+            preds.add(((Filter) it).getPredicate());
+            it = ((Filter) it).getChildren()[0];
+        }
+        if (it instanceof IndexScan) {
+            IndexPredicate ipred = ((IndexScan) it).getIndexPredicate();
+            preds.add(new Predicate(((IndexScan) it).getField(), ipred.getOp(), ipred.getField()));
+            return it;
+        }
+        if (it instanceof SeqScan) {
+            SeqScan ss = (SeqScan) it;
+            return ss.getColumns() == null && ss.getNumPartitions() == 1 ? ss : null;
+        }
+        return null;
+    }
+
+    private static int tableOf(OpIterator scan) {
+        return scan instanceof IndexScan ? ((IndexScan) scan).getTableId() : ((SeqScan) scan).getTableId();
+    }
+
+    /**
+     * @return whether an IndexNestedLoopJoin can use the iterator as its
+     *         inner child, joining on the given field of it with the given
+     *         operator: it must scan a whole table (possibly below filters)
+     *         with an index on that field that answers the operator
+     */
+    public static boolean canProbe(OpIterator inner, int field, Predicate.Op op) {
+        OpIterator scan = baseScan(inner, new ArrayList<>());
+        return scan != null && canProbeTable(tableOf(scan), field, op);
+    }
+
+    /**
+     * @return whether the table has an index on the given field that an
+     *         IndexNestedLoopJoin with the table as its inner child can
+     *         probe for the given join operator
+     */
+    public static boolean canProbeTable(int tableid, int field, Predicate.Op op) {
+        return IndexScan.canScan(tableid, field, flip(op));
+    }
+
+    /**
+     * @return the operator op' for which inner op' outer holds whenever
+     *         outer op inner does
+     */
+    private static Predicate.Op flip(Predicate.Op op) {
+        switch (op) {
+            case LESS_THAN:
+                return Predicate.Op.GREATER_THAN;
+            case LESS_THAN_OR_EQ:
+                return Predicate.Op.GREATER_THAN_OR_EQ;
+            case GREATER_THAN:
+                return Predicate.Op.LESS_THAN;
+            case GREATER_THAN_OR_EQ:
+                return Predicate.Op.LESS_THAN_OR_EQ;
+            default:
+                return op;
+        }
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    /**
+     * @return the field name of join field1. Should be quantified by
+     *         alias or table name.
+     */
+    public String getJoinField1Name() {
+        return outer.getTupleDesc().getFieldName(pred.getField1());
+    }
+
+    /**
+     * @return the field name of join field2. Should be quantified by
+     *         alias or table name.
+     */
+    public String getJoinField2Name() {
+        return inner.getTupleDesc().getFieldName(pred.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        outer.open();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        if (probe != null)
+            probe.close();
+        probe = null;
+        current = null;
+        outer.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        outer.rewind();
+        if (probe != null)
+            probe.close();
+        probe = null;
+        current = null;
+    }
+
+    /**
+     * Returns the next tuple generated by the join: the next inner tuple the
+     * index finds for the current outer tuple that passes the inner filters,
+     * merged with the outer tuple, moving on to the next outer tuple when
+     * there are no more.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (probe != null && current != null) {
+                while (probe.hasNext()) {
+                    Tuple t2 = probe.next();
+                    if (passes(t2))
+                        return Tuple.merge(comboTD, current, t2);
+                }
+            }
+            if (!outer.hasNext())
+                return null;
+            current = outer.next();
+            IndexPredicate ipred = new IndexPredicate(flip(pred.getOperator()),
+                    current.getField(pred.getField1()));
+            if (probe == null) {
+                probe = innerScan instanceof IndexScan
+                        ? new IndexScan(((IndexScan) innerScan).getTransactionId(), tableOf(innerScan),
+                                ((IndexScan) innerScan).getAlias(), pred.getField2(), ipred)
+                        : new IndexScan(((SeqScan) innerScan).getTransactionId(), tableOf(innerScan),
+                                ((SeqScan) innerScan).getAlias(), pred.getField2(), ipred);
+                probe.open();
+            } else {
+                probe.setIndexPredicate(ipred);
+                probe.rewind();
+            }
+        }
+    }
+
+    private boolean passes(Tuple t) {
+        for (Predicate p : innerPreds)
+            if (!p.filter(t))
+                return false;
+        return true;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.outer, this.inner};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        if (!canProbe(children[1], pred.getField2(), pred.getOperator()))
+            throw new IllegalArgumentException("inner child has no index that answers " + pred.getOperator());
+        List<Predicate> preds = new ArrayList<>();
+        this.innerScan = baseScan(children[1], preds);
+        this.innerPreds = preds;
+        this.outer = children[0];
+        this.inner = children[1];
+    }
+}
@@ -0,0 +1,49 @@
+package simpledb.execution;
+
+import simpledb.storage.Field;
+
+import java.io.Serializable;
+
+/**
+ * IndexPredicate compares the key field of an index to a constant, e.g. to
+ * ask a B+ tree for the tuples whose key is in a range (see
+ * {@link simpledb.index.BTreeFile#indexIterator}).
+ */
+public class IndexPredicate implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Predicate.Op op;
+    private final Field fieldvalue;
+
+    /**
+     * Constructor.
+     *
+     * @param op         the operation to compare keys with
+     * @param fieldvalue the value keys are compared to: a key k satisfies
+     *                   the predicate if k.compare(op, fieldvalue)
+     */
+    public IndexPredicate(Predicate.Op op, Field fieldvalue) {
+        this.op = op;
+        this.fieldvalue = fieldvalue;
+    }
+
+    public Field getField() {
+        return fieldvalue;
+    }
+
+    public Predicate.Op getOp() {
+        return op;
+    }
+
+    /**
+     * @return true if the key satisfies this predicate
+     */
+    public boolean filter(Field key) {
+        return key.compare(op, fieldvalue);
+    }
+
+    public String toString() {
+        return "key " + op + " " + fieldvalue;
+    }
+}
@@ -0,0 +1,193 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.index.BTreeFile;
+import simpledb.index.HashIndex;
+import simpledb.storage.DbFile;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.NoSuchElementException;
+
+/**
+ * IndexScan is an access method that returns the tuples of a table that
+ * match a predicate on one field, read through an index on that field
+ * instead of scanning the whole table: the B+ tree of a table stored in a
+ * {@link BTreeFile} keyed on the field, or else a {@link HashIndex} on the
+ * field in the catalog. Like {@link SeqScan}, it names its fields
+ * tableAlias.fieldName.
+ */
+public class IndexScan implements OpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private boolean isOpen = false;
+    private final TransactionId tid;
+    private final int tableid;
+    private final String alias;
+    private final int field;
+    private final TupleDesc myTd;
+    private IndexPredicate ipred;
+    private transient DbFileIterator it;
+
+    /**
+     * Creates a scan of the tuples of the specified table whose field matches
+     * an index predicate.
+     *
+     * @param tid        The transaction this scan is running as a part of.
+     * @param tableid    the table to scan.
+     * @param tableAlias the alias of this table, as for
+     *                   {@link SeqScan#SeqScan(TransactionId, int, String)}
+     * @param field      the index of the field the predicate is on
+     * @param ipred      the predicate the returned tuples match
+     * @throws IllegalArgumentException if the table has no index that can
+     *                                  answer the predicate (see
+     *                                  {@link #canScan})
+     */
+    public IndexScan(TransactionId tid, int tableid, String tableAlias, int field, IndexPredicate ipred) {
+        if (!canScan(tableid, field, ipred.getOp()))
+            throw new IllegalArgumentException("no index on field " + field + " of table "
+                    + tableid + " answers " + ipred.getOp());
+        this.tid = tid;
+        this.tableid = tableid;
+        this.alias = tableAlias;
+        this.field = field;
+        this.ipred = ipred;
+
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
+        String[] newNames = new String[td.numFields()];
+        Type[] newTypes = new Type[td.numFields()];
+        for (int i = 0; i < td.numFields(); i++) {
+            newNames[i] = tableAlias + "." + td.getFieldName(i);
+            newTypes[i] = td.getFieldType(i);
+        }
+        myTd = new TupleDesc(newTypes, newNames);
+    }
+
+    /**
+     * @return whether the table has an index that can return the tuples
+     *         whose field matches a predicate with the given operator: a B+
+     *         tree keyed on the field answers all of them but {@code <>} and
+     *         LIKE, a hash index only {@code =}
+     */
+    public static boolean canScan(int tableid, int field, Predicate.Op op) {
+        if (op == Predicate.Op.NOT_EQUALS || op == Predicate.Op.LIKE)
+            return false;
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        if (file instanceof BTreeFile)
+            return ((BTreeFile) file).keyField() == field;
+        return op == Predicate.Op.EQUALS && Database.getCatalog().getIndex(tableid, field) != null;
+    }
+
+    /**
+     * @return whether the index of the table is clustered, i.e. the tuples
+     *         an index scan returns are stored together: true for a table
+     *         stored in a B+ tree, false for a hash index on a heap file
+     */
+    public static boolean isClustered(int tableid) {
+        return Database.getCatalog().getDatabaseFile(tableid) instanceof BTreeFile;
+    }
+
+    /**
+     * @return the name of the table in the catalog
+     */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(tableid);
+    }
+
+    /**
+     * @return the alias of the table this operator scans
+     */
+    public String getAlias() {
+        return alias;
+    }
+
+    /**
+     * @return the id of the table this operator scans
+     */
+    public int getTableId() {
+        return tableid;
+    }
+
+    /**
+     * @return the transaction this scan is running as a part of
+     */
+    public TransactionId getTransactionId() {
+        return tid;
+    }
+
+    /**
+     * @return the index of the field the predicate is on
+     */
+    public int getField() {
+        return field;
+    }
+
+    public IndexPredicate getIndexPredicate() {
+        return ipred;
+    }
+
+    /**
+     * Replaces the predicate, e.g. to look up another key in an index
+     * nested-loop join. Takes effect when the scan is next opened or
+     * rewound.
+     *
+     * @throws IllegalArgumentException if the index cannot answer the new
+     *                                  predicate
+     */
+    public void setIndexPredicate(IndexPredicate ipred) {
+        if (ipred.getOp() != this.ipred.getOp() && !canScan(tableid, field, ipred.getOp()))
+            throw new IllegalArgumentException("no index on field " + field + " answers " + ipred.getOp());
+        this.ipred = ipred;
+    }
+
+    private DbFileIterator indexIterator() {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        if (file instanceof BTreeFile)
+            return ((BTreeFile) file).indexIterator(tid, ipred);
+        return Database.getCatalog().getIndex(tableid, field).indexIterator(tid, ipred);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        if (isOpen)
+            throw new DbException("double open on one OpIterator.");
+        it = indexIterator();
+        it.open();
+        isOpen = true;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return myTd;
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (!isOpen)
+            throw new IllegalStateException("iterator is closed");
+        return it.hasNext();
+    }
+
+    public Tuple next() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (!isOpen)
+            throw new IllegalStateException("iterator is closed");
+        return it.next();
+    }
+
+    public void close() {
+        if (it != null)
+            it.close();
+        it = null;
+        isOpen = false;
+    }
+
+    public void rewind() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        close();
+        open();
+    }
+}
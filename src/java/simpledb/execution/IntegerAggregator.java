@@ -5,10 +5,10 @@ import simpledb.storage.Tuple;
 
 import simpledb.storage.*;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.Map;
+import java.util.List;
 
 /**
  * Knows how to compute some aggregate over a set of IntFields.
@@ -21,8 +21,9 @@ public class IntegerAggregator implements Aggregator {
     private final int gbfield;
     private final Type gbfieldtype;
     private final int afield;
-    // a map of groupVal -> AggregateFields
-    private final Map<String, AggregateFields> groups;
+    // group-by value -> group number, and the accumulators of each group
+    private final GroupTable groups;
+    private int[] min, max, sum, count, sumCount;
 
     /**
      * Aggregate constructor
@@ -40,7 +41,12 @@ public class IntegerAggregator implements Aggregator {
         this.gbfield = gbfield;
         this.afield = afield;
         this.gbfieldtype = gbfieldtype;
-        this.groups = new HashMap<>();
+        this.groups = new GroupTable(gbfield == NO_GROUPING ? null : gbfieldtype);
+        this.min = new int[0];
+        this.max = new int[0];
+        this.sum = new int[0];
+        this.count = new int[0];
+        this.sumCount = new int[0];
     }
 
     /**
@@ -50,24 +56,17 @@ public class IntegerAggregator implements Aggregator {
      * @param tup the Tuple containing an aggregate field and a group-by field
      */
     public void mergeTupleIntoGroup(Tuple tup) {
-        String groupVal = "";
-        if (gbfield != NO_GROUPING) {
-            groupVal = tup.getField(gbfield).toString();
-        }
-        AggregateFields agg = groups.get(groupVal);
-        if (agg == null)
-            agg = new AggregateFields(groupVal);
+        int g = groups.groupOf(gbfield == NO_GROUPING ? null : tup.getField(gbfield));
+        ensureCapacity();
 
         int x = ((IntField) tup.getField(afield)).getValue();
 
-        agg.count++;
-        agg.sum += x;
-        agg.min = (Math.min(x, agg.min));
-        agg.max = (Math.max(x, agg.max));
+        count[g]++;
+        sum[g] += x;
+        min[g] = Math.min(x, min[g]);
+        max[g] = Math.max(x, max[g]);
         if (what == Op.SC_AVG)
-            agg.sumCount += ((IntField) tup.getField(afield + 1)).getValue();
-
-        groups.put(groupVal, agg);
+            sumCount[g] += ((IntField) tup.getField(afield + 1)).getValue();
     }
 
     /**
@@ -79,7 +78,7 @@ public class IntegerAggregator implements Aggregator {
      *         the constructor.
      */
     public OpIterator iterator() {
-        LinkedList<Tuple> result = new LinkedList<>();
+        List<Tuple> result = new ArrayList<>();
         int aggField = 1;
         TupleDesc td;
 
@@ -96,39 +95,35 @@ public class IntegerAggregator implements Aggregator {
                 td = new TupleDesc(new Type[]{gbfieldtype, Type.INT_TYPE});
         }
 
-        // iterate over groups and create summary tuples
-        for (String groupVal : groups.keySet()) {
-            AggregateFields agg = groups.get(groupVal);
+        // iterate over groups and create summary tuples; without grouping
+        // there is a result only once a tuple has been merged
+        for (int g = 0; g < numGroups(); g++) {
             Tuple tup = new Tuple(td);
 
-            if (gbfield != NO_GROUPING) {
-                if (gbfieldtype == Type.INT_TYPE)
-                    tup.setField(0, new IntField(new Integer(groupVal)));
-                else
-                    tup.setField(0, new StringField(groupVal, Type.STRING_LEN));
-            }
+            if (gbfield != NO_GROUPING)
+                tup.setField(0, groups.key(g));
             switch (what) {
                 case MIN:
-                    tup.setField(aggField, new IntField(agg.min));
+                    tup.setField(aggField, new IntField(min[g]));
                     break;
                 case MAX:
-                    tup.setField(aggField, new IntField(agg.max));
+                    tup.setField(aggField, new IntField(max[g]));
                     break;
                 case SUM:
-                    tup.setField(aggField, new IntField(agg.sum));
+                    tup.setField(aggField, new IntField(sum[g]));
                     break;
                 case COUNT:
-                    tup.setField(aggField, new IntField(agg.count));
+                    tup.setField(aggField, new IntField(count[g]));
                     break;
                 case AVG:
-                    tup.setField(aggField, new IntField(agg.sum / agg.count));
+                    tup.setField(aggField, new IntField(sum[g] / count[g]));
                     break;
                 case SUM_COUNT:
-                    tup.setField(aggField, new IntField(agg.sum));
-                    tup.setField(aggField + 1, new IntField(agg.count));
+                    tup.setField(aggField, new IntField(sum[g]));
+                    tup.setField(aggField + 1, new IntField(count[g]));
                     break;
                 case SC_AVG:
-                    tup.setField(aggField, new IntField(agg.sum / agg.sumCount));
+                    tup.setField(aggField, new IntField(sum[g] / sumCount[g]));
                     break;
             }
 
@@ -140,19 +135,64 @@ public class IntegerAggregator implements Aggregator {
         return retVal;
     }
 
+    public int numGroups() {
+        return Math.min(groups.size(), count.length);
+    }
+
+    public TupleDesc partialTupleDesc() {
+        int keys = gbfield == NO_GROUPING ? 0 : 1;
+        Type[] types = new Type[keys + 5];
+        Arrays.fill(types, Type.INT_TYPE);
+        if (keys == 1)
+            types[0] = gbfieldtype;
+        return new TupleDesc(types);
+    }
+
     /**
-     * A helper struct to store accumulated aggregate values.
+     * Partial state tuples are (groupVal, min, max, sum, count, sumCount), or
+     * the same without groupVal if there is no grouping.
      */
-    private static class AggregateFields {
-        public final String groupVal;
-        public int min, max, sum, count, sumCount;
-
-        public AggregateFields(String groupVal) {
-            this.groupVal = groupVal;
-            min = Integer.MAX_VALUE;
-            max = Integer.MIN_VALUE;
-            sum = count = sumCount = 0;
+    public OpIterator partialIterator() {
+        TupleDesc td = partialTupleDesc();
+        int k = gbfield == NO_GROUPING ? 0 : 1;
+        List<Tuple> result = new ArrayList<>();
+        for (int g = 0; g < numGroups(); g++) {
+            Tuple tup = new Tuple(td);
+            if (k == 1)
+                tup.setField(0, groups.key(g));
+            tup.setField(k, new IntField(min[g]));
+            tup.setField(k + 1, new IntField(max[g]));
+            tup.setField(k + 2, new IntField(sum[g]));
+            tup.setField(k + 3, new IntField(count[g]));
+            tup.setField(k + 4, new IntField(sumCount[g]));
+            result.add(tup);
         }
+        return new TupleIterator(td, Collections.unmodifiableList(result));
+    }
+
+    public void mergePartialIntoGroup(Tuple partial) {
+        int k = gbfield == NO_GROUPING ? 0 : 1;
+        int g = groups.groupOf(k == 0 ? null : partial.getField(0));
+        ensureCapacity();
+        min[g] = Math.min(min[g], ((IntField) partial.getField(k)).getValue());
+        max[g] = Math.max(max[g], ((IntField) partial.getField(k + 1)).getValue());
+        sum[g] += ((IntField) partial.getField(k + 2)).getValue();
+        count[g] += ((IntField) partial.getField(k + 3)).getValue();
+        sumCount[g] += ((IntField) partial.getField(k + 4)).getValue();
+    }
+
+    /**
+     * Grows the accumulators to cover every group in the group table.
+     */
+    private void ensureCapacity() {
+        int n = groups.size();
+        if (n <= count.length)
+            return;
+        min = GroupTable.ensureCapacity(min, n, Integer.MAX_VALUE);
+        max = GroupTable.ensureCapacity(max, n, Integer.MIN_VALUE);
+        sum = GroupTable.ensureCapacity(sum, n, 0);
+        count = GroupTable.ensureCapacity(count, n, 0);
+        sumCount = GroupTable.ensureCapacity(sumCount, n, 0);
     }
 
 }
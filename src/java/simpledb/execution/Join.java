@@ -1,22 +1,42 @@
 package simpledb.execution;
 
 import simpledb.common.DbException;
+import simpledb.storage.BufferPool;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionAbortedException;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 /**
- * The Join operator implements the relational join operation.
+ * The Join operator implements the relational join operation, with nested
+ * loops. By default the inner (right) relation is scanned once per outer
+ * tuple; in block nested-loop mode the join buffers a number of pages' worth
+ * of outer tuples and scans the inner relation once per block instead.
  */
 public class Join extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /**
+     * The block size, in pages' worth of outer tuples, the optimizer plans
+     * block nested-loop joins with
+     */
+    public static final int BLOCK_PAGES = 10;
+
     private final JoinPredicate pred;
     private OpIterator child1, child2;
     private final TupleDesc comboTD;
-    private Tuple t1 = null;
+    private final int blockPages;
+    // the outer tuples joined with each scan of the inner relation
+    private final int blockTuples;
+    private final List<Tuple> block = new ArrayList<>();
+    // the inner tuple being joined with the block, and the next outer tuple
+    // of the block to try it with
+    private Tuple t2 = null;
+    private int blockPos = 0;
 
     /**
      * Constructor. Accepts two children to join and the predicate to join them
@@ -31,6 +51,47 @@ public class Join extends Operator {
         this.child1 = child1;
         this.child2 = child2;
         comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        this.blockPages = 0;
+        this.blockTuples = 1;
+    }
+
+    /**
+     * Constructor for a block nested-loop join, which reads the outer
+     * relation in blocks of blockPages pages' worth of tuples (as many as
+     * that many HeapPages of the outer relation's schema hold) and scans the
+     * inner relation once per block.
+     *
+     * @param p          The predicate to use to join the children
+     * @param child1     Iterator for the left(outer) relation to join
+     * @param child2     Iterator for the right(inner) relation to join
+     * @param blockPages the size of a block of outer tuples, in pages
+     */
+    public Join(JoinPredicate p, OpIterator child1, OpIterator child2, int blockPages) {
+        if (blockPages < 1)
+            throw new IllegalArgumentException("a block must be at least one page");
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        this.blockPages = blockPages;
+        this.blockTuples = blockTuples(child1.getTupleDesc(), blockPages);
+    }
+
+    /**
+     * @return the number of tuples with the given schema that fit in the
+     *         given number of HeapPages
+     */
+    public static int blockTuples(TupleDesc td, int pages) {
+        int perPage = (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
+        return Math.max(1, perPage) * pages;
+    }
+
+    /**
+     * @return the block size in pages, or 0 if the inner relation is scanned
+     *         once per outer tuple
+     */
+    public int getBlockPages() {
+        return blockPages;
     }
 
     public JoinPredicate getJoinPredicate() {
@@ -72,11 +133,15 @@ public class Join extends Operator {
         super.close();
         child2.close();
         child1.close();
+        block.clear();
+        t2 = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         child1.rewind();
         child2.rewind();
+        block.clear();
+        t2 = null;
     }
 
     /**
@@ -98,40 +163,36 @@ public class Join extends Operator {
      * @see JoinPredicate#filter
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        // loop around child1
-        while (t1 != null || child1.hasNext()) {
-            if (t1 == null) {
-                assert child1.hasNext();
-                t1 = child1.next();
+        while (true) {
+            // try the current inner tuple with the rest of the block
+            if (t2 != null) {
+                while (blockPos < block.size()) {
+                    Tuple t1 = block.get(blockPos++);
+                    if (pred.filter(t1, t2))
+                        return Tuple.merge(comboTD, t1, t2);
+                }
+                t2 = null;
             }
 
             // loop around child2
-            while (child2.hasNext()) {
-                Tuple t2 = child2.next();
-
-                // if match, create a combined tuple and fill it with the values
-                // from both tuples
-                if (!pred.filter(t1, t2))
-                    continue;
-
-                int td1n = t1.getTupleDesc().numFields();
-                int td2n = t2.getTupleDesc().numFields();
-
-                // set fields in combined tuple
-                Tuple t = new Tuple(comboTD);
-                for (int i = 0; i < td1n; i++)
-                    t.setField(i, t1.getField(i));
-                for (int i = 0; i < td2n; i++)
-                    t.setField(td1n + i, t2.getField(i));
-                return t;
+            if (!block.isEmpty() && child2.hasNext()) {
+                t2 = child2.next();
+                blockPos = 0;
+                continue;
             }
 
-            // child2 is done: advance child1
-            t1 = null;
-            child2.rewind();
+            // child2 is done with this block: read the next one from child1
+            if (!block.isEmpty()) {
+                block.clear();
+                if (!child1.hasNext())
+                    return null;
+                child2.rewind();
+            }
+            while (block.size() < blockTuples && child1.hasNext())
+                block.add(child1.next());
+            if (block.isEmpty())
+                return null;
         }
-
-        return null;
     }
 
     @Override
@@ -2,18 +2,38 @@ package simpledb.execution;
 
 import simpledb.common.DbException;
 import simpledb.storage.Field;
+import simpledb.storage.SpillFile;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleIterator;
 import simpledb.transaction.TransactionAbortedException;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
  * OrderBy is an operator that implements a relational ORDER BY.
+ * <p>
+ * Inputs that fit in the memory budget are sorted in memory. Larger inputs
+ * are sorted with an external merge sort: each budget-sized chunk of the
+ * child is sorted and written out as a run (a {@link SpillFile}), and the
+ * runs are merged on the way out, first in passes of at most MAX_FAN_IN
+ * runs if there are more than that. The last chunk stays in memory and
+ * takes part in the final merge. Ties keep their input order.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /**
+     * Default memory budget, in tuples
+     */
+    public final static int SORT_BUFFER_SIZE = 50000;
+    /**
+     * Maximum number of runs merged at once
+     */
+    private final static int MAX_FAN_IN = 64;
+
     private OpIterator child;
     private final TupleDesc td;
     private final List<Tuple> childTups = new ArrayList<>();
@@ -21,6 +41,11 @@ public class OrderBy extends Operator {
     private final String orderByFieldName;
     private Iterator<Tuple> it;
     private final boolean asc;
+    private final int maxTuples;
+    // sorted runs on disk, in input order, and the merge over them
+    transient private List<SpillFile> runs;
+    transient private RunMerger merger;
+    transient private int runCount;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -30,11 +55,26 @@ public class OrderBy extends Operator {
      * @param child        the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, OpIterator child) {
+        this(orderbyField, asc, child, SORT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates a new OrderBy node with an explicit memory budget.
+     *
+     * @param orderbyField the field to which the sort is applied.
+     * @param asc          true if the sort order is ascending.
+     * @param child        the tuples to sort.
+     * @param maxTuples    the number of tuples the sort may hold in memory
+     */
+    public OrderBy(int orderbyField, boolean asc, OpIterator child, int maxTuples) {
+        if (maxTuples < 1)
+            throw new IllegalArgumentException("memory budget must be at least one tuple");
         this.child = child;
         td = child.getTupleDesc();
         this.orderByField = orderbyField;
         this.orderByFieldName = td.getFieldName(orderbyField);
         this.asc = asc;
+        this.maxTuples = maxTuples;
     }
 
     public boolean isASC() {
@@ -53,24 +93,123 @@ public class OrderBy extends Operator {
         return td;
     }
 
+    /**
+     * @return the number of sorted runs written to disk by the last open()
+     */
+    public int getRunCount() {
+        return runCount;
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
+        deleteRuns();
+        childTups.clear();
+        runs = new ArrayList<>();
+        runCount = 0;
+        TupleComparator cmp = new TupleComparator(orderByField, asc);
+        // load the tuples a chunk at a time, sort each chunk, and write out
+        // all but the last one
+        while (child.hasNext()) {
             childTups.add(child.next());
-        childTups.sort(new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+            if (childTups.size() >= maxTuples && child.hasNext()) {
+                childTups.sort(cmp);
+                runs.add(writeRun(childTups.iterator()));
+                runCount++;
+                childTups.clear();
+            }
+        }
+        childTups.sort(cmp);
+
+        if (runs.isEmpty()) {
+            it = childTups.iterator();
+        } else {
+            while (runs.size() > MAX_FAN_IN)
+                mergePass(cmp);
+            List<OpIterator> sources = new ArrayList<>();
+            for (SpillFile run : runs)
+                sources.add(reader(run));
+            if (!childTups.isEmpty())
+                sources.add(new TupleIterator(td, childTups));
+            merger = new RunMerger(sources, cmp);
+            merger.open();
+        }
         super.open();
     }
 
+    /**
+     * Merges groups of MAX_FAN_IN consecutive runs into single runs.
+     */
+    private void mergePass(TupleComparator cmp) throws DbException, TransactionAbortedException {
+        List<SpillFile> merged = new ArrayList<>();
+        for (int i = 0; i < runs.size(); i += MAX_FAN_IN) {
+            List<SpillFile> group = runs.subList(i, Math.min(i + MAX_FAN_IN, runs.size()));
+            List<OpIterator> sources = new ArrayList<>();
+            for (SpillFile run : group)
+                sources.add(reader(run));
+            RunMerger m = new RunMerger(sources, cmp);
+            m.open();
+            merged.add(writeRun(m));
+            m.close();
+            for (SpillFile run : group)
+                run.delete();
+        }
+        runs = merged;
+    }
+
+    private SpillFile writeRun(Iterator<Tuple> tuples) throws DbException {
+        try {
+            SpillFile run = new SpillFile(td);
+            while (tuples.hasNext())
+                run.add(tuples.next());
+            return run;
+        } catch (IOException e) {
+            throw new DbException("could not write sort run: " + e.getMessage());
+        }
+    }
+
+    private SpillFile writeRun(RunMerger m) throws DbException, TransactionAbortedException {
+        try {
+            SpillFile run = new SpillFile(td);
+            while (m.hasNext())
+                run.add(m.next());
+            return run;
+        } catch (IOException e) {
+            throw new DbException("could not write sort run: " + e.getMessage());
+        }
+    }
+
+    private static OpIterator reader(SpillFile run) throws DbException {
+        try {
+            return run.iterator();
+        } catch (IOException e) {
+            throw new DbException("could not read sort run: " + e.getMessage());
+        }
+    }
+
+    private void deleteRuns() {
+        if (merger != null) {
+            merger.close();
+            merger = null;
+        }
+        if (runs != null) {
+            for (SpillFile run : runs)
+                run.delete();
+            runs = null;
+        }
+    }
+
     public void close() {
         super.close();
         it = null;
+        deleteRuns();
     }
 
-    public void rewind() {
-        it = childTups.iterator();
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (merger != null)
+            merger.open();
+        else
+            it = childTups.iterator();
     }
 
     /**
@@ -80,7 +219,9 @@ public class OrderBy extends Operator {
      * @return The next tuple in the ordering, or null if there are no more
      *         tuples
      */
-    protected Tuple fetchNext() throws NoSuchElementException {
+    protected Tuple fetchNext() throws NoSuchElementException, DbException, TransactionAbortedException {
+        if (merger != null)
+            return merger.hasNext() ? merger.next() : null;
         if (it != null && it.hasNext()) {
             return it.next();
         } else
@@ -120,3 +261,56 @@ class TupleComparator implements Comparator<Tuple> {
     }
 
 }
+
+/**
+ * A k-way merge of sorted sources. Equal tuples come out in source order,
+ * so merging runs that were cut from the input in order is stable.
+ */
+class RunMerger {
+    private final List<OpIterator> sources;
+    private final Comparator<Tuple> cmp;
+    // the current head of each unfinished source, with its source index
+    private PriorityQueue<Map.Entry<Tuple, Integer>> heads;
+
+    RunMerger(List<OpIterator> sources, Comparator<Tuple> cmp) {
+        this.sources = sources;
+        this.cmp = cmp;
+    }
+
+    /**
+     * Opens (or reopens, to start again from the beginning) every source.
+     */
+    void open() throws DbException, TransactionAbortedException {
+        heads = new PriorityQueue<>(Math.max(1, sources.size()), (a, b) -> {
+            int c = cmp.compare(a.getKey(), b.getKey());
+            return c != 0 ? c : Integer.compare(a.getValue(), b.getValue());
+        });
+        for (int i = 0; i < sources.size(); i++) {
+            OpIterator source = sources.get(i);
+            source.close();
+            source.open();
+            if (source.hasNext())
+                heads.add(new AbstractMap.SimpleEntry<>(source.next(), i));
+        }
+    }
+
+    boolean hasNext() {
+        return !heads.isEmpty();
+    }
+
+    Tuple next() throws DbException, TransactionAbortedException {
+        Map.Entry<Tuple, Integer> head = heads.poll();
+        if (head == null)
+            throw new NoSuchElementException();
+        OpIterator source = sources.get(head.getValue());
+        if (source.hasNext())
+            heads.add(new AbstractMap.SimpleEntry<>(source.next(), head.getValue()));
+        return head.getKey();
+    }
+
+    void close() {
+        for (OpIterator source : sources)
+            source.close();
+        heads = null;
+    }
+}
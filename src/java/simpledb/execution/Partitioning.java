@@ -0,0 +1,33 @@
+package simpledb.execution;
+
+/**
+ * Hash partitioning shared by the operators that split their input by a
+ * field's hash: the spilling Aggregate and HashEquiJoin, and the Producers
+ * of an Exchange.
+ */
+final class Partitioning {
+
+    private Partitioning() {
+    }
+
+    /**
+     * Mixes the bits of a hash code (the MurmurHash3 finalizer), so that
+     * e.g. consecutive integers are spread out.
+     */
+    static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * Maps a hash code to one of n partitions. Different salts split the
+     * same values differently, so that a partition can be split again.
+     */
+    static int partition(int hash, int salt, int n) {
+        return Math.floorMod(mix(hash + salt * 0x9E3779B9), n);
+    }
+}
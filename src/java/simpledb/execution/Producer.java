@@ -0,0 +1,111 @@
+package simpledb.execution;
+
+import simpledb.storage.Tuple;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A worker thread of an {@link Exchange}. It opens its input, sends each
+ * tuple to one of the exchange's queues, closes the input and then sends
+ * {@link #END} to every queue. If the input throws, the exception is sent
+ * to every queue in place of the end marker, for the consumers to rethrow.
+ * <p>
+ * A queue whose slot is set to null is no longer read: tuples for it are
+ * dropped. The worker is stopped with {@link #finish()} rather than by
+ * interrupting it, since an interrupt would close the file channels the
+ * input is reading.
+ */
+class Producer extends Thread {
+
+    /**
+     * Marks the end of one producer's stream.
+     */
+    static final Object END = new Object();
+
+    // how long to wait for room in a full queue before checking whether the
+    // worker has been stopped
+    private static final long POLL_MS = 10;
+
+    private final OpIterator input;
+    private final AtomicReferenceArray<BlockingQueue<Object>> queues;
+    // the field whose hash picks the queue of each tuple, or -1 if there is
+    // only one queue
+    private final int field;
+    private volatile boolean stopped = false;
+
+    Producer(String name, OpIterator input, AtomicReferenceArray<BlockingQueue<Object>> queues, int field) {
+        super(name);
+        setDaemon(true);
+        this.input = input;
+        this.queues = queues;
+        this.field = field;
+    }
+
+    @Override
+    public void run() {
+        try {
+            input.open();
+            try {
+                while (!stopped && input.hasNext()) {
+                    Tuple t = input.next();
+                    if (!send(field < 0 ? 0 : route(t), t))
+                        return;
+                }
+            } finally {
+                input.close();
+            }
+            sendAll(END);
+        } catch (Throwable e) {
+            sendAll(e);
+        }
+    }
+
+    private void sendAll(Object o) {
+        for (int i = 0; i < queues.length(); i++)
+            if (!send(i, o))
+                return;
+    }
+
+    /**
+     * Puts o on queue i, waiting for room.
+     *
+     * @return false if the worker was stopped while waiting
+     */
+    private boolean send(int i, Object o) {
+        try {
+            BlockingQueue<Object> q;
+            while ((q = queues.get(i)) != null) {
+                if (q.offer(o, POLL_MS, TimeUnit.MILLISECONDS))
+                    return true;
+                if (stopped)
+                    return false;
+            }
+            return !stopped;
+        } catch (InterruptedException e) {
+            return false;
+        }
+    }
+
+    private int route(Tuple t) {
+        return Partitioning.partition(t.getField(field).hashCode(), 0, queues.length());
+    }
+
+    /**
+     * Stops the worker and waits for it to close its input.
+     */
+    void finish() {
+        stopped = true;
+        boolean interrupted = false;
+        while (isAlive()) {
+            try {
+                join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+}
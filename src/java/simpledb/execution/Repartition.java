@@ -0,0 +1,248 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Repartition redistributes the tuples of several inputs by the hash of one
+ * of their fields: each input is read by a worker thread of its own, which
+ * sends every tuple to one of a number of outputs, so that all tuples with
+ * the same value of the field end up in the same output. The outputs are
+ * created together by {@link #repartition} and each one is a Repartition
+ * operator.
+ * <p>
+ * The workers start when the first output is opened and send tuples to all
+ * outputs, so the outputs must be read concurrently (e.g. each by a worker
+ * of a {@link Gather}); reading them one after the other on one thread
+ * blocks once a queue fills up. Closing an output discards the rest of its
+ * tuples; closing all of them stops the workers. Rewinding an output
+ * restarts the inputs for every open output, so all open outputs must be
+ * rewound before any of them is read again (as a Gather rewinding its
+ * children does); an output read before it is rewound fails.
+ */
+public class Repartition extends Consumer {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Router router;
+    private final int output;
+    // the round of the router this output is reading
+    private int round;
+
+    private Repartition(Router router, int output) {
+        this.router = router;
+        this.output = output;
+    }
+
+    /**
+     * Creates the outputs of a repartitioning exchange, which hand their
+     * tuples over through queues of {@link #QUEUE_SIZE} tuples.
+     *
+     * @param inputs  the subplans to read; they must all have the same schema
+     * @param field   the index of the field to partition the tuples by
+     * @param outputs the number of outputs
+     * @return the outputs
+     */
+    public static Repartition[] repartition(OpIterator[] inputs, int field, int outputs) {
+        return repartition(inputs, field, outputs, QUEUE_SIZE);
+    }
+
+    /**
+     * Creates the outputs of a repartitioning exchange.
+     *
+     * @param inputs    the subplans to read; they must all have the same schema
+     * @param field     the index of the field to partition the tuples by
+     * @param outputs   the number of outputs
+     * @param queueSize the number of tuples the workers can get ahead of each
+     *                  output
+     * @return the outputs
+     */
+    public static Repartition[] repartition(OpIterator[] inputs, int field, int outputs, int queueSize) {
+        if (inputs.length == 0 || outputs < 1)
+            throw new IllegalArgumentException("a repartition needs inputs and outputs");
+        if (queueSize < 1)
+            throw new IllegalArgumentException("queue size must be positive");
+        if (field < 0 || field >= inputs[0].getTupleDesc().numFields())
+            throw new IllegalArgumentException("no field " + field + " to partition by");
+        Router router = new Router(outputs, field, queueSize);
+        router.setInputs(inputs);
+        Repartition[] rs = new Repartition[outputs];
+        for (int i = 0; i < outputs; i++)
+            rs[i] = new Repartition(router, i);
+        return rs;
+    }
+
+    /**
+     * @return which of the outputs of the exchange this is
+     */
+    public int getOutput() {
+        return output;
+    }
+
+    @Override
+    public String getName() {
+        return "repartition(" + (output + 1) + "/" + router.outputs + ")";
+    }
+
+    @Override
+    public TupleDesc getTupleDesc() {
+        return router.inputs[0].getTupleDesc();
+    }
+
+    @Override
+    public void open() throws DbException, TransactionAbortedException {
+        round = router.open(output);
+        consume(router.queue(output), router.inputs.length);
+        super.open();
+    }
+
+    @Override
+    public void close() {
+        router.close(output);
+        super.close();
+    }
+
+    @Override
+    public void rewind() throws DbException, TransactionAbortedException {
+        round = router.rewind(output, round);
+        super.close();
+        consume(router.queue(output), router.inputs.length);
+        super.open();
+    }
+
+    /**
+     * @return the inputs of the exchange, shared by all of its outputs
+     */
+    @Override
+    public OpIterator[] getChildren() {
+        return router.inputs.clone();
+    }
+
+    /**
+     * Replaces the inputs of the exchange, for all of its outputs.
+     */
+    @Override
+    public void setChildren(OpIterator[] children) {
+        router.setInputs(children);
+    }
+
+    /**
+     * The state shared by the outputs of one exchange: the workers, and a
+     * queue per open output.
+     */
+    private static class Router {
+        // returned to an output that reads a queue left over from before a
+        // restart
+        private static final DbException STALE = new DbException(
+                "repartition output read before it was rewound with the others");
+
+        final int outputs;
+        final int field;
+        final int queueSize;
+        OpIterator[] inputs;
+
+        private AtomicReferenceArray<BlockingQueue<Object>> queues;
+        private List<Producer> workers;
+        private final boolean[] open;
+        // incremented on every (re)start of the workers
+        private int round = 0;
+
+        Router(int outputs, int field, int queueSize) {
+            this.outputs = outputs;
+            this.field = field;
+            this.queueSize = queueSize;
+            this.open = new boolean[outputs];
+        }
+
+        synchronized void setInputs(OpIterator[] inputs) {
+            if (workers != null)
+                throw new IllegalStateException("inputs replaced while the exchange is running");
+            for (OpIterator input : inputs)
+                if (!input.getTupleDesc().equals(inputs[0].getTupleDesc()))
+                    throw new IllegalArgumentException("repartitioned subplans must have the same schema");
+            this.inputs = inputs.clone();
+        }
+
+        synchronized int open(int output) throws DbException {
+            if (open[output])
+                throw new DbException("double open on one OpIterator.");
+            if (workers != null && queues.get(output) == null)
+                throw new DbException("repartition output reopened while the others are still running");
+            open[output] = true;
+            if (workers == null)
+                start(true);
+            return round;
+        }
+
+        synchronized BlockingQueue<Object> queue(int output) {
+            return queues.get(output);
+        }
+
+        synchronized int rewind(int output, int outputRound) throws DbException {
+            if (!open[output])
+                throw new DbException("rewind of a closed repartition output");
+            if (outputRound == round) {
+                stop();
+                start(false);
+            }
+            return round;
+        }
+
+        synchronized void close(int output) {
+            if (!open[output])
+                return;
+            open[output] = false;
+            BlockingQueue<Object> q = queues.getAndSet(output, null);
+            if (q != null)
+                q.clear();
+            for (boolean o : open)
+                if (o)
+                    return;
+            stop();
+        }
+
+        /**
+         * Starts the workers, with a fresh queue for every output (when the
+         * first output is opened) or for every open output (on a rewind).
+         */
+        private void start(boolean all) {
+            queues = new AtomicReferenceArray<>(outputs);
+            for (int i = 0; i < outputs; i++)
+                if (all || open[i])
+                    queues.set(i, new ArrayBlockingQueue<>(queueSize));
+            workers = new ArrayList<>(inputs.length);
+            for (int i = 0; i < inputs.length; i++) {
+                Producer p = new Producer("Repartition worker " + i, inputs[i], queues, field);
+                workers.add(p);
+                p.start();
+            }
+            round++;
+        }
+
+        /**
+         * Stops the workers, and fails the reads of any output still holding
+         * one of their queues.
+         */
+        private void stop() {
+            if (workers == null)
+                return;
+            for (Producer p : workers)
+                p.finish();
+            workers = null;
+            for (int i = 0; i < outputs; i++) {
+                BlockingQueue<Object> q = queues.getAndSet(i, null);
+                if (q != null) {
+                    q.clear();
+                    q.offer(STALE);
+                }
+            }
+        }
+    }
+}
@@ -3,12 +3,16 @@ package simpledb.execution;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Type;
+import simpledb.storage.DbFile;
 import simpledb.storage.DbFileIterator;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 /**
@@ -24,9 +28,16 @@ public class SeqScan implements OpIterator {
     private final TransactionId tid;
     private TupleDesc myTd;
     private transient DbFileIterator it;
-    //    private transient int tableid;
+    private int tableid;
     private String tableName;
     private String alias;
+    // the columns of the table to return, or null for all of them
+    private final int[] columns;
+    // the part of the table to scan, of how many (see DbFile#iterator)
+    private final int partition;
+    private final int numPartitions;
+    // predicates the file may use to skip pages (see addPruningPredicate)
+    private List<Predicate> pruning = Collections.emptyList();
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -42,7 +53,48 @@ public class SeqScan implements OpIterator {
      *                   tableAlias.null, or null.null).
      */
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
+        this(tid, tableid, tableAlias, null);
+    }
+
+    /**
+     * Creates a sequential scan that returns only some of the columns of the
+     * table, in the given order. Files that support it (e.g. HeapFile) only
+     * decode the requested fields.
+     *
+     * @param tid        The transaction this scan is running as a part of.
+     * @param tableid    the table to scan.
+     * @param tableAlias the alias of this table, as for
+     *                   {@link #SeqScan(TransactionId, int, String)}
+     * @param columns    indices of the table's fields to return, or null for
+     *                   all of them
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] columns) {
+        this(tid, tableid, tableAlias, columns, 0, 1);
+    }
+
+    /**
+     * Creates a scan of one of numPartitions disjoint parts of the table (for
+     * a HeapFile, a range of its pages), so that the parts can be scanned by
+     * different threads, e.g. below a {@link Gather}.
+     *
+     * @param tid           The transaction this scan is running as a part of.
+     * @param tableid       the table to scan.
+     * @param tableAlias    the alias of this table, as for
+     *                      {@link #SeqScan(TransactionId, int, String)}
+     * @param columns       indices of the table's fields to return, or null
+     *                      for all of them
+     * @param partition     the part of the table to scan, 0 &lt;= partition
+     *                      &lt; numPartitions
+     * @param numPartitions the number of parts the table is split into
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] columns,
+                   int partition, int numPartitions) {
+        if (partition < 0 || partition >= numPartitions)
+            throw new IllegalArgumentException("no partition " + partition + " of " + numPartitions);
         this.tid = tid;
+        this.columns = columns == null ? null : columns.clone();
+        this.partition = partition;
+        this.numPartitions = numPartitions;
         reset(tableid, tableAlias);
     }
 
@@ -61,6 +113,75 @@ public class SeqScan implements OpIterator {
         return this.alias;
     }
 
+    /**
+     * @return the id of the table this operator scans
+     */
+    public int getTableId() {
+        return this.tableid;
+    }
+
+    /**
+     * @return the transaction this scan is running as a part of
+     */
+    public TransactionId getTransactionId() {
+        return this.tid;
+    }
+
+    /**
+     * @return the indices of the table's fields this operator returns, or
+     *         null if it returns all of them
+     */
+    public int[] getColumns() {
+        return columns == null ? null : columns.clone();
+    }
+
+    /**
+     * @return the part of the table this operator scans
+     */
+    public int getPartition() {
+        return this.partition;
+    }
+
+    /**
+     * @return the number of parts the table is split into
+     */
+    public int getNumPartitions() {
+        return this.numPartitions;
+    }
+
+    /**
+     * Lets the scan skip the pages of the table that cannot hold a tuple
+     * satisfying a predicate, without reading them, if the file keeps
+     * summaries of its pages (e.g. the zone map of a HeapFile). The scan does
+     * not otherwise apply the predicate, so it must still be evaluated above
+     * the scan, e.g. by a {@link Filter}. Must be called while the scan is
+     * closed.
+     *
+     * @param p a predicate on a field of the table (an index into the
+     *          table's fields, also if the scan returns only some columns)
+     */
+    public void addPruningPredicate(Predicate p) {
+        List<Predicate> l = new ArrayList<>(pruning);
+        l.add(p);
+        pruning = l;
+        it = iterator(Database.getCatalog().getDatabaseFile(tableid));
+    }
+
+    /**
+     * @return the predicates the scan may skip pages for
+     */
+    public List<Predicate> getPruningPredicates() {
+        return Collections.unmodifiableList(pruning);
+    }
+
+    private DbFileIterator iterator(DbFile file) {
+        if (!pruning.isEmpty())
+            return file.iterator(tid, columns, partition, numPartitions, pruning);
+        if (numPartitions > 1)
+            return file.iterator(tid, columns, partition, numPartitions);
+        return columns == null ? file.iterator(tid) : file.iterator(tid, columns);
+    }
+
     /**
      * Reset the tableid, and tableAlias of this operator.
      *
@@ -73,12 +194,14 @@ public class SeqScan implements OpIterator {
      *                   tableAlias.null, or null.null).
      */
     public void reset(int tableid, String tableAlias) {
-        //        this.tableid = tableid;
+        this.tableid = tableid;
         this.isOpen = false;
         this.alias = tableAlias;
         this.tableName = Database.getCatalog().getTableName(tableid);
-        this.it = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
+        this.it = iterator(Database.getCatalog().getDatabaseFile(tableid));
         myTd = Database.getCatalog().getTupleDesc(tableid);
+        if (columns != null)
+            myTd = myTd.project(columns);
         String[] newNames = new String[myTd.numFields()];
         Type[] newTypes = new Type[myTd.numFields()];
         for (int i = 0; i < myTd.numFields(); i++) {
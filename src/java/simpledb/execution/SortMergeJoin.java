@@ -0,0 +1,362 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Field;
+import simpledb.storage.SpillFile;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * The SortMergeJoin operator joins two relations sorted ascending on their
+ * join fields by advancing through both of them together. A child that is
+ * already sorted on its join field (see {@link #isSortedOn}) is read as is;
+ * any other child is sorted with an {@link OrderBy} first.
+ * <p>
+ * Equality joins buffer each run of left tuples with the same key and join
+ * it with the right tuples with that key. Range joins ({@code <, <=, >, >=})
+ * buffer the prefix of one side that matches the current tuple of the other
+ * side; as that side advances the prefix only grows. Buffered tuples beyond
+ * a bound are kept in temporary files, so duplicates and long prefixes do
+ * not need to fit in memory.
+ * <p>
+ * The output is sorted ascending on the join key for equality joins, on the
+ * right join field for {@code <} and {@code <=}, and on the left join field
+ * for {@code >} and {@code >=} (see {@link #getSortedField()}).
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The default number of buffered tuples (of a run of equal keys or of
+     * the matching prefix of a range join) kept in memory
+     */
+    public static final int RUN_BUFFER_SIZE = 10000;
+
+    private final JoinPredicate pred;
+    private OpIterator child1, child2;
+    private final TupleDesc comboTD;
+    private final int maxRunTuples;
+    // range joins with < and <= advance through the right child and buffer
+    // left tuples; all other joins advance through the left child
+    private final boolean rightDrives;
+
+    private transient TupleBuffer buffer;
+    // the tuple of the advancing side being joined with the buffer
+    private Tuple current;
+    // the next unbuffered tuple of the buffered side, or null at its end
+    private Tuple peek;
+    // for equality joins, the key of the buffered run
+    private Field runKey;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join
+     * them on.
+     *
+     * @param p      The predicate to use to join the children; one of
+     *               {@code =, <, <=, >, >=}
+     * @param child1 Iterator for the left relation to join
+     * @param child2 Iterator for the right relation to join
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, RUN_BUFFER_SIZE);
+    }
+
+    /**
+     * @param p            The predicate to use to join the children; one of
+     *                     {@code =, <, <=, >, >=}
+     * @param child1       Iterator for the left relation to join
+     * @param child2       Iterator for the right relation to join
+     * @param maxRunTuples the number of buffered tuples to keep in memory
+     *                     before writing them to disk
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2, int maxRunTuples) {
+        switch (p.getOperator()) {
+            case EQUALS:
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQ:
+                rightDrives = false;
+                break;
+            case LESS_THAN:
+            case LESS_THAN_OR_EQ:
+                rightDrives = true;
+                break;
+            default:
+                throw new IllegalArgumentException("a sort-merge join cannot join on " + p.getOperator());
+        }
+        if (maxRunTuples < 1)
+            throw new IllegalArgumentException("the run buffer must hold at least one tuple");
+        this.pred = p;
+        this.maxRunTuples = maxRunTuples;
+        setChildren(new OpIterator[]{child1, child2});
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * @return whether the tuples of the iterator come out sorted ascending
+     *         on the given field
+     */
+    public static boolean isSortedOn(OpIterator it, int field) {
+        if (it instanceof OrderBy) {
+            OrderBy o = (OrderBy) it;
+            return o.isASC() && o.getOrderByField() == field;
+        }
+        if (it instanceof SortMergeJoin)
+            return ((SortMergeJoin) it).isSortedOn(field);
+        return false;
+    }
+
+    private boolean isSortedOn(int field) {
+        if (field == getSortedField())
+            return true;
+        // both join fields of an equality join hold the same values
+        int n1 = child1.getTupleDesc().numFields();
+        return pred.getOperator() == Predicate.Op.EQUALS
+                && (field == pred.getField1() || field == n1 + pred.getField2());
+    }
+
+    /**
+     * @return the index of the output field the output is sorted on:
+     *         the left join field, or the right one for {@code <} and
+     *         {@code <=}
+     */
+    public int getSortedField() {
+        if (rightDrives)
+            return child1.getTupleDesc().numFields() + pred.getField2();
+        return pred.getField1();
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    /**
+     * @return the field name of join field1. Should be quantified by
+     *         alias or table name.
+     */
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(pred.getField1());
+    }
+
+    /**
+     * @return the field name of join field2. Should be quantified by
+     *         alias or table name.
+     */
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(pred.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        buffer = new TupleBuffer(rightDrives ? child1.getTupleDesc() : child2.getTupleDesc(), maxRunTuples);
+        reset();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child2.close();
+        child1.close();
+        if (buffer != null) {
+            buffer.clear();
+            buffer = null;
+        }
+        current = null;
+        peek = null;
+        runKey = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        child2.rewind();
+        buffer.clear();
+        reset();
+    }
+
+    private void reset() throws DbException, TransactionAbortedException {
+        current = null;
+        runKey = null;
+        peek = nextBuffered();
+    }
+
+    private OpIterator driving() {
+        return rightDrives ? child2 : child1;
+    }
+
+    private Tuple nextBuffered() throws DbException, TransactionAbortedException {
+        OpIterator it = rightDrives ? child1 : child2;
+        return it.hasNext() ? it.next() : null;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. As with {@link Join}, the output tuples are the
+     * concatenation of the joining left and right tuples.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            // join the current tuple with the rest of the buffer
+            if (current != null) {
+                Tuple b = buffer.next();
+                if (b != null)
+                    return rightDrives ? Tuple.merge(comboTD, b, current) : Tuple.merge(comboTD, current, b);
+                current = null;
+            }
+            if (!driving().hasNext())
+                return null;
+            Tuple t = driving().next();
+            if (pred.getOperator() == Predicate.Op.EQUALS) {
+                if (!bufferRun(t))
+                    continue;
+            } else {
+                // extend the buffered prefix with the tuples matching t
+                while (peek != null && (rightDrives ? pred.filter(peek, t) : pred.filter(t, peek))) {
+                    buffer.add(peek);
+                    peek = nextBuffered();
+                }
+            }
+            current = t;
+            buffer.start();
+        }
+    }
+
+    /**
+     * Makes the buffer hold the run of right tuples whose key equals the key
+     * of the left tuple t, reading it if it is not buffered already.
+     *
+     * @return false if there are no such right tuples
+     */
+    private boolean bufferRun(Tuple t) throws DbException, TransactionAbortedException {
+        Field key = t.getField(pred.getField1());
+        if (runKey != null && runKey.compare(Predicate.Op.EQUALS, key))
+            return true;
+        buffer.clear();
+        runKey = null;
+        while (peek != null && peek.getField(pred.getField2()).compare(Predicate.Op.LESS_THAN, key))
+            peek = nextBuffered();
+        if (peek == null || !peek.getField(pred.getField2()).compare(Predicate.Op.EQUALS, key))
+            return false;
+        runKey = key;
+        while (peek != null && peek.getField(pred.getField2()).compare(Predicate.Op.EQUALS, key)) {
+            buffer.add(peek);
+            peek = nextBuffered();
+        }
+        return true;
+    }
+
+    /**
+     * @return the inputs of the merge, including the sorts added for
+     *         children that were not sorted on their join fields
+     */
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        child1 = isSortedOn(children[0], pred.getField1())
+                ? children[0] : new OrderBy(pred.getField1(), true, children[0]);
+        child2 = isSortedOn(children[1], pred.getField2())
+                ? children[1] : new OrderBy(pred.getField2(), true, children[1]);
+    }
+
+    /**
+     * A list of tuples that can be appended to and read from the start any
+     * number of times. All but the last maxTuples (or fewer) tuples are kept
+     * in spill files of maxTuples tuples each.
+     */
+    private static class TupleBuffer {
+        private final TupleDesc td;
+        private final int maxTuples;
+        private final List<SpillFile> chunks = new ArrayList<>();
+        private final List<Tuple> tail = new ArrayList<>();
+
+        // the read position: a chunk (or chunks.size() for the tail), and the
+        // open iterator over that chunk or the index into the tail
+        private int chunk;
+        private OpIterator chunkIt;
+        private int tailPos;
+
+        TupleBuffer(TupleDesc td, int maxTuples) {
+            this.td = td;
+            this.maxTuples = maxTuples;
+        }
+
+        void add(Tuple t) throws DbException {
+            tail.add(t);
+            if (tail.size() < maxTuples)
+                return;
+            try {
+                SpillFile f = new SpillFile(td);
+                for (Tuple u : tail)
+                    f.add(u);
+                chunks.add(f);
+            } catch (IOException e) {
+                throw new DbException("could not write spill file: " + e.getMessage());
+            }
+            tail.clear();
+        }
+
+        /**
+         * Starts reading the buffer from its first tuple.
+         */
+        void start() {
+            closeChunk();
+            chunk = 0;
+            tailPos = 0;
+        }
+
+        /**
+         * @return the next tuple of the buffer, or null at its end
+         */
+        Tuple next() throws DbException, TransactionAbortedException {
+            while (chunk < chunks.size()) {
+                if (chunkIt == null) {
+                    try {
+                        chunkIt = chunks.get(chunk).iterator();
+                    } catch (IOException e) {
+                        throw new DbException("could not read spill file: " + e.getMessage());
+                    }
+                    chunkIt.open();
+                }
+                if (chunkIt.hasNext())
+                    return chunkIt.next();
+                closeChunk();
+                chunk++;
+            }
+            return tailPos < tail.size() ? tail.get(tailPos++) : null;
+        }
+
+        private void closeChunk() {
+            if (chunkIt != null) {
+                chunkIt.close();
+                chunkIt = null;
+            }
+        }
+
+        void clear() {
+            closeChunk();
+            for (SpillFile f : chunks)
+                f.delete();
+            chunks.clear();
+            tail.clear();
+            chunk = 0;
+            tailPos = 0;
+        }
+    }
+}
@@ -5,10 +5,9 @@ import simpledb.storage.Tuple;
 
 import simpledb.storage.*;
 
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.Map;
+import java.util.List;
 
 /**
  * Knows how to compute some aggregate over a set of StringFields.
@@ -19,8 +18,9 @@ public class StringAggregator implements Aggregator {
     private final Op what;
     private final int gbfield;
     private final Type gbfieldtype;
-    // a map of groupVal -> AggregateFields
-    private final Map<String, AggregateFields> groups;
+    // group-by value -> group number, and the count of each group
+    private final GroupTable groups;
+    private int[] count;
 
     /**
      * Aggregate constructor
@@ -38,7 +38,8 @@ public class StringAggregator implements Aggregator {
             throw new IllegalArgumentException("Invalid operator type " + what);
         this.gbfield = gbfield;
         this.gbfieldtype = gbfieldtype;
-        this.groups = new HashMap<>();
+        this.groups = new GroupTable(gbfield == NO_GROUPING ? null : gbfieldtype);
+        this.count = new int[0];
     }
 
     /**
@@ -47,17 +48,11 @@ public class StringAggregator implements Aggregator {
      * @param tup the Tuple containing an aggregate field and a group-by field
      */
     public void mergeTupleIntoGroup(Tuple tup) {
-        String groupVal = "";
-        if (gbfield != NO_GROUPING) {
-            groupVal = tup.getField(gbfield).toString();
-        }
-        AggregateFields agg = groups.get(groupVal);
-        if (agg == null)
-            agg = new AggregateFields(groupVal);
-
-        agg.count++;
+        int g = groups.groupOf(gbfield == NO_GROUPING ? null : tup.getField(gbfield));
+        if (g >= count.length)
+            count = GroupTable.ensureCapacity(count, groups.size(), 0);
 
-        groups.put(groupVal, agg);
+        count[g]++;
     }
 
     /**
@@ -69,7 +64,7 @@ public class StringAggregator implements Aggregator {
      *         aggregate specified in the constructor.
      */
     public OpIterator iterator() {
-        LinkedList<Tuple> result = new LinkedList<>();
+        List<Tuple> result = new ArrayList<>();
         int aggField = 1;
         TupleDesc td;
 
@@ -80,19 +75,16 @@ public class StringAggregator implements Aggregator {
             td = new TupleDesc(new Type[]{gbfieldtype, Type.INT_TYPE});
         }
 
-        // iterate over groups and create summary tuples
-        for (String groupVal : groups.keySet()) {
-            AggregateFields agg = groups.get(groupVal);
+        // iterate over groups and create summary tuples; without grouping
+        // there is a result only once a tuple has been merged
+        for (int g = 0; g < numGroups(); g++) {
             Tuple tup = new Tuple(td);
 
-            if (gbfield != NO_GROUPING) {
-                if (gbfieldtype == Type.INT_TYPE)
-                    tup.setField(0, new IntField(new Integer(groupVal)));
-                else tup.setField(0, new StringField(groupVal, Type.STRING_LEN));
-            }
+            if (gbfield != NO_GROUPING)
+                tup.setField(0, groups.key(g));
 
             if (what == Op.COUNT) {
-                tup.setField(aggField, new IntField(agg.count));
+                tup.setField(aggField, new IntField(count[g]));
             }
 
             result.add(tup);
@@ -103,16 +95,30 @@ public class StringAggregator implements Aggregator {
         return retVal;
     }
 
+    public int numGroups() {
+        return Math.min(groups.size(), count.length);
+    }
+
+    public TupleDesc partialTupleDesc() {
+        if (gbfield == NO_GROUPING)
+            return new TupleDesc(new Type[]{Type.INT_TYPE});
+        return new TupleDesc(new Type[]{gbfieldtype, Type.INT_TYPE});
+    }
+
     /**
-     * A helper struct to store accumulated aggregate values.
+     * Partial state tuples are (groupVal, count), or (count) if there is no
+     * grouping.
      */
-    private static class AggregateFields {
-        public final String groupVal;
-        public int count;
+    public OpIterator partialIterator() {
+        // the partial state is the count, which is also the result
+        return iterator();
+    }
 
-        public AggregateFields(String groupVal) {
-            this.groupVal = groupVal;
-            count = 0;
-        }
+    public void mergePartialIntoGroup(Tuple partial) {
+        int k = gbfield == NO_GROUPING ? 0 : 1;
+        int g = groups.groupOf(k == 0 ? null : partial.getField(0));
+        if (g >= count.length)
+            count = GroupTable.ensureCapacity(count, groups.size(), 0);
+        count[g] += ((IntField) partial.getField(k)).getValue();
     }
 }
@@ -0,0 +1,37 @@
+package simpledb.index;
+
+import simpledb.storage.Field;
+
+/**
+ * An entry of a {@link BTreeInternalPage}: a key and the children to its
+ * left and right. The left subtree holds keys less than or equal to the
+ * key, the right subtree keys greater than or equal to it.
+ */
+public class BTreeEntry {
+
+    private final Field key;
+    private final BTreePageId leftChild;
+    private final BTreePageId rightChild;
+
+    public BTreeEntry(Field key, BTreePageId leftChild, BTreePageId rightChild) {
+        this.key = key;
+        this.leftChild = leftChild;
+        this.rightChild = rightChild;
+    }
+
+    public Field getKey() {
+        return key;
+    }
+
+    public BTreePageId getLeftChild() {
+        return leftChild;
+    }
+
+    public BTreePageId getRightChild() {
+        return rightChild;
+    }
+
+    public String toString() {
+        return "[" + leftChild.getPageNumber() + "|" + key + "|" + rightChild.getPageNumber() + "]";
+    }
+}
@@ -0,0 +1,749 @@
+package simpledb.index;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Debug;
+import simpledb.common.Permissions;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate.Op;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.*;
+
+/**
+ * BTreeFile is a DbFile that stores the tuples of a table in a B+ tree on
+ * one of its fields, so that a lookup or a range of keys reads a few pages
+ * instead of the whole table.
+ * <p>
+ * Every page of the file is BufferPool.getPageSize() bytes long, and page i
+ * is at offset i * BufferPool.getPageSize(). Page 0 is a
+ * {@link BTreeRootPtrPage}, which points to the root of the tree and to the
+ * first {@link BTreeHeaderPage} (the bitmap of free pages). The tree is made
+ * of {@link BTreeInternalPage}s and {@link BTreeLeafPage}s; the tuples are
+ * on the leaves, which are linked to their siblings so that scans go from
+ * leaf to leaf. All pages are read and written through the BufferPool, so
+ * changes to them are logged like changes to heap pages.
+ * <p>
+ * A full leaf is split in two before a tuple is inserted into it, which may
+ * split its ancestors in turn. A leaf (or internal page) that falls below
+ * half full after a delete takes entries from a sibling, or is merged with
+ * one if neither can spare any; pages freed by merges are reused before the
+ * file grows.
+ *
+ * @see BTreeLeafPage
+ * @see BTreeInternalPage
+ */
+public class BTreeFile implements DbFile {
+
+    private final File f;
+    private final TupleDesc td;
+    private final int tableid;
+    private final int keyField;
+
+    /**
+     * Constructs a B+ tree file backed by the specified file.
+     *
+     * @param f        the file that stores the on-disk backing store for this
+     *                 B+ tree file.
+     * @param keyField the field the tree is keyed on
+     * @param td       the tuple descriptor of tuples in the file
+     */
+    public BTreeFile(File f, int keyField, TupleDesc td) {
+        this.f = f;
+        this.tableid = f.getAbsoluteFile().hashCode();
+        this.keyField = keyField;
+        this.td = td;
+    }
+
+    /**
+     * Returns the File backing this BTreeFile on disk.
+     */
+    public File getFile() {
+        return f;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this BTreeFile: the hash code of the
+     * absolute file name, as for heap files.
+     */
+    public int getId() {
+        return tableid;
+    }
+
+    /**
+     * Returns the index of the field the tree is keyed on.
+     */
+    public int keyField() {
+        return keyField;
+    }
+
+    /**
+     * Returns the TupleDesc of the table stored in this DbFile.
+     */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        BTreePageId id = (BTreePageId) pid;
+        int pageSize = BufferPool.getPageSize();
+        byte[] data = new byte[pageSize];
+        if (id.pgcateg() == BTreePageId.ROOT_PTR && f.length() < pageSize) {
+            // a new file: no tree yet
+            try {
+                return new BTreeRootPtrPage(id, BTreePage.createEmptyPageData());
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+            long offset = (long) id.getPageNumber() * pageSize;
+            if (offset + pageSize > raf.length())
+                throw new IllegalArgumentException("Read past end of table");
+            raf.seek(offset);
+            raf.readFully(data);
+            Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
+            switch (id.pgcateg()) {
+                case BTreePageId.ROOT_PTR:
+                    return new BTreeRootPtrPage(id, data);
+                case BTreePageId.INTERNAL:
+                    return new BTreeInternalPage(id, data, keyField);
+                case BTreePageId.LEAF:
+                    return new BTreeLeafPage(id, data, keyField);
+                case BTreePageId.HEADER:
+                    return new BTreeHeaderPage(id, data);
+                default:
+                    throw new IllegalArgumentException("bad page category " + id.pgcateg());
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        writePageData(page.getId().getPageNumber(), page.getPageData());
+    }
+
+    private void writePageData(int pgno, byte[] data) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+            raf.seek((long) pgno * BufferPool.getPageSize());
+            raf.write(data);
+        }
+    }
+
+    /**
+     * Returns the number of pages in this BTreeFile, including the root
+     * pointer page and header pages.
+     */
+    public int numPages() {
+        return (int) (f.length() / BufferPool.getPageSize());
+    }
+
+    /**
+     * Fetches a page for an operation on the tree. Pages the operation has
+     * already changed are taken from dirtypages. A page fetched READ_WRITE is
+     * marked dirty right away, so that the BufferPool does not evict it while
+     * the operation is still changing it, and added to dirtypages.
+     */
+    Page getPage(TransactionId tid, Map<PageId, Page> dirtypages, BTreePageId pid, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        Page p = dirtypages.get(pid);
+        if (p != null)
+            return p;
+        p = Database.getBufferPool().getPage(tid, pid, perm);
+        if (perm == Permissions.READ_WRITE) {
+            p.markDirty(true, tid);
+            dirtypages.put(pid, p);
+        }
+        return p;
+    }
+
+    /**
+     * Fetches the root pointer page, first writing it out if the file is
+     * empty.
+     */
+    BTreeRootPtrPage getRootPtrPage(TransactionId tid, Map<PageId, Page> dirtypages, Permissions perm)
+            throws DbException, IOException, TransactionAbortedException {
+        synchronized (this) {
+            if (f.length() < BufferPool.getPageSize())
+                writePageData(0, BTreePage.createEmptyPageData());
+        }
+        return (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), perm);
+    }
+
+    /**
+     * Finds the leftmost leaf under page pid that may hold the key f (the
+     * leftmost leaf of all if f is null): in each internal page, the child
+     * to the left of the first key that is &gt;= f.
+     *
+     * @param path if not null, the internal pages passed on the way down are
+     *             appended to it, root first
+     */
+    BTreeLeafPage findLeafPage(TransactionId tid, Map<PageId, Page> dirtypages, BTreePageId pid,
+                               Permissions perm, Field f, List<BTreePageId> path)
+            throws DbException, TransactionAbortedException {
+        while (pid.pgcateg() == BTreePageId.INTERNAL) {
+            BTreeInternalPage p = (BTreeInternalPage) getPage(tid, dirtypages, pid, Permissions.READ_ONLY);
+            if (path != null)
+                path.add(pid);
+            int i = 0;
+            if (f != null)
+                while (i < p.getNumEntries() && f.compare(Op.GREATER_THAN, p.getKey(i)))
+                    i++;
+            pid = p.getChildId(i);
+        }
+        return (BTreeLeafPage) getPage(tid, dirtypages, pid, perm);
+    }
+
+    /**
+     * Finds the internal pages from the root down to a given page, which
+     * holds (or held) key f. Duplicate keys may span several subtrees, so
+     * this searches every child whose key range includes f.
+     *
+     * @return true if the target was found, in which case path holds its
+     *         ancestors, root first
+     */
+    private boolean findPath(TransactionId tid, Map<PageId, Page> dirtypages, BTreePageId pid,
+                             Field f, BTreePageId target, List<BTreePageId> path)
+            throws DbException, TransactionAbortedException {
+        if (pid.equals(target))
+            return true;
+        if (pid.pgcateg() != BTreePageId.INTERNAL)
+            return false;
+        BTreeInternalPage p = (BTreeInternalPage) getPage(tid, dirtypages, pid, Permissions.READ_ONLY);
+        path.add(pid);
+        int n = p.getNumEntries();
+        for (int i = 0; i <= n; i++) {
+            if (i > 0 && f.compare(Op.LESS_THAN, p.getKey(i - 1)))
+                break;
+            if (i < n && f.compare(Op.GREATER_THAN, p.getKey(i)))
+                continue;
+            if (findPath(tid, dirtypages, p.getChildId(i), f, target, path))
+                return true;
+        }
+        path.remove(path.size() - 1);
+        return false;
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!t.getTupleDesc().equals(td))
+            throw new DbException("type mismatch, in insertTuple");
+        Map<PageId, Page> dirtypages = new HashMap<>();
+
+        BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages, Permissions.READ_ONLY);
+        BTreePageId rootId = rootPtr.getRootId();
+        if (rootId == null) {
+            rootId = ((BTreeLeafPage) getEmptyPage(tid, dirtypages, BTreePageId.LEAF)).getId();
+            rootPtr = getRootPtrPage(tid, dirtypages, Permissions.READ_WRITE);
+            rootPtr.setRootId(rootId);
+        }
+
+        Field key = t.getField(keyField);
+        List<BTreePageId> path = new ArrayList<>();
+        BTreeLeafPage leaf = findLeafPage(tid, dirtypages, rootId, Permissions.READ_WRITE, key, path);
+        if (leaf.getNumEmptySlots() == 0)
+            leaf = splitLeafPage(tid, dirtypages, leaf, key, path);
+        leaf.insertTuple(t);
+
+        return new ArrayList<>(dirtypages.values());
+    }
+
+    /**
+     * Splits a full leaf: the upper half of its tuples move to a new leaf to
+     * its right, and the first key of the new leaf goes up to the parent as
+     * the separator between the two.
+     *
+     * @param key  the key about to be inserted
+     * @param path the ancestors of page, root first; consumed
+     * @return the one of the two leaves key belongs on
+     */
+    private BTreeLeafPage splitLeafPage(TransactionId tid, Map<PageId, Page> dirtypages, BTreeLeafPage page,
+                                        Field key, List<BTreePageId> path)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreeLeafPage right = (BTreeLeafPage) getEmptyPage(tid, dirtypages, BTreePageId.LEAF);
+
+        List<Tuple> moving = new ArrayList<>();
+        Iterator<Tuple> it = page.reverseIterator();
+        for (int i = page.getNumTuples() / 2; i > 0; i--)
+            moving.add(it.next());
+        Collections.reverse(moving);
+        for (Tuple t : moving) {
+            page.deleteTuple(t);
+            right.insertTuple(t);
+        }
+
+        BTreePageId oldRight = page.getRightSiblingId();
+        right.setLeftSiblingId(page.getId());
+        right.setRightSiblingId(oldRight);
+        page.setRightSiblingId(right.getId());
+        if (oldRight != null)
+            ((BTreeLeafPage) getPage(tid, dirtypages, oldRight, Permissions.READ_WRITE))
+                    .setLeftSiblingId(right.getId());
+
+        Field mid = moving.get(0).getField(keyField);
+        insertIntoParent(tid, dirtypages, path, new BTreeEntry(mid, page.getId(), right.getId()));
+        return key.compare(Op.GREATER_THAN, mid) ? right : page;
+    }
+
+    /**
+     * Splits a full internal page: the upper half of its entries move to a
+     * new page to its right, and the middle key goes up to the parent.
+     *
+     * @param path the ancestors of page, root first; consumed
+     * @return the new page
+     */
+    private BTreeInternalPage splitInternalPage(TransactionId tid, Map<PageId, Page> dirtypages,
+                                                BTreeInternalPage page, List<BTreePageId> path)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreeInternalPage right = (BTreeInternalPage) getEmptyPage(tid, dirtypages, BTreePageId.INTERNAL);
+
+        int n = page.getNumEntries();
+        int mid = n / 2;
+        for (int i = n - 1; i > mid; i--) {
+            right.insertEntry(page.getEntry(i));
+            page.deleteKeyAndRightChild(i);
+        }
+        // the child right of the middle key is now the first child of right
+        Field up = page.getKey(mid);
+        page.deleteKeyAndRightChild(mid);
+
+        insertIntoParent(tid, dirtypages, path, new BTreeEntry(up, page.getId(), right.getId()));
+        return right;
+    }
+
+    /**
+     * Adds the separator between a page that was just split and its new
+     * right sibling to the page's parent, splitting the parent first if it is
+     * full, or creating a new root if the page was the root.
+     *
+     * @param path the ancestors of the split page, root first; consumed
+     */
+    private void insertIntoParent(TransactionId tid, Map<PageId, Page> dirtypages, List<BTreePageId> path,
+                                  BTreeEntry e)
+            throws DbException, IOException, TransactionAbortedException {
+        if (path.isEmpty()) {
+            BTreeInternalPage root = (BTreeInternalPage) getEmptyPage(tid, dirtypages, BTreePageId.INTERNAL);
+            root.insertEntry(e);
+            getRootPtrPage(tid, dirtypages, Permissions.READ_WRITE).setRootId(root.getId());
+            return;
+        }
+        BTreeInternalPage parent = (BTreeInternalPage) getPage(tid, dirtypages,
+                path.remove(path.size() - 1), Permissions.READ_WRITE);
+        if (parent.getNumEmptySlots() == 0) {
+            BTreeInternalPage right = splitInternalPage(tid, dirtypages, parent, path);
+            if (right.indexOfChild(e.getLeftChild()) >= 0)
+                parent = right;
+        }
+        parent.insertEntry(e);
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != tableid)
+            throw new DbException("tried to delete tuple on invalid page or table");
+        Map<PageId, Page> dirtypages = new HashMap<>();
+        BTreePageId leafId = new BTreePageId(tableid, rid.getPageId().getPageNumber(), BTreePageId.LEAF);
+        BTreeLeafPage leaf = (BTreeLeafPage) getPage(tid, dirtypages, leafId, Permissions.READ_WRITE);
+        Field key = t.getField(keyField);
+        leaf.deleteTuple(t);
+
+        if (leaf.getNumTuples() < leaf.getMaxTuples() / 2) {
+            BTreePageId rootId = getRootPtrPage(tid, dirtypages, Permissions.READ_ONLY).getRootId();
+            List<BTreePageId> path = new ArrayList<>();
+            if (!findPath(tid, dirtypages, rootId, key, leafId, path))
+                throw new DbException("page " + leafId + " is not in the tree under key " + key);
+            if (!path.isEmpty())
+                handleMinOccupancyLeafPage(tid, dirtypages, leaf, path);
+        }
+
+        return new ArrayList<>(dirtypages.values());
+    }
+
+    /**
+     * Brings a leaf that is less than half full back to half full, by taking
+     * tuples from a sibling under the same parent or merging with it.
+     *
+     * @param path the ancestors of page, root first; not empty
+     */
+    private void handleMinOccupancyLeafPage(TransactionId tid, Map<PageId, Page> dirtypages, BTreeLeafPage page,
+                                            List<BTreePageId> path)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreeInternalPage parent = (BTreeInternalPage) getPage(tid, dirtypages,
+                path.get(path.size() - 1), Permissions.READ_WRITE);
+        int i = parent.indexOfChild(page.getId());
+        if (i > 0) {
+            BTreeLeafPage left = (BTreeLeafPage) getPage(tid, dirtypages, parent.getChildId(i - 1),
+                    Permissions.READ_WRITE);
+            if (left.getNumTuples() > left.getMaxTuples() / 2)
+                stealFromLeafPage(page, left, parent, i - 1, false);
+            else
+                mergeLeafPages(tid, dirtypages, left, page, parent, i - 1, path);
+        } else {
+            BTreeLeafPage right = (BTreeLeafPage) getPage(tid, dirtypages, parent.getChildId(i + 1),
+                    Permissions.READ_WRITE);
+            if (right.getNumTuples() > right.getMaxTuples() / 2)
+                stealFromLeafPage(page, right, parent, i, true);
+            else
+                mergeLeafPages(tid, dirtypages, page, right, parent, i, path);
+        }
+    }
+
+    /**
+     * Moves tuples from a sibling so that the two leaves hold (nearly) the
+     * same number, and updates the key that separates them.
+     *
+     * @param sep the position in parent of the key between the two leaves
+     */
+    private void stealFromLeafPage(BTreeLeafPage page, BTreeLeafPage sibling, BTreeInternalPage parent,
+                                   int sep, boolean isRightSibling) throws DbException {
+        int toMove = (sibling.getNumTuples() - page.getNumTuples()) / 2;
+        Iterator<Tuple> it = isRightSibling ? sibling.iterator() : sibling.reverseIterator();
+        for (int i = 0; i < toMove; i++) {
+            Tuple t = it.next();
+            sibling.deleteTuple(t);
+            page.insertTuple(t);
+        }
+        BTreeLeafPage right = isRightSibling ? sibling : page;
+        parent.setKey(sep, right.iterator().next().getField(keyField));
+    }
+
+    /**
+     * Moves every tuple of a leaf into its left sibling, removes the leaf
+     * from the tree and frees it.
+     *
+     * @param sep  the position in parent of the key between the two leaves
+     * @param path the ancestors of the two leaves, root first
+     */
+    private void mergeLeafPages(TransactionId tid, Map<PageId, Page> dirtypages, BTreeLeafPage left,
+                                BTreeLeafPage right, BTreeInternalPage parent, int sep, List<BTreePageId> path)
+            throws DbException, IOException, TransactionAbortedException {
+        for (Tuple t : right.getTuples()) {
+            right.deleteTuple(t);
+            left.insertTuple(t);
+        }
+        BTreePageId rightRight = right.getRightSiblingId();
+        left.setRightSiblingId(rightRight);
+        if (rightRight != null)
+            ((BTreeLeafPage) getPage(tid, dirtypages, rightRight, Permissions.READ_WRITE))
+                    .setLeftSiblingId(left.getId());
+
+        parent.deleteKeyAndRightChild(sep);
+        setEmptyPage(tid, dirtypages, right.getId());
+        handleParentAfterMerge(tid, dirtypages, parent, path.subList(0, path.size() - 1));
+    }
+
+    /**
+     * Called after a merge took a key out of parent: if parent is the root
+     * and has no keys left, its only child becomes the root; if it is some
+     * other page and is less than half full, it takes entries from a sibling
+     * or merges with one.
+     *
+     * @param path the ancestors of parent, root first
+     */
+    private void handleParentAfterMerge(TransactionId tid, Map<PageId, Page> dirtypages, BTreeInternalPage parent,
+                                        List<BTreePageId> path)
+            throws DbException, IOException, TransactionAbortedException {
+        if (path.isEmpty()) {
+            if (parent.getNumEntries() == 0) {
+                getRootPtrPage(tid, dirtypages, Permissions.READ_WRITE).setRootId(parent.getChildId(0));
+                setEmptyPage(tid, dirtypages, parent.getId());
+            }
+        } else if (parent.getNumEntries() < parent.getMaxEntries() / 2) {
+            handleMinOccupancyInternalPage(tid, dirtypages, parent, path);
+        }
+    }
+
+    /**
+     * Brings an internal page that is less than half full back to half full,
+     * by taking entries from a sibling under the same parent (through the
+     * parent, which keeps the keys in order) or merging with it.
+     *
+     * @param path the ancestors of page, root first; not empty
+     */
+    private void handleMinOccupancyInternalPage(TransactionId tid, Map<PageId, Page> dirtypages,
+                                                BTreeInternalPage page, List<BTreePageId> path)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreeInternalPage parent = (BTreeInternalPage) getPage(tid, dirtypages,
+                path.get(path.size() - 1), Permissions.READ_WRITE);
+        int i = parent.indexOfChild(page.getId());
+        if (i > 0) {
+            BTreeInternalPage left = (BTreeInternalPage) getPage(tid, dirtypages, parent.getChildId(i - 1),
+                    Permissions.READ_WRITE);
+            if (left.getNumEntries() > left.getMaxEntries() / 2)
+                stealFromLeftInternalPage(page, left, parent, i - 1);
+            else
+                mergeInternalPages(tid, dirtypages, left, page, parent, i - 1, path);
+        } else {
+            BTreeInternalPage right = (BTreeInternalPage) getPage(tid, dirtypages, parent.getChildId(i + 1),
+                    Permissions.READ_WRITE);
+            if (right.getNumEntries() > right.getMaxEntries() / 2)
+                stealFromRightInternalPage(page, right, parent, i);
+            else
+                mergeInternalPages(tid, dirtypages, page, right, parent, i, path);
+        }
+    }
+
+    /**
+     * Rotates entries from the end of the left sibling through the parent
+     * into the front of page.
+     */
+    private void stealFromLeftInternalPage(BTreeInternalPage page, BTreeInternalPage left,
+                                           BTreeInternalPage parent, int sep) throws DbException {
+        int toMove = (left.getNumEntries() - page.getNumEntries()) / 2;
+        for (int i = 0; i < toMove; i++) {
+            int last = left.getNumEntries() - 1;
+            BTreePageId child = left.getChildId(last + 1);
+            Field up = left.getKey(last);
+            left.deleteKeyAndRightChild(last);
+            page.insertEntry(new BTreeEntry(parent.getKey(sep), child, page.getChildId(0)));
+            parent.setKey(sep, up);
+        }
+    }
+
+    /**
+     * Rotates entries from the front of the right sibling through the parent
+     * onto the end of page.
+     */
+    private void stealFromRightInternalPage(BTreeInternalPage page, BTreeInternalPage right,
+                                            BTreeInternalPage parent, int sep) throws DbException {
+        int toMove = (right.getNumEntries() - page.getNumEntries()) / 2;
+        for (int i = 0; i < toMove; i++) {
+            BTreePageId child = right.getChildId(0);
+            Field up = right.getKey(0);
+            right.deleteKeyAndLeftChild(0);
+            page.insertEntry(new BTreeEntry(parent.getKey(sep), page.getChildId(page.getNumEntries()), child));
+            parent.setKey(sep, up);
+        }
+    }
+
+    /**
+     * Pulls the key between two internal pages down from the parent into the
+     * left one, moves every entry of the right one after it, and frees the
+     * right one.
+     *
+     * @param path the ancestors of the two pages, root first
+     */
+    private void mergeInternalPages(TransactionId tid, Map<PageId, Page> dirtypages, BTreeInternalPage left,
+                                    BTreeInternalPage right, BTreeInternalPage parent, int sep,
+                                    List<BTreePageId> path)
+            throws DbException, IOException, TransactionAbortedException {
+        left.insertEntry(new BTreeEntry(parent.getKey(sep), left.getChildId(left.getNumEntries()),
+                right.getChildId(0)));
+        for (BTreeEntry e : right.getEntries())
+            left.insertEntry(e);
+
+        parent.deleteKeyAndRightChild(sep);
+        setEmptyPage(tid, dirtypages, right.getId());
+        handleParentAfterMerge(tid, dirtypages, parent, path.subList(0, path.size() - 1));
+    }
+
+    /**
+     * Returns a free page of the file, as a new page of the given category:
+     * one freed by an earlier merge if the header pages have one, otherwise
+     * a page appended to the file.
+     */
+    private Page getEmptyPage(TransactionId tid, Map<PageId, Page> dirtypages, int pgcateg)
+            throws DbException, IOException, TransactionAbortedException {
+        int pgno = getEmptyPageNo(tid, dirtypages);
+        BTreePageId pid = new BTreePageId(tableid, pgno, pgcateg);
+
+        // the page may have held another kind of page before it was freed;
+        // start it over from scratch
+        writePageData(pgno, BTreePage.createEmptyPageData());
+        Database.getBufferPool().removePage(pid);
+        dirtypages.remove(pid);
+        return getPage(tid, dirtypages, pid, Permissions.READ_WRITE);
+    }
+
+    /**
+     * Claims the first free page in the header pages, or appends a page to
+     * the file if there is none.
+     */
+    private int getEmptyPageNo(TransactionId tid, Map<PageId, Page> dirtypages)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreePageId headerId = getRootPtrPage(tid, dirtypages, Permissions.READ_ONLY).getHeaderId();
+        for (int headerNo = 0; headerId != null; headerNo++) {
+            BTreeHeaderPage header = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_ONLY);
+            int slot = header.getEmptySlot();
+            if (slot != -1) {
+                header = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_WRITE);
+                header.markSlotUsed(slot, true);
+                return headerNo * BTreeHeaderPage.getNumSlots() + slot;
+            }
+            headerId = header.getNextPageId();
+        }
+
+        // append a page; as in HeapFile, this must be atomic so that two
+        // threads do not claim the same page
+        synchronized (this) {
+            int pgno = numPages();
+            writePageData(pgno, BTreePage.createEmptyPageData());
+            return pgno;
+        }
+    }
+
+    /**
+     * Frees a page that is no longer part of the tree: drops it from the
+     * BufferPool and clears its bit in the header pages, adding header pages
+     * as needed.
+     */
+    private void setEmptyPage(TransactionId tid, Map<PageId, Page> dirtypages, BTreePageId pid)
+            throws DbException, IOException, TransactionAbortedException {
+        dirtypages.remove(pid);
+        Database.getBufferPool().removePage(pid);
+        int pgno = pid.getPageNumber();
+
+        BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages, Permissions.READ_ONLY);
+        BTreePageId headerId = rootPtr.getHeaderId();
+        if (headerId == null) {
+            BTreeHeaderPage header = (BTreeHeaderPage) getEmptyPage(tid, dirtypages, BTreePageId.HEADER);
+            header.init();
+            headerId = header.getId();
+            getRootPtrPage(tid, dirtypages, Permissions.READ_WRITE).setHeaderId(headerId);
+        }
+
+        int slots = BTreeHeaderPage.getNumSlots();
+        for (int headerNo = 0; (headerNo + 1) * slots <= pgno; headerNo++) {
+            BTreeHeaderPage header = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_ONLY);
+            BTreePageId next = header.getNextPageId();
+            if (next == null) {
+                BTreeHeaderPage added = (BTreeHeaderPage) getEmptyPage(tid, dirtypages, BTreePageId.HEADER);
+                added.init();
+                added.setPrevPageId(headerId);
+                next = added.getId();
+                header = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_WRITE);
+                header.setNextPageId(next);
+            }
+            headerId = next;
+        }
+        BTreeHeaderPage header = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_WRITE);
+        header.markSlotUsed(pgno % slots, false);
+    }
+
+    /**
+     * Returns an iterator over all the tuples in the file, in key order.
+     */
+    public DbFileIterator iterator(TransactionId tid) {
+        return new BTreeFileIterator(this, tid, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples whose key satisfies ipred, in key
+     * order. Equality and range predicates only read the leaves that can hold
+     * matching keys; other predicates scan every leaf.
+     * <p>
+     * Like other scans, this reads each leaf as a whole when it gets to it;
+     * tuples inserted or deleted by the same transaction while it runs may
+     * or may not be seen.
+     */
+    public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred) {
+        return new BTreeFileIterator(this, tid, ipred);
+    }
+}
+
+/**
+ * Helper class that walks the leaves of a BTreeFile from left to right,
+ * optionally returning only the tuples whose key matches an IndexPredicate.
+ */
+class BTreeFileIterator extends AbstractDbFileIterator {
+
+    final BTreeFile f;
+    final TransactionId tid;
+    final IndexPredicate ipred;
+
+    Iterator<Tuple> it = null;
+    BTreePageId nextLeaf = null;
+    boolean done = true;
+
+    public BTreeFileIterator(BTreeFile f, TransactionId tid, IndexPredicate ipred) {
+        this.f = f;
+        this.tid = tid;
+        this.ipred = ipred;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        it = null;
+        nextLeaf = null;
+        done = false;
+        Map<PageId, Page> noPages = Collections.emptyMap();
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(tid,
+                BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
+        BTreePageId root = rootPtr.getRootId();
+        if (root == null) {
+            done = true;
+            return;
+        }
+        Field start = null;
+        if (ipred != null && (ipred.getOp() == Op.EQUALS || ipred.getOp() == Op.GREATER_THAN
+                || ipred.getOp() == Op.GREATER_THAN_OR_EQ))
+            start = ipred.getField();
+        BTreeLeafPage leaf = f.findLeafPage(tid, noPages, root, Permissions.READ_ONLY, start, null);
+        it = leaf.iterator();
+        nextLeaf = leaf.getRightSiblingId();
+    }
+
+    /**
+     * @return true if no key after this one can match the predicate
+     */
+    private boolean pastEnd(Field key) {
+        switch (ipred.getOp()) {
+            case EQUALS:
+            case LESS_THAN_OR_EQ:
+                return key.compare(Op.GREATER_THAN, ipred.getField());
+            case LESS_THAN:
+                return key.compare(Op.GREATER_THAN_OR_EQ, ipred.getField());
+            default:
+                return false;
+        }
+    }
+
+    @Override
+    protected Tuple readNext() throws TransactionAbortedException, DbException {
+        while (!done) {
+            while (it != null && it.hasNext()) {
+                Tuple t = it.next();
+                if (ipred == null)
+                    return t;
+                Field key = t.getField(f.keyField());
+                if (ipred.filter(key))
+                    return t;
+                if (pastEnd(key)) {
+                    done = true;
+                    return null;
+                }
+            }
+            if (nextLeaf == null) {
+                done = true;
+                return null;
+            }
+            BTreeLeafPage leaf = (BTreeLeafPage) Database.getBufferPool().getPage(tid, nextLeaf,
+                    Permissions.READ_ONLY);
+            it = leaf.iterator();
+            nextLeaf = leaf.getRightSiblingId();
+        }
+        return null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public void close() {
+        super.close();
+        it = null;
+        nextLeaf = null;
+        done = true;
+    }
+}
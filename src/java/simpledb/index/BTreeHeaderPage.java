@@ -0,0 +1,166 @@
+package simpledb.index;
+
+import simpledb.storage.BufferPool;
+import simpledb.storage.Page;
+import simpledb.transaction.TransactionId;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * A page of the bitmap of free pages of a {@link BTreeFile}. Header pages
+ * form a doubly linked list starting at the root pointer page; header page
+ * i of the list has a bit for each of the pages
+ * [i * getNumSlots(), (i + 1) * getNumSlots()) of the file, set while the
+ * page is in use. Pages freed by merges are cleared here and handed out
+ * again before the file grows.
+ */
+public class BTreeHeaderPage implements Page {
+
+    private final static int INDEX_SIZE = BTreePage.INDEX_SIZE;
+
+    private volatile boolean dirty = false;
+    private volatile TransactionId dirtier = null;
+
+    private final BTreePageId pid;
+    private final byte[] header;
+    private final int numSlots;
+    private int nextPage;
+    private int prevPage;
+
+    private byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a BTreeHeaderPage from a set of bytes of data read from disk:
+     * the next and previous header page numbers (an int each, 0 for none)
+     * and the bitmap, which fills the rest of the page.
+     */
+    public BTreeHeaderPage(BTreePageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.numSlots = getNumSlots();
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        nextPage = dis.readInt();
+        prevPage = dis.readInt();
+        header = new byte[numSlots / 8];
+        dis.readFully(header);
+        setBeforeImage();
+    }
+
+    /**
+     * @return the number of pages a header page keeps track of
+     */
+    public static int getNumSlots() {
+        return (BufferPool.getPageSize() - 2 * INDEX_SIZE) * 8;
+    }
+
+    /**
+     * Marks every page covered by this header page as in use, as a new
+     * header page starts out.
+     */
+    public void init() {
+        Arrays.fill(header, (byte) 0xFF);
+    }
+
+    public BTreePageId getId() {
+        return pid;
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(nextPage);
+            dos.writeInt(prevPage);
+            dos.write(header);
+            dos.write(new byte[BufferPool.getPageSize() - dos.size()]);
+            dos.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return baos.toByteArray();
+    }
+
+    public BTreeHeaderPage getBeforeImage() {
+        try {
+            byte[] oldDataRef;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return new BTreeHeaderPage(pid, oldDataRef);
+        } catch (IOException e) {
+            //should never happen -- we parsed it OK before!
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData().clone();
+        }
+    }
+
+    /**
+     * @return the next header page in the list, or null for none
+     */
+    public BTreePageId getNextPageId() {
+        return nextPage == 0 ? null : new BTreePageId(pid.getTableId(), nextPage, BTreePageId.HEADER);
+    }
+
+    /**
+     * @return the previous header page in the list, or null for none
+     */
+    public BTreePageId getPrevPageId() {
+        return prevPage == 0 ? null : new BTreePageId(pid.getTableId(), prevPage, BTreePageId.HEADER);
+    }
+
+    public void setNextPageId(BTreePageId id) {
+        nextPage = headerNumber(id);
+    }
+
+    public void setPrevPageId(BTreePageId id) {
+        prevPage = headerNumber(id);
+    }
+
+    private int headerNumber(BTreePageId id) {
+        if (id == null)
+            return 0;
+        if (id.getTableId() != pid.getTableId() || id.pgcateg() != BTreePageId.HEADER)
+            throw new IllegalArgumentException("not a header page of this table");
+        return id.getPageNumber();
+    }
+
+    /**
+     * @return true if slot i (a page of the file) is in use
+     */
+    public boolean isSlotUsed(int i) {
+        return (header[i / 8] & (1 << (i % 8))) != 0;
+    }
+
+    public void markSlotUsed(int i, boolean value) {
+        if (value)
+            header[i / 8] |= (byte) (1 << (i % 8));
+        else
+            header[i / 8] &= (byte) ~(1 << (i % 8));
+    }
+
+    /**
+     * @return the first free slot on this page, or -1 if every page it
+     *         covers is in use
+     */
+    public int getEmptySlot() {
+        for (int b = 0; b < header.length; b++)
+            if (header[b] != (byte) 0xFF)
+                return b * 8 + Integer.numberOfTrailingZeros(~header[b] & 0xFF);
+        return -1;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        this.dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirty ? dirtier : null;
+    }
+}
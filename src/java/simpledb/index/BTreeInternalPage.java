@@ -0,0 +1,263 @@
+package simpledb.index;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.BufferPool;
+import simpledb.storage.Field;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * An internal node of a {@link BTreeFile}: n keys in ascending order and
+ * n + 1 children, all of them internal pages or all of them leaves. Child i
+ * holds the keys between key i - 1 and key i (inclusive, since duplicate
+ * keys may span several children).
+ *
+ * @see BTreeFile
+ */
+public class BTreeInternalPage extends BTreePage {
+
+    private final Type keyType;
+    private final int maxEntries;
+    private final Field[] keys;
+    private final int[] children;
+    private int numEntries;
+    private int childCategory;
+
+    /**
+     * Create a BTreeInternalPage from a set of bytes of data read from disk:
+     * the category of the children (a byte), the number of keys n (an int),
+     * then room for the largest
+     * number of keys a page holds and for one more child pointer than that;
+     * the first n keys and n + 1 children are in use.
+     *
+     * @param keyField the index of the field the tree is keyed on
+     */
+    public BTreeInternalPage(BTreePageId id, byte[] data, int keyField) throws IOException {
+        super(id, keyField);
+        this.keyType = td.getFieldType(keyField);
+        this.maxEntries = getMaxEntries();
+        this.keys = new Field[maxEntries];
+        this.children = new int[maxEntries + 1];
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        childCategory = dis.readByte();
+        numEntries = dis.readInt();
+        if (numEntries < 0 || numEntries > maxEntries)
+            throw new IOException("bad entry count " + numEntries + " on page " + pid);
+        try {
+            for (int i = 0; i < maxEntries; i++) {
+                if (i < numEntries)
+                    keys[i] = keyType.parse(dis);
+                else
+                    dis.skipBytes(keyType.getLen());
+            }
+        } catch (ParseException e) {
+            throw new IOException("parsing error on page " + pid + ": " + e.getMessage());
+        }
+        for (int i = 0; i <= maxEntries; i++)
+            children[i] = dis.readInt();
+        setBeforeImage();
+    }
+
+    /**
+     * Create a BTreeInternalPage of a BTreeFile in the catalog, as the log
+     * does.
+     */
+    public BTreeInternalPage(BTreePageId id, byte[] data) throws IOException {
+        this(id, data, keyFieldOf(id));
+    }
+
+    /**
+     * @return the number of keys an internal page holds
+     */
+    public int getMaxEntries() {
+        int fixed = 1 + 2 * INDEX_SIZE;
+        return (BufferPool.getPageSize() - fixed) / (keyType.getLen() + INDEX_SIZE);
+    }
+
+    public byte[] getPageData() {
+        int len = BufferPool.getPageSize();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeByte(childCategory);
+            dos.writeInt(numEntries);
+            for (int i = 0; i < maxEntries; i++) {
+                if (i < numEntries)
+                    keys[i].serialize(dos);
+                else
+                    dos.write(new byte[keyType.getLen()]);
+            }
+            for (int i = 0; i <= maxEntries; i++)
+                dos.writeInt(i <= numEntries && childCategory != 0 ? children[i] : 0);
+            dos.write(new byte[len - dos.size()]);
+            dos.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return baos.toByteArray();
+    }
+
+    public BTreeInternalPage getBeforeImage() {
+        try {
+            return new BTreeInternalPage(pid, getBeforeImageData(), keyField);
+        } catch (IOException e) {
+            //should never happen -- we parsed it OK before!
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return the number of keys on this page
+     */
+    public int getNumEntries() {
+        return numEntries;
+    }
+
+    public int getNumEmptySlots() {
+        return maxEntries - numEntries;
+    }
+
+    /**
+     * @return key i, 0 &lt;= i &lt; getNumEntries()
+     */
+    public Field getKey(int i) {
+        if (i < 0 || i >= numEntries)
+            throw new IndexOutOfBoundsException("no key " + i);
+        return keys[i];
+    }
+
+    /**
+     * Replaces key i, e.g. when tuples move between the children around it.
+     */
+    public void setKey(int i, Field key) throws DbException {
+        if (i < 0 || i >= numEntries)
+            throw new IndexOutOfBoundsException("no key " + i);
+        if (key.getType() != keyType)
+            throw new DbException("key field type mismatch, in setKey");
+        keys[i] = key;
+    }
+
+    /**
+     * @return child i, 0 &lt;= i &lt;= getNumEntries(). A page whose last key
+     *         has been deleted still has its remaining child 0.
+     */
+    public BTreePageId getChildId(int i) {
+        if (i < 0 || i > numEntries || childCategory == 0)
+            throw new IndexOutOfBoundsException("no child " + i);
+        return new BTreePageId(pid.getTableId(), children[i], childCategory);
+    }
+
+    /**
+     * @return the position of a child on this page, or -1 if it is not one
+     */
+    public int indexOfChild(BTreePageId child) {
+        if (childCategory == 0 || child.pgcateg() != childCategory || child.getTableId() != pid.getTableId())
+            return -1;
+        for (int i = 0; i <= numEntries; i++)
+            if (children[i] == child.getPageNumber())
+                return i;
+        return -1;
+    }
+
+    /**
+     * @return key i with the children on either side of it
+     */
+    public BTreeEntry getEntry(int i) {
+        return new BTreeEntry(getKey(i), getChildId(i), getChildId(i + 1));
+    }
+
+    /**
+     * Adds an entry to the page. One of its children must already be on the
+     * page (unless the page is empty): the key and the other child are
+     * inserted next to it.
+     *
+     * @throws DbException if the page is full, neither child is on the page,
+     *                     or the entry does not match the page
+     */
+    public void insertEntry(BTreeEntry e) throws DbException {
+        if (e.getKey().getType() != keyType)
+            throw new DbException("key field type mismatch, in insertEntry");
+        int categ = e.getLeftChild().pgcateg();
+        if (e.getRightChild().pgcateg() != categ
+                || (categ != BTreePageId.INTERNAL && categ != BTreePageId.LEAF))
+            throw new DbException("children of an entry must be both internal or both leaf pages");
+        if (numEntries == maxEntries)
+            throw new DbException("called insertEntry on page with no empty slots.");
+        if (numEntries == 0) {
+            childCategory = categ;
+            children[0] = e.getLeftChild().getPageNumber();
+            children[1] = e.getRightChild().getPageNumber();
+            keys[0] = e.getKey();
+            numEntries = 1;
+            return;
+        }
+        if (categ != childCategory)
+            throw new DbException("child page category mismatch, in insertEntry");
+
+        int left = indexOfChild(e.getLeftChild());
+        if (left >= 0) {
+            insertAt(left, left + 1, e.getKey(), e.getRightChild().getPageNumber());
+            return;
+        }
+        int right = indexOfChild(e.getRightChild());
+        if (right >= 0) {
+            insertAt(right, right, e.getKey(), e.getLeftChild().getPageNumber());
+            return;
+        }
+        throw new DbException("neither child of the entry is on page " + pid);
+    }
+
+    private void insertAt(int keyPos, int childPos, Field key, int child) {
+        System.arraycopy(keys, keyPos, keys, keyPos + 1, numEntries - keyPos);
+        keys[keyPos] = key;
+        System.arraycopy(children, childPos, children, childPos + 1, numEntries + 1 - childPos);
+        children[childPos] = child;
+        numEntries++;
+    }
+
+    /**
+     * Removes key i and the child to its right.
+     */
+    public void deleteKeyAndRightChild(int i) {
+        deleteAt(i, i + 1);
+    }
+
+    /**
+     * Removes key i and the child to its left.
+     */
+    public void deleteKeyAndLeftChild(int i) {
+        deleteAt(i, i);
+    }
+
+    private void deleteAt(int keyPos, int childPos) {
+        if (keyPos < 0 || keyPos >= numEntries)
+            throw new IndexOutOfBoundsException("no key " + keyPos);
+        System.arraycopy(keys, keyPos + 1, keys, keyPos, numEntries - keyPos - 1);
+        keys[numEntries - 1] = null;
+        System.arraycopy(children, childPos + 1, children, childPos, numEntries - childPos);
+        numEntries--;
+    }
+
+    /**
+     * @return the entries of this page, in key order. The list is a copy;
+     *         changing the page does not change it.
+     */
+    public List<BTreeEntry> getEntries() {
+        List<BTreeEntry> l = new ArrayList<>(numEntries);
+        for (int i = 0; i < numEntries; i++)
+            l.add(getEntry(i));
+        return l;
+    }
+
+    /**
+     * @return an iterator over the entries of this page, in key order
+     */
+    public Iterator<BTreeEntry> iterator() {
+        return getEntries().iterator();
+    }
+}
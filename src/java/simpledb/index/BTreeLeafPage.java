@@ -0,0 +1,307 @@
+package simpledb.index;
+
+import simpledb.common.DbException;
+import simpledb.storage.BufferPool;
+import simpledb.storage.Field;
+import simpledb.storage.RecordId;
+import simpledb.storage.Tuple;
+import simpledb.execution.Predicate;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A leaf node of a {@link BTreeFile}. Like a HeapPage it stores tuples in
+ * slots, with a header bitmap of the slots in use, but the used slots are
+ * kept in key order, and the page also records its left and right siblings
+ * (0 for none), so that scans can walk along the leaves.
+ * <p>
+ * Deleting a tuple only clears its slot; inserting one shifts the tuples
+ * between the insertion point and the nearest free slot by one slot, and
+ * updates their RecordIds.
+ *
+ * @see BTreeFile
+ */
+public class BTreeLeafPage extends BTreePage {
+
+    private final byte[] header;
+    private final Tuple[] tuples;
+    private final int numSlots;
+    private int leftSibling;
+    private int rightSibling;
+
+    /**
+     * Create a BTreeLeafPage from a set of bytes of data read from disk: the
+     * left and right sibling page numbers (an int each), the header bitmap
+     * (ceiling(slots / 8) bytes) and the tuple slots, where the number of
+     * slots is
+     * <p>
+     * floor(((BufferPool.getPageSize() - 2 * 4) * 8) / (tuple size * 8 + 1))
+     *
+     * @param keyField the index of the field the tree is keyed on
+     */
+    public BTreeLeafPage(BTreePageId id, byte[] data, int keyField) throws IOException {
+        super(id, keyField);
+        this.numSlots = getMaxTuples();
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        leftSibling = dis.readInt();
+        rightSibling = dis.readInt();
+        header = new byte[getHeaderSize()];
+        dis.readFully(header);
+        tuples = new Tuple[numSlots];
+        for (int i = 0; i < numSlots; i++) {
+            if (isSlotUsed(i))
+                tuples[i] = readTuple(dis, i);
+            else
+                dis.skipBytes(td.getSize());
+        }
+        setBeforeImage();
+    }
+
+    /**
+     * Create a BTreeLeafPage of a BTreeFile in the catalog, as the log does.
+     */
+    public BTreeLeafPage(BTreePageId id, byte[] data) throws IOException {
+        this(id, data, keyFieldOf(id));
+    }
+
+    private Tuple readTuple(DataInputStream dis, int slot) throws IOException {
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slot));
+        try {
+            for (int j = 0; j < td.numFields(); j++)
+                t.setField(j, td.getFieldType(j).parse(dis));
+        } catch (ParseException e) {
+            throw new IOException("parsing error on page " + pid + ": " + e.getMessage());
+        }
+        return t;
+    }
+
+    /**
+     * @return the number of tuples a leaf page holds
+     */
+    public int getMaxTuples() {
+        int bitsPerTupleIncludingHeader = td.getSize() * 8 + 1;
+        return ((BufferPool.getPageSize() - 2 * INDEX_SIZE) * 8) / bitsPerTupleIncludingHeader;
+    }
+
+    private int getHeaderSize() {
+        return (numSlots + 7) / 8;
+    }
+
+    public byte[] getPageData() {
+        int len = BufferPool.getPageSize();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(leftSibling);
+            dos.writeInt(rightSibling);
+            dos.write(header);
+            for (int i = 0; i < numSlots; i++) {
+                if (tuples[i] == null) {
+                    dos.write(new byte[td.getSize()]);
+                    continue;
+                }
+                for (int j = 0; j < td.numFields(); j++)
+                    tuples[i].getField(j).serialize(dos);
+            }
+            dos.write(new byte[len - dos.size()]);
+            dos.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return baos.toByteArray();
+    }
+
+    public BTreeLeafPage getBeforeImage() {
+        try {
+            return new BTreeLeafPage(pid, getBeforeImageData(), keyField);
+        } catch (IOException e) {
+            //should never happen -- we parsed it OK before!
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return the id of the left sibling of this leaf, or null if it is the
+     *         leftmost leaf
+     */
+    public BTreePageId getLeftSiblingId() {
+        return leftSibling == 0 ? null : new BTreePageId(pid.getTableId(), leftSibling, BTreePageId.LEAF);
+    }
+
+    /**
+     * @return the id of the right sibling of this leaf, or null if it is the
+     *         rightmost leaf
+     */
+    public BTreePageId getRightSiblingId() {
+        return rightSibling == 0 ? null : new BTreePageId(pid.getTableId(), rightSibling, BTreePageId.LEAF);
+    }
+
+    /**
+     * @param id a leaf page of the same table, or null for none
+     */
+    public void setLeftSiblingId(BTreePageId id) {
+        leftSibling = siblingNumber(id);
+    }
+
+    /**
+     * @param id a leaf page of the same table, or null for none
+     */
+    public void setRightSiblingId(BTreePageId id) {
+        rightSibling = siblingNumber(id);
+    }
+
+    private int siblingNumber(BTreePageId id) {
+        if (id == null)
+            return 0;
+        if (id.getTableId() != pid.getTableId() || id.pgcateg() != BTreePageId.LEAF)
+            throw new IllegalArgumentException("sibling must be a leaf page of the same table");
+        return id.getPageNumber();
+    }
+
+    /**
+     * @return the key of a tuple
+     */
+    Field key(Tuple t) {
+        return t.getField(keyField);
+    }
+
+    /**
+     * Adds a tuple to the page, in key order among the tuples already there
+     * (after any tuples with the same key); the tuple is updated to reflect
+     * that it is now stored on this page.
+     *
+     * @throws DbException if the page is full or the tuple has the wrong
+     *                     schema
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td))
+            throw new DbException("type mismatch, in addTuple");
+
+        int emptySlot = -1;
+        for (int i = 0; i < numSlots && emptySlot == -1; i++)
+            if (!isSlotUsed(i))
+                emptySlot = i;
+        if (emptySlot == -1)
+            throw new DbException("called addTuple on page with no empty slots.");
+
+        // the last used slot whose key is <= the new key
+        Field k = key(t);
+        int lessOrEqKey = -1;
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i))
+                continue;
+            if (key(tuples[i]).compare(Predicate.Op.LESS_THAN_OR_EQ, k))
+                lessOrEqKey = i;
+            else
+                break;
+        }
+
+        // shift the tuples in between towards the empty slot
+        int goodSlot;
+        if (emptySlot < lessOrEqKey) {
+            for (int i = emptySlot; i < lessOrEqKey; i++)
+                moveTuple(i + 1, i);
+            goodSlot = lessOrEqKey;
+        } else {
+            for (int i = emptySlot; i > lessOrEqKey + 1; i--)
+                moveTuple(i - 1, i);
+            goodSlot = lessOrEqKey + 1;
+        }
+
+        t.setRecordId(new RecordId(pid, goodSlot));
+        tuples[goodSlot] = t;
+        markSlotUsed(goodSlot, true);
+    }
+
+    private void moveTuple(int from, int to) {
+        if (isSlotUsed(from) && !isSlotUsed(to)) {
+            tuples[to] = tuples[from];
+            tuples[to].setRecordId(new RecordId(pid, to));
+            tuples[from] = null;
+            markSlotUsed(to, true);
+            markSlotUsed(from, false);
+        }
+    }
+
+    /**
+     * Deletes the specified tuple from the page; the tuple's RecordId is
+     * set to null.
+     *
+     * @throws DbException if this tuple is not on this page, or tuple slot
+     *                     is already empty.
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()))
+            throw new DbException("tried to delete tuple on invalid page or table");
+        int slot = rid.getTupleNumber();
+        if (slot < 0 || slot >= numSlots || !isSlotUsed(slot))
+            throw new DbException("tried to delete null tuple.");
+        markSlotUsed(slot, false);
+        tuples[slot] = null;
+        t.setRecordId(null);
+    }
+
+    /**
+     * @return the number of tuples on this page
+     */
+    public int getNumTuples() {
+        return numSlots - getNumEmptySlots();
+    }
+
+    public int getNumEmptySlots() {
+        int empty = 0;
+        for (int i = 0; i < numSlots; i++)
+            if (!isSlotUsed(i))
+                empty++;
+        return empty;
+    }
+
+    /**
+     * @return true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return (header[i / 8] & (1 << (i % 8))) != 0;
+    }
+
+    private void markSlotUsed(int i, boolean value) {
+        if (value)
+            header[i / 8] |= (byte) (1 << (i % 8));
+        else
+            header[i / 8] &= (byte) ~(1 << (i % 8));
+    }
+
+    /**
+     * @return the tuples on this page, in key order. The list is a copy;
+     *         changing the page does not change it.
+     */
+    public List<Tuple> getTuples() {
+        List<Tuple> l = new ArrayList<>(getNumTuples());
+        for (int i = 0; i < numSlots; i++)
+            if (isSlotUsed(i))
+                l.add(tuples[i]);
+        return l;
+    }
+
+    /**
+     * @return an iterator over the tuples on this page, in key order
+     */
+    public Iterator<Tuple> iterator() {
+        return getTuples().iterator();
+    }
+
+    /**
+     * @return an iterator over the tuples on this page, in reverse key order
+     */
+    public Iterator<Tuple> reverseIterator() {
+        List<Tuple> l = getTuples();
+        Collections.reverse(l);
+        return l.iterator();
+    }
+}
@@ -0,0 +1,93 @@
+package simpledb.index;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.storage.BufferPool;
+import simpledb.storage.Page;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionId;
+
+/**
+ * The state shared by the nodes of a {@link BTreeFile}: internal pages and
+ * leaf pages. Nodes do not point to their parents; the file finds them
+ * along the path from the root, so that a split only changes the pages it
+ * splits and their parent, not every child that moves.
+ *
+ * @see BTreeInternalPage
+ * @see BTreeLeafPage
+ */
+public abstract class BTreePage implements Page {
+
+    /** The size of a page pointer on disk */
+    protected final static int INDEX_SIZE = Type.INT_TYPE.getLen();
+
+    private volatile boolean dirty = false;
+    private volatile TransactionId dirtier = null;
+
+    protected final BTreePageId pid;
+    protected final TupleDesc td;
+    protected final int keyField;
+
+    private byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * @param id       the id of this page
+     * @param keyField the index of the field the tree is keyed on
+     */
+    protected BTreePage(BTreePageId id, int keyField) {
+        this.pid = id;
+        this.keyField = keyField;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+    }
+
+    /**
+     * @return the key field of the file a page id belongs to, which must be
+     *         a BTreeFile in the catalog. Used by the (PageId, byte[])
+     *         constructors the log rebuilds pages with.
+     */
+    static int keyFieldOf(BTreePageId id) {
+        return ((BTreeFile) Database.getCatalog().getDatabaseFile(id.getTableId())).keyField();
+    }
+
+    /**
+     * @return an all-zero page: an empty node
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()];
+    }
+
+    public BTreePageId getId() {
+        return pid;
+    }
+
+    /**
+     * @return the number of entries (internal pages) or tuples (leaf pages)
+     *         that can still be added to this page
+     */
+    public abstract int getNumEmptySlots();
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        this.dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirty ? dirtier : null;
+    }
+
+    /**
+     * @return the page data as of the last setBeforeImage
+     */
+    protected byte[] getBeforeImageData() {
+        synchronized (oldDataLock) {
+            return oldData;
+        }
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData().clone();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package simpledb.index;
+
+import simpledb.storage.PageId;
+
+import java.util.Objects;
+
+/**
+ * Unique identifier for the pages of a {@link BTreeFile}. Besides the table
+ * and the page number, the id records what kind of page it names, which is
+ * not stored in the page itself.
+ */
+public class BTreePageId implements PageId {
+
+    /** The root pointer page, always page 0 of the file */
+    public final static int ROOT_PTR = 0;
+    /** An internal (non-leaf) node of the tree */
+    public final static int INTERNAL = 1;
+    /** A leaf node of the tree, holding tuples */
+    public final static int LEAF = 2;
+    /** A page of the bitmap of free pages */
+    public final static int HEADER = 3;
+
+    private final int tableId;
+    private final int pgNo;
+    private final int pgcateg;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific table.
+     *
+     * @param tableId The table that is being referenced
+     * @param pgNo    The page number in that table.
+     * @param pgcateg The category of the page: ROOT_PTR, INTERNAL, LEAF or
+     *                HEADER
+     */
+    public BTreePageId(int tableId, int pgNo, int pgcateg) {
+        this.tableId = tableId;
+        this.pgNo = pgNo;
+        this.pgcateg = pgcateg;
+    }
+
+    /**
+     * @return the table associated with this PageId
+     */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /**
+     * @return the page number in the table getTableId() associated with
+     *         this PageId
+     */
+    public int getPageNumber() {
+        return pgNo;
+    }
+
+    /**
+     * @return the category of this page
+     */
+    public int pgcateg() {
+        return pgcateg;
+    }
+
+    /**
+     * @return a hash code for this page, represented by a combination of
+     *         the table number, the page number and the category
+     * @see simpledb.storage.BufferPool
+     */
+    public int hashCode() {
+        return Objects.hash(tableId, pgNo, pgcateg);
+    }
+
+    /**
+     * Compares one PageId to another.
+     *
+     * @param o The object to compare against (must be a PageId)
+     * @return true if the objects are equal (e.g., page numbers, table
+     *         ids and categories are the same)
+     */
+    public boolean equals(Object o) {
+        if (!(o instanceof BTreePageId))
+            return false;
+        BTreePageId p = (BTreePageId) o;
+        return tableId == p.tableId && pgNo == p.pgNo && pgcateg == p.pgcateg;
+    }
+
+    public String toString() {
+        return "(" + tableId + ", " + pgNo + ", " + categToString(pgcateg) + ")";
+    }
+
+    /**
+     * @return the name of a page category
+     */
+    public static String categToString(int categ) {
+        switch (categ) {
+            case ROOT_PTR:
+                return "ROOT_PTR";
+            case INTERNAL:
+                return "INTERNAL";
+            case LEAF:
+                return "LEAF";
+            case HEADER:
+                return "HEADER";
+            default:
+                return "UNKNOWN";
+        }
+    }
+
+    /**
+     * Return a representation of this object as an array of
+     * integers, for writing to disk.  Size of returned array must contain
+     * number of integers that corresponds to number of args to one of the
+     * constructors.
+     */
+    public int[] serialize() {
+        return new int[]{tableId, pgNo, pgcateg};
+    }
+}
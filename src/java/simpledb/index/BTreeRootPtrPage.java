@@ -0,0 +1,149 @@
+package simpledb.index;
+
+import simpledb.storage.BufferPool;
+import simpledb.storage.Page;
+import simpledb.transaction.TransactionId;
+
+import java.io.*;
+
+/**
+ * The root pointer page is page 0 of every {@link BTreeFile}. It records
+ * which page is the root of the tree (a leaf while the tree has a single
+ * node, an internal page afterwards) and the first page of the bitmap of
+ * free pages. A page number of 0 means "none": page 0 is never a root or a
+ * header page.
+ */
+public class BTreeRootPtrPage implements Page {
+
+    private volatile boolean dirty = false;
+    private volatile TransactionId dirtier = null;
+
+    private final BTreePageId pid;
+    private int root;
+    private int rootCategory;
+    private int header;
+
+    private byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a root pointer page from the bytes of page 0 of a BTreeFile: the
+     * root page number (an int), the root page category (a byte) and the
+     * first header page number (an int). The rest of the page is unused.
+     */
+    public BTreeRootPtrPage(BTreePageId id, byte[] data) throws IOException {
+        this.pid = id;
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        root = dis.readInt();
+        rootCategory = dis.readByte();
+        header = dis.readInt();
+        setBeforeImage();
+    }
+
+    /**
+     * @return the id of the root pointer page of a table
+     */
+    public static BTreePageId getId(int tableid) {
+        return new BTreePageId(tableid, 0, BTreePageId.ROOT_PTR);
+    }
+
+    public BTreePageId getId() {
+        return pid;
+    }
+
+    /**
+     * @return the id of the root page of the tree, or null if the tree is
+     *         empty
+     */
+    public BTreePageId getRootId() {
+        if (root == 0)
+            return null;
+        return new BTreePageId(pid.getTableId(), root, rootCategory);
+    }
+
+    /**
+     * Sets the root of the tree.
+     *
+     * @param id an internal or leaf page of this file, or null for none
+     */
+    public void setRootId(BTreePageId id) {
+        if (id == null) {
+            root = 0;
+            return;
+        }
+        if (id.getTableId() != pid.getTableId())
+            throw new IllegalArgumentException("root page of another table");
+        if (id.pgcateg() != BTreePageId.INTERNAL && id.pgcateg() != BTreePageId.LEAF)
+            throw new IllegalArgumentException("the root must be an internal or leaf page");
+        root = id.getPageNumber();
+        rootCategory = id.pgcateg();
+    }
+
+    /**
+     * @return the id of the first header page, or null if no page has been
+     *         freed yet
+     */
+    public BTreePageId getHeaderId() {
+        if (header == 0)
+            return null;
+        return new BTreePageId(pid.getTableId(), header, BTreePageId.HEADER);
+    }
+
+    /**
+     * Sets the first header page.
+     *
+     * @param id a header page of this file, or null for none
+     */
+    public void setHeaderId(BTreePageId id) {
+        if (id == null) {
+            header = 0;
+            return;
+        }
+        if (id.getTableId() != pid.getTableId() || id.pgcateg() != BTreePageId.HEADER)
+            throw new IllegalArgumentException("not a header page of this table");
+        header = id.getPageNumber();
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(root);
+            dos.writeByte(rootCategory);
+            dos.writeInt(header);
+            dos.write(new byte[BufferPool.getPageSize() - dos.size()]);
+            dos.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return baos.toByteArray();
+    }
+
+    public BTreeRootPtrPage getBeforeImage() {
+        try {
+            byte[] oldDataRef;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return new BTreeRootPtrPage(pid, oldDataRef);
+        } catch (IOException e) {
+            //should never happen -- we parsed it OK before!
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData().clone();
+        }
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        this.dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirty ? dirtier : null;
+    }
+}
@@ -0,0 +1,334 @@
+package simpledb.index;
+
+import simpledb.common.DbException;
+import simpledb.common.Debug;
+import simpledb.common.Type;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate;
+import simpledb.storage.*;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.*;
+
+/**
+ * HashIndex is a persistent hash index on one field of a HeapFile: it maps
+ * each key to the RecordIds of the tuples with that key, so that an
+ * equality lookup reads one bucket and the pages of the matching tuples
+ * instead of the whole table.
+ * <p>
+ * The index lives in a side file next to the heap file
+ * (<tt>&lt;table file&gt;.&lt;field&gt;.hidx</tt>) made of PAGE_SIZE-byte
+ * pages. Page 0 holds the number of buckets; pages 1 to that number are the
+ * buckets, and pages appended after them extend buckets that overflow. A
+ * bucket page holds the number of entries on it, the page number of the
+ * next page of the bucket (0 for none) and the entries: a key, a page number
+ * and a slot. The number of buckets is fixed when the index is built, for
+ * the table's size at the time; {@link #rebuild} resizes it.
+ * <p>
+ * Like the {@link FreeSpaceMap}, the index is a hint. Inserts through the
+ * BufferPool add entries, but deletes leave theirs behind, and entries of
+ * inserts that are rolled back stay too: lookups fetch every tuple an entry
+ * points to and keep only those that are still there with the right key.
+ * If the side file is missing or older than the heap file (e.g. because the
+ * table was rewritten outside the database, or tuples inserted in an earlier
+ * run were written back after the index was), the index is rebuilt from the
+ * table the first time it is used.
+ *
+ * @Threadsafe
+ */
+public class HashIndex {
+
+    /**
+     * The size of a page of the index file, in bytes
+     */
+    public static final int PAGE_SIZE = 4096;
+    private static final int MIN_BUCKETS = 16;
+    // buckets are sized to be this full when the index is built
+    private static final double FILL_FACTOR = 0.75;
+    private static final int PAGE_HEADER_BYTES = 8;
+
+    private final HeapFile table;
+    private final int keyField;
+    private final Type keyType;
+    private final File file;
+    private final int entriesPerPage;
+
+    private RandomAccessFile raf; // null until the index is loaded
+    private int numBuckets;
+    private int numPages;
+
+    /**
+     * Creates the index on a field of a table. The index file is not read
+     * (or built) until the index is first used.
+     *
+     * @param table    the table to index
+     * @param keyField the index of the field to index
+     */
+    public HashIndex(HeapFile table, int keyField) {
+        this.table = table;
+        this.keyField = keyField;
+        this.keyType = table.getTupleDesc().getFieldType(keyField);
+        this.file = new File(table.getFile().getPath() + "." + keyField + ".hidx");
+        this.entriesPerPage = (PAGE_SIZE - PAGE_HEADER_BYTES) / (keyType.getLen() + 8);
+    }
+
+    /**
+     * @return the table this index is on
+     */
+    public HeapFile getTable() {
+        return table;
+    }
+
+    /**
+     * @return the index of the indexed field
+     */
+    public int getKeyField() {
+        return keyField;
+    }
+
+    /**
+     * @return the side file the index is stored in
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Opens the index file if it is there and up to date.
+     *
+     * @return false if it is missing or stale
+     */
+    private boolean open() throws IOException {
+        if (raf != null)
+            return true;
+        if (!file.exists() || file.lastModified() < table.getFile().lastModified()
+                || file.length() < PAGE_SIZE || file.length() % PAGE_SIZE != 0)
+            return false;
+        raf = new RandomAccessFile(file, "rw");
+        numBuckets = raf.readInt();
+        numPages = (int) (file.length() / PAGE_SIZE);
+        if (numBuckets > 0 && numBuckets < numPages)
+            return true;
+        raf.close();
+        raf = null;
+        return false;
+    }
+
+    /**
+     * Opens the index file, rebuilding it first if it is missing or stale.
+     */
+    private void load(TransactionId tid) throws IOException, DbException, TransactionAbortedException {
+        if (!open())
+            rebuild(tid);
+    }
+
+    /**
+     * Rebuilds the index from a scan of the table, with as many buckets as
+     * the table needs now and no stale entries.
+     *
+     * @param tid the transaction to scan the table as
+     */
+    public synchronized void rebuild(TransactionId tid) throws IOException, DbException, TransactionAbortedException {
+        List<Tuple> tuples = new ArrayList<>();
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            tuples.add(it.next());
+        it.close();
+
+        int buckets = Math.max(MIN_BUCKETS, (int) Math.ceil(tuples.size() / (entriesPerPage * FILL_FACTOR)));
+        List<List<Tuple>> byBucket = new ArrayList<>(buckets);
+        for (int i = 0; i < buckets; i++)
+            byBucket.add(new ArrayList<>());
+        for (Tuple t : tuples)
+            byBucket.get(bucket(t.getField(keyField), buckets)).add(t);
+
+        if (raf != null)
+            raf.close();
+        raf = new RandomAccessFile(file, "rw");
+        raf.setLength(0);
+        numBuckets = buckets;
+        numPages = 1 + buckets;
+        byte[] header = new byte[PAGE_SIZE];
+        header[0] = (byte) (buckets >>> 24);
+        header[1] = (byte) (buckets >>> 16);
+        header[2] = (byte) (buckets >>> 8);
+        header[3] = (byte) buckets;
+        writePage(0, header);
+        for (int b = 0; b < buckets; b++) {
+            List<Tuple> entries = byBucket.get(b);
+            int pgno = 1 + b;
+            int from = 0;
+            do {
+                int to = Math.min(entries.size(), from + entriesPerPage);
+                int next = to < entries.size() ? numPages++ : 0;
+                writePage(pgno, encodePage(entries.subList(from, to), next));
+                pgno = next;
+                from = to;
+            } while (pgno != 0);
+        }
+        Debug.log(1, "HashIndex: built %s, %d tuples in %d buckets", file, tuples.size(), buckets);
+    }
+
+    private int bucket(Field key, int buckets) {
+        return (key.hashCode() & 0x7fffffff) % buckets;
+    }
+
+    private byte[] encodePage(List<Tuple> entries, int next) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(PAGE_SIZE);
+        DataOutputStream dos = new DataOutputStream(baos);
+        dos.writeInt(entries.size());
+        dos.writeInt(next);
+        for (Tuple t : entries) {
+            t.getField(keyField).serialize(dos);
+            dos.writeInt(t.getRecordId().getPageId().getPageNumber());
+            dos.writeInt(t.getRecordId().getTupleNumber());
+        }
+        dos.write(new byte[PAGE_SIZE - dos.size()]);
+        dos.flush();
+        return baos.toByteArray();
+    }
+
+    private byte[] readPage(int pgno) throws IOException {
+        byte[] data = new byte[PAGE_SIZE];
+        raf.seek((long) pgno * PAGE_SIZE);
+        raf.readFully(data);
+        return data;
+    }
+
+    private void writePage(int pgno, byte[] data) throws IOException {
+        raf.seek((long) pgno * PAGE_SIZE);
+        raf.write(data);
+    }
+
+    /**
+     * Adds the entry of a tuple that was just inserted into the table (and
+     * so has its RecordId). Does nothing if the index file is missing or
+     * stale: building it will find the tuple.
+     */
+    public synchronized void insert(Tuple t) throws IOException {
+        if (!open())
+            return;
+        int pgno = 1 + bucket(t.getField(keyField), numBuckets);
+        while (true) {
+            byte[] data = readPage(pgno);
+            DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+            int count = dis.readInt();
+            int next = dis.readInt();
+            if (next != 0) {
+                pgno = next;
+                continue;
+            }
+            if (count < entriesPerPage) {
+                // append the entry to this page
+                ByteArrayOutputStream baos = new ByteArrayOutputStream(keyType.getLen() + 8);
+                DataOutputStream dos = new DataOutputStream(baos);
+                t.getField(keyField).serialize(dos);
+                dos.writeInt(t.getRecordId().getPageId().getPageNumber());
+                dos.writeInt(t.getRecordId().getTupleNumber());
+                dos.flush();
+                byte[] entry = baos.toByteArray();
+                System.arraycopy(entry, 0, data, PAGE_HEADER_BYTES + count * entry.length, entry.length);
+                count++;
+                data[0] = (byte) (count >>> 24);
+                data[1] = (byte) (count >>> 16);
+                data[2] = (byte) (count >>> 8);
+                data[3] = (byte) count;
+                writePage(pgno, data);
+            } else {
+                // the bucket is full: chain a new page to it
+                int added = numPages++;
+                writePage(added, encodePage(Collections.singletonList(t), 0));
+                data[4] = (byte) (added >>> 24);
+                data[5] = (byte) (added >>> 16);
+                data[6] = (byte) (added >>> 8);
+                data[7] = (byte) added;
+                writePage(pgno, data);
+            }
+            return;
+        }
+    }
+
+    /**
+     * Returns the RecordIds the index holds for a key, each once, in page
+     * order. Some may be stale (see the class comment).
+     */
+    public synchronized List<RecordId> lookup(TransactionId tid, Field key)
+            throws IOException, DbException, TransactionAbortedException {
+        load(tid);
+        SortedSet<RecordId> rids = new TreeSet<>(Comparator
+                .comparingInt((RecordId r) -> r.getPageId().getPageNumber())
+                .thenComparingInt(RecordId::getTupleNumber));
+        int pgno = 1 + bucket(key, numBuckets);
+        while (pgno != 0) {
+            DataInputStream dis = new DataInputStream(new ByteArrayInputStream(readPage(pgno)));
+            int count = dis.readInt();
+            pgno = dis.readInt();
+            try {
+                for (int i = 0; i < count; i++) {
+                    Field k = keyType.parse(dis);
+                    int page = dis.readInt();
+                    int slot = dis.readInt();
+                    if (k.equals(key))
+                        rids.add(new RecordId(new HeapPageId(table.getId(), page), slot));
+                }
+            } catch (ParseException e) {
+                throw new IOException("parsing error in " + file + ": " + e.getMessage());
+            }
+        }
+        return new ArrayList<>(rids);
+    }
+
+    /**
+     * Returns an iterator over the tuples whose key equals the value of an
+     * equality predicate, checked against the table.
+     *
+     * @throws IllegalArgumentException if the predicate is not an equality
+     */
+    public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred) {
+        if (ipred.getOp() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("a hash index only answers equality lookups");
+        return new AbstractDbFileIterator() {
+            private Iterator<RecordId> it;
+
+            public void open() throws DbException, TransactionAbortedException {
+                try {
+                    it = lookup(tid, ipred.getField()).iterator();
+                } catch (IOException e) {
+                    throw new DbException("index " + file + ": " + e.getMessage());
+                }
+            }
+
+            protected Tuple readNext() throws DbException, TransactionAbortedException {
+                while (it != null && it.hasNext()) {
+                    Tuple t = table.fetchTuple(tid, it.next());
+                    if (t != null && t.getField(keyField).equals(ipred.getField()))
+                        return t;
+                }
+                return null;
+            }
+
+            public void rewind() throws DbException, TransactionAbortedException {
+                close();
+                open();
+            }
+
+            public void close() {
+                super.close();
+                it = null;
+            }
+        };
+    }
+
+    /**
+     * Closes the index file; the index is loaded again on its next use.
+     */
+    public synchronized void close() throws IOException {
+        if (raf != null)
+            raf.close();
+        raf = null;
+    }
+}
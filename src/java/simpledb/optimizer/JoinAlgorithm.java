@@ -0,0 +1,64 @@
+package simpledb.optimizer;
+
+import simpledb.execution.Predicate;
+
+/**
+ * The physical join operators the {@link JoinOptimizer} chooses between when
+ * it instantiates a {@link LogicalJoinNode}.
+ */
+public enum JoinAlgorithm {
+
+    /**
+     * Tuple-at-a-time nested loops ({@link simpledb.execution.Join}). Works
+     * for any predicate.
+     */
+    NESTED_LOOP,
+
+    /**
+     * Block nested loops ({@link simpledb.execution.Join} with a block size):
+     * scans the inner input once per {@link simpledb.execution.Join#BLOCK_PAGES}
+     * pages' worth of outer tuples. Works for any predicate.
+     */
+    BLOCK_NESTED_LOOP,
+
+    /**
+     * Hash join ({@link simpledb.execution.HashEquiJoin}): builds a hash table
+     * on the outer (left) input and probes it with the inner. Equality
+     * predicates only.
+     */
+    HASH,
+
+    /**
+     * Sort-merge join ({@link simpledb.execution.SortMergeJoin}): sorts both
+     * inputs on their join fields (unless already sorted) and merges them.
+     * Equality and range predicates; its output is sorted, which can make a
+     * later ORDER BY unnecessary.
+     */
+    SORT_MERGE,
+
+    /**
+     * Index nested loops ({@link simpledb.execution.IndexNestedLoopJoin}):
+     * looks up the matches of each outer tuple in an index on the join field
+     * of the inner input, which must be a base table with such an index (see
+     * {@link simpledb.execution.IndexNestedLoopJoin#canProbe}). Equality
+     * predicates with a hash index; equality and range predicates with a
+     * table stored in a B+ tree.
+     */
+    INDEX_NESTED_LOOP;
+
+    /**
+     * @return true if this algorithm can evaluate a join with the given
+     *         predicate operator
+     */
+    public boolean supports(Predicate.Op op) {
+        switch (this) {
+            case HASH:
+                return op == Predicate.Op.EQUALS;
+            case SORT_MERGE:
+            case INDEX_NESTED_LOOP:
+                return op != Predicate.Op.NOT_EQUALS && op != Predicate.Op.LIKE;
+            default:
+                return true;
+        }
+    }
+}
@@ -18,6 +18,8 @@ import java.util.*;
 public class JoinOptimizer {
     final LogicalPlan p;
     final List<LogicalJoinNode> joins;
+    // the field the result of the joins is sorted on afterwards, if any
+    private String interestingOrder;
 
     /**
      * Constructor
@@ -30,6 +32,41 @@ public class JoinOptimizer {
         this.joins = joins;
     }
 
+    /**
+     * Tells the optimizer that the result of the joins will be sorted
+     * ascending on a field, e.g. for an ORDER BY. {@link #orderJoins} then
+     * charges plans for that sort, except ones whose last join is a
+     * sort-merge join that already produces the order (see
+     * {@link #providesOrder}).
+     *
+     * @param field the quantified name of the field, or null for none
+     */
+    public void setInterestingOrder(String field) {
+        this.interestingOrder = field;
+    }
+
+    /**
+     * @return true if the output of j, evaluated as a sort-merge join, is
+     *         sorted ascending on the field with the given quantified name
+     * @see SortMergeJoin#getSortedField()
+     */
+    public static boolean providesOrder(LogicalJoinNode j, String field) {
+        if (j instanceof LogicalSubplanJoinNode || field == null)
+            return false;
+        switch (j.p) {
+            case EQUALS:
+                return field.equals(j.f1QuantifiedName) || field.equals(j.f2QuantifiedName);
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQ:
+                return field.equals(j.f1QuantifiedName);
+            case LESS_THAN:
+            case LESS_THAN_OR_EQ:
+                return field.equals(j.f2QuantifiedName);
+            default:
+                return false;
+        }
+    }
+
     /**
      * Return best iterator for computing a given logical join, given the
      * specified statistics, and the provided left and right subplans. Note that
@@ -37,6 +74,12 @@ public class JoinOptimizer {
      * inner/outer here -- because OpIterator's don't provide any cardinality
      * estimates, and stats only has information about the base tables. For this
      * reason, the plan1
+     * <p>
+     * The physical operator is the one recorded in {@link LogicalJoinNode#algorithm}
+     * by {@link #orderJoins}, or the default for the join predicate (see
+     * {@link #defaultAlgorithm}) if the join was not planned by the optimizer,
+     * or if it was planned as an index nested-loop join but plan2 has no index
+     * to probe (see {@link IndexNestedLoopJoin#canProbe}).
      *
      * @param lj    The join being considered
      * @param plan1 The left join node's child
@@ -68,7 +111,28 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        JoinAlgorithm algorithm = lj.algorithm != null ? lj.algorithm : defaultAlgorithm(lj.p);
+        if (!algorithm.supports(lj.p))
+            throw new ParsingException("Join algorithm " + algorithm + " cannot evaluate predicate " + lj.p);
+        if (algorithm == JoinAlgorithm.INDEX_NESTED_LOOP && !IndexNestedLoopJoin.canProbe(plan2, t2id, lj.p))
+            algorithm = defaultAlgorithm(lj.p);
+        switch (algorithm) {
+            case HASH:
+                j = new HashEquiJoin(p, plan1, plan2);
+                break;
+            case BLOCK_NESTED_LOOP:
+                j = new Join(p, plan1, plan2, Join.BLOCK_PAGES);
+                break;
+            case SORT_MERGE:
+                j = new SortMergeJoin(p, plan1, plan2);
+                break;
+            case INDEX_NESTED_LOOP:
+                j = new IndexNestedLoopJoin(p, plan1, plan2);
+                break;
+            default:
+                j = new Join(p, plan1, plan2);
+                break;
+        }
 
         return j;
 
@@ -96,17 +160,188 @@ public class JoinOptimizer {
      */
     public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
                                    double cost1, double cost2) {
+        JoinAlgorithm algorithm = j.algorithm != null ? j.algorithm : defaultAlgorithm(j.p);
+        return estimateJoinCost(j, algorithm, card1, card2, cost1, cost2);
+    }
+
+    /**
+     * Estimate the cost of a join evaluated with a particular join algorithm.
+     * The arguments are as for {@link #estimateJoinCost(LogicalJoinNode, int, int, double, double)};
+     * the left-hand side is the outer input of a nested-loops join and the
+     * build input of a hash join.
+     *
+     * @param algorithm the physical join operator; must support the predicate of j
+     * @return An estimate of the cost of this query, in terms of cost1 and
+     *         cost2
+     */
+    public double estimateJoinCost(LogicalJoinNode j, JoinAlgorithm algorithm,
+                                   int card1, int card2, double cost1, double cost2) {
         if (j instanceof LogicalSubplanJoinNode) {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement proper support for these for Lab 3.
             return card1 + cost1 + cost2;
-        } else {
-            // Insert your code here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic
-            // nested-loops join.
-            return cost1 + (card1 * cost2) + (card1 * card2);
         }
+        switch (algorithm) {
+            case HASH: {
+                // one insert per build tuple and one probe per inner tuple;
+                // HashEquiJoin keeps about MAP_SIZE build tuples in memory
+                // and writes the rest of both inputs out and reads them back
+                double spilled = card1 <= HashEquiJoin.MAP_SIZE ? 0
+                        : 1 - (double) HashEquiJoin.MAP_SIZE / card1;
+                return cost1 + card1 + cost2 + card2 + 2 * spilled * (cost1 + cost2);
+            }
+            case BLOCK_NESTED_LOOP: {
+                // the inner input is scanned once per block of outer tuples
+                double blocks = Math.ceil((double) card1 / outerBlockTuples(j));
+                return cost1 + (blocks * cost2) + ((double) card1 * card2);
+            }
+            case SORT_MERGE: {
+                // both inputs are sorted and then read once together; a
+                // range join steps through its matches (the fraction of the
+                // cross product estimateTableJoinCardinality assumes)
+                // without testing the other pairs
+                double merge = card1 + card2;
+                if (j.p != Predicate.Op.EQUALS)
+                    merge += 0.7 * card1 * card2;
+                return cost1 + cost2 + sortCost(card1) + sortCost(card2) + merge;
+            }
+            case INDEX_NESTED_LOOP: {
+                // the inner input is not scanned: each outer tuple costs an
+                // index lookup and reading its matches
+                double matches = indexMatches(j, card1, card2);
+                return cost1 + card1 * (indexProbeCost(j, matches) + matches);
+            }
+            default:
+                return cost1 + (card1 * cost2) + (card1 * card2);
+        }
+    }
+
+    /**
+     * The cost of sorting n tuples with an {@link OrderBy}: n log n
+     * comparisons, plus writing out and reading back sorted runs when the
+     * tuples do not fit in {@link OrderBy#SORT_BUFFER_SIZE}.
+     */
+    static double sortCost(int n) {
+        if (n < 2)
+            return 0;
+        double cost = n * (Math.log(n) / Math.log(2));
+        return n > OrderBy.SORT_BUFFER_SIZE ? cost + 2.0 * n : cost;
+    }
+
+    /**
+     * The number of inner tuples an index lookup finds per outer tuple of j:
+     * one for an equality join on the primary key of the inner table, as many
+     * as make up the join cardinality estimateTableJoinCardinality assumes
+     * for other equality joins, and its fixed fraction of the inner table for
+     * range joins.
+     */
+    private double indexMatches(LogicalJoinNode j, int card1, int card2) {
+        if (j.p != Predicate.Op.EQUALS)
+            return 0.7 * card2;
+        if (isPkey(j.t2Alias, j.f2PureName))
+            return 1;
+        return Math.max(1.0, (double) card2 / Math.max(card1, 1));
+    }
+
+    /**
+     * The I/O cost of one index lookup into the inner table of j that finds
+     * the given number of tuples (see {@link TableStats#estimateIndexScanCost}):
+     * one index page, and the pages holding the matches, which are stored
+     * together only if the table is stored in a B+ tree.
+     */
+    private double indexProbeCost(LogicalJoinNode j, double matches) {
+        int tableId = p.getTableId(j.t2Alias);
+        boolean clustered = IndexScan.isClustered(tableId);
+        TableStats s = TableStats.getTableStats(Database.getCatalog().getTableName(tableId));
+        if (s != null && s.totalTuples() > 0)
+            return s.estimateIndexScanCost(Math.min(1.0, matches / s.totalTuples()), clustered);
+        double pages = matches;
+        if (clustered)
+            pages = Math.ceil(matches / Join.blockTuples(Database.getCatalog().getTupleDesc(tableId), 1));
+        return (1 + pages) * TableStats.IOCOSTPERPAGE;
+    }
+
+    /**
+     * @return true if the inner table of j has an index an index nested-loop
+     *         join can probe for it
+     */
+    private boolean hasProbeIndex(LogicalJoinNode j) {
+        if (j instanceof LogicalSubplanJoinNode)
+            return false;
+        Integer tableId = p.getTableId(j.t2Alias);
+        if (tableId == null)
+            return false;
+        try {
+            int field = Database.getCatalog().getTupleDesc(tableId).indexForFieldName(j.f2PureName);
+            return IndexNestedLoopJoin.canProbeTable(tableId, field, j.p);
+        } catch (NoSuchElementException e) {
+            return false;
+        }
+    }
+
+    /**
+     * The number of outer tuples per block of a block nested-loop join: as
+     * many tuples of the outer table of j as fit in {@link Join#BLOCK_PAGES}
+     * pages. (The outer input of a later join in a plan is wider than that
+     * table, so this is an upper bound.) If the table is not known, blocks
+     * are taken to hold a single tuple.
+     */
+    private int outerBlockTuples(LogicalJoinNode j) {
+        Integer tableId = p.getTableId(j.t1Alias);
+        TupleDesc td = tableId == null ? null : Database.getCatalog().getTupleDesc(tableId);
+        return td == null ? 1 : Join.blockTuples(td, Join.BLOCK_PAGES);
+    }
+
+    /**
+     * Return the join algorithm used for a predicate when there are no
+     * cardinality estimates to choose by: a hash join for equality, block
+     * nested loops otherwise.
+     */
+    public static JoinAlgorithm defaultAlgorithm(Predicate.Op op) {
+        return JoinAlgorithm.HASH.supports(op) ? JoinAlgorithm.HASH : JoinAlgorithm.BLOCK_NESTED_LOOP;
+    }
+
+    /**
+     * Choose the cheapest join algorithm that supports the predicate of j,
+     * according to {@link #estimateJoinCost(LogicalJoinNode, JoinAlgorithm, int, int, double, double)}.
+     * Ties go to the default algorithm for the predicate. The right-hand side
+     * is taken to be the base table of j, so an index nested-loop join is
+     * considered if it has an index on the join field.
+     *
+     * @param j     the join
+     * @param card1 Estimated cardinality of the left-hand side of the join
+     * @param card2 Estimated cardinality of the right-hand side of the join
+     * @param cost1 Estimated cost of one full scan of the left-hand side
+     * @param cost2 Estimated cost of one full scan of the right-hand side
+     * @return the chosen algorithm
+     */
+    public JoinAlgorithm chooseJoinAlgorithm(LogicalJoinNode j, int card1, int card2,
+                                             double cost1, double cost2) {
+        return chooseJoinAlgorithm(j, card1, card2, cost1, cost2, true);
+    }
+
+    /**
+     * As {@link #chooseJoinAlgorithm(LogicalJoinNode, int, int, double, double)},
+     * but an index nested-loop join is only considered if innerIsTable, i.e.
+     * the right-hand side is the base table rather than the result of other
+     * joins.
+     */
+    private JoinAlgorithm chooseJoinAlgorithm(LogicalJoinNode j, int card1, int card2,
+                                              double cost1, double cost2, boolean innerIsTable) {
+        JoinAlgorithm best = defaultAlgorithm(j.p);
+        double bestCost = estimateJoinCost(j, best, card1, card2, cost1, cost2);
+        for (JoinAlgorithm a : JoinAlgorithm.values()) {
+            if (a == best || !a.supports(j.p))
+                continue;
+            if (a == JoinAlgorithm.INDEX_NESTED_LOOP && !(innerIsTable && hasProbeIndex(j)))
+                continue;
+            double cost = estimateJoinCost(j, a, card1, card2, cost1, cost2);
+            if (cost < bestCost) {
+                best = a;
+                bestCost = cost;
+            }
+        }
+        return best;
     }
 
     /**
@@ -181,39 +416,34 @@ public class JoinOptimizer {
      */
     public <T> Set<Set<T>> enumerateSubsets(List<T> v, int size) {
         Set<Set<T>> els = new HashSet<>();
-        els.add(new HashSet<>());
-        // Iterator<Set> it;
-        // long start = System.currentTimeMillis();
-
-        for (int i = 0; i < size; i++) {
-            Set<Set<T>> newels = new HashSet<>();
-            for (Set<T> s : els) {
-                for (T t : v) {
-                    Set<T> news = new HashSet<>(s);
-                    if (news.add(t))
-                        newels.add(news);
-                }
-            }
-            els = newels;
+        if (size > v.size())
+            return els;
+
+        // walk the combinations of size indices into v in lexicographic order
+        int n = v.size();
+        int[] idx = new int[size];
+        for (int i = 0; i < size; i++)
+            idx[i] = i;
+        while (true) {
+            Set<T> s = new HashSet<>();
+            for (int i : idx)
+                s.add(v.get(i));
+            if (s.size() == size)
+                els.add(s);
+
+            int i = size - 1;
+            while (i >= 0 && idx[i] == n - size + i)
+                i--;
+            if (i < 0)
+                break;
+            idx[i]++;
+            for (int k = i + 1; k < size; k++)
+                idx[k] = idx[k - 1] + 1;
         }
 
         return els;
 
     }
-    
-    //helper function for orderJoins
-    private LogicalJoinNode getDifference(Set<LogicalJoinNode> subset, Set<LogicalJoinNode> s) {
-        //set difference to see which LogicalJoinNode is left out
-        //basically subset - s
-        List<LogicalJoinNode> subList = new ArrayList<LogicalJoinNode>(subset);
-        for (int i = 0; i < subList.size(); i++) {
-            if (!s.contains(subList.get(i))) {
-                return subList.get(i);
-            }
-        }
-        //should never get to here
-        return null;
-    }
 
     /**
      * Compute a logical, reasonably efficient join on the specified tables. See
@@ -252,9 +482,8 @@ public class JoinOptimizer {
                 List<LogicalJoinNode> bestPlan = new ArrayList<LogicalJoinNode>();
                 double bestCostSoFar = Double.MAX_VALUE;
                 int bestCardSoFar = Integer.MAX_VALUE;
-                //conversion from set to list?
-                for (Set<LogicalJoinNode> s : enumerateSubsets(new ArrayList<LogicalJoinNode>(subset), i-1)) {
-                    LogicalJoinNode difference = getDifference(subset, s);
+                //each subset of size i-1 is subset minus one of its joins
+                for (LogicalJoinNode difference : subset) {
                     CostCard subplanEval = computeCostAndCardOfSubplan(stats, filterSelectivities, difference, subset, bestCostSoFar, optjoin);
                     if (subplanEval != null) {
                         bestPlan = subplanEval.plan;
@@ -266,6 +495,8 @@ public class JoinOptimizer {
             }        
         }
         List<LogicalJoinNode> result = optjoin.getOrder(j);
+        if (result == null) // a query over a single table has no joins to order
+            result = new ArrayList<>();
         if (explain) {
             printJoins(result, optjoin, stats, filterSelectivities);
         }
@@ -326,6 +557,8 @@ public class JoinOptimizer {
         double t1cost, t2cost;
         int t1card, t2card;
         boolean leftPkey, rightPkey;
+        // whether each side is a base table rather than the joins in prevBest
+        boolean t1IsTable = true, t2IsTable = true;
 
         if (news.isEmpty()) { // base case -- both are base relations
             prevBest = new ArrayList<>();
@@ -356,6 +589,7 @@ public class JoinOptimizer {
 
             // estimate cost of right subtree
             if (doesJoin(prevBest, table1Alias)) { // j.t1 is in prevBest
+                t1IsTable = false;
                 t1cost = prevBestCost; // left side just has cost of whatever
                 // left
                 // subtree is
@@ -372,6 +606,7 @@ public class JoinOptimizer {
             } else if (doesJoin(prevBest, j.t2Alias)) { // j.t2 is in prevbest
                 // (both
                 // shouldn't be)
+                t2IsTable = false;
                 t2cost = prevBestCost; // left side just has cost of whatever
                 // left
                 // subtree is
@@ -390,25 +625,54 @@ public class JoinOptimizer {
         }
 
         // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+        JoinAlgorithm alg1 = chooseJoinAlgorithm(j, t1card, t2card, t1cost, t2cost, t2IsTable);
+        double cost1 = estimateJoinCost(j, alg1, t1card, t2card, t1cost, t2cost);
 
+        LogicalJoinNode j1 = j;
         LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
+        JoinAlgorithm alg2 = chooseJoinAlgorithm(j2, t2card, t1card, t2cost, t1cost, t1IsTable);
+        double cost2 = estimateJoinCost(j2, alg2, t2card, t1card, t2cost, t1cost);
         if (cost2 < cost1) {
             boolean tmp;
             j = j2;
+            alg1 = alg2;
             cost1 = cost2;
             tmp = rightPkey;
             rightPkey = leftPkey;
             leftPkey = tmp;
         }
+        int card = estimateJoinCardinality(j, t1card, t2card, leftPkey,
+                rightPkey, stats);
+
+        if (interestingOrder != null && joinSet.size() == joins.size()) {
+            // the result of the last join gets sorted afterwards, unless it
+            // comes out of a sort-merge join in the right order
+            if (alg1 != JoinAlgorithm.SORT_MERGE || !providesOrder(j, interestingOrder))
+                cost1 += sortCost(card);
+            if (providesOrder(j1, interestingOrder)) {
+                double c = estimateJoinCost(j1, JoinAlgorithm.SORT_MERGE, t1card, t2card, t1cost, t2cost);
+                if (c < cost1) {
+                    j = j1;
+                    alg1 = JoinAlgorithm.SORT_MERGE;
+                    cost1 = c;
+                }
+            }
+            if (providesOrder(j2, interestingOrder)) {
+                double c = estimateJoinCost(j2, JoinAlgorithm.SORT_MERGE, t2card, t1card, t2cost, t1cost);
+                if (c < cost1) {
+                    j = j2;
+                    alg1 = JoinAlgorithm.SORT_MERGE;
+                    cost1 = c;
+                }
+            }
+        }
         if (cost1 >= bestCostSoFar)
             return null;
+        j = j.withAlgorithm(alg1);
 
         CostCard cc = new CostCard();
 
-        cc.card = estimateJoinCardinality(j, t1card, t2card, leftPkey,
-                rightPkey, stats);
+        cc.card = card;
         cc.cost = cost1;
         cc.plan = new ArrayList<>(prevBest);
         cc.plan.add(j); // prevbest is left -- add new join to end
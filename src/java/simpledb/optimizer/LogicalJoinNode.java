@@ -37,6 +37,12 @@ public class LogicalJoinNode {
      */
     public Predicate.Op p;
 
+    /**
+     * The physical join operator chosen for this join by the optimizer, or
+     * null if none has been chosen yet
+     */
+    public JoinAlgorithm algorithm;
+
     public LogicalJoinNode() {
     }
 
@@ -75,7 +81,19 @@ public class LogicalJoinNode {
         else
             newp = p;
 
-        return new LogicalJoinNode(t2Alias, t1Alias, f2PureName, f1PureName, newp);
+        LogicalJoinNode j = new LogicalJoinNode(t2Alias, t1Alias, f2PureName, f1PureName, newp);
+        j.algorithm = algorithm;
+        return j;
+    }
+
+    /**
+     * Return a copy of this LogicalJoinNode that is to be evaluated with the
+     * given join algorithm.
+     */
+    public LogicalJoinNode withAlgorithm(JoinAlgorithm algorithm) {
+        LogicalJoinNode j = new LogicalJoinNode(t1Alias, t2Alias, f1PureName, f2PureName, p);
+        j.algorithm = algorithm;
+        return j;
     }
 
     @Override
@@ -87,7 +105,7 @@ public class LogicalJoinNode {
 
     @Override
     public String toString() {
-        return t1Alias + ":" + t2Alias;//+ ";" + f1 + " " + p + " " + f2;
+        return t1Alias + ":" + t2Alias + (algorithm == null ? "" : "(" + algorithm + ")");//+ ";" + f1 + " " + p + " " + f2;
     }
 
     @Override
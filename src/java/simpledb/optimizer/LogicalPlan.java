@@ -40,6 +40,8 @@ public class LogicalPlan {
     private boolean oByAsc, hasOrderBy = false;
     private String oByField;
     private String query;
+    // the number of threads to scan and filter each table with
+    private int parallelism = 1;
     //    private Query owner;
 
     /**
@@ -74,6 +76,29 @@ public class LogicalPlan {
         return query;
     }
 
+    /**
+     * Set the number of threads the physical plan scans and filters each
+     * table with. With more than one, each table is split into that many
+     * parts (see {@link DbFile#iterator(TransactionId, int[], int, int)}),
+     * which are scanned and filtered below a {@link Gather}. A query over a
+     * single table also aggregates in two phases, partially on each worker,
+     * and, without ORDER BY, projects its output below the Gather. The default is 1, a plain sequential plan.
+     *
+     * @param parallelism the number of threads per table
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be positive");
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Get the number of threads set via {@link #setParallelism}.
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
     /**
      * Given a table alias, return id of the table object (this id can be supplied to {@link Catalog#getDatabaseFile(int)}).
      * Aliases are added as base tables are added via {@link #addScan}.
@@ -317,17 +342,21 @@ public class LogicalPlan {
         Map<String, String> equivMap = new HashMap<>();
         Map<String, Double> filterSelectivities = new HashMap<>();
         Map<String, TableStats> statsMap = new HashMap<>();
+        Map<String, List<Predicate>> scanPredicates = new HashMap<>();
+        Map<String, SeqScan> scans = new HashMap<>();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
             SeqScan ss = null;
             try {
-                ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias);
+                ss = new SeqScan(t, Database.getCatalog().getDatabaseFile(table.t).getId(), table.alias,
+                        scanColumns(table));
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
 
             subplanMap.put(table.alias, ss);
+            scans.put(table.alias, ss);
             String baseTableName = Database.getCatalog().getTableName(table.t);
             statsMap.put(baseTableName, baseTableStats.get(baseTableName));
             filterSelectivities.put(table.alias, 1.0);
@@ -361,16 +390,71 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
             subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            scanPredicates.computeIfAbsent(lf.tableAlias, k -> new ArrayList<>()).add(p);
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
 
-            double sel = s.estimateSelectivity(subplan.getTupleDesc().indexForFieldName(lf.fieldQuantifiedName), lf.p, f);
+            // the statistics are on the fields of the table, which the scan
+            // may only return some of
+            int tableField = Database.getCatalog().getTupleDesc(this.getTableId(lf.tableAlias))
+                    .indexForFieldName(lf.fieldPureName);
+            double sel = s.estimateSelectivity(tableField, lf.p, f);
             filterSelectivities.put(lf.tableAlias, filterSelectivities.get(lf.tableAlias) * sel);
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
 
+        // read a table through an index on a filtered field instead of
+        // scanning it, if that is cheaper for the most selective such filter
+        Set<String> indexScanned = new HashSet<>();
+        for (LogicalScanNode table : tables) {
+            List<Predicate> preds = scanPredicates.get(table.alias);
+            if (preds == null)
+                continue;
+            TableStats s = statsMap.get(Database.getCatalog().getTableName(table.t));
+            boolean clustered = IndexScan.isClustered(table.t);
+            Predicate best = null;
+            double bestCost = s.estimateScanCost();
+            for (Predicate p : preds) {
+                if (!IndexScan.canScan(table.t, p.getField(), p.getOp()))
+                    continue;
+                double sel = s.estimateSelectivity(p.getField(), p.getOp(), p.getOperand());
+                double cost = s.estimateIndexScanCost(sel, clustered);
+                if (sel >= 0 && cost < bestCost) {
+                    best = p;
+                    bestCost = cost;
+                }
+            }
+            if (best == null)
+                continue;
+            OpIterator subplan = new IndexScan(t, table.t, table.alias, best.getField(),
+                    new IndexPredicate(best.getOp(), best.getOperand()));
+            for (Predicate p : preds)
+                if (p != best)
+                    subplan = new Filter(p, subplan);
+            subplanMap.put(table.alias, subplan);
+            indexScanned.add(table.alias);
+        }
+
+        // let the scans of the other tables skip pages that cannot hold a
+        // tuple passing their filters
+        // (pruning predicates are on fields of the table, so not for scans
+        // of some of the fields)
+        for (Map.Entry<String, List<Predicate>> e : scanPredicates.entrySet())
+            if (!indexScanned.contains(e.getKey()) && scans.get(e.getKey()).getColumns() == null)
+                for (Predicate p : e.getValue())
+                    scans.get(e.getKey()).addPruningPredicate(p);
+
+        if (parallelism > 1) {
+            for (LogicalScanNode table : tables)
+                if (!indexScanned.contains(table.alias))
+                    subplanMap.put(table.alias, parallelScan(t, table,
+                            scanPredicates.getOrDefault(table.alias, Collections.emptyList())));
+        }
+
         JoinOptimizer jo = new JoinOptimizer(this, joins);
+        if (hasOrderBy && oByAsc && !hasAgg)
+            jo.setInterestingOrder(oByField);
 
         joins = jo.orderJoins(statsMap, filterSelectivities, explain);
 
@@ -484,12 +568,14 @@ public class LogicalPlan {
 
         if (hasAgg) {
             TupleDesc td = node.getTupleDesc();
-            Aggregate aggNode;
+            OpIterator aggNode;
             try {
-                aggNode = new Aggregate(node,
-                        td.indexForFieldName(aggField),
-                        groupByField == null ? Aggregator.NO_GROUPING : td.indexForFieldName(groupByField),
-                        getAggOp(aggOp));
+                int afield = td.indexForFieldName(aggField);
+                int gfield = groupByField == null ? Aggregator.NO_GROUPING : td.indexForFieldName(groupByField);
+                if (node instanceof Gather)
+                    aggNode = parallelAggregate((Gather) node, afield, gfield, getAggOp(aggOp));
+                else
+                    aggNode = new Aggregate(node, afield, gfield, getAggOp(aggOp));
             } catch (NoSuchElementException | IllegalArgumentException e) {
                 throw new simpledb.ParsingException(e);
             }
@@ -497,12 +583,122 @@ public class LogicalPlan {
         }
 
         if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().indexForFieldName(oByField), oByAsc, node);
+            int field = node.getTupleDesc().indexForFieldName(oByField);
+            // a sort-merge join may already have produced the order
+            if (!oByAsc || !SortMergeJoin.isSortedOn(node, field))
+                node = new OrderBy(field, oByAsc, node);
         }
 
+        if (node instanceof Gather) {
+            // the workers produce the output tuples: project on them too
+            OpIterator[] parts = ((Gather) node).getChildren();
+            for (int i = 0; i < parts.length; i++)
+                parts[i] = new Project(outFields, outTypes, parts[i]);
+            return new Gather(parts);
+        }
         return new Project(outFields, outTypes, node);
     }
 
+    /**
+     * Splits an aggregate over the parts of a parallel scan in two phases: a
+     * partial aggregate of each part on the scan's workers, then a final
+     * aggregate of the partial results. AVG is computed as SUM_COUNT and then
+     * SC_AVG, COUNT as COUNT and then the SUM of the counts, and MIN, MAX and
+     * SUM as themselves twice. With a GROUP BY, the partial results are
+     * repartitioned by group, so that the final aggregates run in parallel
+     * too.
+     */
+    private OpIterator parallelAggregate(Gather scan, int afield, int gfield, Aggregator.Op op) {
+        Aggregator.Op partialOp = op == Aggregator.Op.AVG ? Aggregator.Op.SUM_COUNT : op;
+        Aggregator.Op finalOp = op == Aggregator.Op.AVG ? Aggregator.Op.SC_AVG
+                : op == Aggregator.Op.COUNT ? Aggregator.Op.SUM : op;
+        OpIterator[] parts = scan.getChildren();
+        for (int i = 0; i < parts.length; i++)
+            parts[i] = new Aggregate(parts[i], afield, gfield, partialOp);
+        if (gfield == Aggregator.NO_GROUPING)
+            return new Aggregate(new Gather(parts), 0, Aggregator.NO_GROUPING, finalOp);
+
+        Repartition[] groups = Repartition.repartition(parts, 0, parts.length);
+        OpIterator[] finals = new OpIterator[groups.length];
+        for (int i = 0; i < groups.length; i++)
+            finals[i] = new Aggregate(groups[i], 1, 0, finalOp);
+        return new Gather(finals);
+    }
+
+    /**
+     * Returns the fields of a table the query refers to, in the table's
+     * order, if the table is stored by column (in a {@link ColumnFile}), so
+     * that its scan reads only those fields' pages. Returns null, for a scan
+     * of all of the fields, for other tables, when the query selects * or
+     * when it uses all of the fields.
+     */
+    private int[] scanColumns(LogicalScanNode table) {
+        DbFile file = Database.getCatalog().getDatabaseFile(table.t);
+        if (!(file instanceof ColumnFile))
+            return null;
+        Set<String> used = new HashSet<>();
+        for (LogicalFilterNode lf : filters)
+            if (lf.tableAlias.equals(table.alias))
+                used.add(lf.fieldPureName);
+        for (LogicalJoinNode lj : joins) {
+            if (table.alias.equals(lj.t1Alias))
+                used.add(lj.f1PureName);
+            if (!(lj instanceof LogicalSubplanJoinNode) && table.alias.equals(lj.t2Alias))
+                used.add(lj.f2PureName);
+        }
+        List<String> names = new ArrayList<>();
+        for (LogicalSelectListNode si : selectList)
+            names.add(si.fname);
+        if (hasAgg) {
+            names.add(aggField);
+            names.add(groupByField);
+        }
+        if (hasOrderBy)
+            names.add(oByField);
+        for (String name : names) {
+            if (name == null)
+                continue;
+            String[] parts = name.split("[.]");
+            if (parts.length != 2 || parts[1].equals("*"))
+                return null;
+            if (parts[0].equals(table.alias))
+                used.add(parts[1]);
+        }
+
+        TupleDesc td = file.getTupleDesc();
+        List<Integer> columns = new ArrayList<>();
+        for (int i = 0; i < td.numFields(); i++)
+            if (used.contains(td.getFieldName(i)))
+                columns.add(i);
+        if (columns.size() == td.numFields())
+            return null;
+        if (columns.isEmpty())
+            columns.add(0); // the rows still need counting
+        return columns.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Builds the scan of a table and its filters once for each of the
+     * {@link #parallelism} parts of the table, to be run by the workers of a
+     * {@link Gather}.
+     */
+    private OpIterator parallelScan(TransactionId t, LogicalScanNode table, List<Predicate> predicates) {
+        int tableId = Database.getCatalog().getDatabaseFile(table.t).getId();
+        int[] columns = scanColumns(table);
+        OpIterator[] parts = new OpIterator[parallelism];
+        for (int i = 0; i < parallelism; i++) {
+            SeqScan scan = new SeqScan(t, tableId, table.alias, columns, i, parallelism);
+            OpIterator part = scan;
+            for (Predicate p : predicates) {
+                if (columns == null)
+                    scan.addPruningPredicate(p);
+                part = new Filter(p, part);
+            }
+            parts[i] = part;
+        }
+        return new Gather(parts);
+    }
+
     public static void main(String[] argv) {
         // construct a 3-column table schema
         Type[] types = new Type[]{Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE};
@@ -42,7 +42,16 @@ public class LogicalSubplanJoinNode extends LogicalJoinNode {
     }
 
     public LogicalSubplanJoinNode swapInnerOuter() {
-        return new LogicalSubplanJoinNode(t1Alias, f1PureName, subPlan, p);
+        LogicalSubplanJoinNode j = new LogicalSubplanJoinNode(t1Alias, f1PureName, subPlan, p);
+        j.algorithm = algorithm;
+        return j;
+    }
+
+    @Override
+    public LogicalSubplanJoinNode withAlgorithm(JoinAlgorithm algorithm) {
+        LogicalSubplanJoinNode j = new LogicalSubplanJoinNode(t1Alias, f1PureName, subPlan, p);
+        j.algorithm = algorithm;
+        return j;
     }
 
 }
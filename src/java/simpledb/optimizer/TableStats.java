@@ -100,7 +100,7 @@ public class TableStats {
         // TODO: some code goes here
         this.tableid = tableid;
         this.ioCostPerPage = ioCostPerPage;
-        HeapFile dbf = (HeapFile) Database.getCatalog().getDatabaseFile(tableid);
+        DbFile dbf = Database.getCatalog().getDatabaseFile(tableid);
         this.td = dbf.getTupleDesc();
         //tcard should be the number of pages in the table 
         this.tcard = dbf.numPages();
@@ -226,6 +226,7 @@ public class TableStats {
             }
         }
         tableIt.close();
+        Database.getBufferPool().transactionComplete(tableTransaction.getId());
     }
 
     /**
@@ -245,6 +246,23 @@ public class TableStats {
         return (double) tcard * ioCostPerPage;
     }
 
+    /**
+     * Estimates the cost of reading the tuples that match a predicate through
+     * an index (see {@link simpledb.execution.IndexScan}): one page of the
+     * index, plus the pages that hold the matching tuples. A clustered index
+     * (a table stored in a B+ tree) reads those pages in order, so that is
+     * the fraction of the table's pages the predicate selects; an unclustered
+     * one may read a different page for every matching tuple.
+     *
+     * @param selectivity the selectivity of the predicate the index answers
+     * @param clustered   whether tuples with nearby keys are stored together
+     * @return The estimated cost of the index scan.
+     */
+    public double estimateIndexScanCost(double selectivity, boolean clustered) {
+        double pages = clustered ? Math.ceil(selectivity * tcard) : selectivity * totalTuples();
+        return (1 + pages) * ioCostPerPage;
+    }
+
     /**
      * This method returns the number of tuples in the relation, given that a
      * predicate with selectivity selectivityFactor is applied.
@@ -2,15 +2,25 @@ package simpledb.storage;
 
 import simpledb.common.Database;
 import simpledb.common.DbException;
+import simpledb.common.Debug;
 import simpledb.common.DeadlockException;
 import simpledb.common.Permissions;
+import simpledb.index.HashIndex;
+import simpledb.transaction.LockManager;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -19,7 +29,28 @@ import java.util.concurrent.ConcurrentMap;
  * <p>
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
- * locks to read/write the page.
+ * locks to read/write the page. Locks are kept by a {@link LockManager} and
+ * held until the transaction completes (strict two-phase locking).
+ * <p>
+ * Dirty pages may be evicted before the transaction that dirtied them
+ * completes (STEAL): an UPDATE record holding the page's before image is
+ * written to the {@link LogFile} and forced to disk first, so that the
+ * change can be undone. Committing a transaction only logs the after images
+ * of its dirty pages, which the COMMIT record then forces to disk; the pages
+ * themselves are written later, when they are evicted or flushed (NO
+ * FORCE). Aborting a transaction drops its dirty pages and, if some of its
+ * changes reached disk, has the log roll them back.
+ * <p>
+ * The page table is a concurrent map, so a cache hit takes no lock. A miss
+ * registers a loading future for its PageId; other threads that miss on the
+ * same page wait for that future instead of reading the page again. Frames
+ * are reserved, and victims evicted, under a small eviction lock, but the
+ * disk read itself happens outside of any lock, so misses on different pages
+ * proceed in parallel.
+ * <p>
+ * Sequential scans can ask the BufferPool to read ahead (see
+ * {@link #setPrefetchWindow}); the pages are read on a background thread
+ * and added to the pool like any other page.
  *
  * @Threadsafe, all fields are final
  */
@@ -38,18 +69,56 @@ public class BufferPool {
      */
     public static final int DEFAULT_PAGES = 50;
 
-    private final Random random = new Random();
-    final int numPages;   // number of pages -- currently, not enforced
+    final int numPages;   // maximum number of pages in memory
     final ConcurrentMap<PageId, Page> pages; // hash table storing current pages in memory
+    private final ReplacementPolicy policy;
+    private final LockManager lockManager = new LockManager();
+    // running transactions some of whose changes were written to disk
+    private final Set<TransactionId> stolen = ConcurrentHashMap.newKeySet();
+    // pages whose committed contents are not on disk yet
+    private final Set<PageId> committedUnwritten = ConcurrentHashMap.newKeySet();
+
+    // pages currently being read from disk by some thread
+    private final ConcurrentMap<PageId, CompletableFuture<Page>> loading = new ConcurrentHashMap<>();
+    // guards reserved and eviction
+    private final Object evictionLock = new Object();
+    // frames promised to pages that are being read or added but are not in pages yet
+    private int reserved = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    // read-ahead; off (0 pages) by default
+    private volatile int prefetchWindow = 0;
+    private ExecutorService prefetchExecutor; // created on first use, guarded by this
+    // prefetched pages that nobody has asked for yet
+    private final Set<PageId> prefetchedUnused = ConcurrentHashMap.newKeySet();
+    private final AtomicLong prefetched = new AtomicLong();
+    private final AtomicLong prefetchHits = new AtomicLong();
+    private final AtomicLong prefetchWaste = new AtomicLong();
 
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages, using the 2Q
+     * replacement policy.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, new TwoQueueReplacementPolicy(numPages));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and evicts the
+     * pages chosen by the given policy.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy   the replacement policy; must not be shared with another
+     *                 BufferPool
+     */
+    public BufferPool(int numPages, ReplacementPolicy policy) {
         this.numPages = numPages;
         this.pages = new ConcurrentHashMap<>();
+        this.policy = policy;
     }
 
     public static int getPageSize() {
@@ -66,6 +135,67 @@ public class BufferPool {
         BufferPool.pageSize = DEFAULT_PAGE_SIZE;
     }
 
+    /**
+     * @return the number of getPage calls that found the page in the pool
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of getPage calls that had to read the page from disk
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * @return the lock manager that keeps the page locks of transactions
+     *         using this BufferPool, and counts how long they wait for them
+     */
+    public LockManager getLockManager() {
+        return lockManager;
+    }
+
+    /**
+     * Sets how many pages ahead of a sequential scan should be read in the
+     * background. Capped at a quarter of the pool so that read-ahead does
+     * not flush the rest of the pool. 0 turns read-ahead off.
+     */
+    public void setPrefetchWindow(int pages) {
+        prefetchWindow = Math.max(0, Math.min(pages, numPages / 4));
+    }
+
+    /**
+     * @return the number of pages sequential scans should read ahead, or 0
+     *         if read-ahead is off
+     */
+    public int getPrefetchWindow() {
+        return prefetchWindow;
+    }
+
+    /**
+     * @return the number of pages read by read-ahead
+     */
+    public long getPrefetchCount() {
+        return prefetched.get();
+    }
+
+    /**
+     * @return the number of read-ahead pages that were later requested
+     */
+    public long getPrefetchHitCount() {
+        return prefetchHits.get();
+    }
+
+    /**
+     * @return the number of read-ahead pages that were evicted or removed
+     *         before anybody requested them
+     */
+    public long getPrefetchWasteCount() {
+        return prefetchWaste.get();
+    }
+
     /**
      * Retrieve the specified page with the associated permissions.
      * Will acquire a lock and may block if that lock is held by another
@@ -83,23 +213,154 @@ public class BufferPool {
      */
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
             throws TransactionAbortedException, DbException {
-        // XXX Yuan points out that HashMap is not synchronized, so this is buggy.
-        // XXX TODO(ghuo): do we really know enough to implement NO STEAL here?
-        //     won't we still evict pages?
-        Page p;
-        synchronized (this) {
+        lockManager.acquire(tid, pid, perm);
+
+        Page p = pages.get(pid);
+        if (p != null) {
+            hit(pid);
+            return p;
+        }
+
+        CompletableFuture<Page> load = new CompletableFuture<>();
+        CompletableFuture<Page> inFlight;
+        while ((inFlight = loading.putIfAbsent(pid, load)) != null) {
+            // another thread is already reading this page; share its result
+            p = awaitLoad(inFlight);
+            if (p != null) {
+                hit(pid);
+                return p;
+            }
+            // read-ahead gave up on this page; read it ourselves
+        }
+        try {
+            // the page may have been loaded between our lookup and putIfAbsent
             p = pages.get(pid);
-            if (p == null) {
-                if (pages.size() >= numPages) {
-                    evictPage();
+            if (p != null) {
+                hit(pid);
+            } else {
+                misses.incrementAndGet();
+                reserveFrame();
+                try {
+                    p = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+                    pages.put(pid, p);
+                    policy.pageAdded(pid);
+                } finally {
+                    releaseFrame();
                 }
+            }
+            load.complete(p);
+            return p;
+        } catch (RuntimeException | DbException e) {
+            load.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(pid, load);
+        }
+    }
 
-                p = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
-                pages.put(pid, p);
+    private void hit(PageId pid) {
+        hits.incrementAndGet();
+        policy.pageAccessed(pid);
+        if (!prefetchedUnused.isEmpty() && prefetchedUnused.remove(pid))
+            prefetchHits.incrementAndGet();
+    }
+
+    /**
+     * Waits for a page that another thread is loading.
+     *
+     * @return the page, or null if the loading thread gave up without
+     *         reading it
+     */
+    private static Page awaitLoad(CompletableFuture<Page> load) throws DbException {
+        try {
+            return load.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DbException("interrupted while waiting for a page to be read");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof DbException)
+                throw (DbException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new DbException("could not read page: " + cause);
+        }
+    }
+
+    /**
+     * Reserves room for one more page, evicting pages if the pool is full.
+     * Every call must be paired with a call to releaseFrame once the page is
+     * in the page table (or the attempt to add it failed).
+     */
+    private void reserveFrame() throws DbException {
+        synchronized (evictionLock) {
+            while (pages.size() + reserved >= numPages) {
+                if (!evictPage(true)) {
+                    if (reserved == 0)
+                        throw new DbException("no buffer pool slot can be freed");
+                    // the pool is full of frames other threads are still
+                    // filling; wait for one of them to finish
+                    try {
+                        evictionLock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new DbException("interrupted while waiting for a free buffer pool slot");
+                    }
+                }
             }
+            reserved++;
+        }
+    }
+
+    /**
+     * Like reserveFrame, but gives up instead of waiting or failing when no
+     * clean page can be evicted.
+     *
+     * @return true if a frame was reserved
+     */
+    private boolean tryReserveFrame() throws DbException {
+        synchronized (evictionLock) {
+            while (pages.size() + reserved >= numPages) {
+                if (!evictPage(false))
+                    return false;
+            }
+            reserved++;
+            return true;
+        }
+    }
+
+    private void releaseFrame() {
+        synchronized (evictionLock) {
+            reserved--;
+            evictionLock.notifyAll();
         }
+    }
 
-        return p;
+    /**
+     * Puts a page that was dirtied by insertTuple or deleteTuple in the page
+     * table, replacing any older version of it.
+     */
+    private void putDirtyPage(TransactionId tid, Page p) throws DbException {
+        PageId pid = p.getId();
+        // done under the page's monitor so that evictPage cannot drop the
+        // page between marking it dirty and putting it back
+        synchronized (p) {
+            p.markDirty(true, tid);
+            //replace old page with new one in case the file returned a new copy of the page
+            if (pages.replace(pid, p) != null) {
+                policy.pageAccessed(pid);
+                return;
+            }
+        }
+        reserveFrame();
+        try {
+            if (pages.put(pid, p) == null)
+                policy.pageAdded(pid);
+            else
+                policy.pageAccessed(pid);
+        } finally {
+            releaseFrame();
+        }
     }
 
     /**
@@ -112,7 +373,7 @@ public class BufferPool {
      * @param pid the ID of the page to unlock
      */
     public void unsafeReleasePage(TransactionId tid, PageId pid) {
-        // TODO: some code goes here
+        lockManager.release(tid, pid);
     }
 
     /**
@@ -121,27 +382,89 @@ public class BufferPool {
      * @param tid the ID of the transaction requesting the unlock
      */
     public void transactionComplete(TransactionId tid) {
-        // TODO: some code goes here
+        transactionComplete(tid, true);
     }
 
     /**
      * Return true if the specified transaction has a lock on the specified page
      */
     public boolean holdsLock(TransactionId tid, PageId p) {
-        // TODO: some code goes here
-        // not necessary for lab1|lab2
-        return false;
+        return lockManager.holdsLock(tid, p);
     }
 
     /**
      * Commit or abort a given transaction; release all locks associated to
      * the transaction.
+     * <p>
+     * On commit, the after images of the pages it dirtied are logged, but
+     * the pages are not written: the COMMIT record logged next forces the
+     * log, so a commit costs one log force, shared with the transactions
+     * committing at the same time. The locks are released only once the
+     * COMMIT record is on disk, so no other transaction sees changes that
+     * recovery could still undo. A transaction that logged nothing (one that
+     * only read, without {@link simpledb.transaction.Transaction#start})
+     * logs no COMMIT record. The pages' before images are reset to their
+     * committed contents. On abort, the log rolls the transaction back (see
+     * {@link LogFile#rollback}).
      *
      * @param tid    the ID of the transaction requesting the unlock
      * @param commit a flag indicating whether we should commit or abort
      */
     public void transactionComplete(TransactionId tid, boolean commit) {
-        // TODO: some code goes here
+        try {
+            if (commit) {
+                LogFile log = Database.getLogFile();
+                // pages it wrote out early are clean now, but still locked
+                for (PageId pid : lockManager.getLockedPages(tid)) {
+                    Page p = pages.get(pid);
+                    if (p == null || !lockManager.holdsExclusiveLock(tid, pid))
+                        continue;
+                    if (tid.equals(p.isDirty())) {
+                        log.logWrite(tid, p.getBeforeImage(), p);
+                        committedUnwritten.add(pid);
+                    }
+                    // the committed contents are what a later abort returns to
+                    p.setBeforeImage();
+                }
+                if (log.isLogged(tid))
+                    log.logCommit(tid);
+            } else {
+                Database.getLogFile().rollback(tid);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("could not complete transaction " + tid.getId() + ": " + e, e);
+        } finally {
+            lockManager.releaseAll(tid);
+            stolen.remove(tid);
+        }
+    }
+
+    /**
+     * Undoes, in the pool, the changes a transaction made to the pages it
+     * dirtied. Called by {@link LogFile#rollback}.
+     * <p>
+     * A page whose committed contents are on disk is dropped, so that the
+     * next reader reads it again. One that holds committed changes not
+     * written yet is replaced by its before image, which is its committed
+     * contents (see {@link #transactionComplete(TransactionId, boolean)}),
+     * and stays dirty.
+     *
+     * @return whether some of the transaction's changes were written to
+     *         disk, and so have to be undone from the log
+     */
+    public boolean discardPages(TransactionId tid) {
+        for (Page p : pages.values()) {
+            if (!tid.equals(p.isDirty()))
+                continue;
+            if (committedUnwritten.contains(p.getId())) {
+                Page committed = p.getBeforeImage();
+                committed.markDirty(true, tid);
+                pages.replace(p.getId(), p, committed);
+            } else {
+                removePage(p.getId());
+            }
+        }
+        return stolen.remove(tid);
     }
 
     /**
@@ -153,7 +476,8 @@ public class BufferPool {
      * Marks any pages that were dirtied by the operation as dirty by calling
      * their markDirty bit, and adds versions of any pages that have
      * been dirtied to the cache (replacing any existing versions of those pages) so
-     * that future requests see up-to-date pages.
+     * that future requests see up-to-date pages. Adds the tuple to the
+     * table's indexes; deleting it leaves them alone (see {@link HashIndex}).
      *
      * @param tid     the transaction adding the tuple
      * @param tableId the table to add the tuple to
@@ -168,25 +492,10 @@ public class BufferPool {
 
         List<Page> dirtypages = file.insertTuple(tid, t);
 
-        synchronized (this) {
-            for (Page p : dirtypages) {
-                p.markDirty(true, tid);
-
-                //System.out.println("ADDING TUPLE TO PAGE " + p.getId().pageno() + " WITH HASH CODE " + p.getId().hashCode());
-
-                // if page in pool already, done.
-                if (pages.get(p.getId()) != null) {
-                    //replace old page with new one in case addTuple returns a new copy of the page
-                    pages.put(p.getId(), p);
-                } else {
-
-                    // put page in pool
-                    if (pages.size() >= numPages)
-                        evictPage();
-                    pages.put(p.getId(), p);
-                }
-            }
-        }
+        for (Page p : dirtypages)
+            putDirtyPage(tid, p);
+        for (HashIndex index : Database.getCatalog().getIndexes(tableId))
+            index.insert(t);
     }
 
     /**
@@ -207,34 +516,17 @@ public class BufferPool {
         DbFile file = Database.getCatalog().getDatabaseFile(t.getRecordId().getPageId().getTableId());
         List<Page> dirtypages = file.deleteTuple(tid, t);
 
-        synchronized (this) {
-            for (Page p : dirtypages) {
-                p.markDirty(true, tid);
-
-                // if page in pool already, done.
-                if (pages.get(p.getId()) != null) {
-                    //replace old page with new one in case deleteTuple returns a new copy of the page
-                    pages.put(p.getId(), p);
-                } else {
-
-                    // put page in pool
-                    if (pages.size() >= numPages)
-                        evictPage();
-                    pages.put(p.getId(), p);
-                }
-            }
-        }
+        for (Page p : dirtypages)
+            putDirtyPage(tid, p);
     }
 
     /**
      * Flush all dirty pages to disk.
-     * NB: Be careful using this routine -- it writes dirty data to disk so will
-     * break simpledb if running in NO STEAL mode.
+     * The changes of running transactions are logged first, with a single
+     * log force for all of the pages.
      */
-    public synchronized void flushAllPages() throws IOException {
-        /* calls flushPage() for each page in the BufferPool */
-        for (PageId pageId : pages.keySet()) flushPage(pageId);
-
+    public void flushAllPages() throws IOException {
+        flushPages(new ArrayList<>(pages.values()));
     }
 
     /**
@@ -246,10 +538,88 @@ public class BufferPool {
      * Also used by B+ tree files to ensure that deleted pages
      * are removed from the cache so they can be reused safely
      */
-    public synchronized void removePage(PageId pid) {
-        Page p = pages.get(pid);
-        if (p != null) {
-            pages.remove(pid);
+    public void removePage(PageId pid) {
+        committedUnwritten.remove(pid);
+        if (pages.remove(pid) != null) {
+            policy.pageRemoved(pid);
+            if (prefetchedUnused.remove(pid))
+                prefetchWaste.incrementAndGet();
+        }
+    }
+
+    /**
+     * Asks for pages [start, start + count) of a heap file to be read in the
+     * background, with a single read, and added to the pool. Pages that are
+     * already in the pool or being read end the range early. Does nothing if
+     * read-ahead is off. Threads that ask for one of the pages while it is
+     * being read wait for the read-ahead instead of reading it again.
+     */
+    public void prefetch(HeapFile file, int start, int count) {
+        if (prefetchWindow == 0 || count <= 0)
+            return;
+        ExecutorService executor;
+        synchronized (this) {
+            if (prefetchExecutor == null) {
+                // the thread goes away when read-ahead is idle
+                ThreadPoolExecutor tpe = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<>(), r -> {
+                            Thread t = new Thread(r, "BufferPool prefetch");
+                            t.setDaemon(true);
+                            return t;
+                        });
+                tpe.allowCoreThreadTimeOut(true);
+                prefetchExecutor = tpe;
+            }
+            executor = prefetchExecutor;
+        }
+        executor.execute(() -> readAhead(file, start, count));
+    }
+
+    private void readAhead(HeapFile file, int start, int count) {
+        // claim as long a run of pages as we can, so that nobody else reads them
+        List<PageId> pids = new ArrayList<>();
+        List<CompletableFuture<Page>> loads = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            PageId pid = new HeapPageId(file.getId(), start + i);
+            if (pages.containsKey(pid))
+                break;
+            CompletableFuture<Page> load = new CompletableFuture<>();
+            if (loading.putIfAbsent(pid, load) != null)
+                break;
+            pids.add(pid);
+            loads.add(load);
+        }
+
+        int reservedFrames = 0;
+        try {
+            while (reservedFrames < pids.size() && tryReserveFrame())
+                reservedFrames++;
+            if (reservedFrames == 0)
+                return;
+            List<Page> read = file.readPages(start, reservedFrames);
+            for (int i = 0; i < read.size(); i++) {
+                Page p = read.get(i);
+                PageId pid = pids.get(i);
+                // a concurrent insertTuple may have added a newer copy
+                if (pages.putIfAbsent(pid, p) == null) {
+                    policy.pageAdded(pid);
+                    prefetchedUnused.add(pid);
+                    prefetched.incrementAndGet();
+                } else {
+                    p = pages.get(pid);
+                }
+                loads.get(i).complete(p);
+            }
+        } catch (IOException | DbException | RuntimeException e) {
+            Debug.log(1, "BufferPool.readAhead: giving up on %d pages: %s", pids.size(), e);
+        } finally {
+            for (int i = 0; i < reservedFrames; i++)
+                releaseFrame();
+            // pages we did not read are left to whoever asks for them
+            for (int i = 0; i < pids.size(); i++) {
+                loads.get(i).complete(null);
+                loading.remove(pids.get(i), loads.get(i));
+            }
         }
     }
 
@@ -258,58 +628,98 @@ public class BufferPool {
      *
      * @param pid an ID indicating the page to flush
      */
-    private synchronized void flushPage(PageId pid) throws IOException {
+    private void flushPage(PageId pid) throws IOException {
 
         Page p = pages.get(pid);
         if (p == null)
             return; //not in buffer pool -- doesn't need to be flushed
 
-        DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
-        file.writePage(p);
-        p.markDirty(false, null);
+        flushPages(Collections.singletonList(p));
+    }
+
+    /**
+     * Writes pages to disk, write-ahead: the changes running transactions
+     * made to them are logged, and the log forced, before any page is
+     * written.
+     */
+    private void flushPages(List<Page> toFlush) throws IOException {
+        // no page monitor is held while logging: checkpoints take the log's
+        // monitor before flushing pages
+        boolean logged = false;
+        for (Page p : toFlush) {
+            TransactionId dirtier = p.isDirty();
+            // a committed transaction's changes were logged, and forced, when
+            // it committed (and it no longer holds the lock)
+            if (dirtier != null && lockManager.holdsLock(dirtier, p.getId())) {
+                Database.getLogFile().logWrite(dirtier, p.getBeforeImage(), p);
+                stolen.add(dirtier);
+                logged = true;
+            }
+        }
+        if (logged)
+            Database.getLogFile().force();
+        for (Page p : toFlush) {
+            DbFile file = Database.getCatalog().getDatabaseFile(p.getId().getTableId());
+            synchronized (p) {
+                file.writePage(p);
+                p.markDirty(false, null);
+            }
+            committedUnwritten.remove(p.getId());
+        }
     }
 
     /**
      * Write all pages of the specified transaction to disk.
      */
-    public synchronized void flushPages(TransactionId tid) throws IOException {
-        // TODO: some code goes here
+    public void flushPages(TransactionId tid) throws IOException {
+        List<Page> dirty = new ArrayList<>();
+        for (Page p : pages.values())
+            if (tid.equals(p.isDirty()))
+                dirty.add(p);
+        flushPages(dirty);
     }
 
     /**
-     * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Discards a page from the buffer pool. The victim is chosen by the
+     * replacement policy, among the clean pages if there are any, so that
+     * nothing needs to be written back. Otherwise, if allowed, a dirty page
+     * is chosen and flushed first. Must be called with evictionLock held.
+     *
+     * @param allowDirty whether a dirty page may be written out to make room
+     * @return true if a page was evicted, false if no page could be
      */
-    private synchronized void evictPage() throws DbException {
-        // pick a random page and flush it.
-        // XXX this will work for lab1, but not for lab4.
-        // XXX this can cause pages to be evicted that have uncommitted updates on them
-        Object[] pids = pages.keySet().toArray();
-        PageId pid = (PageId) pids[random.nextInt(pids.length)];
-        try {
-            Page p = pages.get(pid);
-            if (p.isDirty() != null) { //if this is dirty, remove first non-dirty
-                boolean gotNew = false;
-                for (PageId pg : pages.keySet()) {
-                    if (pages.get(pg).isDirty() == null) {
-                        pid = pg;
-                        gotNew = true;
-                        break;
-                    }
+    private boolean evictPage(boolean allowDirty) throws DbException {
+        PageId pid = policy.chooseVictim(id -> {
+            Page p = pages.get(id);
+            return p != null && p.isDirty() == null;
+        });
+        if (pid == null && allowDirty) {
+            pid = policy.chooseVictim(pages::containsKey);
+            if (pid != null) {
+                try {
+                    flushPage(pid);
+                } catch (IOException e) {
+                    policy.victimKept(pid);
+                    throw new DbException("could not write out page " + pid + ": " + e);
                 }
-                if (!gotNew) {
-                    throw new DbException("All buffer pool slots contain dirty pages;  COMMIT or ROLLBACK to continue.");
+            }
+        }
+        if (pid == null)
+            return false;
+        Page p = pages.get(pid);
+        if (p != null) {
+            synchronized (p) {
+                // it may have been dirtied again while we were choosing it
+                if (p.isDirty() != null) {
+                    policy.victimKept(pid);
+                    return true;
                 }
+                pages.remove(pid, p);
             }
-            //XXX: The above code makes sure page is not dirty. 
-            //Assuming we have FORCE, Why do we flush it to disk?
-            //Answer: yes we don't need this if we have FORCE, but we do need it if we don't.
-            //it doesn't hurt to keep it here.            
-            flushPage(pid);
-        } catch (IOException e) {
-            throw new DbException("could not evict page");
         }
-        pages.remove(pid);
+        if (prefetchedUnused.remove(pid))
+            prefetchWaste.incrementAndGet();
+        return true;
     }
 
 }
@@ -0,0 +1,123 @@
+package simpledb.storage;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+
+/**
+ * CLOCK (second chance) replacement. Pages sit in a circular array of frames,
+ * each with a reference bit. A hit only sets the bit of the page's frame, so
+ * it never takes a lock. To choose a victim, the clock hand sweeps the
+ * frames, clearing set bits, and stops at the first evictable page whose
+ * bit is already clear. Victim selection is O(1) amortized.
+ * <p>
+ * New pages start with their reference bit clear, so a page read once by a
+ * sequential scan is evicted before any page that has been re-referenced.
+ */
+public class ClockReplacementPolicy implements ReplacementPolicy {
+
+    private static class Frame {
+        final PageId pid;
+        final AtomicBoolean referenced = new AtomicBoolean(false);
+
+        Frame(PageId pid) {
+            this.pid = pid;
+        }
+    }
+
+    private final ConcurrentMap<PageId, Frame> frames = new ConcurrentHashMap<>();
+    // the circular array; null entries are free slots listed in freeSlots
+    private final List<Frame> ring;
+    private final Deque<Integer> freeSlots = new ArrayDeque<>();
+    private final ConcurrentMap<PageId, Integer> slotOf = new ConcurrentHashMap<>();
+    private int hand = 0;
+    // the last victim and the slot it was taken from, until it is replaced
+    private PageId victim;
+    private int victimSlot;
+
+    /**
+     * @param capacity the expected number of pages in the buffer pool; the
+     *                 ring grows past this if needed
+     */
+    public ClockReplacementPolicy(int capacity) {
+        this.ring = new ArrayList<>(Math.max(capacity, 1));
+    }
+
+    @Override
+    public synchronized void pageAdded(PageId pid) {
+        if (frames.containsKey(pid))
+            return;
+        Frame f = new Frame(pid);
+        int slot;
+        if (freeSlots.isEmpty()) {
+            slot = ring.size();
+            ring.add(f);
+        } else {
+            slot = freeSlots.pop();
+            ring.set(slot, f);
+        }
+        slotOf.put(pid, slot);
+        frames.put(pid, f);
+    }
+
+    @Override
+    public void pageAccessed(PageId pid) {
+        Frame f = frames.get(pid);
+        if (f != null)
+            f.referenced.lazySet(true);
+    }
+
+    @Override
+    public synchronized void pageRemoved(PageId pid) {
+        Integer slot = slotOf.remove(pid);
+        if (slot == null)
+            return;
+        frames.remove(pid);
+        ring.set(slot, null);
+        freeSlots.push(slot);
+    }
+
+    @Override
+    public synchronized PageId chooseVictim(Predicate<PageId> evictable) {
+        int n = ring.size();
+        // two full turns: the first may only clear reference bits
+        for (int i = 0; i < 2 * n; i++) {
+            if (hand >= n)
+                hand = 0;
+            Frame f = ring.get(hand);
+            hand++;
+            if (f == null)
+                continue;
+            if (f.referenced.getAndSet(false))
+                continue;
+            if (evictable.test(f.pid)) {
+                victim = f.pid;
+                victimSlot = hand - 1;
+                pageRemoved(f.pid);
+                return f.pid;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public synchronized void victimKept(PageId pid) {
+        // put it back in its old frame, with its reference bit still clear,
+        // unless a page added since has taken the frame
+        if (pid.equals(victim) && !frames.containsKey(pid) && ring.get(victimSlot) == null) {
+            freeSlots.remove(victimSlot);
+            Frame f = new Frame(pid);
+            ring.set(victimSlot, f);
+            slotOf.put(pid, victimSlot);
+            frames.put(pid, f);
+        } else {
+            pageAdded(pid);
+        }
+        victim = null;
+    }
+}
@@ -0,0 +1,352 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Debug;
+import simpledb.common.Permissions;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * ColumnFile is an implementation of a DbFile that stores a table by
+ * column, for analytic tables that are scanned for a few of many fields.
+ * Each field's values are kept in their own chain of {@link ColumnPage}s, in
+ * row order and compactly encoded (see {@link ColumnPage.Encoding}), so that
+ * a scan of some of the fields (see {@link #iterator(TransactionId, int[])})
+ * reads only those fields' pages, and strings take the room of their bytes
+ * rather than of the longest possible string. Page 0 of the file is a
+ * {@link ColumnHeaderPage} that holds the number of rows and where each
+ * chain starts and ends.
+ * <p>
+ * Tuples are appended, each of its values to the last page of its field's
+ * chain, so their order is the order they were inserted in. The RecordId of
+ * a tuple names the header page and the number of its row. Deleting tuples
+ * is not supported. A table can also be written in one go by
+ * {@link #write}.
+ *
+ * @see ColumnPage
+ */
+public class ColumnFile implements DbFile {
+
+    private final File f;
+    private final TupleDesc td;
+    private final int tableid;
+    // opened on first use; positional reads and writes on it are thread-safe
+    private volatile FileChannel channel;
+
+    /**
+     * Constructs a column file backed by the specified file, which may be
+     * empty (a table with no rows).
+     *
+     * @throws IllegalArgumentException if the table has more fields than
+     *                                  the header page has room for
+     */
+    public ColumnFile(File f, TupleDesc td) {
+        if (td.numFields() > ColumnHeaderPage.maxColumns())
+            throw new IllegalArgumentException("a column file holds at most "
+                    + ColumnHeaderPage.maxColumns() + " fields");
+        this.f = f;
+        this.td = td;
+        this.tableid = f.getAbsoluteFile().hashCode();
+    }
+
+    /**
+     * Returns the File backing this ColumnFile on disk.
+     */
+    public File getFile() {
+        return f;
+    }
+
+    // see DbFile.java for javadocs
+    public int getId() {
+        return tableid;
+    }
+
+    // see DbFile.java for javadocs
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    private FileChannel channel() throws IOException {
+        FileChannel ch = channel;
+        if (ch == null || !ch.isOpen()) {
+            synchronized (this) {
+                ch = channel;
+                if (ch == null || !ch.isOpen()) {
+                    ch = FileChannel.open(f.toPath(), StandardOpenOption.READ,
+                            StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+                    channel = ch;
+                }
+            }
+        }
+        return ch;
+    }
+
+    private static void writeFully(FileChannel ch, byte[] data, long offset) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        while (buf.hasRemaining())
+            ch.write(buf, offset + buf.position());
+    }
+
+    /**
+     * Returns the number of pages in this ColumnFile, the header page
+     * included.
+     */
+    public int numPages() {
+        return (int) (f.length() / BufferPool.getPageSize());
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        ColumnPageId id = (ColumnPageId) pid;
+        try {
+            ByteBuffer buf = ByteBuffer.allocate(BufferPool.getPageSize());
+            FileChannel ch = channel();
+            long offset = (long) id.getPageNumber() * BufferPool.getPageSize();
+            while (buf.hasRemaining() && ch.read(buf, offset + buf.position()) >= 0)
+                ;
+            if (buf.hasRemaining())
+                throw new IllegalArgumentException("Read past end of table");
+            Debug.log(1, "ColumnFile.readPage: read page %d", id.getPageNumber());
+            if (id.getPageNumber() == 0)
+                return new ColumnHeaderPage(id, buf.array());
+            return new ColumnPage(id, buf.array(), td);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        writeFully(channel(), page.getPageData(), (long) page.getId().getPageNumber() * BufferPool.getPageSize());
+    }
+
+    /**
+     * Writes the header and an empty first page for each field if the file
+     * is empty.
+     */
+    private synchronized void initialize() throws IOException {
+        if (numPages() > 0)
+            return;
+        FileChannel ch = channel();
+        writeFully(ch, ColumnHeaderPage.createEmptyPageData(td.numFields()), 0);
+        for (int i = 0; i < td.numFields(); i++)
+            writeFully(ch, ColumnPage.createEmptyPageData(i, 0), (long) (1 + i) * BufferPool.getPageSize());
+    }
+
+    /**
+     * Appends an empty page for a field's values to the file.
+     *
+     * @return its page number
+     */
+    private synchronized int appendPage(int column, int firstRow) throws IOException {
+        int pgno = numPages();
+        writeFully(channel(), ColumnPage.createEmptyPageData(column, firstRow),
+                (long) pgno * BufferPool.getPageSize());
+        return pgno;
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!t.getTupleDesc().equals(td))
+            throw new DbException("type mismatch, in insertTuple");
+        initialize();
+        BufferPool bp = Database.getBufferPool();
+        ColumnHeaderPage header = (ColumnHeaderPage) bp.getPage(tid, new ColumnPageId(tableid, 0),
+                Permissions.READ_WRITE);
+        int row = header.getNumRows();
+        List<Page> dirtypages = new ArrayList<>();
+        dirtypages.add(header);
+
+        // find a page with room for each value before adding any of them,
+        // so that a failure leaves the table as it was (chains may end in an
+        // empty page, which scans step over)
+        ColumnPage[] targets = new ColumnPage[td.numFields()];
+        for (int i = 0; i < targets.length; i++) {
+            ColumnPage p = (ColumnPage) bp.getPage(tid, new ColumnPageId(tableid, header.getLastPage(i)),
+                    Permissions.READ_WRITE);
+            if (!p.hasRoom(t.getField(i))) {
+                int pgno = appendPage(i, row);
+                ColumnPage added = (ColumnPage) bp.getPage(tid, new ColumnPageId(tableid, pgno),
+                        Permissions.READ_WRITE);
+                p.setNextPage(pgno);
+                header.addPage(i, pgno);
+                // dirty right away, so that the link survives if a later
+                // page cannot be fetched
+                p.markDirty(true, tid);
+                header.markDirty(true, tid);
+                dirtypages.add(p);
+                p = added;
+            }
+            targets[i] = p;
+        }
+        for (int i = 0; i < targets.length; i++) {
+            targets[i].append(t.getField(i));
+            dirtypages.add(targets[i]);
+        }
+        header.setNumRows(row + 1);
+        t.setRecordId(new RecordId(header.getId(), row));
+        return dirtypages;
+    }
+
+    /**
+     * Not supported: column files are append-only.
+     *
+     * @throws DbException always
+     */
+    public List<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException {
+        throw new DbException("cannot delete from column file " + f + ": column files are append-only");
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new ColumnFileIterator(this, tid, null);
+    }
+
+    /**
+     * Returns an iterator that reads only the pages of the given fields.
+     */
+    @Override
+    public DbFileIterator iterator(TransactionId tid, int[] columns) {
+        return new ColumnFileIterator(this, tid, columns.clone());
+    }
+
+    /**
+     * Writes a table to a file in the ColumnFile format, replacing its
+     * contents, without going through the BufferPool; e.g. to load an
+     * analytic table in bulk.
+     *
+     * @param f      the file to write
+     * @param td     the schema of the table
+     * @param tuples the rows of the table, in order
+     */
+    public static void write(File f, TupleDesc td, Iterator<Tuple> tuples) throws IOException {
+        int n = td.numFields();
+        if (n > ColumnHeaderPage.maxColumns())
+            throw new IllegalArgumentException("a column file holds at most "
+                    + ColumnHeaderPage.maxColumns() + " fields");
+        int id = f.getAbsoluteFile().hashCode();
+        long pageSize = BufferPool.getPageSize();
+        int[] first = new int[n], last = new int[n], pages = new int[n];
+        ColumnPage[] current = new ColumnPage[n];
+        for (int i = 0; i < n; i++) {
+            first[i] = last[i] = 1 + i;
+            pages[i] = 1;
+            current[i] = new ColumnPage(new ColumnPageId(id, 1 + i), td, i, 0);
+        }
+        int nextPage = 1 + n;
+        int rows = 0;
+        try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (tuples.hasNext()) {
+                Tuple t = tuples.next();
+                for (int i = 0; i < n; i++) {
+                    if (current[i].append(t.getField(i)))
+                        continue;
+                    int pgno = nextPage++;
+                    current[i].setNextPage(pgno);
+                    writeFully(ch, current[i].getPageData(), current[i].getId().getPageNumber() * pageSize);
+                    current[i] = new ColumnPage(new ColumnPageId(id, pgno), td, i, rows);
+                    current[i].append(t.getField(i));
+                    last[i] = pgno;
+                    pages[i]++;
+                }
+                rows++;
+            }
+            for (ColumnPage p : current)
+                writeFully(ch, p.getPageData(), p.getId().getPageNumber() * pageSize);
+            writeFully(ch, new ColumnHeaderPage(new ColumnPageId(id, 0), rows, first, last, pages).getPageData(), 0);
+        }
+    }
+}
+
+/**
+ * Iterator over the rows of a ColumnFile that reads the chains of the
+ * requested fields side by side.
+ */
+class ColumnFileIterator extends AbstractDbFileIterator {
+
+    final ColumnFile cf;
+    final TransactionId tid;
+    // the fields to return, and the TupleDesc of the returned tuples
+    final int[] columns;
+    final TupleDesc outTd;
+
+    int numRows = 0;
+    int row = 0;
+    // for each returned field: the first page of its chain, the page being
+    // read (null before the first) and the position on it
+    int[] firstPages;
+    ColumnPage[] pages;
+    int[] positions;
+
+    ColumnFileIterator(ColumnFile cf, TransactionId tid, int[] columns) {
+        this.cf = cf;
+        this.tid = tid;
+        if (columns == null) {
+            columns = new int[cf.getTupleDesc().numFields()];
+            for (int i = 0; i < columns.length; i++)
+                columns[i] = i;
+            this.outTd = cf.getTupleDesc();
+        } else {
+            this.outTd = cf.getTupleDesc().project(columns);
+        }
+        this.columns = columns;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        row = 0;
+        numRows = 0;
+        pages = new ColumnPage[columns.length];
+        positions = new int[columns.length];
+        firstPages = new int[columns.length];
+        if (cf.numPages() == 0)
+            return; // nothing has been written yet
+        ColumnHeaderPage header = (ColumnHeaderPage) Database.getBufferPool().getPage(tid,
+                new ColumnPageId(cf.getId(), 0), Permissions.READ_ONLY);
+        numRows = header.getNumRows();
+        for (int i = 0; i < columns.length; i++)
+            firstPages[i] = header.getFirstPage(columns[i]);
+    }
+
+    @Override
+    protected Tuple readNext() throws DbException, TransactionAbortedException {
+        if (pages == null || row >= numRows)
+            return null;
+        Tuple t = new Tuple(outTd);
+        for (int i = 0; i < columns.length; i++) {
+            while (pages[i] == null || positions[i] >= pages[i].getNumValues()) {
+                int pgno = pages[i] == null ? firstPages[i] : pages[i].getNextPage();
+                if (pgno == 0)
+                    throw new DbException("the pages of field " + columns[i] + " of " + cf.getFile()
+                            + " end before row " + row);
+                pages[i] = (ColumnPage) Database.getBufferPool().getPage(tid,
+                        new ColumnPageId(cf.getId(), pgno), Permissions.READ_ONLY);
+                positions[i] = 0;
+            }
+            t.setField(i, pages[i].getValue(positions[i]++));
+        }
+        t.setRecordId(new RecordId(new ColumnPageId(cf.getId(), 0), row++));
+        return t;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public void close() {
+        super.close();
+        pages = null;
+    }
+}
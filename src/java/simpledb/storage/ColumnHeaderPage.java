@@ -0,0 +1,167 @@
+package simpledb.storage;
+
+import simpledb.transaction.TransactionId;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * ColumnHeaderPage is page 0 of a {@link ColumnFile}: it holds the number
+ * of rows in the table and, for each field, the first and last pages of the
+ * chain of {@link ColumnPage}s holding the field's values and the number of
+ * pages in the chain. On disk these are all ints: the number of rows, the
+ * number of fields, then three per field.
+ *
+ * @see ColumnFile
+ */
+public class ColumnHeaderPage implements Page {
+
+    private static final int HEADER_BYTES = 8;
+    private static final int ENTRY_BYTES = 12;
+
+    final ColumnPageId pid;
+    private int numRows;
+    private final int[] first;
+    private final int[] last;
+    private final int[] pages;
+
+    private volatile TransactionId dirtier = null;
+    private byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a ColumnHeaderPage from a set of bytes of data read from disk.
+     *
+     * @throws IOException if the data cannot be decoded
+     */
+    public ColumnHeaderPage(ColumnPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        numRows = buf.getInt();
+        int n = buf.getInt();
+        if (numRows < 0 || n < 0 || n > maxColumns())
+            throw new IOException("bad column file header: " + numRows + " rows, " + n + " fields");
+        first = new int[n];
+        last = new int[n];
+        pages = new int[n];
+        for (int i = 0; i < n; i++) {
+            first[i] = buf.getInt();
+            last[i] = buf.getInt();
+            pages[i] = buf.getInt();
+        }
+        setBeforeImage();
+    }
+
+    /**
+     * Creates the header of a table whose chains have been written out.
+     */
+    ColumnHeaderPage(ColumnPageId id, int numRows, int[] first, int[] last, int[] pages) {
+        this.pid = id;
+        this.numRows = numRows;
+        this.first = first.clone();
+        this.last = last.clone();
+        this.pages = pages.clone();
+    }
+
+    /**
+     * @return the largest number of fields a header page has room for
+     */
+    static int maxColumns() {
+        return (BufferPool.getPageSize() - HEADER_BYTES) / ENTRY_BYTES;
+    }
+
+    /**
+     * @return the data of the header of a table with no rows, whose fields'
+     *         chains are each made of one (empty) page: pages 1 to
+     *         numColumns
+     */
+    static byte[] createEmptyPageData(int numColumns) {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        buf.putInt(0).putInt(numColumns);
+        for (int i = 0; i < numColumns; i++)
+            buf.putInt(1 + i).putInt(1 + i).putInt(1);
+        return data;
+    }
+
+    /**
+     * @return the number of rows in the table
+     */
+    public int getNumRows() {
+        return numRows;
+    }
+
+    void setNumRows(int numRows) {
+        this.numRows = numRows;
+    }
+
+    /**
+     * @return the page number of the first page of a field's chain
+     */
+    public int getFirstPage(int column) {
+        return first[column];
+    }
+
+    /**
+     * @return the page number of the last page of a field's chain, the one
+     *         new values are added to
+     */
+    public int getLastPage(int column) {
+        return last[column];
+    }
+
+    /**
+     * @return the number of pages in a field's chain
+     */
+    public int getNumPages(int column) {
+        return pages[column];
+    }
+
+    /**
+     * Records a page added to the end of a field's chain.
+     */
+    void addPage(int column, int pgno) {
+        last[column] = pgno;
+        pages[column]++;
+    }
+
+    public ColumnPageId getId() {
+        return pid;
+    }
+
+    public byte[] getPageData() {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        buf.putInt(numRows).putInt(first.length);
+        for (int i = 0; i < first.length; i++)
+            buf.putInt(first[i]).putInt(last[i]).putInt(pages[i]);
+        return data;
+    }
+
+    public ColumnHeaderPage getBeforeImage() {
+        try {
+            byte[] oldDataRef;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return new ColumnHeaderPage(pid, oldDataRef);
+        } catch (IOException e) {
+            // we decoded it before
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData().clone();
+        }
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+}
@@ -0,0 +1,353 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.transaction.TransactionId;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ColumnPage holds the values of one field for a run of consecutive rows of
+ * a {@link ColumnFile}. The pages of a field form a chain, each one naming
+ * the next, that holds the field's values for all of the rows in order.
+ * <p>
+ * A page starts with a header: the index of the field (an int), the page
+ * number of the next page of the chain (an int, 0 for none), the number of
+ * the first row on the page (an int), the number of values on it (an int)
+ * and the {@link Encoding} of the values (a byte). The encoded values
+ * follow. Each time the page is written, the encoding that takes the fewest
+ * bytes for its values is chosen, and a value is only added to a page if
+ * some encoding still fits all of them.
+ *
+ * @see ColumnFile
+ */
+public class ColumnPage implements Page {
+
+    /**
+     * The ways the values on a page can be encoded.
+     */
+    public enum Encoding {
+        /**
+         * Each value in turn: an int, or a string as a short holding its
+         * length in bytes followed by the bytes (so short strings take
+         * little room).
+         */
+        PLAIN,
+        /**
+         * An int holding the number of distinct values, the distinct values
+         * as in PLAIN, then for each value its index among them, in one
+         * byte if there are at most 256 distinct values and in two
+         * otherwise.
+         */
+        DICTIONARY,
+        /**
+         * For INT fields only: an int holding the number of runs of equal
+         * values, then each run as its value and its length (two ints).
+         */
+        RLE
+    }
+
+    static final int HEADER_BYTES = 17;
+    private static final int MAX_DICTIONARY = 1 << 16;
+
+    final ColumnPageId pid;
+    private final int column;
+    private final Type type;
+    private final int firstRow;
+    private int next;
+    private final List<Field> values = new ArrayList<>();
+
+    // the sizes of the values in each encoding, kept up to date as values
+    // are added: PLAIN bytes, the distinct values (with their index and
+    // their PLAIN bytes), and the number of runs
+    private int plainBytes = 0;
+    private final Map<Field, Integer> dictionary = new HashMap<>();
+    private int dictionaryBytes = 0;
+    private int runs = 0;
+
+    private volatile TransactionId dirtier = null;
+    private byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a ColumnPage from a set of bytes of data read from disk, in
+     * the format described in the class comment.
+     *
+     * @throws IOException if the data cannot be decoded
+     */
+    public ColumnPage(ColumnPageId id, byte[] data) throws IOException {
+        this(id, data, Database.getCatalog().getTupleDesc(id.getTableId()));
+    }
+
+    ColumnPage(ColumnPageId id, byte[] data, TupleDesc td) throws IOException {
+        this.pid = id;
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        try {
+            this.column = buf.getInt();
+            this.type = td.getFieldType(column);
+            this.next = buf.getInt();
+            this.firstRow = buf.getInt();
+            int count = buf.getInt();
+            Encoding encoding = Encoding.values()[buf.get()];
+            switch (encoding) {
+                case PLAIN:
+                    for (int i = 0; i < count; i++)
+                        load(readValue(buf));
+                    break;
+                case DICTIONARY:
+                    Field[] dict = new Field[buf.getInt()];
+                    for (int i = 0; i < dict.length; i++)
+                        dict[i] = readValue(buf);
+                    for (int i = 0; i < count; i++)
+                        load(dict[dict.length <= 256 ? buf.get() & 0xFF : buf.getShort() & 0xFFFF]);
+                    break;
+                case RLE:
+                    int numRuns = buf.getInt();
+                    for (int r = 0; r < numRuns; r++) {
+                        IntField v = new IntField(buf.getInt());
+                        int len = buf.getInt();
+                        for (int i = 0; i < len; i++)
+                            load(v);
+                    }
+                    break;
+            }
+        } catch (RuntimeException e) {
+            // a bad field index, encoding, count or length
+            throw new IOException("cannot decode column page " + id.getPageNumber() + ": " + e);
+        }
+        setBeforeImage();
+    }
+
+    private void load(Field v) {
+        if (!append(v))
+            throw new IllegalStateException("values do not fit on the page");
+    }
+
+    /**
+     * Creates an empty page for the values of a field from a row on.
+     */
+    ColumnPage(ColumnPageId id, TupleDesc td, int column, int firstRow) {
+        this.pid = id;
+        this.column = column;
+        this.type = td.getFieldType(column);
+        this.firstRow = firstRow;
+        this.next = 0;
+    }
+
+    /**
+     * @return the data of an empty page for the values of a field from a
+     *         row on
+     */
+    static byte[] createEmptyPageData(int column, int firstRow) {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        ByteBuffer.wrap(data).putInt(column).putInt(0).putInt(firstRow);
+        return data;
+    }
+
+    private Field readValue(ByteBuffer buf) {
+        if (type == Type.INT_TYPE)
+            return new IntField(buf.getInt());
+        byte[] bs = new byte[buf.getShort() & 0xFFFF];
+        buf.get(bs);
+        return new StringField(new String(bs), Type.STRING_LEN);
+    }
+
+    private void writeValue(ByteBuffer buf, Field f) {
+        if (type == Type.INT_TYPE) {
+            buf.putInt(((IntField) f).getValue());
+        } else {
+            byte[] bs = ((StringField) f).getValue().getBytes();
+            buf.putShort((short) bs.length);
+            buf.put(bs);
+        }
+    }
+
+    private int plainSize(Field f) {
+        return type == Type.INT_TYPE ? 4 : 2 + ((StringField) f).getValue().getBytes().length;
+    }
+
+    /**
+     * @return the bytes n values with the given statistics take in an
+     *         encoding, or Integer.MAX_VALUE if the encoding cannot hold them
+     */
+    private int size(Encoding e, int n, int plain, int distinct, int distinctBytes, int numRuns) {
+        switch (e) {
+            case PLAIN:
+                return plain;
+            case DICTIONARY:
+                return distinct > MAX_DICTIONARY ? Integer.MAX_VALUE
+                        : 4 + distinctBytes + n * (distinct <= 256 ? 1 : 2);
+            default:
+                return type == Type.INT_TYPE ? 4 + 8 * numRuns : Integer.MAX_VALUE;
+        }
+    }
+
+    private int size(Encoding e) {
+        return size(e, values.size(), plainBytes, dictionary.size(), dictionaryBytes, runs);
+    }
+
+    /**
+     * @return the encoding that takes the fewest bytes for the values on the
+     *         page, the one the page is written in
+     */
+    public Encoding getEncoding() {
+        Encoding best = Encoding.PLAIN;
+        for (Encoding e : Encoding.values())
+            if (size(e) < size(best))
+                best = e;
+        return best;
+    }
+
+    /**
+     * @return whether the page has room for another value: whether some
+     *         encoding fits it and the values already on the page
+     */
+    public boolean hasRoom(Field v) {
+        int vbytes = plainSize(v);
+        boolean isNew = !dictionary.containsKey(v);
+        int room = BufferPool.getPageSize() - HEADER_BYTES;
+        for (Encoding e : Encoding.values())
+            if (size(e, values.size() + 1, plainBytes + vbytes, dictionary.size() + (isNew ? 1 : 0),
+                    dictionaryBytes + (isNew ? vbytes : 0), runsWith(v)) <= room)
+                return true;
+        return false;
+    }
+
+    private int runsWith(Field v) {
+        return values.isEmpty() || !values.get(values.size() - 1).equals(v) ? runs + 1 : runs;
+    }
+
+    /**
+     * Adds a value after the others if the page has room for it.
+     *
+     * @return false if the values would not fit on the page in any encoding
+     */
+    public boolean append(Field v) {
+        if (!hasRoom(v))
+            return false;
+        int vbytes = plainSize(v);
+        runs = runsWith(v);
+        values.add(v);
+        plainBytes += vbytes;
+        if (!dictionary.containsKey(v)) {
+            dictionary.put(v, dictionary.size());
+            dictionaryBytes += vbytes;
+        }
+        return true;
+    }
+
+    /**
+     * @return the index of the field the page holds values of
+     */
+    public int getColumn() {
+        return column;
+    }
+
+    /**
+     * @return the number of the row the first value on the page belongs to
+     */
+    public int getFirstRow() {
+        return firstRow;
+    }
+
+    /**
+     * @return the number of values on the page
+     */
+    public int getNumValues() {
+        return values.size();
+    }
+
+    /**
+     * @return the i-th value on the page, that of row getFirstRow() + i
+     */
+    public Field getValue(int i) {
+        return values.get(i);
+    }
+
+    /**
+     * @return the page number of the next page of the field's chain, or 0
+     *         if this is the last one
+     */
+    public int getNextPage() {
+        return next;
+    }
+
+    void setNextPage(int pgno) {
+        this.next = pgno;
+    }
+
+    public ColumnPageId getId() {
+        return pid;
+    }
+
+    public byte[] getPageData() {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        Encoding encoding = getEncoding();
+        buf.putInt(column).putInt(next).putInt(firstRow).putInt(values.size()).put((byte) encoding.ordinal());
+        switch (encoding) {
+            case PLAIN:
+                for (Field v : values)
+                    writeValue(buf, v);
+                break;
+            case DICTIONARY:
+                Field[] dict = new Field[dictionary.size()];
+                for (Map.Entry<Field, Integer> e : dictionary.entrySet())
+                    dict[e.getValue()] = e.getKey();
+                buf.putInt(dict.length);
+                for (Field v : dict)
+                    writeValue(buf, v);
+                for (Field v : values) {
+                    int code = dictionary.get(v);
+                    if (dict.length <= 256)
+                        buf.put((byte) code);
+                    else
+                        buf.putShort((short) code);
+                }
+                break;
+            case RLE:
+                buf.putInt(runs);
+                for (int i = 0; i < values.size(); ) {
+                    int j = i + 1;
+                    while (j < values.size() && values.get(j).equals(values.get(i)))
+                        j++;
+                    buf.putInt(((IntField) values.get(i)).getValue()).putInt(j - i);
+                    i = j;
+                }
+                break;
+        }
+        return data;
+    }
+
+    public ColumnPage getBeforeImage() {
+        try {
+            byte[] oldDataRef;
+            synchronized (oldDataLock) {
+                oldDataRef = oldData;
+            }
+            return new ColumnPage(pid, oldDataRef);
+        } catch (IOException e) {
+            // we decoded it before
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void setBeforeImage() {
+        synchronized (oldDataLock) {
+            oldData = getPageData().clone();
+        }
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+}
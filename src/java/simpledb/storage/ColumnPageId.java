@@ -0,0 +1,63 @@
+package simpledb.storage;
+
+import java.util.Objects;
+
+/**
+ * Unique identifier for the pages of a {@link ColumnFile}: page 0 is the
+ * file's {@link ColumnHeaderPage}, the others are {@link ColumnPage}s.
+ */
+public class ColumnPageId implements PageId {
+
+    private final int tableId;
+    private final int pgNo;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific table.
+     *
+     * @param tableId The table that is being referenced
+     * @param pgNo    The page number in that table.
+     */
+    public ColumnPageId(int tableId, int pgNo) {
+        this.tableId = tableId;
+        this.pgNo = pgNo;
+    }
+
+    /**
+     * @return the table associated with this PageId
+     */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /**
+     * @return the page number in the table getTableId() associated with
+     *         this PageId
+     */
+    public int getPageNumber() {
+        return pgNo;
+    }
+
+    public int hashCode() {
+        return Objects.hash(tableId, pgNo, ColumnPageId.class);
+    }
+
+    public boolean equals(Object o) {
+        if (!(o instanceof ColumnPageId))
+            return false;
+        ColumnPageId p = (ColumnPageId) o;
+        return tableId == p.tableId && pgNo == p.pgNo;
+    }
+
+    public String toString() {
+        return "ColumnPageId(" + tableId + ", " + pgNo + ")";
+    }
+
+    /**
+     * Return a representation of this object as an array of integers, for
+     * writing to disk, in the order of the constructor's arguments.
+     */
+    public int[] serialize() {
+        return new int[]{tableId, pgNo};
+    }
+}
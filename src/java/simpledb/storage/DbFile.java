@@ -2,6 +2,7 @@ package simpledb.storage;
 
 import simpledb.common.Catalog;
 import simpledb.common.DbException;
+import simpledb.execution.Predicate;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
@@ -31,6 +32,12 @@ public interface DbFile {
      */
     void writePage(Page p) throws IOException;
 
+    /**
+     * Returns the number of pages in this DbFile, including any pages that
+     * do not hold tuples (e.g. header pages).
+     */
+    int numPages();
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
@@ -71,6 +78,66 @@ public interface DbFile {
      */
     DbFileIterator iterator(TransactionId tid);
 
+    /**
+     * Returns an iterator over the tuples stored in this DbFile that returns
+     * only some of their fields, described by
+     * getTupleDesc().project(columns). The returned tuples keep the RecordId
+     * of the full tuple. Files that can avoid decoding the other fields
+     * should override this; by default the full tuples are projected.
+     *
+     * @param columns indices of the fields to return
+     * @return an iterator over the projected tuples stored in this DbFile.
+     */
+    default DbFileIterator iterator(TransactionId tid, int[] columns) {
+        return new ProjectedDbFileIterator(iterator(tid), getTupleDesc().project(columns), columns);
+    }
+
+    /**
+     * Returns an iterator over one of numPartitions disjoint parts of this
+     * DbFile, which together hold all of its tuples, so that the parts can be
+     * scanned by different threads. Files that can split themselves (e.g.
+     * HeapFile, by page ranges) should override this; by default partition 0
+     * returns all of the tuples and the others none.
+     *
+     * @param columns       indices of the fields to return, or null for all
+     *                      of them
+     * @param partition     the part to return, 0 &lt;= partition &lt; numPartitions
+     * @param numPartitions the number of parts the file is split into
+     * @return an iterator over the tuples in the given part of this DbFile.
+     */
+    default DbFileIterator iterator(TransactionId tid, int[] columns, int partition, int numPartitions) {
+        if (partition == 0)
+            return columns == null ? iterator(tid) : iterator(tid, columns);
+        return new AbstractDbFileIterator() {
+            public void open() {
+            }
+
+            public void rewind() {
+            }
+
+            protected Tuple readNext() {
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Returns an iterator over one of numPartitions parts of this DbFile, as
+     * {@link #iterator(TransactionId, int[], int, int)}, that may leave out
+     * tuples that do not satisfy all of the given predicates on fields of
+     * the table. The predicates are only a hint: files that keep summaries
+     * of their pages (e.g. the zone map of a HeapFile) use them to skip
+     * pages that cannot hold a match, but the returned tuples must still be
+     * filtered. By default they are ignored.
+     *
+     * @param pruning predicates on fields of the table (not of the projected
+     *                tuples) that the caller will apply to the returned tuples
+     */
+    default DbFileIterator iterator(TransactionId tid, int[] columns, int partition, int numPartitions,
+                                    List<Predicate> pruning) {
+        return iterator(tid, columns, partition, numPartitions);
+    }
+
     /**
      * Returns a unique ID used to identify this DbFile in the Catalog. This id
      * can be used to look up the table via {@link Catalog#getDatabaseFile} and
@@ -0,0 +1,152 @@
+package simpledb.storage;
+
+import simpledb.common.Debug;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap records how many free tuple slots each page of a HeapFile
+ * has, so that inserts can go straight to a page with room instead of
+ * fetching pages until they find one.
+ * <p>
+ * The map is kept in memory and persisted in a side file next to the heap
+ * file (<tt>&lt;table file&gt;.fsm</tt>): an int holding the number of
+ * entries, followed by one unsigned short per page. Entries are written
+ * back as the corresponding pages are written. The map is only a hint:
+ * callers must check the page they are sent to, and report what they find.
+ * If the side file is missing, has the wrong number of entries, or is
+ * older than the heap file, the map is rebuilt from the page headers.
+ *
+ * @Threadsafe
+ */
+public class FreeSpaceMap {
+
+    private static final int HEADER_BYTES = 4;
+    private static final int ENTRY_BYTES = 2;
+
+    private final File file;
+    private FileChannel channel; // opened on first write
+    private int[] free;
+    private int numPages;
+    // pages with at least one free slot
+    private final BitSet hasSpace = new BitSet();
+
+    private FreeSpaceMap(File file, int[] free, int numPages) {
+        this.file = file;
+        this.free = free;
+        this.numPages = numPages;
+        for (int i = 0; i < numPages; i++)
+            if (free[i] > 0)
+                hasSpace.set(i);
+    }
+
+    /**
+     * Loads the free-space map of a heap file from its side file, or
+     * rebuilds it from the pages of the heap file if the side file is not
+     * usable.
+     */
+    static FreeSpaceMap open(HeapFile hf) throws IOException {
+        File fsmFile = new File(hf.getFile().getPath() + ".fsm");
+        int pages = hf.numPages();
+        if (fsmFile.exists() && fsmFile.lastModified() >= hf.getFile().lastModified()
+                && fsmFile.length() == HEADER_BYTES + (long) ENTRY_BYTES * pages) {
+            ByteBuffer buf = ByteBuffer.allocate((int) fsmFile.length());
+            try (FileChannel ch = FileChannel.open(fsmFile.toPath(), StandardOpenOption.READ)) {
+                while (buf.hasRemaining() && ch.read(buf) >= 0)
+                    ;
+            }
+            buf.flip();
+            if (buf.remaining() == HEADER_BYTES + ENTRY_BYTES * pages && buf.getInt() == pages) {
+                int[] free = new int[Math.max(pages, 16)];
+                for (int i = 0; i < pages; i++)
+                    free[i] = buf.getShort() & 0xFFFF;
+                return new FreeSpaceMap(fsmFile, free, pages);
+            }
+        }
+
+        Debug.log(1, "FreeSpaceMap: rebuilding %s from %d pages", fsmFile, pages);
+        int[] free = new int[Math.max(pages, 16)];
+        for (int i = 0; i < pages; i++) {
+            HeapPage p = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), i));
+            free[i] = p.getNumUnusedSlots();
+        }
+        FreeSpaceMap fsm = new FreeSpaceMap(fsmFile, free, pages);
+        fsm.persistAll();
+        return fsm;
+    }
+
+    /**
+     * Records the number of free slots on a page, growing the map if the
+     * page is new.
+     */
+    public synchronized void update(int pgno, int freeSlots) {
+        if (pgno >= free.length)
+            free = Arrays.copyOf(free, Math.max(pgno + 1, free.length * 2));
+        if (pgno >= numPages)
+            numPages = pgno + 1;
+        free[pgno] = freeSlots;
+        hasSpace.set(pgno, freeSlots > 0);
+    }
+
+    /**
+     * @return the number of free slots the map records for a page
+     */
+    public synchronized int getFreeSlots(int pgno) {
+        return pgno < numPages ? free[pgno] : 0;
+    }
+
+    /**
+     * Finds a page that (according to the map) has a free slot, looking at
+     * pages from start onwards first and then wrapping around.
+     *
+     * @return the page number, or -1 if no page has room
+     */
+    public synchronized int findPageWithSpace(int start) {
+        int pgno = hasSpace.nextSetBit(Math.max(0, Math.min(start, numPages)));
+        if (pgno < 0 || pgno >= numPages)
+            pgno = hasSpace.nextSetBit(0);
+        return pgno >= 0 && pgno < numPages ? pgno : -1;
+    }
+
+    /**
+     * Writes the entry of one page (and the entry count) to the side file.
+     */
+    public void persist(int pgno) throws IOException {
+        ByteBuffer entry = ByteBuffer.allocate(ENTRY_BYTES);
+        ByteBuffer count = ByteBuffer.allocate(HEADER_BYTES);
+        synchronized (this) {
+            if (pgno >= numPages)
+                return;
+            entry.putShort(0, (short) Math.min(free[pgno], 0xFFFF));
+            count.putInt(0, numPages);
+        }
+        FileChannel ch = channel();
+        ch.write(entry, HEADER_BYTES + (long) ENTRY_BYTES * pgno);
+        ch.write(count, 0);
+    }
+
+    private synchronized void persistAll() throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_BYTES + ENTRY_BYTES * numPages);
+        buf.putInt(numPages);
+        for (int i = 0; i < numPages; i++)
+            buf.putShort((short) Math.min(free[i], 0xFFFF));
+        buf.flip();
+        FileChannel ch = channel();
+        ch.truncate(0);
+        while (buf.hasRemaining())
+            ch.write(buf, buf.position());
+    }
+
+    private synchronized FileChannel channel() throws IOException {
+        if (channel == null || !channel.isOpen())
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        return channel;
+    }
+}
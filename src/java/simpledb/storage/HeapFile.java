@@ -4,13 +4,23 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.common.Permissions;
+import simpledb.execution.Predicate;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 /**
  * HeapFile is an implementation of a DbFile that stores a collection of tuples
@@ -27,8 +37,28 @@ public class HeapFile implements DbFile {
     private final File f;
     private final TupleDesc td;
     private final int tableid;
-    // a hack to remember the last page that had a free slot
-    private volatile int lastEmptyPage = -1;
+    // free slots per page; loaded on the first insert
+    private volatile FreeSpaceMap fsm;
+    // per-page ranges of the INT fields; loaded on the first insert or
+    // pruned scan, and never for tables without INT fields
+    private volatile ZoneMap zm;
+    private final boolean zoned;
+    // where each stripe of inserting threads last found room, so that
+    // concurrent inserters work on different pages
+    private static final int INSERT_STRIPES = 8;
+    private final AtomicIntegerArray insertHints = new AtomicIntegerArray(INSERT_STRIPES);
+    // opened on first use; positional reads and writes on it are thread-safe
+    private volatile FileChannel channel;
+
+    // bytes covered by one mapping in memory-mapped mode, rounded down to a
+    // whole number of pages
+    private static final long MMAP_SEGMENT_BYTES = 64L << 20;
+    private volatile boolean memoryMapped = false;
+    // read-only mappings of consecutive segments of the file; the last one may
+    // be shorter than a full segment and is remapped when the file grows.
+    // Replaced, never modified, under the lock on this.
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+    private int mappedPageSize = -1; // page size segments were laid out with
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -40,6 +70,7 @@ public class HeapFile implements DbFile {
         this.f = f;
         this.tableid = f.getAbsoluteFile().hashCode();
         this.td = td;
+        this.zoned = ZoneMap.intColumns(td).length > 0;
     }
 
     /**
@@ -73,19 +104,139 @@ public class HeapFile implements DbFile {
         return td;
     }
 
+    /**
+     * Returns the channel used for all I/O on this file, opening it if needed.
+     */
+    private FileChannel channel() throws IOException {
+        FileChannel ch = channel;
+        if (ch == null || !ch.isOpen()) {
+            synchronized (this) {
+                ch = channel;
+                if (ch == null || !ch.isOpen()) {
+                    ch = FileChannel.open(f.toPath(), StandardOpenOption.READ,
+                            StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+                    channel = ch;
+                }
+            }
+        }
+        return ch;
+    }
+
+    /**
+     * Reads from offset until buf is full or the end of the file is reached.
+     *
+     * @return the number of bytes read
+     */
+    private int readFully(ByteBuffer buf, long offset) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                FileChannel ch = channel();
+                while (buf.hasRemaining() && ch.read(buf, offset + buf.position()) >= 0)
+                    ;
+                return buf.position();
+            } catch (ClosedChannelException e) {
+                // an interrupt during I/O in another thread closes the channel
+                // for everyone; reopen it and try again once
+                if (e instanceof ClosedByInterruptException || attempt > 0)
+                    throw e;
+                buf.clear();
+            }
+        }
+    }
+
+    private void writeFully(ByteBuffer buf, long offset) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                FileChannel ch = channel();
+                while (buf.hasRemaining())
+                    ch.write(buf, offset + buf.position());
+                return;
+            } catch (ClosedChannelException e) {
+                if (e instanceof ClosedByInterruptException || attempt > 0)
+                    throw e;
+                buf.rewind();
+            }
+        }
+    }
+
+    /**
+     * Turns memory-mapped reads on or off. In memory-mapped mode the file is
+     * mapped read-only in large segments, and readPage decodes pages
+     * straight from the mapping instead of copying them through a read
+     * buffer. This suits read-mostly tables that are scanned repeatedly.
+     * Writes still go through the file channel and are visible through the
+     * mapping; mappings are extended as the file grows.
+     */
+    public synchronized void setMemoryMapped(boolean enabled) {
+        memoryMapped = enabled;
+        segments = new MappedByteBuffer[0];
+    }
+
+    /**
+     * @return true if pages are read from a memory mapping of the file
+     */
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
+    /**
+     * Returns a buffer over the bytes of the given page in the mapping, or
+     * null if the page is past the end of the file.
+     */
+    private ByteBuffer mappedPage(int pgno) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        long pagesPerSegment = Math.max(1, MMAP_SEGMENT_BYTES / pageSize);
+        int seg = (int) (pgno / pagesPerSegment);
+        int off = (int) ((pgno % pagesPerSegment) * pageSize);
+        MappedByteBuffer[] segs = segments;
+        MappedByteBuffer m = seg < segs.length ? segs[seg] : null;
+        if (m == null || m.capacity() < off + pageSize) {
+            m = map(seg, pagesPerSegment * pageSize);
+            if (m == null || m.capacity() < off + pageSize)
+                return null;
+        }
+        return m.duplicate().position(off).limit(off + pageSize).slice();
+    }
+
+    /**
+     * (Re)maps segment seg so that it covers as much of the file as exists.
+     */
+    private synchronized MappedByteBuffer map(int seg, long segmentBytes) throws IOException {
+        MappedByteBuffer[] segs = segments;
+        if (mappedPageSize != BufferPool.getPageSize()) {
+            // segment boundaries depend on the page size
+            segs = new MappedByteBuffer[0];
+            mappedPageSize = BufferPool.getPageSize();
+        }
+        FileChannel ch = channel();
+        long start = seg * segmentBytes;
+        long len = Math.min(segmentBytes, ch.size() - start);
+        if (len <= 0)
+            return null;
+        if (seg < segs.length && segs[seg] != null && segs[seg].capacity() >= len)
+            return segs[seg]; // another thread got here first
+        MappedByteBuffer m = ch.map(FileChannel.MapMode.READ_ONLY, start, len);
+        segs = Arrays.copyOf(segs, Math.max(segs.length, seg + 1));
+        segs[seg] = m;
+        segments = segs;
+        return m;
+    }
+
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         HeapPageId id = (HeapPageId) pid;
 
-        try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(f))) {
-            byte[] pageBuf = new byte[BufferPool.getPageSize()];
-            if (bis.skip((long) id.getPageNumber() * BufferPool.getPageSize()) != (long) id
-                    .getPageNumber() * BufferPool.getPageSize()) {
-                throw new IllegalArgumentException(
-                        "Unable to seek to correct place in heapfile");
+        try {
+            if (memoryMapped) {
+                ByteBuffer mapped = mappedPage(id.getPageNumber());
+                if (mapped == null)
+                    throw new IllegalArgumentException("Read past end of table");
+                Debug.log(1, "HeapFile.readPage: mapped page %d", id.getPageNumber());
+                return new HeapPage(id, mapped);
             }
-            int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
-            if (retval == -1) {
+            ByteBuffer pageBuf = ByteBuffer.allocate(BufferPool.getPageSize());
+            int retval = readFully(pageBuf, (long) id.getPageNumber() * BufferPool.getPageSize());
+            if (retval == 0) {
                 throw new IllegalArgumentException("Read past end of table");
             }
             if (retval < BufferPool.getPageSize()) {
@@ -93,12 +244,37 @@ public class HeapFile implements DbFile {
                         + BufferPool.getPageSize() + " bytes from heapfile");
             }
             Debug.log(1, "HeapFile.readPage: read page %d", id.getPageNumber());
-            return new HeapPage(id, pageBuf);
+            return new HeapPage(id, pageBuf.array());
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        // Close the file on success or error
-        // Ignore failures closing the file
+    }
+
+    /**
+     * Reads up to count consecutive pages, starting at page start, with a
+     * single read (or straight from the mapping in memory-mapped mode).
+     * Used by read-ahead; stops early at the end of the file.
+     *
+     * @return the pages that were read, in page number order
+     */
+    public List<Page> readPages(int start, int count) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        List<Page> result = new ArrayList<>();
+        count = Math.max(0, Math.min(count, numPages() - start));
+        if (memoryMapped) {
+            for (int i = 0; i < count; i++)
+                result.add(readPage(new HeapPageId(tableid, start + i)));
+            return result;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(count * pageSize);
+        int n = readFully(buf, (long) start * pageSize) / pageSize;
+        // the pages share buf; each one decodes from its own slice
+        for (int i = 0; i < n; i++) {
+            buf.limit((i + 1) * pageSize).position(i * pageSize);
+            result.add(new HeapPage(new HeapPageId(tableid, start + i), buf.slice()));
+        }
+        Debug.log(1, "HeapFile.readPages: read pages %d to %d", start, start + n - 1);
+        return result;
     }
 
     // see DbFile.java for javadocs
@@ -106,10 +282,77 @@ public class HeapFile implements DbFile {
         HeapPage p = (HeapPage) page;
         // System.out.println("Writing back page " + p.getId().pageno());
         byte[] data = p.getPageData();
-        RandomAccessFile rf = new RandomAccessFile(f, "rw");
-        rf.seek((long) p.getId().getPageNumber() * BufferPool.getPageSize());
-        rf.write(data);
-        rf.close();
+        writeFully(ByteBuffer.wrap(data), (long) p.getId().getPageNumber() * BufferPool.getPageSize());
+        FreeSpaceMap map = fsm;
+        if (map != null) {
+            map.update(p.getId().getPageNumber(), p.getNumUnusedSlots());
+            map.persist(p.getId().getPageNumber());
+        }
+        ZoneMap zones = zm;
+        if (zones != null) {
+            zones.set(p);
+            zones.persist(p.getId().getPageNumber());
+        }
+    }
+
+    /**
+     * Returns the free-space map of this file, loading it if needed.
+     */
+    FreeSpaceMap freeSpaceMap() throws IOException {
+        FreeSpaceMap map = fsm;
+        if (map == null) {
+            synchronized (this) {
+                map = fsm;
+                if (map == null) {
+                    map = FreeSpaceMap.open(this);
+                    int pages = numPages();
+                    for (int i = 0; i < INSERT_STRIPES; i++)
+                        insertHints.set(i, i * pages / INSERT_STRIPES);
+                    fsm = map;
+                }
+            }
+        }
+        return map;
+    }
+
+    /**
+     * Called by HeapPage when a tuple is inserted into or deleted from one
+     * of this file's pages.
+     */
+    void freeSpaceChanged(int pgno, int freeSlots) {
+        FreeSpaceMap map = fsm;
+        if (map != null)
+            map.update(pgno, freeSlots);
+    }
+
+    /**
+     * Returns the zone map of this file, loading it if needed, or null if
+     * the table has no INT fields.
+     */
+    ZoneMap zoneMap() throws IOException {
+        if (!zoned)
+            return null;
+        ZoneMap zones = zm;
+        if (zones == null) {
+            synchronized (this) {
+                zones = zm;
+                if (zones == null) {
+                    zones = ZoneMap.open(this);
+                    zm = zones;
+                }
+            }
+        }
+        return zones;
+    }
+
+    /**
+     * Called by HeapPage when a tuple is inserted into one of this file's
+     * pages.
+     */
+    void tupleInserted(int pgno, Tuple t) {
+        ZoneMap zones = zm;
+        if (zones != null)
+            zones.widen(pgno, t);
     }
 
     /**
@@ -118,6 +361,14 @@ public class HeapFile implements DbFile {
     public int numPages() {
         // XXX: this seems to be rounding it down. isn't that wrong?
         // XXX: (marcua) no - we only ever write full pages
+        FileChannel ch = channel;
+        if (ch != null) {
+            try {
+                return (int) (ch.size() / BufferPool.getPageSize());
+            } catch (IOException e) {
+                // closed by an interrupt; fall back to the file system
+            }
+        }
         return (int) (f.length() / BufferPool.getPageSize());
     }
 
@@ -126,44 +377,40 @@ public class HeapFile implements DbFile {
             throws DbException, IOException, TransactionAbortedException {
         List<Page> dirtypages = new ArrayList<>();
 
-        // find the first page with a free slot in it
-        int i = 0;
-        if (lastEmptyPage != -1)
-            i = lastEmptyPage;
-        // XXX: Would it not be better to scan from numPages() to 0 since the
-        // last pages are more likely to have empty slots?
-        for (; i < numPages(); i++) {
+        // ask the free-space map for a page with a free slot in it, starting
+        // where this thread's stripe last found one
+        FreeSpaceMap map = freeSpaceMap();
+        // the zone map must see every insert once anyone may skip pages
+        zoneMap();
+        int stripe = (int) (Thread.currentThread().getId() % INSERT_STRIPES);
+        int i = map.findPageWithSpace(insertHints.get(stripe));
+        while (i != -1) {
             Debug.log(
                     4,
                     "HeapFile.addTuple: checking free slots on page %d of table %d",
                     i, tableid);
             HeapPageId pid = new HeapPageId(tableid, i);
+            boolean wasLocked = Database.getBufferPool().holdsLock(tid, pid);
             HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid, pid,
                     Permissions.READ_WRITE);
 
-            // no empty slots
-            //
-            // think about why we have to invoke releasePage here.
-            // can you think of ways where
+            // the map is only a hint; someone may have filled the page
             if (p.getNumUnusedSlots() == 0) {
                 Debug.log(
                         4,
                         "HeapFile.addTuple: no free slots on page %d of table %d",
                         i, tableid);
-
-                // we mistakenly got here through lastEmptyPage, just add a page
-                // XXX we know this isn't very pretty.
-                if (lastEmptyPage != -1) {
-                    lastEmptyPage = -1;
-                    break;
-                }
+                // a full page is of no use to us; let others have it
+                if (!wasLocked)
+                    Database.getBufferPool().unsafeReleasePage(tid, pid);
+                map.update(i, 0);
+                i = map.findPageWithSpace(i + 1);
                 continue;
             }
             Debug.log(4, "HeapFile.addTuple: %d free slots in table %d",
                     p.getNumUnusedSlots(), tableid);
             p.insertTuple(t);
-            lastEmptyPage = p.getId().getPageNumber();
-            // System.out.println("nfetches = " + nfetches);
+            insertHints.set(stripe, i);
             dirtypages.add(p);
             return dirtypages;
         }
@@ -176,12 +423,11 @@ public class HeapFile implements DbFile {
         // new tuples to the page. The second transaction then overwrites the
         // data with an empty
         // page, losing the new data.
+        int newPgno;
         synchronized (this) {
-            BufferedOutputStream bw = new BufferedOutputStream(
-                    new FileOutputStream(f, true));
+            newPgno = numPages();
             byte[] emptyData = HeapPage.createEmptyPageData();
-            bw.write(emptyData);
-            bw.close();
+            writeFully(ByteBuffer.wrap(emptyData), (long) newPgno * BufferPool.getPageSize());
         }
 
         // by virtue of writing these bits to the HeapFile, it is now visible.
@@ -190,11 +436,10 @@ public class HeapFile implements DbFile {
         // we just need to lock the page before we can add the tuple to it.
 
         HeapPage p = (HeapPage) Database.getBufferPool()
-                .getPage(tid, new HeapPageId(tableid, numPages() - 1),
+                .getPage(tid, new HeapPageId(tableid, newPgno),
                         Permissions.READ_WRITE);
         p.insertTuple(t);
-        lastEmptyPage = p.getId().getPageNumber();
-        // System.out.println("nfetches = " + nfetches);
+        insertHints.set(stripe, p.getId().getPageNumber());
         dirtypages.add(p);
         return dirtypages;
     }
@@ -212,9 +457,55 @@ public class HeapFile implements DbFile {
         return pages;
     }
 
+    /**
+     * Returns the tuple with the given RecordId, e.g. one an index points
+     * to, or null if there is no such page or the slot is empty.
+     */
+    public Tuple fetchTuple(TransactionId tid, RecordId rid)
+            throws DbException, TransactionAbortedException {
+        PageId pid = rid.getPageId();
+        if (pid.getTableId() != tableid || pid.getPageNumber() >= numPages())
+            return null;
+        HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(tableid, pid.getPageNumber()), Permissions.READ_ONLY);
+        int slot = rid.getTupleNumber();
+        return slot >= 0 && slot < p.numSlots ? p.getTuple(slot) : null;
+    }
+
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
-        return new HeapFileIterator(this, tid);
+        return new HeapFileIterator(this, tid, null, 0, 1, Collections.emptyList());
+    }
+
+    // see DbFile.java for javadocs
+    @Override
+    public DbFileIterator iterator(TransactionId tid, int[] columns) {
+        return new HeapFileIterator(this, tid, columns, 0, 1, Collections.emptyList());
+    }
+
+    /**
+     * Splits the file into numPartitions ranges of consecutive pages of
+     * (nearly) equal length, fixed when the iterator is opened, and returns
+     * an iterator over one of them.
+     */
+    @Override
+    public DbFileIterator iterator(TransactionId tid, int[] columns, int partition, int numPartitions) {
+        if (partition < 0 || partition >= numPartitions)
+            throw new IllegalArgumentException("no partition " + partition + " of " + numPartitions);
+        return new HeapFileIterator(this, tid, columns, partition, numPartitions, Collections.emptyList());
+    }
+
+    /**
+     * Skips the pages whose zone map ranges show that none of their tuples
+     * can satisfy the predicates on INT fields, without fetching them.
+     */
+    @Override
+    public DbFileIterator iterator(TransactionId tid, int[] columns, int partition, int numPartitions,
+                                   List<Predicate> pruning) {
+        if (partition < 0 || partition >= numPartitions)
+            throw new IllegalArgumentException("no partition " + partition + " of " + numPartitions);
+        return new HeapFileIterator(this, tid, columns, partition, numPartitions,
+                ZoneMap.usable(td, pruning));
     }
 
 }
@@ -226,17 +517,85 @@ class HeapFileIterator extends AbstractDbFileIterator {
 
     Iterator<Tuple> it = null;
     int curpgno = 0;
+    // read-ahead state: how many pages in a row were read in order, and
+    // the page read-ahead has been requested up to (exclusive)
+    int sequentialPages = 0;
+    int prefetchedTo = 0;
 
     final TransactionId tid;
     final HeapFile hf;
-
-    public HeapFileIterator(HeapFile hf, TransactionId tid) {
+    // the columns to return, or null for whole tuples
+    final int[] columns;
+    // which of how many page ranges to scan, and the end of the range, fixed
+    // when the iterator is opened (a scan of the whole file also sees pages
+    // added while it runs)
+    final int partition;
+    final int numPartitions;
+    int endpgno = 0;
+    // predicates on INT fields pages are skipped for, and the zone map that
+    // tells which pages to skip (null when there are none)
+    final List<Predicate> pruning;
+    ZoneMap zones = null;
+
+    public HeapFileIterator(HeapFile hf, TransactionId tid, int[] columns, int partition, int numPartitions,
+                            List<Predicate> pruning) {
         this.hf = hf;
         this.tid = tid;
+        this.columns = columns;
+        this.partition = partition;
+        this.numPartitions = numPartitions;
+        this.pruning = pruning;
+    }
+
+    public void open() throws DbException {
+        if (!pruning.isEmpty()) {
+            try {
+                zones = hf.zoneMap();
+            } catch (IOException e) {
+                throw new DbException("zone map of " + hf.getFile() + ": " + e.getMessage());
+            }
+        }
+        long n = hf.numPages();
+        curpgno = (int) (n * partition / numPartitions) - 1;
+        endpgno = (int) (n * (partition + 1) / numPartitions);
+        sequentialPages = 0;
+        prefetchedTo = 0;
     }
 
-    public void open() {
-        curpgno = -1;
+    private int endPage() {
+        return numPartitions == 1 ? hf.numPages() : endpgno;
+    }
+
+    private boolean skip(int pgno) {
+        return zones != null && !zones.mayMatch(pgno, pruning);
+    }
+
+    /**
+     * Called before each page is fetched. Once the scan has read two pages
+     * in a row, keeps the BufferPool reading ahead of it, requesting the
+     * next window of pages when half of the previous one has been used up.
+     * The window ends before the next page the scan will skip.
+     */
+    private void readAhead(int pgno) {
+        BufferPool bp = Database.getBufferPool();
+        int window = bp.getPrefetchWindow();
+        if (window == 0)
+            return;
+        sequentialPages++;
+        if (sequentialPages < 2 || prefetchedTo - pgno > window / 2)
+            return;
+        int from = Math.max(pgno + 1, prefetchedTo);
+        int to = Math.min(endPage(), pgno + 1 + window);
+        for (int i = from; i < to; i++) {
+            if (skip(i)) {
+                to = i;
+                break;
+            }
+        }
+        if (from < to) {
+            bp.prefetch(hf, from, to - from);
+            prefetchedTo = to;
+        }
     }
 
     @Override
@@ -244,12 +603,15 @@ class HeapFileIterator extends AbstractDbFileIterator {
         if (it != null && !it.hasNext())
             it = null;
 
-        while (it == null && curpgno < hf.numPages() - 1) {
+        while (it == null && curpgno < endPage() - 1) {
             curpgno++;
+            if (skip(curpgno))
+                continue;
+            readAhead(curpgno);
             HeapPageId curpid = new HeapPageId(hf.getId(), curpgno);
             HeapPage curp = (HeapPage) Database.getBufferPool().getPage(tid,
                     curpid, Permissions.READ_ONLY);
-            it = curp.iterator();
+            it = columns == null ? curp.iterator() : curp.iterator(columns);
             if (!it.hasNext())
                 it = null;
         }
@@ -259,7 +621,7 @@ class HeapFileIterator extends AbstractDbFileIterator {
         return it.next();
     }
 
-    public void rewind() {
+    public void rewind() throws DbException {
         close();
         open();
     }
@@ -7,12 +7,20 @@ import simpledb.common.Debug;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * Only the header is decoded when a page is read. The tuple slots stay in
+ * their on-disk form and a Tuple is built from a slot the first time it is
+ * asked for, so a page that is fetched just to count free slots, or scanned
+ * for a few of its columns, costs little more than the read itself.
  *
  * @see HeapFile
  * @see BufferPool
@@ -24,11 +32,21 @@ public class HeapPage implements Page {
     final HeapPageId pid;
     final TupleDesc td;
     final byte[] header;
-    final Tuple[] tuples;
+    // decoded tuples, filled in lazily; slots that were inserted into since
+    // the page was read always have an entry here
+    final AtomicReferenceArray<Tuple> tuples;
     final int numSlots;
-
+    // the slots as read from disk, starting at slot 0; never modified
+    private final ByteBuffer raw;
+    private final int tupleSize;
+    // byte offset of each field within a slot
+    private final int[] fieldOffsets;
+
+    // the before image; null while it is the page's current contents, which
+    // are then serialized on the first change (see saveBeforeImage), so a
+    // page that is only read never copies its data
     byte[] oldData;
-    private final Byte oldDataLock = (byte) 0;
+    private final Object oldDataLock = new Object();
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
@@ -48,27 +66,37 @@ public class HeapPage implements Page {
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a HeapPage from the bytes between the position and the limit of
+     * a buffer, e.g. a slice of a memory-mapped HeapFile. Tuples are decoded
+     * straight from the buffer, on demand, without copying it into a byte
+     * array first; the buffer is not modified and must not be modified by
+     * the caller while the page is in use.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this.tupleSize = td.getSize();
+        this.fieldOffsets = new int[td.numFields()];
+        for (int j = 1; j < fieldOffsets.length; j++)
+            fieldOffsets[j] = fieldOffsets[j - 1] + td.getFieldType(j - 1).getLen();
+        ByteBuffer buf = data.duplicate();
 
         // allocate and read the header slots of this page
         header = new byte[getHeaderSize()];
-        for (int i = 0; i < header.length; i++)
-            header[i] = dis.readByte();
-
-        tuples = new Tuple[numSlots];
-        try {
-            // allocate and read the actual records of this page
-            for (int i = 0; i < tuples.length; i++)
-                tuples[i] = readNextTuple(dis, i);
-        } catch (NoSuchElementException e) {
-            e.printStackTrace();
-        }
-        dis.close();
+        if (buf.remaining() < header.length + numSlots * tupleSize)
+            throw new EOFException("page " + id.getPageNumber() + " is truncated");
+        buf.get(header);
 
-        setBeforeImage();
+        // the records themselves are decoded by getTuple
+        raw = buf.slice();
+        tuples = new AtomicReferenceArray<>(numSlots);
     }
 
     /**
@@ -107,7 +135,7 @@ public class HeapPage implements Page {
             synchronized (oldDataLock) {
                 oldDataRef = oldData;
             }
-            return new HeapPage(pid, oldDataRef);
+            return new HeapPage(pid, oldDataRef != null ? oldDataRef : getPageData());
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -118,7 +146,18 @@ public class HeapPage implements Page {
 
     public void setBeforeImage() {
         synchronized (oldDataLock) {
-            oldData = getPageData().clone();
+            oldData = null;
+        }
+    }
+
+    /**
+     * Takes the before image, if it is still the current contents, before
+     * the page is changed.
+     */
+    private void saveBeforeImage() {
+        synchronized (oldDataLock) {
+            if (oldData == null)
+                oldData = getPageData();
         }
     }
 
@@ -130,32 +169,20 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Decodes the tuple in the given slot from the raw page data.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i = 0; i < td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
-        }
-
-        // read fields in the tuple
+    private Tuple readTuple(int slotId) throws NoSuchElementException {
         Tuple t = new Tuple(td);
         RecordId rid = new RecordId(pid, slotId);
         t.setRecordId(rid);
+        ByteBuffer buf = raw.duplicate();
+        buf.position(slotId * tupleSize);
         try {
             for (int j = 0; j < td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
+                Field f = td.getFieldType(j).parse(buf);
                 t.setField(j, f);
             }
-        } catch (java.text.ParseException e) {
+        } catch (ParseException e) {
             e.printStackTrace();
             throw new NoSuchElementException("parsing error!");
         }
@@ -176,63 +203,39 @@ public class HeapPage implements Page {
      */
     public byte[] getPageData() {
         int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
+        byte[] data = new byte[len];
 
         // create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i = 0; i < tuples.length; i++) {
+        System.arraycopy(header, 0, data, 0, header.length);
 
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j = 0; j < td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
+        // create the tuples; empty slots and the padding stay zero
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(tupleSize);
+        DataOutputStream dos = new DataOutputStream(baos);
+        ByteBuffer src = raw.duplicate();
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i))
+                continue;
+            int off = header.length + i * tupleSize;
+            Tuple t = tuples.get(i);
+            if (t == null) {
+                // never decoded, so unchanged since the page was read
+                src.position(i * tupleSize);
+                src.get(data, off, tupleSize);
                 continue;
             }
-
-            // non-empty slot
+            baos.reset();
             for (int j = 0; j < td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
                 try {
-                    f.serialize(dos);
-
+                    t.getField(j).serialize(dos);
                 } catch (IOException e) {
+                    // this really shouldn't happen
                     e.printStackTrace();
                 }
             }
+            System.arraycopy(baos.toByteArray(), 0, data, off, tupleSize);
         }
 
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+        return data;
     }
 
     /**
@@ -263,7 +266,10 @@ public class HeapPage implements Page {
             throw new DbException("tried to delete tuple on invalid page or table");
         if (!isSlotUsed(rid.getTupleNumber()))
             throw new DbException("tried to delete null tuple.");
+        saveBeforeImage();
         markSlotUsed(rid.getTupleNumber(), false);
+        tuples.set(rid.getTupleNumber(), null);
+        contentsChanged(null);
     }
 
     /**
@@ -280,21 +286,39 @@ public class HeapPage implements Page {
             throw new DbException("type mismatch, in addTuple");
 
         int goodSlot = -1;
-        for (int i = 0; i < numSlots; i++) {
-            if (!isSlotUsed(i) && goodSlot == -1) {
-                goodSlot = i;
-                break;
+        for (int b = 0; b < header.length && goodSlot == -1; b++) {
+            if (header[b] != (byte) 0xFF) {
+                int slot = b * 8 + Integer.numberOfTrailingZeros(~header[b] & 0xFF);
+                if (slot < numSlots)
+                    goodSlot = slot;
             }
-
         }
         if (goodSlot == -1)
             throw new DbException("called addTuple on page with no empty slots.");
 
-        markSlotUsed(goodSlot, true);
         Debug.log(1, "HeapPage.addTuple: new tuple, tableId = %d pageId = %d slotId = %d", pid.getTableId(), pid.getPageNumber(), goodSlot);
+        saveBeforeImage();
         RecordId rid = new RecordId(pid, goodSlot);
         t.setRecordId(rid);
-        tuples[goodSlot] = t;
+        // publish the tuple before the slot shows up as used
+        tuples.set(goodSlot, t);
+        markSlotUsed(goodSlot, true);
+        contentsChanged(t);
+    }
+
+    /**
+     * Tells the HeapFile this page belongs to, if any, how many free slots
+     * the page has now and which tuple, if any, was inserted, so its
+     * free-space map and zone map stay current.
+     */
+    private void contentsChanged(Tuple inserted) {
+        DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        if (file instanceof HeapFile) {
+            HeapFile hf = (HeapFile) file;
+            hf.freeSpaceChanged(pid.getPageNumber(), getNumUnusedSlots());
+            if (inserted != null)
+                hf.tupleInserted(pid.getPageNumber(), inserted);
+        }
     }
 
     /**
@@ -321,11 +345,16 @@ public class HeapPage implements Page {
      * Returns the number of unused (i.e., empty) slots on this page.
      */
     public int getNumUnusedSlots() {
-        int cnt = 0;
-        for (int i = 0; i < numSlots; i++)
-            if (!isSlotUsed(i))
-                cnt++;
-        return cnt;
+        int used = 0;
+        for (int b = 0; b < header.length; b++) {
+            int bits = header[b] & 0xFF;
+            // ignore bits past the last slot in the last header byte
+            int slotsInByte = Math.min(8, numSlots - b * 8);
+            if (slotsInByte < 8)
+                bits &= (1 << slotsInByte) - 1;
+            used += Integer.bitCount(bits);
+        }
+        return numSlots - used;
     }
 
     /**
@@ -356,28 +385,71 @@ public class HeapPage implements Page {
      *         (note that this iterator shouldn't return tuples in empty slots!)
      */
     public Iterator<Tuple> iterator() {
-        return new HeapPageIterator(this);
+        return new HeapPageIterator(this, null, null);
+    }
+
+    /**
+     * Like {@link #iterator()}, but the returned tuples hold only the given
+     * columns, described by td.project(columns). Only those fields are
+     * decoded. The tuples keep the RecordId of the full tuple.
+     *
+     * @param columns indices of the fields to return
+     */
+    public Iterator<Tuple> iterator(int[] columns) {
+        return new HeapPageIterator(this, columns, td.project(columns));
     }
 
     // protected method used by the iterator to get the ith tuple
     // out of this page
     Tuple getTuple(int i) throws NoSuchElementException {
 
-        if (i >= tuples.length)
+        if (i < 0 || i >= numSlots)
             throw new NoSuchElementException();
 
-        try {
-            if (!isSlotUsed(i)) {
-                Debug.log(1, "HeapPage.getTuple: slot %d in %d:%d is not used", i, pid.getTableId(), pid.getPageNumber());
-                return null;
-            }
+        if (!isSlotUsed(i)) {
+            Debug.log(1, "HeapPage.getTuple: slot %d in %d:%d is not used", i, pid.getTableId(), pid.getPageNumber());
+            return null;
+        }
 
-            Debug.log(1, "HeapPage.getTuple: returning tuple %d", i);
-            return tuples[i];
+        Debug.log(1, "HeapPage.getTuple: returning tuple %d", i);
+        Tuple t = tuples.get(i);
+        if (t == null) {
+            t = readTuple(i);
+            // another thread may have decoded (or inserted) it meanwhile
+            if (!tuples.compareAndSet(i, null, t))
+                t = tuples.get(i);
+        }
+        return t;
+    }
 
-        } catch (ArrayIndexOutOfBoundsException e) {
+    // like getTuple(i), but returns only the given columns of the tuple;
+    // the projected tuple is not cached
+    Tuple getTuple(int i, int[] columns, TupleDesc projected) throws NoSuchElementException {
+
+        if (i < 0 || i >= numSlots)
             throw new NoSuchElementException();
+        if (!isSlotUsed(i))
+            return null;
+
+        Tuple t = new Tuple(projected);
+        t.setRecordId(new RecordId(pid, i));
+        Tuple full = tuples.get(i);
+        if (full != null) {
+            for (int j = 0; j < columns.length; j++)
+                t.setField(j, full.getField(columns[j]));
+            return t;
         }
+        ByteBuffer buf = raw.duplicate();
+        try {
+            for (int j = 0; j < columns.length; j++) {
+                buf.position(i * tupleSize + fieldOffsets[columns[j]]);
+                t.setField(j, td.getFieldType(columns[j]).parse(buf));
+            }
+        } catch (ParseException e) {
+            e.printStackTrace();
+            throw new NoSuchElementException("parsing error!");
+        }
+        return t;
     }
 }
 
@@ -388,9 +460,14 @@ class HeapPageIterator implements Iterator<Tuple> {
     int curTuple = 0;
     Tuple nextToReturn = null;
     final HeapPage p;
+    // the columns to return, or null for whole tuples
+    final int[] columns;
+    final TupleDesc projected;
 
-    public HeapPageIterator(HeapPage p) {
+    public HeapPageIterator(HeapPage p, int[] columns, TupleDesc projected) {
         this.p = p;
+        this.columns = columns;
+        this.projected = projected;
     }
 
     public boolean hasNext() {
@@ -399,7 +476,8 @@ class HeapPageIterator implements Iterator<Tuple> {
 
         try {
             while (true) {
-                nextToReturn = p.getTuple(curTuple++);
+                nextToReturn = columns == null ? p.getTuple(curTuple++)
+                        : p.getTuple(curTuple++, columns, projected);
                 if (nextToReturn != null)
                     return true;
             }
@@ -4,13 +4,26 @@ import simpledb.common.Database;
 import simpledb.common.Debug;
 import simpledb.transaction.TransactionId;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /*
 LogFile implements the recovery subsystem of SimpleDb.  This class is
@@ -75,12 +88,31 @@ must not be declared synchronized and must begin with a block like:
  * for each active transaction.
  *
  * </ul>
+ *
+ * <p> Records are appended to an in-memory log buffer. A record is
+ * serialized by the appending thread on its own, then reserves its offset
+ * in the log (its LSN) by advancing an atomic counter, and is put in the
+ * buffer under that offset; appends take no monitor, so they do not block
+ * each other. The buffer is written out sequentially, as many records as
+ * are contiguous in one write, by one thread at a time: a thread that
+ * needs the log forced up to some offset, or one that finds the buffer
+ * full. A force waits only until the log is on disk up to the offset it
+ * needs.
+ *
+ * <p> Commits are grouped: the committing thread waits until its COMMIT
+ * record has been forced, and one of the waiting threads at a time forces
+ * the log for all of them; the others append their records meanwhile, and
+ * one of them leads the next force. See {@link #setGroupCommit}.
+ *
+ * <p> Checkpoints, rollback, recovery and truncation read or rewrite the
+ * file itself. They lock the log (see {@link #lockLog}), which waits for
+ * appends in progress and writes the buffer out first.
  */
 public class LogFile {
 
     final File logFile;
     private RandomAccessFile raf;
-    Boolean recoveryUndecided; // no call to recover() and no append to log
+    volatile boolean recoveryUndecided; // no call to recover() and no append to log
 
     static final int ABORT_RECORD = 1;
     static final int COMMIT_RECORD = 2;
@@ -92,11 +124,34 @@ public class LogFile {
     final static int INT_SIZE = 4;
     final static int LONG_SIZE = 8;
 
-    long currentOffset = -1;//protected by this
+    // the end of the log: where the next record goes
+    final AtomicLong currentOffset = new AtomicLong(-1);
     //    int pageSize;
-    int totalRecords = 0; // for PatchTest //protected by this
-
-    final Map<Long, Long> tidToFirstLogRecord = new HashMap<>();
+    final AtomicInteger totalRecords = new AtomicInteger(); // for PatchTest
+
+    final Map<Long, Long> tidToFirstLogRecord = new ConcurrentHashMap<>();
+
+    // the log buffer: records appended but not written yet, by offset
+    private final ConcurrentSkipListMap<Long, byte[]> buffered = new ConcurrentSkipListMap<>();
+    private final AtomicLong bufferedBytes = new AtomicLong();
+    static final int BUFFER_BYTES = 1 << 20; // written out when this full
+
+    // appends share this lock; lockLog takes it exclusively
+    private final ReentrantReadWriteLock appendLock = new ReentrantReadWriteLock();
+    // held by the one thread writing the buffer out
+    private final ReentrantLock writer = new ReentrantLock();
+    private volatile long writtenOffset = -1; // the log is in the file up to here
+    // bumped whenever the log is rewritten, which moves the records
+    private volatile long generation = 0;
+
+    // forcing, all protected by this
+    private long durableOffset = -1; // the log is on disk up to here
+    private boolean flushing = false; // a thread is forcing the log
+    private long forces = 0;
+    private final AtomicLong commits = new AtomicLong(); // COMMIT records logged
+    private long groupedCommits = 0; // of which in a group being or already forced
+    private int groupCommitSize = 64;
+    private long groupCommitDelayNanos = 0;
 
     /**
      * Constructor.
@@ -128,21 +183,188 @@ public class LogFile {
 
     // we're about to append a log record. if we weren't sure whether the
     // DB wants to do recovery, we're sure now -- it didn't. So truncate
-    // the log.
+    // the log. Called with the log locked.
     void preAppend() throws IOException {
-        totalRecords++;
+        totalRecords.incrementAndGet();
         if (recoveryUndecided) {
             recoveryUndecided = false;
             raf.seek(0);
             raf.setLength(0);
             raf.writeLong(NO_CHECKPOINT_ID);
             raf.seek(raf.length());
-            currentOffset = raf.getFilePointer();
+            currentOffset.set(raf.getFilePointer());
         }
     }
 
-    public synchronized int getTotalRecords() {
-        return totalRecords;
+    /**
+     * Locks the log for reading or rewriting the file: waits for appends in
+     * progress, keeps new ones out, and writes out the buffer. Every append
+     * is then in the file, which ends at currentOffset, and raf is
+     * positioned there. Release with {@link #unlockLog}, after setting
+     * currentOffset to the end of whatever was written through raf.
+     * <p>
+     * Must not be called while waiting for a force to finish, so the lock
+     * order is this (if held), then the log, then the writer.
+     */
+    private void lockLog() throws IOException {
+        appendLock.writeLock().lock();
+        writer.lock();
+        try {
+            writeBuffered();
+            if (currentOffset.get() >= 0)
+                raf.seek(currentOffset.get());
+        } catch (IOException | RuntimeException e) {
+            writer.unlock();
+            appendLock.writeLock().unlock();
+            throw e;
+        }
+    }
+
+    private void unlockLog() {
+        writtenOffset = currentOffset.get();
+        writer.unlock();
+        appendLock.writeLock().unlock();
+    }
+
+    /**
+     * Appends a serialized record to the log buffer. The caller must hold
+     * the append lock shared; appends by different threads do not block
+     * each other.
+     *
+     * @param record a record, whose last long integer is filled in with its
+     *               offset
+     * @return the offset of the record
+     */
+    private long append(byte[] record) {
+        long start = currentOffset.getAndAdd(record.length);
+        ByteBuffer.wrap(record).putLong(record.length - LONG_SIZE, start);
+        bufferedBytes.addAndGet(record.length);
+        buffered.put(start, record);
+        return start;
+    }
+
+    /**
+     * Takes the append lock shared, first deciding against recovery if no
+     * one decided yet.
+     */
+    private void beginAppend() throws IOException {
+        if (recoveryUndecided) {
+            lockLog();
+            try {
+                if (recoveryUndecided) {
+                    preAppend();
+                    totalRecords.decrementAndGet(); // counted by the caller
+                }
+            } finally {
+                unlockLog();
+            }
+        }
+        appendLock.readLock().lock();
+        totalRecords.incrementAndGet();
+    }
+
+    /**
+     * Releases the append lock, then writes the buffer out if it is full and
+     * no other thread is writing it. If it is more than twice full, the
+     * writer cannot keep up, and the thread waits to write it out itself.
+     */
+    private void endAppend() throws IOException {
+        appendLock.readLock().unlock();
+        long size = bufferedBytes.get();
+        if (size < BUFFER_BYTES)
+            return;
+        if (size < 2 * BUFFER_BYTES) {
+            if (!writer.tryLock())
+                return;
+        } else {
+            writer.lock();
+        }
+        try {
+            writeBuffered();
+        } finally {
+            writer.unlock();
+        }
+    }
+
+    /**
+     * Writes the buffered records that follow the file without a gap, up to
+     * the end of the log when called, at most BUFFER_BYTES per write.
+     * Called by the writer.
+     */
+    private void writeBuffered() throws IOException {
+        long end = currentOffset.get();
+        while (writtenOffset < end) {
+            long from = writtenOffset, to = from;
+            List<byte[]> records = new ArrayList<>();
+            byte[] record;
+            while (to - from < BUFFER_BYTES && (record = buffered.get(to)) != null) {
+                records.add(record);
+                to += record.length;
+            }
+            if (records.isEmpty())
+                return; // a record is still being appended
+            ByteBuffer batch = ByteBuffer.allocate((int) (to - from));
+            for (byte[] r : records)
+                batch.put(r);
+            batch.flip();
+            FileChannel channel = raf.getChannel();
+            while (batch.hasRemaining())
+                channel.write(batch, from + batch.position());
+            for (long offset = from; offset < to; ) {
+                int length = buffered.remove(offset).length;
+                bufferedBytes.addAndGet(-length);
+                offset += length;
+            }
+            writtenOffset = to;
+        }
+    }
+
+    /**
+     * Serializes a record that has no body.
+     */
+    private static byte[] record(int type, TransactionId tid) {
+        ByteBuffer b = ByteBuffer.allocate(INT_SIZE + 2 * LONG_SIZE);
+        b.putInt(type);
+        b.putLong(tid.getId());
+        return b.array();
+    }
+
+    /**
+     * @return whether the transaction logged records and has not committed
+     *         or aborted yet
+     */
+    boolean isLogged(TransactionId tid) {
+        return tidToFirstLogRecord.containsKey(tid.getId());
+    }
+
+    public int getTotalRecords() {
+        return totalRecords.get();
+    }
+
+    /**
+     * @return the number of times the log was forced to disk
+     */
+    public synchronized long getForceCount() {
+        return forces;
+    }
+
+    /**
+     * Sets how commits are grouped. The thread that forces the log for a
+     * group waits until maxBatch commits are waiting, or until
+     * maxDelay has passed, whichever comes first; committers that arrive
+     * while the log is being forced are grouped regardless. With no delay
+     * (the default) a lone committer forces the log at once.
+     *
+     * @param maxBatch the number of waiting commits to stop waiting at
+     * @param maxDelay how long to wait for more commits
+     * @param unit     the unit of maxDelay
+     */
+    public synchronized void setGroupCommit(int maxBatch, long maxDelay, TimeUnit unit) {
+        if (maxBatch < 1 || maxDelay < 0)
+            throw new IllegalArgumentException("group of " + maxBatch + " commits, delay " + maxDelay);
+        groupCommitSize = maxBatch;
+        groupCommitDelayNanos = unit.toNanos(maxDelay);
+        notifyAll();
     }
 
     /**
@@ -154,11 +376,10 @@ public class LogFile {
     public void logAbort(TransactionId tid) throws IOException {
         // must have buffer pool lock before proceeding, since this
         // calls rollback
-
+        long end, gen;
         synchronized (Database.getBufferPool()) {
 
             synchronized (this) {
-                preAppend();
                 //Debug.log("ABORT");
                 //should we verify that this is a live transaction?
 
@@ -166,33 +387,132 @@ public class LogFile {
                 // live transactions (needs tidToFirstLogRecord)
                 rollback(tid);
 
-                raf.writeInt(ABORT_RECORD);
-                raf.writeLong(tid.getId());
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                force();
+                beginAppend();
+                try {
+                    byte[] record = record(ABORT_RECORD, tid);
+                    end = append(record) + record.length;
+                    gen = generation;
+                } finally {
+                    endAppend();
+                }
                 tidToFirstLogRecord.remove(tid.getId());
             }
         }
+        forceTo(end, gen, false);
     }
 
     /**
      * Write a commit record to disk for the specified tid,
-     * and force the log to disk.
+     * and force the log to disk. The record is forced together with those
+     * of the transactions committing at the same time.
      *
      * @param tid The committing transaction.
      */
-    public synchronized void logCommit(TransactionId tid) throws IOException {
-        preAppend();
-        Debug.log("COMMIT " + tid.getId());
-        //should we verify that this is a live transaction?
-
-        raf.writeInt(COMMIT_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-        force();
+    public void logCommit(TransactionId tid) throws IOException {
+        long end, gen;
+        beginAppend();
+        try {
+            Debug.log("COMMIT " + tid.getId());
+            //should we verify that this is a live transaction?
+            byte[] record = record(COMMIT_RECORD, tid);
+            end = append(record) + record.length;
+            gen = generation;
+            commits.incrementAndGet();
+        } finally {
+            endAppend();
+        }
         tidToFirstLogRecord.remove(tid.getId());
+        forceTo(end, gen, true);
+    }
+
+    /**
+     * Waits until the log is on disk up to the given offset, forcing it
+     * unless another thread is. A rewrite of the log forces all of it, so
+     * offsets from before one (of an older generation) are on disk.
+     *
+     * @param end   the offset
+     * @param gen   the generation the offset belongs to
+     * @param group whether to wait for more commits before forcing (see
+     *              {@link #setGroupCommit})
+     */
+    private void forceTo(long end, long gen, boolean group) throws IOException {
+        boolean interrupted = false;
+        try {
+            synchronized (this) {
+                if (group && commits.get() - groupedCommits >= groupCommitSize)
+                    notifyAll(); // the leader need not wait any longer
+                while (durableOffset < end && generation == gen && flushing) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if (durableOffset >= end || generation != gen)
+                    return;
+                flushing = true;
+                if (group) {
+                    long deadline = System.nanoTime() + groupCommitDelayNanos;
+                    long left;
+                    while (commits.get() - groupedCommits < groupCommitSize
+                            && (left = deadline - System.nanoTime()) > 0) {
+                        try {
+                            TimeUnit.NANOSECONDS.timedWait(this, left);
+                        } catch (InterruptedException e) {
+                            interrupted = true;
+                            break;
+                        }
+                    }
+                }
+                groupedCommits = commits.get();
+            }
+            // the log's monitor is not held, so others can append and wait
+            // for the next force while this one is written and forced
+            try {
+                long target = currentOffset.get();
+                FileChannel channel;
+                writer.lock();
+                try {
+                    // records before target may still be being appended
+                    while (writtenOffset < target && generation == gen) {
+                        writeBuffered();
+                        if (writtenOffset < target)
+                            Thread.yield();
+                    }
+                    channel = raf.getChannel();
+                } finally {
+                    writer.unlock();
+                }
+                try {
+                    channel.force(true);
+                } catch (ClosedChannelException e) {
+                    // the log was rewritten into a new file, which was forced
+                }
+                synchronized (this) {
+                    forces++;
+                    if (generation == gen)
+                        durableOffset = Math.max(durableOffset, target);
+                }
+            } finally {
+                synchronized (this) {
+                    flushing = false;
+                    notifyAll();
+                }
+            }
+        } finally {
+            if (interrupted)
+                Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Forces the file while the log is locked; everything appended is in it.
+     */
+    private synchronized void forceLocked() throws IOException {
+        raf.getChannel().force(true);
+        forces++;
+        durableOffset = currentOffset.get();
+        notifyAll();
     }
 
     /**
@@ -204,11 +524,9 @@ public class LogFile {
      * @param after  The after image of the page
      * @see Page#getBeforeImage
      */
-    public synchronized void logWrite(TransactionId tid, Page before,
-                                      Page after)
+    public void logWrite(TransactionId tid, Page before,
+                         Page after)
             throws IOException {
-        Debug.log("WRITE, offset = " + raf.getFilePointer());
-        preAppend();
         /* update record conists of
 
            record type
@@ -217,18 +535,27 @@ public class LogFile {
            after page data
            start offset
         */
-        raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
-
-        writePageData(raf, before);
-        writePageData(raf, after);
-        raf.writeLong(currentOffset);
-        currentOffset = raf.getFilePointer();
-
-        Debug.log("WRITE OFFSET = " + currentOffset);
+        // serialized before taking any lock
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(2 * BufferPool.getPageSize() + 256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(UPDATE_RECORD);
+        out.writeLong(tid.getId());
+        writePageData(out, before);
+        writePageData(out, after);
+        out.writeLong(-1);
+
+        beginAppend();
+        try {
+            long start = append(bytes.toByteArray());
+            // transactions that did not log a BEGIN start with their first update
+            tidToFirstLogRecord.putIfAbsent(tid.getId(), start);
+            Debug.log("WRITE, offset = " + start);
+        } finally {
+            endAppend();
+        }
     }
 
-    void writePageData(RandomAccessFile raf, Page p) throws IOException {
+    void writePageData(DataOutput raf, Page p) throws IOException {
         PageId pid = p.getId();
         int[] pageInfo = pid.serialize();
 
@@ -256,6 +583,18 @@ public class LogFile {
         //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
     }
 
+    /**
+     * Moves past page data written by writePageData without decoding it.
+     */
+    void skipPageData(RandomAccessFile raf) throws IOException {
+        raf.readUTF();
+        raf.readUTF();
+        int numIdArgs = raf.readInt();
+        raf.seek(raf.getFilePointer() + (long) numIdArgs * INT_SIZE);
+        int pageSize = raf.readInt();
+        raf.seek(raf.getFilePointer() + pageSize);
+    }
+
     Page readPageData(RandomAccessFile raf) throws IOException {
         PageId pid;
         Page newPage = null;
@@ -267,15 +606,31 @@ public class LogFile {
             Class<?> idClass = Class.forName(idClassName);
             Class<?> pageClass = Class.forName(pageClassName);
 
-            Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
             int numIdArgs = raf.readInt();
             Object[] idArgs = new Object[numIdArgs];
             for (int i = 0; i < numIdArgs; i++) {
                 idArgs[i] = raf.readInt();
             }
-            pid = (PageId) idConsts[0].newInstance(idArgs);
-
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
+            // the id is rebuilt from serialize(): one int per constructor argument
+            Constructor<?> idConst = null;
+            for (Constructor<?> c : idClass.getDeclaredConstructors()) {
+                Class<?>[] params = c.getParameterTypes();
+                if (params.length == numIdArgs && Arrays.stream(params).allMatch(t -> t == int.class))
+                    idConst = c;
+            }
+            if (idConst == null)
+                throw new IOException("no constructor for " + idClassName + " takes " + numIdArgs + " ints");
+            pid = (PageId) idConst.newInstance(idArgs);
+
+            // pages are rebuilt with their (PageId, byte[]) constructor
+            Constructor<?> pageConst = null;
+            for (Constructor<?> c : pageClass.getDeclaredConstructors()) {
+                Class<?>[] params = c.getParameterTypes();
+                if (params.length == 2 && params[0].isInstance(pid) && params[1] == byte[].class)
+                    pageConst = c;
+            }
+            if (pageConst == null)
+                throw new IOException("no (PageId, byte[]) constructor for " + pageClassName);
             int pageSize = raf.readInt();
 
             byte[] pageData = new byte[pageSize];
@@ -285,7 +640,7 @@ public class LogFile {
             pageArgs[0] = pid;
             pageArgs[1] = pageData;
 
-            newPage = (Page) pageConsts[0].newInstance(pageArgs);
+            newPage = (Page) pageConst.newInstance(pageArgs);
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
         } catch (ClassNotFoundException | InvocationTargetException | IllegalAccessException | InstantiationException e) {
@@ -301,21 +656,21 @@ public class LogFile {
      *
      * @param tid The transaction that is beginning
      */
-    public synchronized void logXactionBegin(TransactionId tid)
+    public void logXactionBegin(TransactionId tid)
             throws IOException {
         Debug.log("BEGIN");
         if (tidToFirstLogRecord.get(tid.getId()) != null) {
             System.err.print("logXactionBegin: already began this tid\n");
             throw new IOException("double logXactionBegin()");
         }
-        preAppend();
-        raf.writeInt(BEGIN_RECORD);
-        raf.writeLong(tid.getId());
-        raf.writeLong(currentOffset);
-        tidToFirstLogRecord.put(tid.getId(), currentOffset);
-        currentOffset = raf.getFilePointer();
-
-        Debug.log("BEGIN OFFSET = " + currentOffset);
+        beginAppend();
+        try {
+            long start = append(record(BEGIN_RECORD, tid));
+            tidToFirstLogRecord.put(tid.getId(), start);
+            Debug.log("BEGIN OFFSET = " + start);
+        } finally {
+            endAppend();
+        }
     }
 
     /**
@@ -326,35 +681,38 @@ public class LogFile {
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
                 //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
-                preAppend();
-                long startCpOffset, endCpOffset;
-                Set<Long> keys = tidToFirstLogRecord.keySet();
-                Iterator<Long> els = keys.iterator();
                 force();
                 Database.getBufferPool().flushAllPages();
-                startCpOffset = raf.getFilePointer();
-                raf.writeInt(CHECKPOINT_RECORD);
-                raf.writeLong(-1); //no tid , but leave space for convenience
-
-                //write list of outstanding transactions
-                raf.writeInt(keys.size());
-                while (els.hasNext()) {
-                    Long key = els.next();
-                    Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + key);
-                    raf.writeLong(key);
-                    //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + tidToFirstLogRecord.get(key));
-                    raf.writeLong(tidToFirstLogRecord.get(key));
+                lockLog();
+                try {
+                    preAppend();
+                    long startCpOffset, endCpOffset;
+                    Map<Long, Long> active = new HashMap<>(tidToFirstLogRecord);
+                    startCpOffset = raf.getFilePointer();
+                    raf.writeInt(CHECKPOINT_RECORD);
+                    raf.writeLong(-1); //no tid , but leave space for convenience
+
+                    //write list of outstanding transactions
+                    raf.writeInt(active.size());
+                    for (Map.Entry<Long, Long> e : active.entrySet()) {
+                        Debug.log("WRITING CHECKPOINT TRANSACTION ID: " + e.getKey());
+                        raf.writeLong(e.getKey());
+                        //Debug.log("WRITING CHECKPOINT TRANSACTION OFFSET: " + e.getValue());
+                        raf.writeLong(e.getValue());
+                    }
+
+                    //once the CP is written, make sure the CP location at the
+                    // beginning of the log file is updated
+                    endCpOffset = raf.getFilePointer();
+                    raf.seek(0);
+                    raf.writeLong(startCpOffset);
+                    raf.seek(endCpOffset);
+                    raf.writeLong(startCpOffset);
+                    currentOffset.set(raf.getFilePointer());
+                    //Debug.log("CP OFFSET = " + currentOffset);
+                } finally {
+                    unlockLog();
                 }
-
-                //once the CP is written, make sure the CP location at the
-                // beginning of the log file is updated
-                endCpOffset = raf.getFilePointer();
-                raf.seek(0);
-                raf.writeLong(startCpOffset);
-                raf.seek(endCpOffset);
-                raf.writeLong(currentOffset);
-                currentOffset = raf.getFilePointer();
-                //Debug.log("CP OFFSET = " + currentOffset);
             }
         }
 
@@ -366,6 +724,15 @@ public class LogFile {
      * consumption
      */
     public synchronized void logTruncate() throws IOException {
+        lockLog();
+        try {
+            truncate();
+        } finally {
+            unlockLog();
+        }
+    }
+
+    private void truncate() throws IOException {
         preAppend();
         raf.seek(0);
         long cpLoc = raf.readLong();
@@ -448,6 +815,9 @@ public class LogFile {
 
         Debug.log("TRUNCATING LOG;  WAS " + raf.length() + " BYTES ; NEW START : " + minLogRecord + " NEW LENGTH: " + (raf.length() - minLogRecord));
 
+        // records move, so what was forced in the old file is forced again
+        logNew.getChannel().force(true);
+
         raf.close();
         logFile.delete();
         newFile.renameTo(logFile);
@@ -455,7 +825,10 @@ public class LogFile {
         raf.seek(raf.length());
         newFile.delete();
 
-        currentOffset = raf.getFilePointer();
+        currentOffset.set(raf.getFilePointer());
+        generation++;
+        durableOffset = currentOffset.get();
+        notifyAll();
         //print();
     }
 
@@ -465,6 +838,12 @@ public class LogFile {
      * transaction semantics, this should not be called on
      * transactions that have already committed (though this may not
      * be enforced by this method.)
+     * <p>
+     * The pages the transaction dirtied are dropped from the buffer pool.
+     * If some of them were written to disk before (see BufferPool), the
+     * log is read from the transaction's first record on, and the first
+     * before image logged for each page it updated is written back.
+     * Calling this again for the same transaction does nothing.
      *
      * @param tid The transaction to rollback
      */
@@ -472,8 +851,39 @@ public class LogFile {
             throws NoSuchElementException, IOException {
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
-                preAppend();
-                // TODO: some code goes here
+                lockLog();
+                try {
+                    preAppend();
+                    if (!Database.getBufferPool().discardPages(tid))
+                        return; // none of its changes reached disk
+                    Long first = tidToFirstLogRecord.get(tid.getId());
+                    Map<PageId, Page> before = new HashMap<>();
+                    raf.seek(first != null ? first : LONG_SIZE);
+                    while (raf.getFilePointer() < currentOffset.get()) {
+                        int type = raf.readInt();
+                        long recordTid = raf.readLong();
+                        if (type == UPDATE_RECORD) {
+                            if (recordTid == tid.getId()) {
+                                Page p = readPageData(raf);
+                                before.putIfAbsent(p.getId(), p);
+                            } else {
+                                skipPageData(raf);
+                            }
+                            skipPageData(raf);
+                        } else if (type == CHECKPOINT_RECORD) {
+                            raf.seek(raf.getFilePointer() + (long) raf.readInt() * 2 * LONG_SIZE);
+                        }
+                        raf.readLong();
+                    }
+                    raf.seek(currentOffset.get());
+                    for (Page p : before.values()) {
+                        Database.getCatalog().getDatabaseFile(p.getId().getTableId()).writePage(p);
+                        Database.getBufferPool().removePage(p.getId());
+                    }
+                    tidToFirstLogRecord.remove(tid.getId());
+                } finally {
+                    unlockLog();
+                }
             }
         }
     }
@@ -497,12 +907,106 @@ public class LogFile {
      * Recover the database system by ensuring that the updates of
      * committed transactions are installed and that the
      * updates of uncommitted transactions are not installed.
+     * <p>
+     * Since commits do not write pages (NO FORCE), the after images of the
+     * committed transactions are written again, in log order. Since pages
+     * of running transactions may have been written (STEAL), the first
+     * before image of each page a transaction that neither committed nor
+     * aborted updated is written back; an ABORT record is then logged for
+     * each such transaction, so that it is not undone again by a later
+     * recovery. A record cut short by the crash is dropped.
      */
     public void recover() throws IOException {
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
-                recoveryUndecided = false;
-                // TODO: some code goes here
+                lockLog();
+                try {
+                    recoveryUndecided = false;
+                    if (raf.length() < LONG_SIZE) {
+                        raf.setLength(0);
+                        raf.writeLong(NO_CHECKPOINT_ID);
+                        currentOffset.set(raf.getFilePointer());
+                        return;
+                    }
+
+                    // which transactions finished, and where the last complete record ends
+                    Set<Long> committed = new HashSet<>();
+                    Set<Long> ended = new HashSet<>();
+                    Set<Long> losers = new LinkedHashSet<>();
+                    long end = LONG_SIZE;
+                    raf.seek(LONG_SIZE);
+                    try {
+                        while (true) {
+                            int type = raf.readInt();
+                            long recordTid = raf.readLong();
+                            if (type == UPDATE_RECORD) {
+                                skipPageData(raf);
+                                skipPageData(raf);
+                            } else if (type == CHECKPOINT_RECORD) {
+                                raf.seek(raf.getFilePointer() + (long) raf.readInt() * 2 * LONG_SIZE);
+                            }
+                            raf.readLong();
+                            end = raf.getFilePointer();
+                            if (type == COMMIT_RECORD)
+                                committed.add(recordTid);
+                            if (type == COMMIT_RECORD || type == ABORT_RECORD)
+                                ended.add(recordTid);
+                            if (type == UPDATE_RECORD || type == BEGIN_RECORD)
+                                losers.add(recordTid);
+                        }
+                    } catch (EOFException e) {
+                        // the last record was cut short
+                    }
+                    losers.removeAll(ended);
+
+                    // redo the winners, remember the losers' first before images
+                    Map<PageId, Page> undo = new HashMap<>();
+                    Set<PageId> touched = new HashSet<>();
+                    raf.seek(LONG_SIZE);
+                    while (raf.getFilePointer() < end) {
+                        int type = raf.readInt();
+                        long recordTid = raf.readLong();
+                        if (type == UPDATE_RECORD) {
+                            if (committed.contains(recordTid)) {
+                                skipPageData(raf);
+                                Page after = readPageData(raf);
+                                Database.getCatalog().getDatabaseFile(after.getId().getTableId()).writePage(after);
+                                touched.add(after.getId());
+                            } else if (losers.contains(recordTid)) {
+                                Page before = readPageData(raf);
+                                undo.putIfAbsent(before.getId(), before);
+                                skipPageData(raf);
+                            } else {
+                                skipPageData(raf);
+                                skipPageData(raf);
+                            }
+                        } else if (type == CHECKPOINT_RECORD) {
+                            raf.seek(raf.getFilePointer() + (long) raf.readInt() * 2 * LONG_SIZE);
+                        }
+                        raf.readLong();
+                    }
+                    for (Page p : undo.values()) {
+                        Database.getCatalog().getDatabaseFile(p.getId().getTableId()).writePage(p);
+                        touched.add(p.getId());
+                    }
+                    for (PageId pid : touched)
+                        Database.getBufferPool().removePage(pid);
+
+                    raf.setLength(end);
+                    raf.seek(end);
+                    currentOffset.set(end);
+                    for (long loser : losers) {
+                        raf.writeInt(ABORT_RECORD);
+                        raf.writeLong(loser);
+                        raf.writeLong(currentOffset.get());
+                        currentOffset.set(raf.getFilePointer());
+                    }
+                    generation++;
+                    forceLocked();
+                    tidToFirstLogRecord.clear();
+                } finally {
+                    unlockLog();
+                }
             }
         }
     }
@@ -514,8 +1018,20 @@ public class LogFile {
         // TODO: some code goes here
     }
 
-    public synchronized void force() throws IOException {
-        raf.getChannel().force(true);
+    /**
+     * Forces everything logged so far to disk. Returns at once if it is
+     * already.
+     */
+    public void force() throws IOException {
+        long end, gen;
+        appendLock.readLock().lock();
+        try {
+            end = currentOffset.get();
+            gen = generation;
+        } finally {
+            appendLock.readLock().unlock();
+        }
+        forceTo(end, gen, false);
     }
 
 }
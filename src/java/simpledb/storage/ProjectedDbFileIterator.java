@@ -0,0 +1,49 @@
+package simpledb.storage;
+
+import simpledb.common.DbException;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * Helper class that projects the tuples of another DbFileIterator onto a
+ * subset of their fields.
+ *
+ * @see DbFile#iterator(simpledb.transaction.TransactionId, int[])
+ */
+class ProjectedDbFileIterator extends AbstractDbFileIterator {
+
+    private final DbFileIterator child;
+    private final TupleDesc td;
+    private final int[] columns;
+
+    ProjectedDbFileIterator(DbFileIterator child, TupleDesc td, int[] columns) {
+        this.child = child;
+        this.td = td;
+        this.columns = columns;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    @Override
+    protected Tuple readNext() throws DbException, TransactionAbortedException {
+        if (!child.hasNext())
+            return null;
+        Tuple full = child.next();
+        Tuple t = new Tuple(td);
+        t.setRecordId(full.getRecordId());
+        for (int i = 0; i < columns.length; i++)
+            t.setField(i, full.getField(columns[i]));
+        return t;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        super.close();
+        child.rewind();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+    }
+}
@@ -0,0 +1,65 @@
+package simpledb.storage;
+
+import java.util.function.Predicate;
+
+/**
+ * ReplacementPolicy decides which page the BufferPool should give up when
+ * it needs room for another one. The BufferPool reports every page that
+ * enters or leaves the pool and every cache hit; the policy keeps whatever
+ * bookkeeping it needs to pick a victim cheaply.
+ * <p>
+ * Implementations must be safe to call from several threads at once.
+ *
+ * @see ClockReplacementPolicy
+ * @see TwoQueueReplacementPolicy
+ */
+public interface ReplacementPolicy {
+
+    /**
+     * Called when a page is placed in the buffer pool.
+     *
+     * @param pid the id of the page that was added
+     */
+    void pageAdded(PageId pid);
+
+    /**
+     * Called when a page that is already in the buffer pool is requested
+     * again.
+     *
+     * @param pid the id of the page that was accessed
+     */
+    void pageAccessed(PageId pid);
+
+    /**
+     * Called when a page is discarded from the buffer pool for a reason
+     * other than being chosen as a victim (e.g. by
+     * {@link BufferPool#removePage}).
+     *
+     * @param pid the id of the page that was removed
+     */
+    void pageRemoved(PageId pid);
+
+    /**
+     * Chooses a page to evict. The returned page is no longer tracked by the
+     * policy; if the caller ends up keeping the page after all it must call
+     * {@link #victimKept}.
+     *
+     * @param evictable returns true for pages that may be evicted right now
+     *                  (e.g. pages that are not dirty)
+     * @return the id of the victim, or null if no tracked page is evictable
+     */
+    PageId chooseVictim(Predicate<PageId> evictable);
+
+    /**
+     * Cancels the choice of the most recent victim, which the caller could
+     * not evict after all (e.g. because it was dirtied again). The page is
+     * tracked again as if it had never been chosen, so that the eviction
+     * that did not happen does not change its rank. By default it is added
+     * back as a new page.
+     *
+     * @param pid the id of the page last returned by {@link #chooseVictim}
+     */
+    default void victimKept(PageId pid) {
+        pageAdded(pid);
+    }
+}
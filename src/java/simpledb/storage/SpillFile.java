@@ -0,0 +1,158 @@
+package simpledb.storage;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.OpIterator;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.NoSuchElementException;
+
+/**
+ * A SpillFile is a temporary file of tuples, written by an operator whose
+ * input does not fit in memory and read back (as many times as needed)
+ * through {@link #iterator()}. Rows are stored compactly rather than in the
+ * fixed-width page format: an int field as its 4 bytes, a string field as a
+ * 2-byte length followed by its characters (one byte each, as in
+ * {@link StringField#serialize}).
+ * <p>
+ * Tuples can only be added until the file is first read. The file is removed
+ * by {@link #delete()}, or when the JVM exits.
+ */
+public class SpillFile {
+
+    private final TupleDesc td;
+    private final File file;
+    private DataOutputStream out;
+    private int size;
+
+    /**
+     * Creates an empty spill file for tuples with the given schema.
+     */
+    public SpillFile(TupleDesc td) throws IOException {
+        this.td = td;
+        this.file = File.createTempFile("spill", ".tmp");
+        this.file.deleteOnExit();
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+    }
+
+    /**
+     * Appends a tuple to the file.
+     *
+     * @throws IllegalStateException if the file has already been read
+     */
+    public void add(Tuple t) throws IOException {
+        if (out == null)
+            throw new IllegalStateException("tuples added to a spill file that has been read");
+        for (int i = 0; i < td.numFields(); i++) {
+            Field f = t.getField(i);
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                out.writeInt(((IntField) f).getValue());
+            } else {
+                String v = ((StringField) f).getValue();
+                if (v.length() > Type.STRING_LEN)
+                    v = v.substring(0, Type.STRING_LEN);
+                out.writeShort(v.length());
+                out.writeBytes(v);
+            }
+        }
+        size++;
+    }
+
+    /**
+     * @return the number of tuples in the file
+     */
+    public int size() {
+        return size;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * Returns an iterator over the tuples in the file, in the order they were
+     * added. No more tuples can be added once this has been called.
+     */
+    public OpIterator iterator() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+        return new SpillIterator();
+    }
+
+    /**
+     * Removes the file. Iterators over it must not be used afterwards.
+     */
+    public void delete() {
+        try {
+            if (out != null)
+                out.close();
+        } catch (IOException e) {
+            // the file is going away anyway
+        }
+        out = null;
+        file.delete();
+    }
+
+    private class SpillIterator implements OpIterator {
+        private static final long serialVersionUID = 1L;
+        private transient DataInputStream in;
+        private int read;
+
+        public void open() throws DbException {
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            } catch (FileNotFoundException e) {
+                throw new DbException("spill file " + file + " is missing");
+            }
+            read = 0;
+        }
+
+        public boolean hasNext() {
+            return in != null && read < size;
+        }
+
+        public Tuple next() throws DbException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Tuple t = new Tuple(td);
+            try {
+                for (int i = 0; i < td.numFields(); i++) {
+                    if (td.getFieldType(i) == Type.INT_TYPE) {
+                        t.setField(i, new IntField(in.readInt()));
+                    } else {
+                        byte[] bs = new byte[in.readUnsignedShort()];
+                        in.readFully(bs);
+                        t.setField(i, new StringField(new String(bs, StandardCharsets.ISO_8859_1), Type.STRING_LEN));
+                    }
+                }
+            } catch (IOException e) {
+                throw new DbException("could not read spill file " + file + ": " + e.getMessage());
+            }
+            read++;
+            return t;
+        }
+
+        public void rewind() throws DbException {
+            close();
+            open();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void close() {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // nothing left to read from it
+                }
+            }
+            in = null;
+        }
+    }
+}
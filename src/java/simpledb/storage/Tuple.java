@@ -73,6 +73,20 @@ public class Tuple implements Serializable {
         return fields[i];
     }
 
+    /**
+     * Creates a tuple holding the fields of t1 followed by those of t2, as
+     * produced by a join.
+     *
+     * @param td the schema of the new tuple, {@link TupleDesc#merge} of the
+     *           schemas of t1 and t2
+     */
+    public static Tuple merge(TupleDesc td, Tuple t1, Tuple t2) {
+        Tuple t = new Tuple(td);
+        System.arraycopy(t1.fields, 0, t.fields, 0, t1.fields.length);
+        System.arraycopy(t2.fields, 0, t.fields, t1.fields.length, t2.fields.length);
+        return t;
+    }
+
     /**
      * Returns the contents of this Tuple as a string. Note that to pass the
      * system tests, the format needs to be as follows:
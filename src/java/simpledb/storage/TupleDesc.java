@@ -160,6 +160,23 @@ public class TupleDesc implements Serializable {
         return new TupleDesc(types, names);
     }
 
+    /**
+     * Returns a TupleDesc holding only some of the fields of this one.
+     *
+     * @param columns indices of the fields to keep, in the order they should
+     *                appear in the new TupleDesc
+     * @return the new TupleDesc
+     */
+    public TupleDesc project(int[] columns) {
+        Type[] types = new Type[columns.length];
+        String[] names = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            types[i] = getFieldType(columns[i]);
+            names[i] = getFieldName(columns[i]);
+        }
+        return new TupleDesc(types, names);
+    }
+
     /**
      * Compares the specified object with this TupleDesc for equality. Two
      * TupleDescs are considered equal if they have the same number of items
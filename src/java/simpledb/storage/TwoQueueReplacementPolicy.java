@@ -0,0 +1,152 @@
+package simpledb.storage;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * The 2Q replacement policy (Johnson &amp; Shasha, VLDB '94), a cheap
+ * approximation of LRU-2.
+ * <p>
+ * Pages seen once go into a FIFO queue, A1in. When they are evicted from
+ * A1in, only their ids are remembered, in a bounded ghost queue, A1out. A
+ * page that is read again while its id is in A1out has been referenced
+ * twice within a short interval and is promoted to Am, which is managed as
+ * LRU. Pages from a one-off sequential scan therefore pass through A1in
+ * without displacing the hot pages in Am.
+ * <p>
+ * All operations but cancelling an eviction are O(1) amortized; the queues
+ * are insertion-ordered hash sets.
+ */
+public class TwoQueueReplacementPolicy implements ReplacementPolicy {
+
+    private final LinkedHashSet<PageId> a1in = new LinkedHashSet<>();
+    private final LinkedHashSet<PageId> a1out = new LinkedHashSet<>();
+    private final LinkedHashSet<PageId> am = new LinkedHashSet<>();
+
+    private final int kin;
+    private final int kout;
+
+    // the last victim, the queue it was taken from and the page that
+    // followed it there, and the ghost its own ghost pushed out of A1out
+    private PageId victim;
+    private LinkedHashSet<PageId> victimQueue;
+    private PageId victimNext;
+    private PageId droppedGhost;
+
+    /**
+     * @param capacity the number of pages in the buffer pool; A1in is kept at
+     *                 a quarter of this and A1out remembers half as many ids
+     */
+    public TwoQueueReplacementPolicy(int capacity) {
+        this.kin = Math.max(1, capacity / 4);
+        this.kout = Math.max(1, capacity / 2);
+    }
+
+    @Override
+    public synchronized void pageAdded(PageId pid) {
+        if (am.contains(pid) || a1in.contains(pid))
+            return;
+        if (a1out.remove(pid))
+            am.add(pid);
+        else
+            a1in.add(pid);
+    }
+
+    @Override
+    public synchronized void pageAccessed(PageId pid) {
+        // hits in A1in are deliberately ignored; correlated references
+        // (e.g. every tuple on a page during a scan) do not count as reuse
+        if (am.remove(pid))
+            am.add(pid);
+    }
+
+    @Override
+    public synchronized void pageRemoved(PageId pid) {
+        if (!a1in.remove(pid))
+            am.remove(pid);
+    }
+
+    @Override
+    public synchronized PageId chooseVictim(Predicate<PageId> evictable) {
+        boolean preferA1in = a1in.size() > kin || am.isEmpty();
+        victim = null;
+        droppedGhost = null;
+        if (!pollFirst(preferA1in ? a1in : am, evictable))
+            pollFirst(preferA1in ? am : a1in, evictable);
+        if (victim != null && victimQueue == a1in) {
+            // remember pages evicted from A1in; these can still be promoted
+            rememberGhost(victim);
+        }
+        return victim;
+    }
+
+    @Override
+    public synchronized void victimKept(PageId pid) {
+        if (!pid.equals(victim)) {
+            pageAdded(pid);
+            return;
+        }
+        if (victimQueue == a1in) {
+            a1out.remove(pid);
+            // the dropped ghost was the oldest one
+            if (droppedGhost != null)
+                insertBefore(a1out, droppedGhost, a1out.isEmpty() ? null : a1out.iterator().next());
+        }
+        if (!am.contains(pid) && !a1in.contains(pid))
+            insertBefore(victimQueue, pid, victimNext);
+        victim = null;
+    }
+
+    private void rememberGhost(PageId pid) {
+        a1out.add(pid);
+        if (a1out.size() > kout) {
+            Iterator<PageId> it = a1out.iterator();
+            droppedGhost = it.next();
+            it.remove();
+        }
+    }
+
+    /**
+     * Removes the first evictable page of queue and makes it the victim.
+     *
+     * @return whether a page was found
+     */
+    private boolean pollFirst(LinkedHashSet<PageId> queue, Predicate<PageId> evictable) {
+        Iterator<PageId> it = queue.iterator();
+        while (it.hasNext()) {
+            PageId pid = it.next();
+            if (evictable.test(pid)) {
+                it.remove();
+                victim = pid;
+                victimQueue = queue;
+                victimNext = it.hasNext() ? it.next() : null;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Puts pid back into queue in front of next, or at the end if next is
+     * null, or at the front if next has left the queue. This rebuilds the
+     * queue, but is only needed when an eviction is cancelled.
+     */
+    private static void insertBefore(LinkedHashSet<PageId> queue, PageId pid, PageId next) {
+        if (next == null) {
+            queue.add(pid);
+            return;
+        }
+        List<PageId> rest = new ArrayList<>(queue);
+        queue.clear();
+        if (!rest.contains(next))
+            queue.add(pid);
+        for (PageId p : rest) {
+            if (p.equals(next))
+                queue.add(pid);
+            queue.add(p);
+        }
+    }
+}
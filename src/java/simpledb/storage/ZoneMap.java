@@ -0,0 +1,244 @@
+package simpledb.storage;
+
+import simpledb.common.Debug;
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * ZoneMap records, for each page of a HeapFile, the smallest and largest
+ * value of each INT field among the tuples on the page, so that a scan with
+ * a predicate on such a field can skip pages none of whose tuples can
+ * satisfy it without reading them. On tables whose rows arrive roughly in
+ * the order of a field (e.g. a timestamp), a range predicate on that field
+ * then reads only the pages holding the range.
+ * <p>
+ * The map is kept in memory and persisted in a side file next to the heap
+ * file (<tt>&lt;table file&gt;.zm</tt>): an int holding the number of pages
+ * and one holding the number of INT fields, followed for each page by a
+ * minimum and a maximum int per INT field. An empty page has a minimum
+ * larger than its maximum. Inserts widen the range of their page in
+ * memory; deletes leave it as it is, and a page's range is recomputed from
+ * its tuples, and written to the side file, when the page is written back.
+ * A range may thus be wider than the page's tuples but never narrower, as
+ * long as every insert goes through {@link HeapFile#insertTuple} (which
+ * loads the map first). If the side file is missing, has the wrong size, or
+ * is older than the heap file, the map is rebuilt from the pages.
+ *
+ * @Threadsafe
+ */
+public class ZoneMap {
+
+    private static final int HEADER_BYTES = 8;
+
+    private final File file;
+    private FileChannel channel; // opened on first write
+    // the indices of the INT fields of the table
+    private final int[] columns;
+    // minimum and maximum of field columns[c] on page p at
+    // [2 * (p * columns.length + c)] and the element after it
+    private int[] bounds;
+    private int numPages;
+
+    private ZoneMap(File file, int[] columns, int[] bounds, int numPages) {
+        this.file = file;
+        this.columns = columns;
+        this.bounds = bounds;
+        this.numPages = numPages;
+    }
+
+    /**
+     * @return the indices of the INT fields of a table, the fields a zone
+     *         map covers
+     */
+    static int[] intColumns(TupleDesc td) {
+        int n = 0;
+        int[] cols = new int[td.numFields()];
+        for (int i = 0; i < td.numFields(); i++)
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                cols[n++] = i;
+        return Arrays.copyOf(cols, n);
+    }
+
+    /**
+     * Loads the zone map of a heap file from its side file, or rebuilds it
+     * from the pages of the heap file if the side file is not usable.
+     */
+    static ZoneMap open(HeapFile hf) throws IOException {
+        File zmFile = new File(hf.getFile().getPath() + ".zm");
+        int[] columns = intColumns(hf.getTupleDesc());
+        int pages = hf.numPages();
+        int entryInts = 2 * columns.length;
+        long size = HEADER_BYTES + 4L * entryInts * pages;
+        if (zmFile.exists() && zmFile.lastModified() >= hf.getFile().lastModified()
+                && zmFile.length() == size) {
+            ByteBuffer buf = ByteBuffer.allocate((int) size);
+            try (FileChannel ch = FileChannel.open(zmFile.toPath(), StandardOpenOption.READ)) {
+                while (buf.hasRemaining() && ch.read(buf) >= 0)
+                    ;
+            }
+            buf.flip();
+            if (buf.remaining() == size && buf.getInt() == pages && buf.getInt() == columns.length) {
+                int[] bounds = new int[entryInts * Math.max(pages, 16)];
+                buf.asIntBuffer().get(bounds, 0, entryInts * pages);
+                return new ZoneMap(zmFile, columns, bounds, pages);
+            }
+        }
+
+        Debug.log(1, "ZoneMap: rebuilding %s from %d pages", zmFile, pages);
+        ZoneMap zm = new ZoneMap(zmFile, columns, new int[entryInts * Math.max(pages, 16)], 0);
+        for (int i = 0; i < pages; i++)
+            zm.set((HeapPage) hf.readPage(new HeapPageId(hf.getId(), i)));
+        zm.persistAll();
+        return zm;
+    }
+
+    /**
+     * Grows the map to cover a page, with an empty range for new pages.
+     */
+    private void grow(int pgno) {
+        int entryInts = 2 * columns.length;
+        if ((pgno + 1) * entryInts > bounds.length)
+            bounds = Arrays.copyOf(bounds, Math.max((pgno + 1) * entryInts, bounds.length * 2));
+        for (; numPages <= pgno; numPages++)
+            clear(numPages);
+    }
+
+    private void clear(int pgno) {
+        for (int c = 0; c < columns.length; c++) {
+            bounds[2 * (pgno * columns.length + c)] = Integer.MAX_VALUE;
+            bounds[2 * (pgno * columns.length + c) + 1] = Integer.MIN_VALUE;
+        }
+    }
+
+    /**
+     * Widens the range of a page to cover a tuple inserted into it.
+     */
+    public synchronized void widen(int pgno, Tuple t) {
+        grow(pgno);
+        for (int c = 0; c < columns.length; c++) {
+            int v = ((IntField) t.getField(columns[c])).getValue();
+            int i = 2 * (pgno * columns.length + c);
+            bounds[i] = Math.min(bounds[i], v);
+            bounds[i + 1] = Math.max(bounds[i + 1], v);
+        }
+    }
+
+    /**
+     * Sets the range of a page to exactly cover the tuples on it.
+     */
+    public synchronized void set(HeapPage p) {
+        int pgno = p.getId().getPageNumber();
+        grow(pgno);
+        clear(pgno);
+        Iterator<Tuple> it = p.iterator();
+        while (it.hasNext())
+            widen(pgno, it.next());
+    }
+
+    /**
+     * Returns whether some tuple on a page may satisfy all of the given
+     * predicates (on fields of the table). Only predicates on INT fields
+     * with an INT operand are checked; pages the map does not cover may
+     * always match.
+     */
+    public synchronized boolean mayMatch(int pgno, List<Predicate> predicates) {
+        if (pgno >= numPages)
+            return true;
+        for (Predicate p : predicates) {
+            int c = Arrays.binarySearch(columns, p.getField());
+            if (c < 0 || !(p.getOperand() instanceof IntField))
+                continue;
+            int v = ((IntField) p.getOperand()).getValue();
+            int min = bounds[2 * (pgno * columns.length + c)];
+            int max = bounds[2 * (pgno * columns.length + c) + 1];
+            if (min > max)
+                return false; // no tuples on the page
+            switch (p.getOp()) {
+                case EQUALS:
+                case LIKE:
+                    if (v < min || v > max)
+                        return false;
+                    break;
+                case NOT_EQUALS:
+                    if (min == v && max == v)
+                        return false;
+                    break;
+                case GREATER_THAN:
+                    if (max <= v)
+                        return false;
+                    break;
+                case GREATER_THAN_OR_EQ:
+                    if (max < v)
+                        return false;
+                    break;
+                case LESS_THAN:
+                    if (min >= v)
+                        return false;
+                    break;
+                case LESS_THAN_OR_EQ:
+                    if (min > v)
+                        return false;
+                    break;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the predicates of a list that a zone map of a table with the
+     *         given schema can use to skip pages
+     */
+    public static List<Predicate> usable(TupleDesc td, List<Predicate> predicates) {
+        List<Predicate> l = new ArrayList<>();
+        for (Predicate p : predicates)
+            if (p.getField() >= 0 && p.getField() < td.numFields()
+                    && td.getFieldType(p.getField()) == Type.INT_TYPE && p.getOperand() instanceof IntField)
+                l.add(p);
+        return l;
+    }
+
+    /**
+     * Writes the entry of one page (and the page count) to the side file.
+     */
+    public void persist(int pgno) throws IOException {
+        ByteBuffer entry = ByteBuffer.allocate(8 * columns.length);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        synchronized (this) {
+            if (pgno >= numPages)
+                return;
+            entry.asIntBuffer().put(bounds, 2 * pgno * columns.length, 2 * columns.length);
+            header.putInt(0, numPages).putInt(4, columns.length);
+        }
+        FileChannel ch = channel();
+        ch.write(entry, HEADER_BYTES + (long) entry.capacity() * pgno);
+        ch.write(header, 0);
+    }
+
+    private synchronized void persistAll() throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_BYTES + 8 * columns.length * numPages);
+        buf.putInt(numPages).putInt(columns.length);
+        buf.asIntBuffer().put(bounds, 0, 2 * columns.length * numPages);
+        buf.rewind();
+        FileChannel ch = channel();
+        ch.truncate(0);
+        while (buf.hasRemaining())
+            ch.write(buf, buf.position());
+    }
+
+    private synchronized FileChannel channel() throws IOException {
+        if (channel == null || !channel.isOpen())
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        return channel;
+    }
+}
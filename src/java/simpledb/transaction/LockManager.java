@@ -0,0 +1,445 @@
+package simpledb.transaction;
+
+import simpledb.common.Permissions;
+import simpledb.storage.PageId;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * LockManager keeps track of the page locks held by transactions. A
+ * transaction may hold a shared lock on a page (READ_ONLY) alongside other
+ * readers, or an exclusive one (READ_WRITE) alone; a transaction that is the
+ * only reader of a page can upgrade its lock to an exclusive one.
+ * <p>
+ * The locks are split into shards by the hash of their PageId, each guarded
+ * by its own latch, so transactions locking different pages rarely touch
+ * the same latch and an uncontended acquisition takes no global lock. A
+ * transaction that has to wait parks on a condition of the page's lock
+ * until a holder releases it.
+ * <p>
+ * Deadlocks are handled according to the {@link Policy}. By default, a
+ * transaction that blocks is added to a {@link WaitForGraph}; if its wait
+ * closes a cycle, the youngest transaction in the cycle is aborted at once
+ * with a TransactionAbortedException. Alternatively, a transaction that has
+ * waited longer than a timeout (see {@link #setTimeout}) is aborted.
+ * <p>
+ * Each transaction's set of locked pages is kept alongside, so that all of
+ * them can be released when it completes.
+ *
+ * @Threadsafe
+ */
+public class LockManager {
+
+    /**
+     * How deadlocks are resolved.
+     */
+    public enum Policy {
+        /**
+         * Look for a cycle in the wait-for graph whenever a transaction
+         * blocks, and abort the youngest transaction in it.
+         */
+        DETECT,
+        /**
+         * Abort a transaction once it has waited for a lock longer than the
+         * timeout.
+         */
+        TIMEOUT
+    }
+
+    /**
+     * Default number of shards; a power of two.
+     */
+    public static final int DEFAULT_SHARDS = 64;
+
+    /**
+     * Default number of milliseconds a transaction waits for a lock before
+     * it is aborted, under the TIMEOUT policy.
+     */
+    public static final long DEFAULT_TIMEOUT_MILLIS = 1000;
+
+    /**
+     * The holders of the lock on one page, and the transactions waiting for
+     * it. Guarded by the latch of the page's shard.
+     */
+    private static class PageLock {
+        final Set<TransactionId> readers = new HashSet<>();
+        TransactionId writer = null;
+        // waiting transactions, and whether each wants an exclusive lock
+        final Map<TransactionId, Boolean> waiters = new HashMap<>();
+        final Shard shard;
+        final Condition released;
+
+        PageLock(Shard shard) {
+            this.shard = shard;
+            this.released = shard.latch.newCondition();
+        }
+
+        boolean isFree() {
+            return writer == null && readers.isEmpty();
+        }
+
+        /**
+         * @return whether a transaction other than tid is waiting for an
+         *         exclusive lock
+         */
+        boolean writerWaiting(TransactionId tid) {
+            for (Map.Entry<TransactionId, Boolean> w : waiters.entrySet())
+                if (w.getValue() && !w.getKey().equals(tid))
+                    return true;
+            return false;
+        }
+
+        /**
+         * A new reader is not let in while a writer waits, so that a stream
+         * of readers cannot starve the writer.
+         */
+        boolean canGrant(TransactionId tid, boolean exclusive) {
+            if (writer != null)
+                return writer.equals(tid);
+            if (exclusive)
+                return readers.isEmpty() || (readers.size() == 1 && readers.contains(tid));
+            return readers.contains(tid) || waiters.isEmpty() || !writerWaiting(tid);
+        }
+
+        /**
+         * @return the transactions that keep tid from getting the lock: the
+         *         holders it conflicts with and, for a new reader, the
+         *         waiting writers
+         */
+        Set<TransactionId> blockers(TransactionId tid, boolean exclusive) {
+            Set<TransactionId> blockers = new HashSet<>();
+            if (writer != null)
+                blockers.add(writer);
+            if (exclusive)
+                blockers.addAll(readers);
+            else if (!readers.contains(tid))
+                for (Map.Entry<TransactionId, Boolean> w : waiters.entrySet())
+                    if (w.getValue())
+                        blockers.add(w.getKey());
+            blockers.remove(tid);
+            return blockers;
+        }
+
+        void grant(TransactionId tid, boolean exclusive) {
+            if (exclusive) {
+                readers.remove(tid);
+                writer = tid;
+            } else if (writer == null) {
+                readers.add(tid);
+            }
+        }
+    }
+
+    private static class Shard {
+        final ReentrantLock latch = new ReentrantLock();
+        final Map<PageId, PageLock> locks = new HashMap<>();
+    }
+
+    private final Shard[] shards;
+    private final Policy policy;
+    private final ConcurrentMap<TransactionId, Set<PageId>> held = new ConcurrentHashMap<>();
+    // null under the TIMEOUT policy, so that waits only touch their shard
+    private final WaitForGraph graph;
+    // the lock each waiting transaction is waiting for, under DETECT
+    private final ConcurrentMap<TransactionId, PageLock> waitingOn = new ConcurrentHashMap<>();
+    private volatile long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_TIMEOUT_MILLIS);
+
+    private final AtomicLong acquires = new AtomicLong();
+    private final AtomicLong acquireNanos = new AtomicLong();
+    private final AtomicLong waits = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+
+    /**
+     * Creates a LockManager with DEFAULT_SHARDS shards that detects
+     * deadlocks.
+     */
+    public LockManager() {
+        this(DEFAULT_SHARDS, Policy.DETECT);
+    }
+
+    /**
+     * Creates a LockManager with at least numShards shards (rounded up to a
+     * power of two) that resolves deadlocks according to policy.
+     */
+    public LockManager(int numShards, Policy policy) {
+        this.policy = policy;
+        this.graph = policy == Policy.DETECT ? new WaitForGraph() : null;
+        int n = Integer.highestOneBit(Math.max(1, numShards - 1) << 1);
+        shards = new Shard[n];
+        for (int i = 0; i < n; i++)
+            shards[i] = new Shard();
+    }
+
+    private Shard shard(PageId pid) {
+        int h = pid.hashCode();
+        h ^= h >>> 16;
+        return shards[h & (shards.length - 1)];
+    }
+
+    /**
+     * Sets how long a transaction waits for a lock before it is aborted,
+     * under the TIMEOUT policy.
+     */
+    public void setTimeout(long millis) {
+        timeoutNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /**
+     * Acquires a lock on a page for a transaction: a shared one for
+     * READ_ONLY, an exclusive one for READ_WRITE. Returns at once if the
+     * transaction already holds a strong enough lock; otherwise waits until
+     * the lock can be granted.
+     *
+     * @throws TransactionAbortedException if the transaction was chosen to
+     *                                     break a deadlock (or, under the
+     *                                     TIMEOUT policy, waited too long),
+     *                                     or the thread was interrupted
+     *                                     while waiting
+     */
+    public void acquire(TransactionId tid, PageId pid, Permissions perm)
+            throws TransactionAbortedException {
+        long start = System.nanoTime();
+        boolean exclusive = perm == Permissions.READ_WRITE;
+        Shard s = shard(pid);
+        s.latch.lock();
+        try {
+            PageLock l = s.locks.get(pid);
+            if (l == null) {
+                l = new PageLock(s);
+                s.locks.put(pid, l);
+            }
+            if (!l.canGrant(tid, exclusive))
+                await(s, pid, l, tid, exclusive);
+            l.grant(tid, exclusive);
+            // whoever was waiting for a lock tid now shares may wait for tid too
+            if (graph != null)
+                for (Map.Entry<TransactionId, Boolean> w : l.waiters.entrySet())
+                    if (!w.getKey().equals(tid) && (w.getValue() || exclusive))
+                        graph.addEdge(w.getKey(), tid);
+            held.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet()).add(pid);
+        } finally {
+            s.latch.unlock();
+        }
+        acquires.incrementAndGet();
+        acquireNanos.addAndGet(System.nanoTime() - start);
+    }
+
+    /**
+     * Waits, with the shard's latch held, until a lock can be granted.
+     */
+    private void await(Shard s, PageId pid, PageLock l, TransactionId tid, boolean exclusive)
+            throws TransactionAbortedException {
+        waits.incrementAndGet();
+        long start = System.nanoTime();
+        long remaining = timeoutNanos;
+        boolean granted = false;
+        l.waiters.put(tid, exclusive);
+        if (graph != null) {
+            waitingOn.put(tid, l);
+            // new readers now wait for us as well
+            if (exclusive)
+                for (Map.Entry<TransactionId, Boolean> w : l.waiters.entrySet())
+                    if (!w.getValue() && !l.readers.contains(w.getKey()))
+                        graph.addEdge(w.getKey(), tid);
+        }
+        try {
+            while (!(granted = l.canGrant(tid, exclusive))) {
+                if (policy == Policy.TIMEOUT) {
+                    if (remaining <= 0) {
+                        timeouts.incrementAndGet();
+                        throw new TransactionAbortedException();
+                    }
+                    remaining = l.released.awaitNanos(remaining);
+                    continue;
+                }
+                TransactionId victim = graph.waitFor(tid, l.blockers(tid, exclusive));
+                if (victim == null) {
+                    l.released.await();
+                } else if (victim.equals(tid)) {
+                    throw new TransactionAbortedException();
+                } else {
+                    wake(s, victim);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TransactionAbortedException();
+        } finally {
+            l.waiters.remove(tid);
+            if (graph != null) {
+                waitingOn.remove(tid);
+                graph.stopWaiting(tid);
+            }
+            if (!granted && exclusive && !l.waiters.isEmpty()) {
+                // readers that were waiting for us may go ahead
+                if (graph != null)
+                    for (TransactionId w : l.waiters.keySet())
+                        graph.removeEdge(w, tid);
+                l.released.signalAll();
+            }
+            // if we gave up, nobody else may be using the lock any more
+            if (!granted && l.isFree() && l.waiters.isEmpty())
+                s.locks.remove(pid);
+            waitNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Wakes a transaction chosen to break a deadlock, so that it notices and
+     * aborts. Called with the latch of shard s held; lets go of it while
+     * taking the latch of the victim's shard, so that no thread ever holds
+     * two latches.
+     */
+    private void wake(Shard s, TransactionId victim) {
+        PageLock vl = waitingOn.get(victim);
+        if (vl == null)
+            return; // it stopped waiting of its own accord
+        if (vl.shard == s) {
+            vl.released.signalAll();
+            return;
+        }
+        s.latch.unlock();
+        try {
+            vl.shard.latch.lock();
+            try {
+                vl.released.signalAll();
+            } finally {
+                vl.shard.latch.unlock();
+            }
+        } finally {
+            s.latch.lock();
+        }
+    }
+
+    /**
+     * Releases a transaction's lock on a page, if it holds one.
+     */
+    public void release(TransactionId tid, PageId pid) {
+        Set<PageId> pids = held.get(tid);
+        if (pids != null)
+            pids.remove(pid);
+        unlock(tid, pid);
+    }
+
+    /**
+     * Releases all of the locks a transaction holds.
+     */
+    public void releaseAll(TransactionId tid) {
+        Set<PageId> pids = held.remove(tid);
+        if (pids == null)
+            return;
+        for (PageId pid : pids)
+            unlock(tid, pid);
+    }
+
+    private void unlock(TransactionId tid, PageId pid) {
+        Shard s = shard(pid);
+        s.latch.lock();
+        try {
+            PageLock l = s.locks.get(pid);
+            if (l == null)
+                return;
+            if (tid.equals(l.writer))
+                l.writer = null;
+            l.readers.remove(tid);
+            if (!l.waiters.isEmpty()) {
+                if (graph != null)
+                    for (TransactionId w : l.waiters.keySet())
+                        graph.removeEdge(w, tid);
+                l.released.signalAll();
+            } else if (l.isFree()) {
+                s.locks.remove(pid);
+            }
+        } finally {
+            s.latch.unlock();
+        }
+    }
+
+    /**
+     * @return whether a transaction holds a lock (of either kind) on a page
+     */
+    public boolean holdsLock(TransactionId tid, PageId pid) {
+        Set<PageId> pids = held.get(tid);
+        return pids != null && pids.contains(pid);
+    }
+
+    /**
+     * @return whether a transaction holds the exclusive lock on a page
+     */
+    public boolean holdsExclusiveLock(TransactionId tid, PageId pid) {
+        Shard s = shard(pid);
+        s.latch.lock();
+        try {
+            PageLock l = s.locks.get(pid);
+            return l != null && tid.equals(l.writer);
+        } finally {
+            s.latch.unlock();
+        }
+    }
+
+    /**
+     * @return the pages a transaction holds locks on
+     */
+    public Set<PageId> getLockedPages(TransactionId tid) {
+        Set<PageId> pids = held.get(tid);
+        return pids == null ? Collections.emptySet() : Collections.unmodifiableSet(new HashSet<>(pids));
+    }
+
+    /**
+     * @return the number of locks granted
+     */
+    public long getAcquireCount() {
+        return acquires.get();
+    }
+
+    /**
+     * @return the total time, in nanoseconds, spent in acquire calls that
+     *         were granted a lock, waiting included
+     */
+    public long getAcquireNanos() {
+        return acquireNanos.get();
+    }
+
+    /**
+     * @return the number of acquire calls that had to wait for another
+     *         transaction to release its lock
+     */
+    public long getWaitCount() {
+        return waits.get();
+    }
+
+    /**
+     * @return the total time, in nanoseconds, spent waiting for locks, by
+     *         granted and aborted requests alike
+     */
+    public long getWaitNanos() {
+        return waitNanos.get();
+    }
+
+    /**
+     * @return the number of transactions aborted because they waited too
+     *         long for a lock
+     */
+    public long getTimeoutCount() {
+        return timeouts.get();
+    }
+
+    /**
+     * @return the number of deadlocks found in the wait-for graph, each of
+     *         which aborted one transaction
+     */
+    public long getDeadlockCount() {
+        return graph == null ? 0 : graph.getDeadlockCount();
+    }
+}
@@ -0,0 +1,127 @@
+package simpledb.transaction;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * WaitForGraph records which transactions are waiting for page locks and
+ * which transactions hold the locks they are waiting for. The LockManager
+ * keeps it up to date as transactions start and stop waiting and as locks
+ * are granted and released, so that an edge from a waiter to a holder
+ * exists exactly while the waiter is blocked on one of the holder's locks.
+ * <p>
+ * A cycle can only be closed by a transaction that starts waiting, so
+ * cycles are looked for from that transaction only, when it blocks. The
+ * youngest transaction in the cycle (the one with the largest id) is chosen
+ * as the victim: it stops counting as a waiter at once, and must abort.
+ * <p>
+ * The graph is only touched by transactions that wait or that release or
+ * acquire locks others are waiting for, so a single monitor guards it.
+ *
+ * @Threadsafe
+ */
+class WaitForGraph {
+
+    // for each waiting transaction, the transactions it is waiting for
+    private final Map<TransactionId, Set<TransactionId>> waitsFor = new HashMap<>();
+    // transactions chosen to break a cycle that have not noticed yet
+    private final Set<TransactionId> victims = new HashSet<>();
+    private long deadlocks = 0;
+
+    /**
+     * Records that a transaction is waiting for the given holders (replacing
+     * what it was waiting for before), and looks for a cycle through it.
+     *
+     * @return the victim chosen to break a cycle, or null if there is none;
+     *         tid itself if it had already been chosen as a victim
+     */
+    synchronized TransactionId waitFor(TransactionId tid, Collection<TransactionId> holders) {
+        if (victims.contains(tid))
+            return tid;
+        waitsFor.put(tid, new HashSet<>(holders));
+        List<TransactionId> cycle = findCycle(tid);
+        if (cycle == null)
+            return null;
+        TransactionId victim = tid;
+        for (TransactionId t : cycle)
+            if (t.getId() > victim.getId())
+                victim = t;
+        waitsFor.remove(victim);
+        victims.add(victim);
+        deadlocks++;
+        return victim;
+    }
+
+    /**
+     * @return the number of cycles found
+     */
+    synchronized long getDeadlockCount() {
+        return deadlocks;
+    }
+
+    /**
+     * Records that a waiting transaction now also waits for holder. Does
+     * nothing if the transaction is not waiting.
+     */
+    synchronized void addEdge(TransactionId waiter, TransactionId holder) {
+        Set<TransactionId> holders = waitsFor.get(waiter);
+        if (holders != null)
+            holders.add(holder);
+    }
+
+    /**
+     * Records that a waiting transaction no longer waits for holder.
+     */
+    synchronized void removeEdge(TransactionId waiter, TransactionId holder) {
+        Set<TransactionId> holders = waitsFor.get(waiter);
+        if (holders != null)
+            holders.remove(holder);
+    }
+
+    /**
+     * Records that a transaction is no longer waiting, whether it got its
+     * lock or is aborting.
+     */
+    synchronized void stopWaiting(TransactionId tid) {
+        waitsFor.remove(tid);
+        victims.remove(tid);
+    }
+
+    /**
+     * @return the transactions on a path from tid back to itself, or null if
+     *         there is no such path
+     */
+    private List<TransactionId> findCycle(TransactionId tid) {
+        Set<TransactionId> visited = new HashSet<>();
+        Deque<Iterator<TransactionId>> stack = new ArrayDeque<>();
+        Deque<TransactionId> path = new ArrayDeque<>();
+        path.push(tid);
+        stack.push(waitsFor.get(tid).iterator());
+        visited.add(tid);
+        while (!stack.isEmpty()) {
+            Iterator<TransactionId> it = stack.peek();
+            if (!it.hasNext()) {
+                stack.pop();
+                path.pop();
+                continue;
+            }
+            TransactionId next = it.next();
+            if (next.equals(tid))
+                return new ArrayList<>(path);
+            Set<TransactionId> out = waitsFor.get(next);
+            if (out == null || !visited.add(next))
+                continue;
+            path.push(next);
+            stack.push(out.iterator());
+        }
+        return null;
+    }
+}
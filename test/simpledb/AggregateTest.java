@@ -5,6 +5,11 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
 import org.junit.Before;
 import org.junit.Test;
 
@@ -191,6 +196,54 @@ public class AggregateTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(min, op);
   }
 
+  /** Drains an aggregate into a sorted list of rows, for comparison. */
+  private static List<String> results(OpIterator op) throws Exception {
+    List<String> rows = new ArrayList<>();
+    op.open();
+    while (op.hasNext())
+      rows.add(op.next().toString());
+    op.close();
+    Collections.sort(rows);
+    return rows;
+  }
+
+  /**
+   * Aggregates over more groups than the memory budget spill partial
+   * groups and still match the in-memory results, for every operator
+   */
+  @Test public void spillingAggregate() throws Exception {
+    Random r = new Random(11);
+    int[] rows = new int[3 * 20000];
+    for (int i = 0; i < rows.length; i += 3) {
+      rows[i] = r.nextInt(3000) - 1500;  // group
+      rows[i + 1] = r.nextInt(1000) - 500; // value
+      rows[i + 2] = 1 + r.nextInt(5);      // count, for SC_AVG inputs
+    }
+    for (Aggregator.Op op : new Aggregator.Op[] { Aggregator.Op.COUNT, Aggregator.Op.SUM,
+        Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.AVG, Aggregator.Op.SUM_COUNT,
+        Aggregator.Op.SC_AVG }) {
+      List<String> expected = results(new Aggregate(TestUtil.createTupleList(3, rows), 1, 0, op));
+      assertTrue(expected.size() > 2900);
+      Aggregate spilling = new Aggregate(TestUtil.createTupleList(3, rows), 1, 0, op, 40);
+      assertEquals(op.toString(), expected, results(spilling));
+      // a rewound spilled aggregate aggregates again
+      assertEquals(op.toString(), expected, results(spilling));
+
+      // without grouping there is a single group, which never spills
+      assertEquals(results(new Aggregate(TestUtil.createTupleList(3, rows), 1, -1, op)),
+          results(new Aggregate(TestUtil.createTupleList(3, rows), 1, -1, op, 1)));
+    }
+
+    // string group values, and a count of string values
+    Object[] strings = new Object[2 * 5000];
+    for (int i = 0; i < strings.length; i += 2) {
+      strings[i] = "g" + r.nextInt(700);
+      strings[i + 1] = "v" + i;
+    }
+    assertEquals(results(new Aggregate(TestUtil.createTupleList(2, strings), 1, 0, Aggregator.Op.COUNT)),
+        results(new Aggregate(TestUtil.createTupleList(2, strings), 1, 0, Aggregator.Op.COUNT, 10)));
+  }
+
   /**
    * JUnit suite target
    */
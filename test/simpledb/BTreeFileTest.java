@@ -0,0 +1,188 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate;
+import simpledb.index.BTreeFile;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class BTreeFileTest extends SimpleDbTestBase {
+
+    private TransactionId tid;
+    private BTreeFile bf;
+
+    /**
+     * Small pages, so that a few thousand tuples make a tree several levels
+     * deep, and a pool large enough to hold all of it.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        BufferPool.setPageSize(256);
+        Database.resetBufferPool(1000);
+        File f = File.createTempFile("btree", ".dat");
+        f.deleteOnExit();
+        bf = new BTreeFile(f, 0, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(bf, UUID.randomUUID().toString());
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() {
+        Database.getBufferPool().transactionComplete(tid);
+        BufferPool.resetPageSize();
+    }
+
+    private void insert(int key) throws Exception {
+        bf.insertTuple(tid, Utility.getHeapTuple(new int[]{key, key * 7}));
+    }
+
+    private static List<Integer> keys(DbFileIterator it) throws Exception {
+        List<Integer> l = new ArrayList<>();
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals(((IntField) t.getField(0)).getValue() * 7, ((IntField) t.getField(1)).getValue());
+            l.add(((IntField) t.getField(0)).getValue());
+        }
+        it.close();
+        return l;
+    }
+
+    /**
+     * Inserts in random order, with duplicates, split leaves and internal
+     * pages; a scan returns every tuple in key order.
+     */
+    @Test public void insertAndScanInKeyOrder() throws Exception {
+        Random r = new Random(17);
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            int k = r.nextInt(500);
+            insert(k);
+            expected.add(k);
+        }
+        Collections.sort(expected);
+        assertEquals(expected, keys(bf.iterator(tid)));
+        assertTrue(bf.numPages() > 100);
+    }
+
+    /**
+     * Index scans return exactly the tuples whose key matches, for every
+     * operator, including keys that fall outside the table and keys with
+     * duplicates spread over several leaves.
+     */
+    @Test public void indexIteratorMatchesPredicate() throws Exception {
+        Random r = new Random(3);
+        List<Integer> all = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            int k = r.nextInt(100) * 2;
+            insert(k);
+            all.add(k);
+        }
+        Collections.sort(all);
+        Predicate.Op[] ops = {Predicate.Op.EQUALS, Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ,
+                Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ, Predicate.Op.NOT_EQUALS};
+        for (Predicate.Op op : ops) {
+            for (int v : new int[]{-5, 0, 51, 100, 198, 300}) {
+                IntField value = new IntField(v);
+                List<Integer> expected = new ArrayList<>();
+                for (int k : all)
+                    if (new IntField(k).compare(op, value))
+                        expected.add(k);
+                assertEquals(op + " " + v, expected,
+                        keys(bf.indexIterator(tid, new IndexPredicate(op, value))));
+            }
+        }
+    }
+
+    /**
+     * Deleting most of the tuples merges leaves and internal pages; the
+     * freed pages are reused when the table grows again.
+     */
+    @Test public void deleteMergesAndReusesPages() throws Exception {
+        for (int i = 0; i < 2000; i++)
+            insert(i);
+        int pages = bf.numPages();
+
+        List<Integer> expected = new ArrayList<>();
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            if (i % 50 == 0)
+                expected.add(i);
+            else
+                order.add(i);
+        }
+        Collections.shuffle(order, new Random(5));
+        for (int i : order) {
+            DbFileIterator it = bf.indexIterator(tid,
+                    new IndexPredicate(Predicate.Op.EQUALS, new IntField(i)));
+            it.open();
+            Tuple t = it.next();
+            it.close();
+            bf.deleteTuple(tid, t);
+        }
+        assertEquals(expected, keys(bf.iterator(tid)));
+
+        for (int i = 0; i < 2000; i++)
+            if (i % 50 != 0)
+                insert(i);
+        List<Integer> all = keys(bf.iterator(tid));
+        assertEquals(2000, all.size());
+        for (int i = 0; i < 2000; i++)
+            assertEquals(i, (int) all.get(i));
+        // at most the header page is new
+        assertTrue(bf.numPages() <= pages + 1);
+    }
+
+    /**
+     * Pages written to disk are read back intact.
+     */
+    @Test public void flushAndReread() throws Exception {
+        for (int i = 999; i >= 0; i--)
+            insert(i);
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(1000);
+        List<Integer> l = keys(bf.indexIterator(tid,
+                new IndexPredicate(Predicate.Op.GREATER_THAN_OR_EQ, new IntField(990))));
+        assertEquals(Arrays.asList(990, 991, 992, 993, 994, 995, 996, 997, 998, 999), l);
+    }
+
+    /**
+     * A btree annotation in the schema stores the table in a BTreeFile keyed
+     * on that field.
+     */
+    @Test public void loadSchemaBTreeAnnotation() throws Exception {
+        File schema = File.createTempFile("btreeschema", ".txt");
+        schema.deleteOnExit();
+        try (FileWriter w = new FileWriter(schema)) {
+            w.write("bt (a int, b int pk btree)\n");
+        }
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        int id = Database.getCatalog().getTableId("bt");
+        BTreeFile f = (BTreeFile) Database.getCatalog().getDatabaseFile(id);
+        assertEquals(1, f.keyField());
+        assertEquals("b", Database.getCatalog().getPrimaryKey(id));
+        new File(schema.getParentFile(), "bt.dat").deleteOnExit();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BTreeFileTest.class);
+    }
+}
@@ -0,0 +1,119 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class BufferPoolConcurrencyTest extends SimpleDbTestBase {
+
+    /** Counts reads, and slows every read down or makes it wait on a barrier. */
+    static class BlockingHeapFile extends HeapFile {
+        final AtomicInteger readCount = new AtomicInteger();
+        volatile CyclicBarrier barrier;
+        volatile long delayMs;
+
+        BlockingHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) throws NoSuchElementException {
+            readCount.incrementAndGet();
+            CyclicBarrier b = barrier;
+            try {
+                if (b != null)
+                    b.await(5, TimeUnit.SECONDS);
+                Thread.sleep(delayMs);
+            } catch (Exception e) {
+                throw new RuntimeException("reads did not overlap", e);
+            }
+            return super.readPage(pid);
+        }
+    }
+
+    private BlockingHeapFile table;
+
+    @Before public void setUp() throws Exception {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 504 * 4, 1000, null, new ArrayList<>());
+        table = new BlockingHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    private List<Future<Page>> fetchConcurrently(PageId... pids) {
+        ExecutorService pool = Executors.newFixedThreadPool(pids.length);
+        List<Future<Page>> results = new ArrayList<>();
+        for (PageId pid : pids) {
+            results.add(pool.submit(() ->
+                    Database.getBufferPool().getPage(new TransactionId(), pid, Permissions.READ_ONLY)));
+        }
+        pool.shutdown();
+        return results;
+    }
+
+    /**
+     * Threads that miss on the same page at the same time do a single read
+     * and all get the same page.
+     */
+    @Test public void sameMissReadsOnce() throws Exception {
+        PageId pid = new HeapPageId(table.getId(), 1);
+        // slow enough that the other threads miss while the first one reads
+        table.delayMs = 200;
+        List<Future<Page>> results = fetchConcurrently(pid, pid, pid);
+        Page first = results.get(0).get(10, TimeUnit.SECONDS);
+        for (Future<Page> r : results)
+            assertSame(first, r.get(10, TimeUnit.SECONDS));
+        assertEquals(1, table.readCount.get());
+    }
+
+    /**
+     * Misses on different pages do their I/O in parallel: each read blocks
+     * until the other one has started, which would time out if reads were
+     * serialized.
+     */
+    @Test public void differentMissesOverlap() throws Exception {
+        table.barrier = new CyclicBarrier(2);
+        List<Future<Page>> results = fetchConcurrently(new HeapPageId(table.getId(), 0),
+                new HeapPageId(table.getId(), 2));
+        for (Future<Page> r : results)
+            assertNotNull(r.get(10, TimeUnit.SECONDS));
+        assertEquals(2, table.readCount.get());
+    }
+
+    /**
+     * Hits do not read the page again.
+     */
+    @Test public void hitsAreCounted() throws Exception {
+        PageId pid = new HeapPageId(table.getId(), 3);
+        BufferPool bp = Database.getBufferPool();
+        Page p = bp.getPage(new TransactionId(), pid, Permissions.READ_ONLY);
+        assertSame(p, bp.getPage(new TransactionId(), pid, Permissions.READ_ONLY));
+        assertEquals(1, table.readCount.get());
+        assertEquals(1, bp.getMissCount());
+        assertEquals(1, bp.getHitCount());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolConcurrencyTest.class);
+    }
+}
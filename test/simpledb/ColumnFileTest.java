@@ -0,0 +1,244 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.*;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class ColumnFileTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 5000;
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[]{Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE, Type.STRING_TYPE},
+            new String[]{"id", "day", "amount", "city"});
+    private static final String[] CITIES = {"Boston", "Cambridge", "Somerville", "Medford", "Newton"};
+
+    private TransactionId tid;
+    private final List<Tuple> tuples = new ArrayList<>();
+
+    /**
+     * Rows with a unique id, a day that changes every 100 rows, a random
+     * amount and one of a few cities.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+        Random r = new Random(5);
+        for (int i = 0; i < ROWS; i++) {
+            Tuple t = new Tuple(TD);
+            t.setField(0, new IntField(i));
+            t.setField(1, new IntField(i / 100));
+            t.setField(2, new IntField(r.nextInt(1000000)));
+            t.setField(3, new StringField(CITIES[r.nextInt(CITIES.length)], Type.STRING_LEN));
+            tuples.add(t);
+        }
+    }
+
+    @After public void tearDown() {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static File tempFile() throws Exception {
+        File f = File.createTempFile("columns", ".dat");
+        f.deleteOnExit();
+        return f;
+    }
+
+    private ColumnFile written() throws Exception {
+        File f = tempFile();
+        ColumnFile.write(f, TD, tuples.iterator());
+        ColumnFile cf = new ColumnFile(f, TD);
+        Database.getCatalog().addTable(cf, SystemTestUtil.getUUID());
+        return cf;
+    }
+
+    private static List<String> rows(DbFileIterator it) throws Exception {
+        List<String> l = new ArrayList<>();
+        it.open();
+        while (it.hasNext())
+            l.add(it.next().toString());
+        it.close();
+        return l;
+    }
+
+    private List<String> expected(int... columns) {
+        List<String> l = new ArrayList<>();
+        for (Tuple t : tuples) {
+            StringBuilder sb = new StringBuilder();
+            for (int c : columns)
+                sb.append(sb.length() > 0 ? "\t" : "").append(t.getField(c));
+            l.add(sb.toString());
+        }
+        return l;
+    }
+
+    /**
+     * A table written in bulk reads back whole and by column, in order and
+     * also after a rewind, and its tuples carry their row numbers.
+     */
+    @Test public void readBack() throws Exception {
+        ColumnFile cf = written();
+        assertEquals(expected(0, 1, 2, 3), rows(cf.iterator(tid)));
+        assertEquals(expected(3, 1), rows(cf.iterator(tid, new int[]{3, 1})));
+
+        DbFileIterator it = cf.iterator(tid, new int[]{0});
+        it.open();
+        for (int i = 0; i < 10; i++)
+            it.next();
+        it.rewind();
+        Tuple t = it.next();
+        assertEquals(0, ((IntField) t.getField(0)).getValue());
+        assertEquals(0, t.getRecordId().getTupleNumber());
+        it.close();
+    }
+
+    /**
+     * Each page is written in the encoding that takes the least room for
+     * its values: runs of days, a dictionary of cities, plain amounts.
+     */
+    @Test public void encodings() throws Exception {
+        ColumnFile cf = written();
+        ColumnHeaderPage header = (ColumnHeaderPage) Database.getBufferPool().getPage(tid,
+                new ColumnPageId(cf.getId(), 0), Permissions.READ_ONLY);
+        assertEquals(ROWS, header.getNumRows());
+        ColumnPage.Encoding[] expected = {ColumnPage.Encoding.PLAIN, ColumnPage.Encoding.RLE,
+                ColumnPage.Encoding.PLAIN, ColumnPage.Encoding.DICTIONARY};
+        for (int c = 0; c < TD.numFields(); c++) {
+            ColumnPage p = (ColumnPage) Database.getBufferPool().getPage(tid,
+                    new ColumnPageId(cf.getId(), header.getFirstPage(c)), Permissions.READ_ONLY);
+            assertEquals(c, p.getColumn());
+            assertEquals(expected[c], p.getEncoding());
+        }
+        // 50 runs and 5000 one-byte codes fit on one page each
+        assertEquals(1, header.getNumPages(1));
+        assertEquals(2, header.getNumPages(3));
+        assertTrue(header.getNumPages(0) >= 4);
+    }
+
+    /**
+     * Scanning two of twenty fields fetches about an order of magnitude fewer
+     * pages than scanning the same table stored in a HeapFile.
+     */
+    @Test public void projectionReadsFewerPages() throws Exception {
+        int fields = 20;
+        List<List<Integer>> data = new ArrayList<>();
+        File heap = SystemTestUtil.createRandomHeapFileUnopened(fields, 10000, 1000, null, data);
+        HeapFile hf = Utility.openHeapFile(fields, heap);
+        List<Tuple> rows = new ArrayList<>();
+        for (List<Integer> row : data)
+            rows.add(Utility.getHeapTuple(row.stream().mapToInt(Integer::intValue).toArray()));
+        File f = tempFile();
+        ColumnFile.write(f, Utility.getTupleDesc(fields), rows.iterator());
+        ColumnFile cf = new ColumnFile(f, Utility.getTupleDesc(fields));
+        Database.getCatalog().addTable(cf, SystemTestUtil.getUUID());
+
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(new SeqScan(tid, hf.getId(), "h"), data);
+        long heapPages = bp.getHitCount() + bp.getMissCount();
+
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        List<List<Integer>> projected = new ArrayList<>();
+        for (List<Integer> row : data)
+            projected.add(Arrays.asList(row.get(3), row.get(17)));
+        SystemTestUtil.matchTuples(new SeqScan(tid, cf.getId(), "c", new int[]{3, 17}), projected);
+        long columnPages = bp.getHitCount() + bp.getMissCount();
+        assertTrue(columnPages + " pages vs " + heapPages, columnPages * 8 <= heapPages);
+    }
+
+    /**
+     * Tuples inserted through the BufferPool are appended, growing the
+     * chains page by page, and are there after the pages are written and
+     * the file is opened again. Deletes are refused.
+     */
+    @Test public void insertAppends() throws Exception {
+        File f = tempFile();
+        ColumnFile cf = new ColumnFile(f, TD);
+        Database.getCatalog().addTable(cf, SystemTestUtil.getUUID());
+        assertTrue(rows(cf.iterator(tid)).isEmpty());
+        for (Tuple t : tuples)
+            Database.getBufferPool().insertTuple(tid, cf.getId(), t);
+        assertEquals(ROWS - 1, tuples.get(ROWS - 1).getRecordId().getTupleNumber());
+        assertEquals(expected(0, 1, 2, 3), rows(cf.iterator(tid)));
+
+        Database.getBufferPool().flushAllPages();
+        Database.getBufferPool().transactionComplete(tid);
+        cf = new ColumnFile(f, TD);
+        Database.getCatalog().addTable(cf, SystemTestUtil.getUUID());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(expected(2, 0), rows(cf.iterator(tid, new int[]{2, 0})));
+
+        try {
+            Database.getBufferPool().deleteTuple(tid, tuples.get(0));
+            fail("deleted from a column file");
+        } catch (DbException e) {
+            // expected
+        }
+    }
+
+    /**
+     * A columnar annotation in the schema stores the table by column, and
+     * the planner then scans only the fields the query uses.
+     */
+    @Test public void loadSchemaAndPlan() throws Exception {
+        File schema = File.createTempFile("colschema", ".txt");
+        schema.deleteOnExit();
+        try (FileWriter w = new FileWriter(schema)) {
+            w.write("sales (id int, day int, amount int, city string) columnar\n");
+        }
+        File data = new File(schema.getParentFile(), "sales.dat");
+        data.deleteOnExit();
+        ColumnFile.write(data, TD, tuples.iterator());
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        int id = Database.getCatalog().getTableId("sales");
+        assertTrue(Database.getCatalog().getDatabaseFile(id) instanceof ColumnFile);
+
+        TableStats.setTableStats("sales", new TableStats(id, 1000));
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(id, "s");
+        lp.addProjectField("s.city", null);
+        lp.addFilter("s.day", Predicate.Op.LESS_THAN, "3");
+        OpIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+
+        OpIterator scan = plan;
+        while (!(scan instanceof SeqScan))
+            scan = ((Operator) scan).getChildren()[0];
+        assertArrayEquals(new int[]{1, 3}, ((SeqScan) scan).getColumns());
+
+        List<String> expected = new ArrayList<>();
+        for (Tuple t : tuples)
+            if (((IntField) t.getField(1)).getValue() < 3)
+                expected.add(t.getField(3).toString());
+        List<String> actual = new ArrayList<>();
+        plan.open();
+        while (plan.hasNext())
+            actual.add(plan.next().toString());
+        plan.close();
+        assertEquals(expected, actual);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ColumnFileTest.class);
+    }
+}
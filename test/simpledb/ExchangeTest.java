@@ -0,0 +1,256 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.*;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class ExchangeTest extends SimpleDbTestBase {
+
+    private static final int PARTS = 4;
+
+    /** The scans of the PARTS parts of a file. */
+    private static OpIterator[] partScans(TransactionId tid, HeapFile f) {
+        OpIterator[] scans = new OpIterator[PARTS];
+        for (int i = 0; i < PARTS; i++)
+            scans[i] = new SeqScan(tid, f.getId(), "t", null, i, PARTS);
+        return scans;
+    }
+
+    /**
+     * The parts of a file are disjoint and together hold all of its tuples,
+     * and gathering their scans returns every tuple once, also after a rewind.
+     */
+    @Test public void gatherPartitionedScan() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 5000, null, tuples);
+        assertTrue(f.numPages() > PARTS);
+        TransactionId tid = new TransactionId();
+
+        List<List<Integer>> rest = new ArrayList<>(tuples);
+        for (OpIterator scan : partScans(tid, f)) {
+            scan.open();
+            assertTrue(scan.hasNext());
+            while (scan.hasNext())
+                assertTrue(rest.remove(SystemTestUtil.tupleToList(scan.next())));
+            scan.close();
+        }
+        assertTrue(rest.isEmpty());
+
+        Gather gather = new Gather(partScans(tid, f), 16);
+        SystemTestUtil.matchTuples(gather, tuples);
+        gather.open();
+        while (gather.hasNext())
+            gather.next();
+        gather.rewind();
+        int n = 0;
+        while (gather.hasNext()) {
+            gather.next();
+            n++;
+        }
+        gather.close();
+        assertEquals(tuples.size(), n);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A Gather closed before its workers are done stops them.
+     */
+    @Test public void closeEarly() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 5000, null, new ArrayList<>());
+        TransactionId tid = new TransactionId();
+        Gather gather = new Gather(partScans(tid, f), 2);
+        gather.open();
+        assertTrue(gather.hasNext());
+        gather.next();
+        gather.close();
+        for (OpIterator scan : gather.getChildren()) {
+            scan.open(); // would be a double open if a worker still had it open
+            scan.close();
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * An exception thrown on a worker is rethrown by the Gather.
+     */
+    @Test public void workerFailure() throws Exception {
+        OpIterator failing = new Filter(new Predicate(0, Predicate.Op.EQUALS, new IntField(0)),
+                TestUtil.createTupleList(1, new int[] { 1, 2, 3 })) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected Tuple fetchNext() throws DbException {
+                throw new DbException("broken");
+            }
+        };
+        Gather gather = new Gather(new OpIterator[] { TestUtil.createTupleList(1, new int[] { 1, 2, 3 }), failing });
+        gather.open();
+        try {
+            while (gather.hasNext())
+                gather.next();
+            fail("expected the worker's exception");
+        } catch (DbException e) {
+            assertEquals("broken", e.getMessage());
+        }
+        gather.close();
+    }
+
+    /**
+     * Every tuple of the inputs ends up in exactly one output of a
+     * Repartition, and all tuples with the same key in the same output.
+     */
+    @Test public void repartitionByKey() throws Exception {
+        Random r = new Random(5);
+        OpIterator[] inputs = new OpIterator[3];
+        List<List<Integer>> expected = new ArrayList<>();
+        for (int i = 0; i < inputs.length; i++) {
+            int[] rows = new int[2 * 2000];
+            for (int j = 0; j < rows.length; j += 2) {
+                rows[j] = r.nextInt(300);
+                rows[j + 1] = i;
+                expected.add(Arrays.asList(rows[j], rows[j + 1]));
+            }
+            inputs[i] = TestUtil.createTupleList(2, rows);
+        }
+        Repartition[] outputs = Repartition.repartition(inputs, 0, 5, 8);
+
+        // the outputs are read concurrently, each by a thread of its own
+        List<List<List<Integer>>> received = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        List<Exception> errors = Collections.synchronizedList(new ArrayList<>());
+        for (Repartition out : outputs) {
+            List<List<Integer>> l = new ArrayList<>();
+            received.add(l);
+            Thread t = new Thread(() -> {
+                try {
+                    out.open();
+                    while (out.hasNext())
+                        l.add(SystemTestUtil.tupleToList(out.next()));
+                    out.close();
+                } catch (Exception e) {
+                    errors.add(e);
+                }
+            });
+            threads.add(t);
+            t.start();
+        }
+        for (Thread t : threads)
+            t.join();
+        assertEquals(Collections.emptyList(), errors);
+
+        Map<Integer, Integer> outputOfKey = new HashMap<>();
+        List<List<Integer>> all = new ArrayList<>();
+        for (int i = 0; i < outputs.length; i++) {
+            assertFalse(received.get(i).isEmpty());
+            for (List<Integer> t : received.get(i)) {
+                Integer previous = outputOfKey.put(t.get(0), i);
+                assertTrue(previous == null || previous == i);
+                all.add(t);
+            }
+        }
+        Comparator<List<Integer>> byValues = Comparator.<List<Integer>, Integer>comparing(t -> t.get(0)).thenComparing(t -> t.get(1));
+        all.sort(byValues);
+        expected.sort(byValues);
+        assertEquals(expected, all);
+    }
+
+    /**
+     * A plan built with a parallelism above 1 scans, filters and projects
+     * the table on several workers and returns the same tuples.
+     */
+    @Test public void parallelPlan() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 3000, 100, null, tuples, "c");
+        Database.getCatalog().addTable(f, "par");
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put("par", new TableStats(f.getId(), 1));
+
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : tuples)
+            if (t.get(0) < 30)
+                expected.add(Collections.singletonList(t.get(1)));
+
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new LogicalPlan();
+        lp.setParallelism(PARTS);
+        lp.addScan(f.getId(), "par");
+        lp.addFilter("par.c0", Predicate.Op.LESS_THAN, "30");
+        lp.addProjectField("par.c1", null);
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        assertTrue(plan instanceof Gather);
+        assertEquals(PARTS, ((Gather) plan).getChildren().length);
+        assertTrue(((Gather) plan).getChildren()[0] instanceof Project);
+        SystemTestUtil.matchTuples(plan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Runs SELECT [c0,] op(c1) FROM par [GROUP BY c0] and returns its rows, sorted. */
+    private static List<List<Integer>> aggregate(HeapFile f, Map<String, TableStats> stats, int parallelism,
+                                                 String op, boolean grouped) throws Exception {
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = new LogicalPlan();
+        lp.setParallelism(parallelism);
+        lp.addScan(f.getId(), "par");
+        if (grouped)
+            lp.addProjectField("par.c0", null);
+        lp.addProjectField("par.c1", op);
+        lp.addAggregate(op, "par.c1", grouped ? "par.c0" : null);
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        if (parallelism > 1 && grouped) {
+            // the final aggregates run on the workers of a Gather too
+            assertTrue(plan instanceof Gather);
+            OpIterator worker = ((Operator) ((Gather) plan).getChildren()[0]).getChildren()[0];
+            assertTrue(worker instanceof Aggregate);
+            assertTrue(((Aggregate) worker).getChildren()[0] instanceof Repartition);
+        }
+        List<List<Integer>> rows = new ArrayList<>();
+        plan.open();
+        while (plan.hasNext())
+            rows.add(SystemTestUtil.tupleToList(plan.next()));
+        plan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        rows.sort(Comparator.comparing(Object::toString));
+        return rows;
+    }
+
+    /**
+     * Aggregates split into partial aggregates on the workers and a final
+     * merge return the same results as a sequential plan.
+     */
+    @Test public void parallelAggregates() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 4000, 50, null, new ArrayList<>(), "c");
+        Database.getCatalog().addTable(f, "par");
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put("par", new TableStats(f.getId(), 1));
+
+        for (String op : new String[] { "min", "max", "sum", "count", "avg" }) {
+            for (boolean grouped : new boolean[] { false, true }) {
+                List<List<Integer>> expected = aggregate(f, stats, 1, op, grouped);
+                assertEquals(grouped ? 50 : 1, expected.size());
+                assertEquals(op + (grouped ? " grouped" : ""), expected, aggregate(f, stats, PARTS, op, grouped));
+            }
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ExchangeTest.class);
+    }
+}
@@ -0,0 +1,163 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.LogFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+public class GroupCommitTest extends SimpleDbTestBase {
+
+    private HeapFile table;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        File f = File.createTempFile("groupcommit", ".dat");
+        f.deleteOnExit();
+        table = Utility.createEmptyHeapFile(f.getAbsolutePath(), 2);
+    }
+
+    private interface Work {
+        void run(int thread) throws Exception;
+    }
+
+    /**
+     * Runs work on the given number of threads, started together.
+     *
+     * @return the elapsed time in nanoseconds
+     */
+    private static long concurrently(int threads, Work work) throws Exception {
+        CyclicBarrier start = new CyclicBarrier(threads + 1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> running = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            final int thread = i;
+            Thread t = new Thread(() -> {
+                try {
+                    start.await();
+                    work.run(thread);
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            t.start();
+            running.add(t);
+        }
+        start.await();
+        long begin = System.nanoTime();
+        for (Thread t : running)
+            t.join();
+        long elapsed = System.nanoTime() - begin;
+        if (failure.get() != null)
+            throw new AssertionError(failure.get());
+        return elapsed;
+    }
+
+    private static void commitEmpty() throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        t.commit();
+    }
+
+    /**
+     * Commits that arrive together share a force: the leader waits for the
+     * rest of the group.
+     */
+    @Test public void commitsShareForce() throws Exception {
+        LogFile log = Database.getLogFile();
+        int threads = 16;
+        commitEmpty();
+        log.setGroupCommit(threads, 1, TimeUnit.SECONDS);
+        long forces = log.getForceCount();
+        concurrently(threads, thread -> commitEmpty());
+        long used = log.getForceCount() - forces;
+        assertTrue(used + " forces for " + threads + " commits", used <= threads / 4);
+    }
+
+    /**
+     * A lone committer does not wait out the delay once the batch is full.
+     */
+    @Test public void fullBatchDoesNotWait() throws Exception {
+        Database.getLogFile().setGroupCommit(1, 1, TimeUnit.MINUTES);
+        long begin = System.nanoTime();
+        for (int i = 0; i < 10; i++)
+            commitEmpty();
+        assertTrue(System.nanoTime() - begin < TimeUnit.SECONDS.toNanos(30));
+    }
+
+    /**
+     * Every transaction whose commit returned is redone after a crash.
+     */
+    @Test public void groupedCommitsSurviveCrash() throws Exception {
+        int threads = 8, each = 20;
+        Database.getLogFile().setGroupCommit(threads, 2, TimeUnit.MILLISECONDS);
+        concurrently(threads, thread -> {
+            for (int i = 0; i < each; i++) {
+                Transaction t = new Transaction();
+                t.start();
+                Database.getBufferPool().insertTuple(t.getId(), table.getId(),
+                        Utility.getHeapTuple(new int[]{thread, i}));
+                t.commit();
+            }
+        });
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        Database.getLogFile().recover();
+
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, table.getId(), "t");
+        scan.open();
+        int n = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            n++;
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(threads * each, n);
+    }
+
+    /**
+     * Commit throughput with 1 to 64 concurrent committers, with the
+     * default (no delay) grouping: the more committers, the more commits
+     * each force covers.
+     */
+    @Test public void commitThroughput() throws Exception {
+        LogFile log = Database.getLogFile();
+        int commits = 640;
+        for (int threads : new int[]{1, 4, 16, 64}) {
+            long forces = log.getForceCount();
+            long nanos = concurrently(threads, thread -> {
+                for (int i = 0; i < commits / threads; i++)
+                    commitEmpty();
+            });
+            long used = log.getForceCount() - forces;
+            System.out.printf("%2d committers: %6.0f commits/s, %5.1f commits per force%n", threads,
+                    commits / (nanos / 1e9), (double) commits / used);
+            assertTrue(used <= commits);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(GroupCommitTest.class);
+    }
+}
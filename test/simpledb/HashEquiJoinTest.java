@@ -0,0 +1,175 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Test;
+
+import simpledb.common.DbException;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionAbortedException;
+
+public class HashEquiJoinTest extends SimpleDbTestBase {
+
+    /** Counts the tuples read from and the rewinds of a child. */
+    static class CountingIterator implements OpIterator {
+        private static final long serialVersionUID = 1L;
+        final OpIterator child;
+        int reads = 0;
+        int rewinds = 0;
+
+        CountingIterator(OpIterator child) {
+            this.child = child;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            child.open();
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            return child.hasNext();
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException {
+            reads++;
+            return child.next();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            rewinds++;
+            child.rewind();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return child.getTupleDesc();
+        }
+
+        public void close() {
+            child.close();
+        }
+    }
+
+    /** Two-column tuples (key, row number) with the given keys. */
+    private static int[] rows(int[] keys) {
+        int[] rows = new int[keys.length * 2];
+        for (int i = 0; i < keys.length; i++) {
+            rows[2 * i] = keys[i];
+            rows[2 * i + 1] = i;
+        }
+        return rows;
+    }
+
+    private static int[] randomKeys(Random r, int n, int range) {
+        int[] keys = new int[n];
+        for (int i = 0; i < n; i++)
+            keys[i] = r.nextInt(range);
+        return keys;
+    }
+
+    /** The (build row, probe row) pairs an equality join of the keys produces. */
+    private static Set<List<Integer>> expectedPairs(int[] build, int[] probe) {
+        Map<Integer, List<Integer>> byKey = new HashMap<>();
+        for (int i = 0; i < build.length; i++)
+            byKey.computeIfAbsent(build[i], k -> new ArrayList<>()).add(i);
+        Set<List<Integer>> pairs = new HashSet<>();
+        for (int j = 0; j < probe.length; j++)
+            for (int i : byKey.getOrDefault(probe[j], Collections.emptyList()))
+                pairs.add(Arrays.asList(i, j));
+        return pairs;
+    }
+
+    private static List<List<Integer>> pairs(OpIterator join) throws Exception {
+        List<List<Integer>> pairs = new ArrayList<>();
+        while (join.hasNext()) {
+            Tuple t = join.next();
+            assertEquals(t.getField(0), t.getField(2));
+            pairs.add(Arrays.asList(((IntField) t.getField(1)).getValue(),
+                    ((IntField) t.getField(3)).getValue()));
+        }
+        return pairs;
+    }
+
+    private static void assertJoin(Set<List<Integer>> expected, List<List<Integer>> actual) {
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected, new HashSet<>(actual));
+    }
+
+    /**
+     * A build side many times the memory budget is joined correctly, and
+     * each input is read exactly once.
+     */
+    @Test public void spillsToDisk() throws Exception {
+        Random r = new Random(42);
+        int[] build = randomKeys(r, 3000, 700);
+        int[] probe = randomKeys(r, 4000, 700);
+        CountingIterator c1 = new CountingIterator(TestUtil.createTupleList(2, rows(build)));
+        CountingIterator c2 = new CountingIterator(TestUtil.createTupleList(2, rows(probe)));
+
+        HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0), c1, c2, 100);
+        join.open();
+        assertJoin(expectedPairs(build, probe), pairs(join));
+        assertEquals(build.length, c1.reads);
+        assertEquals(probe.length, c2.reads);
+        assertEquals(0, c1.rewinds + c2.rewinds);
+
+        // a rewound join repartitions and produces the same tuples
+        join.rewind();
+        assertJoin(expectedPairs(build, probe), pairs(join));
+        join.close();
+    }
+
+    /**
+     * A partition that no hash can split (a single key) is joined in chunks.
+     */
+    @Test public void skewedKey() throws Exception {
+        int[] build = new int[500];
+        Arrays.fill(build, 7);
+        int[] probe = new int[60];
+        for (int i = 0; i < probe.length; i++)
+            probe[i] = i % 2 == 0 ? 7 : i;
+
+        HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                TestUtil.createTupleList(2, rows(build)), TestUtil.createTupleList(2, rows(probe)), 64);
+        join.open();
+        assertJoin(expectedPairs(build, probe), pairs(join));
+        assertFalse(join.hasNext());
+        join.close();
+    }
+
+    /**
+     * A build side within the budget never spills, and an empty build side
+     * produces nothing.
+     */
+    @Test public void inMemory() throws Exception {
+        Random r = new Random(7);
+        int[] build = randomKeys(r, 200, 50);
+        int[] probe = randomKeys(r, 300, 50);
+        HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                TestUtil.createTupleList(2, rows(build)), TestUtil.createTupleList(2, rows(probe)));
+        join.open();
+        assertJoin(expectedPairs(build, probe), pairs(join));
+        join.close();
+
+        join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                TestUtil.createTupleList(2, new int[0]), TestUtil.createTupleList(2, rows(probe)), 10);
+        join.open();
+        assertFalse(join.hasNext());
+        join.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashEquiJoinTest.class);
+    }
+}
@@ -0,0 +1,162 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.IndexScan;
+import simpledb.execution.Predicate;
+import simpledb.index.HashIndex;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.RecordId;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class HashIndexTest extends SimpleDbTestBase {
+
+    private TransactionId tid;
+    private HeapFile hf;
+    private HashIndex index;
+    private final List<List<Integer>> tuples = new ArrayList<>();
+
+    /**
+     * A table with several pages and many tuples per key, and an index on
+     * its first field.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createRandomHeapFile(2, 3000, 200, null, tuples);
+        index = new HashIndex(hf, 0);
+        index.getFile().deleteOnExit();
+        Database.getCatalog().addIndex(index);
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+        index.close();
+    }
+
+    private List<List<Integer>> expected(int key) {
+        List<List<Integer>> l = new ArrayList<>();
+        for (List<Integer> t : tuples)
+            if (t.get(0) == key)
+                l.add(t);
+        return l;
+    }
+
+    private IndexScan scan(int key) {
+        return new IndexScan(tid, hf.getId(), "t", 0,
+                new IndexPredicate(Predicate.Op.EQUALS, new IntField(key)));
+    }
+
+    /**
+     * An index scan returns exactly the tuples with the key, including keys
+     * the table does not hold.
+     */
+    @Test public void scanMatchesTable() throws Exception {
+        for (int key : new int[]{0, 17, 100, 199, 200, -1})
+            SystemTestUtil.matchTuples(scan(key), expected(key));
+        assertTrue(scan(3).getTupleDesc().getFieldName(0).startsWith("t."));
+    }
+
+    /**
+     * Only equality predicates can use a hash index.
+     */
+    @Test public void equalityOnly() {
+        assertTrue(IndexScan.canScan(hf.getId(), 0, Predicate.Op.EQUALS));
+        assertFalse(IndexScan.canScan(hf.getId(), 0, Predicate.Op.LESS_THAN));
+        assertFalse(IndexScan.canScan(hf.getId(), 1, Predicate.Op.EQUALS));
+        assertFalse(IndexScan.isClustered(hf.getId()));
+    }
+
+    /**
+     * Tuples inserted through the BufferPool are added to the index, also
+     * when their bucket overflows; deleted tuples are no longer returned.
+     */
+    @Test public void insertAndDelete() throws Exception {
+        index.lookup(tid, new IntField(0)); // load the index
+        List<List<Integer>> added = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[]{500, i}));
+            added.add(Arrays.asList(500, i));
+        }
+        SystemTestUtil.matchTuples(scan(500), added);
+
+        IndexScan s = scan(500);
+        s.open();
+        for (int i = 0; i < 400; i++) {
+            Tuple t = s.next();
+            Database.getBufferPool().deleteTuple(tid, t);
+            added.remove(SystemTestUtil.tupleToList(t));
+        }
+        s.close();
+        SystemTestUtil.matchTuples(scan(500), added);
+
+        // the deleted tuples' entries stay until the index is rebuilt
+        assertEquals(1000, index.lookup(tid, new IntField(500)).size());
+        index.rebuild(tid);
+        assertEquals(600, index.lookup(tid, new IntField(500)).size());
+        SystemTestUtil.matchTuples(scan(500), added);
+    }
+
+    /**
+     * An index file that is up to date is read back rather than rebuilt; one
+     * older than the table is rebuilt.
+     */
+    @Test public void reloadOrRebuild() throws Exception {
+        List<RecordId> rids = index.lookup(tid, new IntField(42));
+        index.close();
+        long built = index.getFile().lastModified();
+
+        HashIndex reopened = new HashIndex(hf, 0);
+        assertEquals(rids, reopened.lookup(tid, new IntField(42)));
+        reopened.close();
+        assertEquals(built, index.getFile().lastModified());
+
+        assertTrue(index.getFile().setLastModified(hf.getFile().lastModified() - 10000));
+        reopened = new HashIndex(hf, 0);
+        assertEquals(rids, reopened.lookup(tid, new IntField(42)));
+        assertTrue(index.getFile().lastModified() >= hf.getFile().lastModified());
+        reopened.close();
+    }
+
+    /**
+     * A pk annotation in the schema adds a hash index on the primary key of
+     * a heap table.
+     */
+    @Test public void loadSchemaPrimaryKeyIndex() throws Exception {
+        File schema = File.createTempFile("hidxschema", ".txt");
+        schema.deleteOnExit();
+        try (FileWriter w = new FileWriter(schema)) {
+            w.write("hk (a int, b int pk)\n");
+        }
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        int id = Database.getCatalog().getTableId("hk");
+        HashIndex pk = Database.getCatalog().getIndex(id, 1);
+        assertNotNull(pk);
+        assertNull(Database.getCatalog().getIndex(id, 0));
+        assertEquals(1, Database.getCatalog().getIndexes(id).size());
+        new File(schema.getParentFile(), "hk.dat").deleteOnExit();
+        pk.getFile().deleteOnExit();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashIndexTest.class);
+    }
+}
@@ -125,6 +125,31 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         it.close();
     }
 
+    /**
+     * Memory-mapped reads see the same tuples as regular reads, including
+     * pages appended after the file was first mapped.
+     */
+    @Test
+    public void testMemoryMapped() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile mapped = SystemTestUtil.createRandomHeapFile(2, 1200, null, tuples);
+        mapped.setMemoryMapped(true);
+        assertTrue(mapped.isMemoryMapped());
+        SystemTestUtil.matchTuples(mapped, tuples);
+
+        // fill the last page and spill onto a new one
+        int before = mapped.numPages();
+        for (int i = 0; i < 504; i++) {
+            Tuple t = Utility.getHeapTuple(new int[] { i, -i });
+            mapped.insertTuple(tid, t);
+            tuples.add(SystemTestUtil.tupleToList(t));
+        }
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(before + 1, mapped.numPages());
+        SystemTestUtil.matchTuples(mapped, tuples);
+    }
+
     /**
      * JUnit suite target
      */
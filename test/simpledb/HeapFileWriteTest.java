@@ -12,6 +12,8 @@ import simpledb.storage.*;
 import simpledb.systemtest.SystemTestUtil;
 import simpledb.transaction.TransactionId;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.util.Arrays;
 
 public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
@@ -90,6 +92,64 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         it.close();
     }
 
+    /**
+     * Pages written with writePage are read back unchanged, and pages
+     * appended to the file behind the HeapFile's back are still counted.
+     */
+    @Test public void writePageThenReadPage() throws Exception {
+        HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 1000, null, null);
+        int tableId = smallFile.getId();
+        assertEquals(2, smallFile.numPages());
+
+        HeapPage page = (HeapPage) smallFile.readPage(new HeapPageId(tableId, 1));
+        page.insertTuple(Utility.getHeapTuple(new int[] { -7, -8 }));
+        smallFile.writePage(page);
+        HeapPage reread = (HeapPage) smallFile.readPage(new HeapPageId(tableId, 1));
+        assertArrayEquals(page.getPageData(), reread.getPageData());
+
+        try (FileOutputStream out = new FileOutputStream(smallFile.getFile(), true)) {
+            out.write(HeapPage.createEmptyPageData());
+        }
+        assertEquals(3, smallFile.numPages());
+        HeapPage appended = (HeapPage) smallFile.readPage(new HeapPageId(tableId, 2));
+        assertEquals(504, appended.getNumUnusedSlots());
+    }
+
+    /**
+     * Inserts go to a page with a free slot instead of appending, even when
+     * that page is before the page the last insert went to, and the free
+     * space map survives reopening the file.
+     */
+    @Test public void insertUsesFreedSlot() throws Exception {
+        Tuple first = null;
+        for (int i = 0; i < 2 * 504; ++i) {
+            Tuple t = Utility.getHeapTuple(i, 2);
+            empty.insertTuple(tid, t);
+            if (i == 0)
+                first = t;
+        }
+        assertEquals(2, empty.numPages());
+        assertEquals(0, first.getRecordId().getPageId().getPageNumber());
+
+        empty.deleteTuple(tid, first);
+        Tuple t = Utility.getHeapTuple(-1, 2);
+        empty.insertTuple(tid, t);
+        assertEquals(2, empty.numPages());
+        assertEquals(0, t.getRecordId().getPageId().getPageNumber());
+
+        // free the slot again, write everything out and reopen the file
+        empty.deleteTuple(tid, t);
+        Database.getBufferPool().flushAllPages();
+        assertTrue(new File(empty.getFile().getPath() + ".fsm").exists());
+        HeapFile reopened = new HeapFile(empty.getFile(), empty.getTupleDesc());
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        Tuple u = Utility.getHeapTuple(-2, 2);
+        reopened.insertTuple(tid, u);
+        assertEquals(2, reopened.numPages());
+        assertEquals(0, u.getRecordId().getPageId().getPageNumber());
+    }
+
     /**
      * JUnit suite target
      */
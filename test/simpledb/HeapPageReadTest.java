@@ -13,6 +13,7 @@ import java.util.*;
 
 import org.junit.Before;
 import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -123,6 +124,37 @@ public class HeapPageReadTest extends SimpleDbTestBase {
             assertFalse(page.isSlotUsed(i));
     }
 
+    /**
+     * Unit test for HeapPage.iterator(int[]): only the requested columns are
+     * returned, in the requested order.
+     */
+    @Test public void testProjectedIterator() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        Iterator<Tuple> it = page.iterator(new int[] { 1 });
+
+        int row = 0;
+        while (it.hasNext()) {
+            Tuple tup = it.next();
+            assertEquals(1, tup.getTupleDesc().numFields());
+            assertEquals(EXAMPLE_VALUES[row][1], ((IntField) tup.getField(0)).getValue());
+            assertEquals(row, tup.getRecordId().getTupleNumber());
+            row++;
+        }
+        assertEquals(EXAMPLE_VALUES.length, row);
+    }
+
+    /**
+     * Tuples that were never decoded are written back unchanged.
+     */
+    @Test public void getPageDataRoundTrip() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        // decode only some of the tuples
+        Iterator<Tuple> it = page.iterator();
+        it.next();
+        it.next();
+        assertArrayEquals(EXAMPLE_DATA, page.getPageData());
+    }
+
     /**
      * JUnit suite target
      */
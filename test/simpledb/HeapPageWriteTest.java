@@ -131,6 +131,25 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.getBeforeImage(): the page as it was read until
+     * setBeforeImage() is called, however it changes in between.
+     */
+    @Test public void beforeImage() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, page.getBeforeImage().getPageData());
+
+        page.insertTuple(Utility.getHeapTuple(new int[]{1, 2}));
+        page.deleteTuple(page.iterator().next());
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, page.getBeforeImage().getPageData());
+
+        page.setBeforeImage();
+        byte[] current = page.getPageData();
+        assertArrayEquals(current, page.getBeforeImage().getPageData());
+        page.insertTuple(Utility.getHeapTuple(new int[]{3, 4}));
+        assertArrayEquals(current, page.getBeforeImage().getPageData());
+    }
+
     /**
      * JUnit suite target
      */
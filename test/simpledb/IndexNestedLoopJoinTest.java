@@ -0,0 +1,150 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.*;
+import simpledb.index.BTreeFile;
+import simpledb.index.HashIndex;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+
+    private TransactionId tid;
+    private HeapFile hf;
+    private HashIndex index;
+    private BTreeFile bf;
+
+    /**
+     * A heap table with a hash index on its first field, and a table stored
+     * in a B+ tree keyed on its first field, both with duplicate keys.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+        hf = SystemTestUtil.createRandomHeapFile(2, 2000, 100, null, null);
+        index = new HashIndex(hf, 0);
+        index.getFile().deleteOnExit();
+        Database.getCatalog().addIndex(index);
+
+        File f = File.createTempFile("btree", ".dat");
+        f.deleteOnExit();
+        bf = new BTreeFile(f, 0, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(bf, UUID.randomUUID().toString());
+        Random r = new Random(7);
+        for (int i = 0; i < 2000; i++)
+            bf.insertTuple(tid, Utility.getHeapTuple(new int[]{r.nextInt(100), i}));
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+        index.close();
+    }
+
+    private static OpIterator outer() {
+        Random r = new Random(11);
+        int[] data = new int[2 * 50];
+        for (int i = 0; i < 50; i++) {
+            data[2 * i] = r.nextInt(120) - 10;
+            data[2 * i + 1] = i;
+        }
+        return TestUtil.createTupleList(2, data);
+    }
+
+    private static List<List<Integer>> sortedRows(OpIterator it) throws Exception {
+        List<List<Integer>> rows = new ArrayList<>();
+        it.open();
+        while (it.hasNext())
+            rows.add(SystemTestUtil.tupleToList(it.next()));
+        it.close();
+        rows.sort(Comparator.comparing(Object::toString));
+        return rows;
+    }
+
+    /**
+     * Checks that an index nested-loop join returns the same tuples as a
+     * nested-loops join, also after a rewind.
+     */
+    private static void checkJoin(JoinPredicate p, OpIterator inner) throws Exception {
+        List<List<Integer>> expected = sortedRows(new Join(p, outer(), inner));
+        IndexNestedLoopJoin j = new IndexNestedLoopJoin(p, outer(), inner);
+        assertFalse(expected.isEmpty());
+        assertEquals(p.getOperator().toString(), expected, sortedRows(j));
+
+        j.open();
+        while (j.hasNext())
+            j.next();
+        j.rewind();
+        int n = 0;
+        while (j.hasNext()) {
+            j.next();
+            n++;
+        }
+        j.close();
+        assertEquals(expected.size(), n);
+    }
+
+    /**
+     * Equality joins probe a hash index, and apply the filters above the
+     * inner scan.
+     */
+    @Test public void hashIndexEquality() throws Exception {
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        checkJoin(p, new SeqScan(tid, hf.getId(), "h"));
+        checkJoin(p, new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(30000)),
+                new SeqScan(tid, hf.getId(), "h")));
+    }
+
+    /**
+     * A table stored in a B+ tree answers equality and range joins, also
+     * when the inner child is itself an index scan.
+     */
+    @Test public void btreeRanges() throws Exception {
+        for (Predicate.Op op : new Predicate.Op[]{Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+                Predicate.Op.LESS_THAN_OR_EQ, Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ})
+            checkJoin(new JoinPredicate(0, op, 0), new SeqScan(tid, bf.getId(), "b"));
+        checkJoin(new JoinPredicate(0, Predicate.Op.LESS_THAN, 0), new IndexScan(tid, bf.getId(), "b", 0,
+                new IndexPredicate(Predicate.Op.LESS_THAN, new IntField(60))));
+    }
+
+    /**
+     * Only base tables with an index that answers the join predicate can be
+     * the inner child.
+     */
+    @Test public void canProbe() {
+        assertTrue(IndexNestedLoopJoin.canProbe(new SeqScan(tid, hf.getId(), "h"), 0, Predicate.Op.EQUALS));
+        assertFalse(IndexNestedLoopJoin.canProbe(new SeqScan(tid, hf.getId(), "h"), 0, Predicate.Op.LESS_THAN));
+        assertFalse(IndexNestedLoopJoin.canProbe(new SeqScan(tid, hf.getId(), "h"), 1, Predicate.Op.EQUALS));
+        assertFalse(IndexNestedLoopJoin.canProbe(new SeqScan(tid, hf.getId(), "h", new int[]{0}), 0,
+                Predicate.Op.EQUALS));
+        assertFalse(IndexNestedLoopJoin.canProbe(outer(), 0, Predicate.Op.EQUALS));
+        assertFalse(IndexNestedLoopJoin.canProbe(new SeqScan(tid, bf.getId(), "b"), 0, Predicate.Op.NOT_EQUALS));
+        try {
+            new IndexNestedLoopJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 1), outer(),
+                    new SeqScan(tid, bf.getId(), "b"));
+            fail("joined on a field with no index");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+    }
+}
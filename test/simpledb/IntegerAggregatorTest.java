@@ -1,8 +1,11 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
+import java.util.HashSet;
 import java.util.NoSuchElementException;
+import java.util.Set;
 
 import junit.framework.JUnit4TestAdapter;
 
@@ -10,9 +13,12 @@ import org.junit.Before;
 import org.junit.Test;
 
 import simpledb.common.Type;
+import simpledb.common.Utility;
 import simpledb.execution.Aggregator;
 import simpledb.execution.IntegerAggregator;
 import simpledb.execution.OpIterator;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
 import simpledb.systemtest.SimpleDbTestBase;
 
 public class IntegerAggregatorTest extends SimpleDbTestBase {
@@ -182,6 +188,37 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Many groups, including negative and colliding keys, each get their own
+   * accumulators; prints the merge throughput
+   */
+  @Test public void manyGroups() throws Exception {
+    final int groups = 50000;
+    final int rows = 1000000;
+    IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM);
+    Tuple tup = new Tuple(Utility.getTupleDesc(2));
+    long start = System.nanoTime();
+    for (int i = 0; i < rows; i++) {
+      // keys spaced by a power of two land on the same low hash bits
+      tup.setField(0, new IntField(((i % groups) - groups / 2) << 12));
+      tup.setField(1, new IntField(1));
+      agg.mergeTupleIntoGroup(tup);
+    }
+    long elapsed = System.nanoTime() - start;
+    System.out.println("merged " + rows + " rows into " + groups + " groups in "
+        + elapsed / 1000000 + " ms");
+
+    OpIterator it = agg.iterator();
+    it.open();
+    Set<Integer> seen = new HashSet<>();
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      assertTrue(seen.add(((IntField) t.getField(0)).getValue()));
+      assertEquals(rows / groups, ((IntField) t.getField(1)).getValue());
+    }
+    assertEquals(groups, seen.size());
+  }
+
   /**
    * JUnit suite target
    */
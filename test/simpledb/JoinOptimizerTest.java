@@ -11,9 +11,20 @@ import org.junit.Test;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Utility;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.IndexNestedLoopJoin;
+import simpledb.execution.IndexScan;
+import simpledb.execution.Join;
+import simpledb.execution.Operator;
+import simpledb.execution.OpIterator;
 import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.execution.SortMergeJoin;
+import simpledb.index.HashIndex;
+import simpledb.optimizer.JoinAlgorithm;
 import simpledb.optimizer.JoinOptimizer;
 import simpledb.optimizer.LogicalJoinNode;
+import simpledb.optimizer.LogicalPlan;
 import simpledb.optimizer.TableStats;
 import simpledb.storage.BufferPool;
 import simpledb.storage.HeapFile;
@@ -629,4 +640,153 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
         Assert.assertTrue(result.get(result.size() - 1).t2Alias.equals("a")
                 || result.get(result.size() - 1).t1Alias.equals("a"));
     }
+
+    /**
+     * Verify that equality joins of large inputs are planned as hash joins,
+     * range joins of large inputs as sort-merge joins and of small ones as
+     * block nested loops, and that instantiateJoin builds the operator
+     * recorded on the join node.
+     */
+    @Test
+    public void joinAlgorithmSelectionTest() throws ParsingException, IOException {
+        TransactionId tid = new TransactionId();
+        Parser p = new Parser();
+        JoinOptimizer jo = new JoinOptimizer(p.generateLogicalPlan(tid,
+                "SELECT * FROM " + tableName1 + " t1, " + tableName2
+                        + " t2 WHERE t1.c1 = t2.c2;"), new ArrayList<>());
+        LogicalJoinNode eq = new LogicalJoinNode("t1", "t2", "c1", "c2",
+                Predicate.Op.EQUALS);
+        LogicalJoinNode gt = new LogicalJoinNode("t1", "t2", "c1", "c2",
+                Predicate.Op.GREATER_THAN);
+
+        Assert.assertEquals(JoinAlgorithm.HASH,
+                jo.chooseJoinAlgorithm(eq, 1000, 10000, 100, 1000));
+        Assert.assertEquals(JoinAlgorithm.SORT_MERGE,
+                jo.chooseJoinAlgorithm(gt, 1000, 10000, 100, 1000));
+        Assert.assertEquals(JoinAlgorithm.BLOCK_NESTED_LOOP,
+                jo.chooseJoinAlgorithm(gt, 10, 10, 1, 1));
+        Assert.assertTrue(jo.estimateJoinCost(gt, JoinAlgorithm.BLOCK_NESTED_LOOP, 1000, 10000, 100, 1000)
+                < jo.estimateJoinCost(gt, JoinAlgorithm.NESTED_LOOP, 1000, 10000, 100, 1000));
+        Assert.assertTrue(jo.estimateJoinCost(eq, JoinAlgorithm.HASH, 1000, 10000, 100, 1000)
+                < jo.estimateJoinCost(eq, JoinAlgorithm.NESTED_LOOP, 1000, 10000, 100, 1000));
+
+        OpIterator s1 = new SeqScan(tid, tableId1, "t1");
+        OpIterator s2 = new SeqScan(tid, tableId2, "t2");
+        Assert.assertTrue(JoinOptimizer.instantiateJoin(eq, s1, s2) instanceof HashEquiJoin);
+        Assert.assertTrue(JoinOptimizer.instantiateJoin(
+                eq.withAlgorithm(JoinAlgorithm.NESTED_LOOP), s1, s2) instanceof Join);
+        OpIterator bnl = JoinOptimizer.instantiateJoin(gt, s1, s2);
+        Assert.assertTrue(bnl instanceof Join);
+        Assert.assertEquals(Join.BLOCK_PAGES, ((Join) bnl).getBlockPages());
+        try {
+            JoinOptimizer.instantiateJoin(gt.withAlgorithm(JoinAlgorithm.HASH), s1, s2);
+            Assert.fail("hash join accepted a range predicate");
+        } catch (ParsingException e) {
+            // expected
+        }
+        Assert.assertTrue(JoinOptimizer.instantiateJoin(
+                gt.withAlgorithm(JoinAlgorithm.SORT_MERGE), s1, s2) instanceof SortMergeJoin);
+    }
+
+    /**
+     * Verify that when the result of a join is ordered by its join key, the
+     * join is planned as a sort-merge join and the plan does not sort its
+     * output again.
+     */
+    @Test
+    public void interestingOrderTest() throws Exception {
+        LogicalJoinNode gt = new LogicalJoinNode("t1", "t2", "c1", "c2",
+                Predicate.Op.GREATER_THAN);
+        Assert.assertTrue(JoinOptimizer.providesOrder(gt, "t1.c1"));
+        Assert.assertFalse(JoinOptimizer.providesOrder(gt, "t2.c2"));
+        Assert.assertTrue(JoinOptimizer.providesOrder(gt.swapInnerOuter(), "t1.c1"));
+
+        TransactionId tid = new TransactionId();
+        Parser p = new Parser();
+        LogicalPlan lp = p.generateLogicalPlan(tid, "SELECT t1.c1, t2.c2 FROM " + tableName1
+                + " t1, " + tableName2 + " t2 WHERE t1.c1 > t2.c2 ORDER BY t1.c1;");
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put(tableName1, stats1);
+        stats.put(tableName2, stats2);
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        OpIterator join = ((Operator) plan).getChildren()[0];
+        Assert.assertTrue(join instanceof SortMergeJoin);
+        Assert.assertEquals(join.getTupleDesc().indexForFieldName("t1.c1"),
+                ((SortMergeJoin) join).getSortedField());
+    }
+
+    /**
+     * Creates a table "TC" of 10000 tuples whose field c0 is a unique primary
+     * key with a hash index on it.
+     */
+    private int createIndexedTable() throws IOException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        for (int i = 0; i < 10000; i++)
+            tuples.add(Arrays.asList(i, i % 20));
+        File temp = File.createTempFile("table", ".dat");
+        temp.deleteOnExit();
+        HeapFileEncoder.convert(tuples, temp, BufferPool.getPageSize(), 2);
+        HeapFile f = new HeapFile(temp, Utility.getTupleDesc(2, "c"));
+        Database.getCatalog().addTable(f, "TC", "c0");
+        HashIndex index = new HashIndex(f, 0);
+        index.getFile().deleteOnExit();
+        Database.getCatalog().addIndex(index);
+        TableStats.setTableStats("TC", new TableStats(f.getId(), 19));
+        return f.getId();
+    }
+
+    /**
+     * Verify that a join whose inner table has an index on the join field is
+     * planned as an index nested-loop join when there are few outer tuples,
+     * and that a selective filter on an indexed field reads the table through
+     * the index.
+     */
+    @Test
+    public void indexAccessPathTest() throws Exception {
+        int tableId3 = createIndexedTable();
+        TransactionId tid = new TransactionId();
+        Parser p = new Parser();
+        JoinOptimizer jo = new JoinOptimizer(p.generateLogicalPlan(tid,
+                "SELECT * FROM " + tableName1 + " t1, TC t3 WHERE t1.c1 = t3.c0;"), new ArrayList<>());
+        LogicalJoinNode eq = new LogicalJoinNode("t1", "t3", "c1", "c0", Predicate.Op.EQUALS);
+        Assert.assertEquals(JoinAlgorithm.INDEX_NESTED_LOOP,
+                jo.chooseJoinAlgorithm(eq, 10, 10000, 100, stats2.estimateScanCost()));
+        Assert.assertEquals(JoinAlgorithm.HASH,
+                jo.chooseJoinAlgorithm(eq, 1000, 10000, 100, stats2.estimateScanCost()));
+        // no index on the inner side
+        Assert.assertEquals(JoinAlgorithm.HASH,
+                jo.chooseJoinAlgorithm(eq.swapInnerOuter(), 10000, 10, 100, 100));
+
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put(tableName1, stats1);
+        stats.put("TC", TableStats.getTableStats("TC"));
+        LogicalPlan lp = p.generateLogicalPlan(tid, "SELECT * FROM " + tableName1
+                + " t1, TC t3 WHERE t1.c1 = t3.c0 AND t1.c2 = 3;");
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        OpIterator join = ((Operator) plan).getChildren()[0];
+        Assert.assertTrue(join instanceof IndexNestedLoopJoin);
+        int expected = 0;
+        for (List<Integer> t : tuples1)
+            if (t.get(2) == 3)
+                expected++;
+        int count = 0;
+        plan.open();
+        while (plan.hasNext()) {
+            List<Integer> t = SystemTestUtil.tupleToList(plan.next());
+            Assert.assertEquals(t.get(1), t.get(10));
+            count++;
+        }
+        plan.close();
+        Assert.assertEquals(expected, count);
+
+        lp = p.generateLogicalPlan(tid, "SELECT * FROM TC t3 WHERE t3.c0 = 42;");
+        plan = lp.physicalPlan(tid, stats, false);
+        OpIterator scan = ((Operator) plan).getChildren()[0];
+        Assert.assertTrue(scan instanceof IndexScan);
+        Assert.assertEquals(tableId3, ((IndexScan) scan).getTableId());
+        plan.open();
+        Assert.assertEquals(Arrays.asList(42, 2), SystemTestUtil.tupleToList(plan.next()));
+        Assert.assertFalse(plan.hasNext());
+        plan.close();
+    }
 }
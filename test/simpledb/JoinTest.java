@@ -9,10 +9,12 @@ import org.junit.Before;
 import org.junit.Test;
 
 import simpledb.common.Utility;
+import simpledb.execution.HashEquiJoin;
 import simpledb.execution.Join;
 import simpledb.execution.JoinPredicate;
 import simpledb.execution.OpIterator;
 import simpledb.execution.Predicate;
+import simpledb.storage.IntField;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.systemtest.SimpleDbTestBase;
@@ -112,6 +114,61 @@ public class JoinTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(eqJoin, op);
   }
 
+  /**
+   * Unit test for HashEquiJoin.getNext(); matchAllTuples also rewinds the
+   * join before looking for each expected tuple
+   */
+  @Test public void hashEquiJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin op = new HashEquiJoin(pred, scan1, scan2);
+    op.open();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+    op.rewind();
+    int count = 0;
+    while (op.hasNext()) {
+      assertNotNull(op.next());
+      count++;
+    }
+    assertEquals(3, count);
+  }
+
+  /**
+   * Unit test for the block nested-loop mode of Join: the small inputs fit
+   * in one block, and a larger outer input is joined in blocks, scanning the
+   * inner input once per block
+   */
+  @Test public void blockNestedLoop() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+    Join op = new Join(pred, scan1, scan2, 1);
+    assertEquals(1, op.getBlockPages());
+    op.open();
+    gtJoin.open();
+    TestUtil.matchAllTuples(gtJoin, op);
+
+    int perPage = Join.blockTuples(Utility.getTupleDesc(width1), 1);
+    int[] outer = new int[width1 * (2 * perPage + 10)];
+    for (int i = 0; i < outer.length; i += width1)
+      outer[i] = i % 7;
+    HashEquiJoinTest.CountingIterator inner = new HashEquiJoinTest.CountingIterator(
+        TestUtil.createTupleList(1, new int[] { 0, 1, 2, 3, 4, 5, 6 }));
+    op = new Join(new JoinPredicate(0, Predicate.Op.LESS_THAN, 0),
+        TestUtil.createTupleList(width1, outer), inner, 1);
+    op.open();
+    int count = 0;
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      assertTrue(((IntField) t.getField(0)).getValue() < ((IntField) t.getField(width1)).getValue());
+      count++;
+    }
+    // each outer value v matches the 6 - v larger inner values
+    int expected = 0;
+    for (int i = 0; i < outer.length; i += width1)
+      expected += 6 - outer[i];
+    assertEquals(expected, count);
+    assertEquals(2, inner.rewinds);
+  }
+
   /**
    * JUnit suite target
    */
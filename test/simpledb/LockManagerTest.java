@@ -0,0 +1,329 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.LockManager;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+public class LockManagerTest extends SimpleDbTestBase {
+
+    private LockManager lm;
+    private final PageId p0 = new HeapPageId(7, 0);
+    private final PageId p1 = new HeapPageId(7, 1);
+
+    private final PageId p2 = new HeapPageId(7, 2);
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        lm = new LockManager();
+    }
+
+    private Future<?> acquireLater(ExecutorService pool, TransactionId tid, PageId pid, Permissions perm) {
+        return pool.submit(() -> {
+            lm.acquire(tid, pid, perm);
+            return null;
+        });
+    }
+
+    private static void assertAborted(Future<?> f) throws Exception {
+        try {
+            f.get(5, TimeUnit.SECONDS);
+            fail("transaction was not aborted");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TransactionAbortedException);
+        }
+    }
+
+    private static void assertBlocked(Future<?> f) throws Exception {
+        try {
+            f.get(200, TimeUnit.MILLISECONDS);
+            fail("lock granted while a conflicting one was held");
+        } catch (TimeoutException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Readers share a page; a writer waits for all of them, and readers wait
+     * for the writer.
+     */
+    @Test public void sharedAndExclusive() throws Exception {
+        TransactionId t1 = new TransactionId(), t2 = new TransactionId(), t3 = new TransactionId();
+        lm.acquire(t1, p0, Permissions.READ_ONLY);
+        lm.acquire(t2, p0, Permissions.READ_ONLY);
+        assertTrue(lm.holdsLock(t1, p0));
+        assertTrue(lm.holdsLock(t2, p0));
+        assertEquals(0, lm.getWaitCount());
+
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        Future<?> writer = acquireLater(pool, t3, p0, Permissions.READ_WRITE);
+        assertBlocked(writer);
+        lm.release(t1, p0);
+        assertBlocked(writer);
+        lm.releaseAll(t2);
+        writer.get(5, TimeUnit.SECONDS);
+        assertTrue(lm.holdsExclusiveLock(t3, p0));
+        assertFalse(lm.holdsLock(t1, p0));
+
+        Future<?> reader = acquireLater(pool, t1, p0, Permissions.READ_ONLY);
+        assertBlocked(reader);
+        lm.releaseAll(t3);
+        reader.get(5, TimeUnit.SECONDS);
+        pool.shutdown();
+
+        assertEquals(2, lm.getWaitCount());
+        assertEquals(4, lm.getAcquireCount());
+        assertTrue(lm.getWaitNanos() >= TimeUnit.MILLISECONDS.toNanos(400));
+        assertTrue(lm.getAcquireNanos() >= lm.getWaitNanos());
+    }
+
+    /**
+     * The only reader of a page can upgrade its lock; a reader that shares
+     * the page waits for the other readers to go. Two readers that both
+     * upgrade are deadlocked, and the younger one is aborted at once.
+     */
+    @Test public void upgrade() throws Exception {
+        TransactionId t1 = new TransactionId(), t2 = new TransactionId();
+        lm.acquire(t1, p0, Permissions.READ_ONLY);
+        lm.acquire(t1, p0, Permissions.READ_WRITE);
+        assertTrue(lm.holdsExclusiveLock(t1, p0));
+        // an exclusive lock is good for reading too
+        lm.acquire(t1, p0, Permissions.READ_ONLY);
+        assertTrue(lm.holdsExclusiveLock(t1, p0));
+
+        lm.acquire(t1, p1, Permissions.READ_ONLY);
+        lm.acquire(t2, p1, Permissions.READ_ONLY);
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        Future<?> upgrade = acquireLater(pool, t1, p1, Permissions.READ_WRITE);
+        assertBlocked(upgrade);
+        try {
+            lm.acquire(t2, p1, Permissions.READ_WRITE);
+            fail("upgraded a shared lock");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        assertEquals(1, lm.getDeadlockCount());
+        lm.releaseAll(t2);
+        upgrade.get(5, TimeUnit.SECONDS);
+        pool.shutdown();
+        assertTrue(lm.holdsExclusiveLock(t1, p1));
+        assertEquals(2, lm.getLockedPages(t1).size());
+        lm.releaseAll(t1);
+        assertTrue(lm.getLockedPages(t1).isEmpty());
+    }
+
+    /**
+     * When the transaction that closes a cycle is not the youngest in it,
+     * the youngest is woken up and aborted, and the others go on once it
+     * releases its locks.
+     */
+    @Test public void youngestInCycleAborts() throws Exception {
+        TransactionId t1 = new TransactionId(), t2 = new TransactionId(), t3 = new TransactionId();
+        lm.acquire(t1, p0, Permissions.READ_WRITE);
+        lm.acquire(t2, p1, Permissions.READ_WRITE);
+        lm.acquire(t3, p2, Permissions.READ_WRITE);
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+        Future<?> f3 = acquireLater(pool, t3, p0, Permissions.READ_ONLY);
+        assertBlocked(f3);
+        Future<?> f1 = acquireLater(pool, t1, p1, Permissions.READ_WRITE);
+        assertBlocked(f1);
+        Future<?> f2 = acquireLater(pool, t2, p2, Permissions.READ_ONLY);
+        assertAborted(f3);
+        assertBlocked(f2);
+        assertBlocked(f1);
+        lm.releaseAll(t3);
+        f2.get(5, TimeUnit.SECONDS);
+        lm.releaseAll(t2);
+        f1.get(5, TimeUnit.SECONDS);
+        pool.shutdown();
+        assertEquals(1, lm.getDeadlockCount());
+        assertTrue(lm.holdsExclusiveLock(t1, p1));
+    }
+
+    /**
+     * Under the TIMEOUT policy a transaction that waits too long is aborted,
+     * whether or not it is deadlocked.
+     */
+    @Test public void timeout() throws Exception {
+        lm = new LockManager(LockManager.DEFAULT_SHARDS, LockManager.Policy.TIMEOUT);
+        lm.setTimeout(100);
+        TransactionId t1 = new TransactionId(), t2 = new TransactionId();
+        lm.acquire(t1, p0, Permissions.READ_WRITE);
+        try {
+            lm.acquire(t2, p0, Permissions.READ_ONLY);
+            fail("granted a lock held exclusively by another transaction");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+        assertEquals(1, lm.getTimeoutCount());
+        assertTrue(lm.getWaitNanos() >= TimeUnit.MILLISECONDS.toNanos(100));
+        lm.releaseAll(t2);
+        lm.releaseAll(t1);
+        lm.acquire(t2, p0, Permissions.READ_WRITE);
+    }
+
+    /**
+     * Transactions that each lock a few pages exclusively, in page order, and
+     * bump counters on them never see each other's increments half done.
+     */
+    @Test public void concurrentTransactions() throws Exception {
+        int threads = 8, rounds = 2000, numPages = 16;
+        int[] counters = new int[numPages];
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<?>> results = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int seed = t;
+            results.add(pool.submit(() -> {
+                Random r = new Random(seed);
+                for (int i = 0; i < rounds; i++) {
+                    TransactionId tid = new TransactionId();
+                    int first = r.nextInt(numPages - 1);
+                    int second = first + 1 + r.nextInt(numPages - first - 1);
+                    for (int pgno : new int[]{first, second})
+                        lm.acquire(tid, new HeapPageId(7, pgno), Permissions.READ_WRITE);
+                    counters[first]++;
+                    counters[second]++;
+                    lm.releaseAll(tid);
+                }
+                return null;
+            }));
+        }
+        for (Future<?> f : results)
+            f.get(60, TimeUnit.SECONDS);
+        pool.shutdown();
+        int sum = 0;
+        for (int c : counters)
+            sum += c;
+        assertEquals(2 * threads * rounds, sum);
+        assertEquals(2L * threads * rounds, lm.getAcquireCount());
+        assertEquals(0, lm.getTimeoutCount());
+    }
+
+    /**
+     * Runs transactions that read two of a few pages and then update both,
+     * retrying the ones that are aborted, until each thread has committed
+     * a number of them.
+     *
+     * @param committed incremented for each transaction that commits
+     * @return the number of aborts
+     */
+    private static long contend(LockManager lm, AtomicLong committed) throws Exception {
+        int threads = 8, commits = 25, numPages = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int seed = t;
+            results.add(pool.submit(() -> {
+                Random r = new Random(seed);
+                int aborts = 0;
+                for (int done = 0; done < commits; ) {
+                    TransactionId tid = new TransactionId();
+                    PageId a = new HeapPageId(7, r.nextInt(numPages));
+                    PageId b = new HeapPageId(7, (a.getPageNumber() + 1 + r.nextInt(numPages - 1)) % numPages);
+                    try {
+                        lm.acquire(tid, a, Permissions.READ_ONLY);
+                        lm.acquire(tid, b, Permissions.READ_ONLY);
+                        Thread.sleep(1);
+                        lm.acquire(tid, a, Permissions.READ_WRITE);
+                        lm.acquire(tid, b, Permissions.READ_WRITE);
+                        done++;
+                        committed.incrementAndGet();
+                    } catch (TransactionAbortedException e) {
+                        aborts++;
+                    } finally {
+                        lm.releaseAll(tid);
+                    }
+                }
+                return aborts;
+            }));
+        }
+        long aborts = 0;
+        for (Future<Integer> f : results)
+            aborts += f.get(120, TimeUnit.SECONDS);
+        pool.shutdown();
+        return aborts;
+    }
+
+    /**
+     * Under heavy contention, finding deadlocks when they happen gets the
+     * same work done much sooner than waiting for timeouts, because victims
+     * are aborted at once instead of after the timeout. The times are only
+     * printed; what is checked is that detection breaks every deadlock
+     * without a timeout.
+     */
+    @Test public void detectionBeatsTimeouts() throws Exception {
+        LockManager timeouts = new LockManager(LockManager.DEFAULT_SHARDS, LockManager.Policy.TIMEOUT);
+        timeouts.setTimeout(20);
+        long start = System.nanoTime();
+        AtomicLong committed = new AtomicLong();
+        long timeoutAborts = contend(timeouts, committed);
+        long timeoutMillis = (System.nanoTime() - start) / 1000000;
+
+        start = System.nanoTime();
+        long detectAborts = contend(lm, committed);
+        long detectMillis = (System.nanoTime() - start) / 1000000;
+
+        System.out.println("200 transactions: timeouts " + timeoutMillis + " ms, " + timeoutAborts
+                + " aborts; deadlock detection " + detectMillis + " ms, " + detectAborts + " aborts");
+        // a victim may get its lock before it notices it was chosen
+        assertTrue(detectAborts <= lm.getDeadlockCount());
+        assertEquals(0, lm.getTimeoutCount());
+        assertEquals(2 * 200, committed.get());
+    }
+
+    /**
+     * BufferPool.getPage locks pages for the transaction until it completes;
+     * an aborted transaction's changes are dropped and a committed one's are
+     * kept.
+     */
+    @Test public void bufferPoolLocks() throws Exception {
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        PageId pid = new HeapPageId(hf.getId(), 0);
+
+        TransactionId t1 = new TransactionId();
+        bp.getPage(t1, pid, Permissions.READ_ONLY);
+        assertTrue(bp.holdsLock(t1, pid));
+        bp.unsafeReleasePage(t1, pid);
+        assertFalse(bp.holdsLock(t1, pid));
+
+        bp.insertTuple(t1, hf.getId(), Utility.getHeapTuple(new int[]{-1, -1}));
+        assertTrue(bp.getLockManager().holdsExclusiveLock(t1, pid));
+        bp.transactionComplete(t1, false);
+        assertFalse(bp.holdsLock(t1, pid));
+        TransactionId t2 = new TransactionId();
+        int free = ((HeapPage) hf.readPage(pid)).getNumUnusedSlots();
+        assertEquals(free, ((HeapPage) bp.getPage(t2, pid, Permissions.READ_ONLY)).getNumUnusedSlots());
+
+        bp.insertTuple(t2, hf.getId(), Utility.getHeapTuple(new int[]{-1, -1}));
+        bp.transactionComplete(t2, true);
+        assertFalse(bp.holdsLock(t2, pid));
+        TransactionId t3 = new TransactionId();
+        assertEquals(free - 1, ((HeapPage) bp.getPage(t3, pid, Permissions.READ_ONLY)).getNumUnusedSlots());
+        bp.transactionComplete(t3);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockManagerTest.class);
+    }
+}
@@ -0,0 +1,148 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+public class LogFileTest extends SimpleDbTestBase {
+
+    private static final int THREADS = 8;
+
+    private HeapFile table;
+
+    /**
+     * A table with an empty page per thread.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        File f = File.createTempFile("logfile", ".dat");
+        f.deleteOnExit();
+        table = Utility.createEmptyHeapFile(f.getAbsolutePath(), 2);
+        for (int i = 1; i < THREADS; i++)
+            table.writePage(new HeapPage(new HeapPageId(table.getId(), i), HeapPage.createEmptyPageData()));
+    }
+
+    private interface Work {
+        void run(int thread) throws Exception;
+    }
+
+    /**
+     * Runs work on the given number of threads, started together.
+     *
+     * @return the elapsed time in nanoseconds
+     */
+    private static long concurrently(int threads, Work work) throws Exception {
+        CyclicBarrier start = new CyclicBarrier(threads + 1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> running = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            final int thread = i;
+            Thread t = new Thread(() -> {
+                try {
+                    start.await();
+                    work.run(thread);
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            t.start();
+            running.add(t);
+        }
+        start.await();
+        long begin = System.nanoTime();
+        for (Thread t : running)
+            t.join();
+        long elapsed = System.nanoTime() - begin;
+        if (failure.get() != null)
+            throw new AssertionError(failure.get());
+        return elapsed;
+    }
+
+    /**
+     * Logs updates of a thread's page, one tuple more each time, by a
+     * transaction of its own.
+     */
+    private void logUpdates(TransactionId tid, int thread, int updates) throws Exception {
+        HeapPageId pid = new HeapPageId(table.getId(), thread);
+        HeapPage before = new HeapPage(pid, HeapPage.createEmptyPageData());
+        HeapPage after = new HeapPage(pid, HeapPage.createEmptyPageData());
+        for (int i = 0; i < updates; i++) {
+            after.insertTuple(Utility.getHeapTuple(new int[]{thread, i}));
+            Database.getLogFile().logWrite(tid, before, after);
+        }
+    }
+
+    /**
+     * Records appended by many threads at once are whole and in order:
+     * recovery redoes the committed transactions' last images and undoes
+     * the others.
+     */
+    @Test public void concurrentAppendsRecover() throws Exception {
+        int updates = 50;
+        LogFile log = Database.getLogFile();
+        concurrently(THREADS, thread -> {
+            TransactionId tid = new TransactionId();
+            logUpdates(tid, thread, updates);
+            if (thread % 2 == 0)
+                log.logCommit(tid);
+        });
+        // the losers' pages were written out
+        for (int thread = 1; thread < THREADS; thread += 2) {
+            HeapPage p = new HeapPage(new HeapPageId(table.getId(), thread), HeapPage.createEmptyPageData());
+            p.insertTuple(Utility.getHeapTuple(new int[]{thread, 0}));
+            table.writePage(p);
+        }
+        log.force();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        log.recover();
+
+        int free = new HeapPage(new HeapPageId(table.getId(), 0), HeapPage.createEmptyPageData()).getNumUnusedSlots();
+        for (int thread = 0; thread < THREADS; thread++) {
+            HeapPage p = (HeapPage) table.readPage(new HeapPageId(table.getId(), thread));
+            assertEquals("page " + thread, thread % 2 == 0 ? free - updates : free, p.getNumUnusedSlots());
+        }
+    }
+
+    /**
+     * Update records logged per second by 1 to 8 threads. Appends do not
+     * block each other, so throughput is limited by serializing the pages
+     * rather than by the log.
+     */
+    @Test public void appendThroughput() throws Exception {
+        int records = 8000;
+        LogFile log = Database.getLogFile();
+        for (int threads : new int[]{1, 2, 4, 8}) {
+            int before = log.getTotalRecords();
+            long nanos = concurrently(threads, thread -> {
+                TransactionId tid = new TransactionId();
+                HeapPage page = new HeapPage(new HeapPageId(table.getId(), thread), HeapPage.createEmptyPageData());
+                for (int i = 0; i < records / threads; i++)
+                    log.logWrite(tid, page, page);
+            });
+            log.force();
+            assertEquals(records, log.getTotalRecords() - before);
+            System.out.printf("%d threads: %7.0f updates/s%n", threads, records / (nanos / 1e9));
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LogFileTest.class);
+    }
+}
@@ -0,0 +1,127 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Test;
+
+import simpledb.common.Type;
+import simpledb.execution.OrderBy;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class OrderByTest extends SimpleDbTestBase {
+
+    /** Tuples (key, input position) with random keys in [0, range). */
+    private static int[] randomRows(Random r, int n, int range) {
+        int[] rows = new int[2 * n];
+        for (int i = 0; i < n; i++) {
+            rows[2 * i] = r.nextInt(range);
+            rows[2 * i + 1] = i;
+        }
+        return rows;
+    }
+
+    /** Sorts the rows the way OrderBy must: by key, ties in input order. */
+    private static List<List<Integer>> expected(int[] rows, boolean asc) {
+        List<List<Integer>> l = new ArrayList<>();
+        for (int i = 0; i < rows.length; i += 2)
+            l.add(Arrays.asList(rows[i], rows[i + 1]));
+        Comparator<List<Integer>> byKey = Comparator.comparing(t -> t.get(0));
+        l.sort(asc ? byKey : byKey.reversed());
+        return l;
+    }
+
+    private static List<List<Integer>> drain(OrderBy op) throws Exception {
+        List<List<Integer>> l = new ArrayList<>();
+        while (op.hasNext()) {
+            Tuple t = op.next();
+            l.add(Arrays.asList(((IntField) t.getField(0)).getValue(),
+                    ((IntField) t.getField(1)).getValue()));
+        }
+        return l;
+    }
+
+    /**
+     * An input that fits in memory is sorted without writing runs.
+     */
+    @Test public void inMemory() throws Exception {
+        int[] rows = randomRows(new Random(1), 500, 50);
+        OrderBy op = new OrderBy(0, true, TestUtil.createTupleList(2, rows));
+        op.open();
+        assertEquals(0, op.getRunCount());
+        assertEquals(expected(rows, true), drain(op));
+        op.close();
+    }
+
+    /**
+     * An input larger than the budget is sorted through runs on disk, stably,
+     * in either direction, and rewinding replays the merge without reading
+     * the child again.
+     */
+    @Test public void externalSort() throws Exception {
+        int[] rows = randomRows(new Random(2), 5000, 300);
+        for (boolean asc : new boolean[] { true, false }) {
+            TupleIterator child = TestUtil.createTupleList(2, rows);
+            OrderBy op = new OrderBy(0, asc, child, 128);
+            op.open();
+            assertEquals(39, op.getRunCount());
+            assertEquals(expected(rows, asc), drain(op));
+
+            child.close(); // the child must not be needed any more
+            op.rewind();
+            assertEquals(expected(rows, asc), drain(op));
+            op.close();
+        }
+    }
+
+    /**
+     * More runs than can be merged at once are merged in several passes.
+     */
+    @Test public void multiPassMerge() throws Exception {
+        int[] rows = randomRows(new Random(3), 3000, 1000);
+        OrderBy op = new OrderBy(0, true, TestUtil.createTupleList(2, rows), 10);
+        op.open();
+        assertEquals(299, op.getRunCount());
+        assertEquals(expected(rows, true), drain(op));
+        op.close();
+    }
+
+    /**
+     * String fields survive being written to and read back from runs.
+     */
+    @Test public void stringKeys() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE });
+        List<Tuple> tuples = new ArrayList<>();
+        List<String> keys = new ArrayList<>();
+        Random r = new Random(4);
+        for (int i = 0; i < 1000; i++) {
+            String k = Integer.toString(r.nextInt(100000), 36) + (i % 3 == 0 ? "" : "x");
+            keys.add(k);
+            Tuple t = new Tuple(td);
+            t.setField(0, new StringField(k, Type.STRING_LEN));
+            t.setField(1, new IntField(i));
+            tuples.add(t);
+        }
+        Collections.sort(keys);
+
+        TupleIterator child = new TupleIterator(td, tuples);
+        OrderBy op = new OrderBy(0, true, child, 50);
+        op.open();
+        assertTrue(op.getRunCount() > 1);
+        List<String> sorted = new ArrayList<>();
+        while (op.hasNext())
+            sorted.add(((StringField) op.next().getField(0)).getValue());
+        assertEquals(keys, sorted);
+        op.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(OrderByTest.class);
+    }
+}
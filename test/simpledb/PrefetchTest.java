@@ -0,0 +1,95 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PrefetchTest extends SimpleDbTestBase {
+
+    private static final int PAGES = 40;
+
+    /** Counts the pages read one at a time through readPage. */
+    static class CountingHeapFile extends HeapFile {
+        final AtomicInteger singleReads = new AtomicInteger();
+
+        CountingHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) throws NoSuchElementException {
+            singleReads.incrementAndGet();
+            return super.readPage(pid);
+        }
+    }
+
+    private CountingHeapFile table;
+    private List<List<Integer>> tuples;
+
+    @Before public void setUp() throws Exception {
+        tuples = new ArrayList<>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 504 * PAGES, 1000, null, tuples);
+        table = new CountingHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+    }
+
+    @Test public void offByDefault() throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(0, bp.getPrefetchWindow());
+        SystemTestUtil.matchTuples(table, tuples);
+        assertEquals(PAGES, table.singleReads.get());
+        assertEquals(0, bp.getPrefetchCount());
+    }
+
+    /**
+     * A scan with read-ahead on returns the same tuples, and most of its
+     * pages come from read-ahead instead of single-page reads.
+     */
+    @Test public void sequentialScanReadsAhead() throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        bp.setPrefetchWindow(8);
+        assertEquals(8, bp.getPrefetchWindow());
+        SystemTestUtil.matchTuples(table, tuples);
+
+        assertTrue(bp.getPrefetchCount() > 0);
+        assertTrue(bp.getPrefetchHitCount() > 0);
+        // every page is read exactly once, one way or the other
+        assertEquals(PAGES, table.singleReads.get() + bp.getPrefetchCount());
+        assertTrue(table.singleReads.get() < PAGES);
+        System.out.println("prefetched " + bp.getPrefetchCount() + ", hits " + bp.getPrefetchHitCount()
+                + ", waste " + bp.getPrefetchWasteCount() + ", single reads " + table.singleReads.get());
+    }
+
+    /**
+     * The window is capped at a quarter of the pool, so read-ahead in a small
+     * pool still works without evicting the pages the scan is on.
+     */
+    @Test public void smallPool() throws Exception {
+        BufferPool bp = Database.resetBufferPool(8);
+        bp.setPrefetchWindow(100);
+        assertEquals(2, bp.getPrefetchWindow());
+        SystemTestUtil.matchTuples(table, tuples);
+        assertTrue(bp.getPrefetchCount() + table.singleReads.get() >= PAGES);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PrefetchTest.class);
+    }
+}
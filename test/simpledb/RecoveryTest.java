@@ -0,0 +1,154 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.SeqScan;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionId;
+
+public class RecoveryTest extends SimpleDbTestBase {
+
+    private static final int POOL_PAGES = BufferPool.DEFAULT_PAGES;
+
+    private HeapFile table;
+    private int tuplesPerPage;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        File f = File.createTempFile("recovery", ".dat");
+        f.deleteOnExit();
+        table = Utility.createEmptyHeapFile(f.getAbsolutePath(), 2);
+        tuplesPerPage = new HeapPage(new HeapPageId(table.getId(), 0), HeapPage.createEmptyPageData()).getNumUnusedSlots();
+        Database.resetBufferPool(POOL_PAGES);
+    }
+
+    private Transaction insert(int from, int count) throws Exception {
+        Transaction t = new Transaction();
+        t.start();
+        for (int i = from; i < from + count; i++)
+            Database.getBufferPool().insertTuple(t.getId(), table.getId(), Utility.getHeapTuple(new int[]{i, i}));
+        return t;
+    }
+
+    /**
+     * @return the number of tuples in the table, and checks that their
+     *         values are all in [0, bound)
+     */
+    private int count(int bound) throws Exception {
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, table.getId(), "t");
+        scan.open();
+        int n = 0;
+        while (scan.hasNext()) {
+            int v = ((IntField) scan.next().getField(0)).getValue();
+            assertTrue(v + " out of range", v >= 0 && v < bound);
+            n++;
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return n;
+    }
+
+    /**
+     * A transaction can update more pages than the pool holds: dirty pages
+     * are written out to make room.
+     */
+    @Test public void updateLargerThanPool() throws Exception {
+        int rows = tuplesPerPage * POOL_PAGES * 2;
+        Transaction t = insert(0, rows);
+        t.commit();
+        assertTrue(table.numPages() >= 2 * POOL_PAGES);
+        assertEquals(rows, count(rows));
+    }
+
+    /**
+     * Aborting a transaction undoes the changes that were written to disk
+     * before it completed, as well as those still in the pool.
+     */
+    @Test public void abortUndoesStolenPages() throws Exception {
+        Transaction t1 = insert(0, 100);
+        t1.commit();
+        Transaction t2 = insert(100, tuplesPerPage * POOL_PAGES * 2);
+        t2.abort();
+        assertEquals(100, count(100));
+        // and again from disk
+        Database.resetBufferPool(POOL_PAGES);
+        assertEquals(100, count(100));
+    }
+
+    /**
+     * Aborting a transaction that updated pages holding committed changes
+     * not written yet keeps those changes.
+     */
+    @Test public void abortKeepsUnwrittenCommits() throws Exception {
+        Transaction t1 = insert(0, 100);
+        t1.commit();
+        Transaction t2 = insert(100, 5);
+        t2.abort();
+        assertEquals(100, count(100));
+
+        // and they are still written out, and recovered
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(POOL_PAGES);
+        Database.getLogFile().recover();
+        assertEquals(100, count(100));
+    }
+
+    /**
+     * The BufferPool logs the COMMIT record before it releases the locks,
+     * also for a transaction that was not started through Transaction, so
+     * its changes are recovered.
+     */
+    @Test public void bufferPoolCommitIsLogged() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 10; i++)
+            Database.getBufferPool().insertTuple(tid, table.getId(), Utility.getHeapTuple(new int[]{i, i}));
+        Database.getBufferPool().transactionComplete(tid, true);
+        Database.resetBufferPool(POOL_PAGES);
+        Database.getLogFile().recover();
+        assertEquals(10, count(10));
+    }
+
+    /**
+     * Committing does not write the pages; after a crash, recovery redoes
+     * committed transactions from the log and undoes the ones that were
+     * still running, whose pages may already have been written.
+     */
+    @Test public void recoverAfterCrash() throws Exception {
+        Transaction t1 = insert(0, 100);
+        t1.commit();
+        // the committed page is only in the pool and the log
+        assertEquals(tuplesPerPage, ((HeapPage) table.readPage(new HeapPageId(table.getId(), 0))).getNumUnusedSlots());
+
+        Transaction t2 = insert(100, tuplesPerPage * POOL_PAGES * 2);
+        // crash: lose the pool without writing it
+        Database.resetBufferPool(POOL_PAGES);
+        Database.getLogFile().recover();
+        assertEquals(100, count(100));
+
+        // recovery logged t2's abort, so a second recovery does not undo
+        // later work on its pages
+        Transaction t3 = insert(100, 50);
+        t3.commit();
+        Database.resetBufferPool(POOL_PAGES);
+        Database.getLogFile().recover();
+        assertEquals(150, count(150));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(RecoveryTest.class);
+    }
+}
@@ -0,0 +1,211 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+
+    private static final int CAPACITY = 32;
+    private static final int HOT_PAGES = 8;
+    private static final int SCAN_PAGES = 400;
+
+    /** Evicts a random page, like the BufferPool used to. */
+    static class RandomReplacementPolicy implements ReplacementPolicy {
+        private final List<PageId> resident = new ArrayList<>();
+        private final Random random = new Random(0);
+
+        public synchronized void pageAdded(PageId pid) {
+            if (!resident.contains(pid))
+                resident.add(pid);
+        }
+
+        public void pageAccessed(PageId pid) {
+        }
+
+        public synchronized void pageRemoved(PageId pid) {
+            resident.remove(pid);
+        }
+
+        public synchronized PageId chooseVictim(Predicate<PageId> evictable) {
+            if (resident.isEmpty())
+                return null;
+            int start = random.nextInt(resident.size());
+            for (int i = 0; i < resident.size(); i++) {
+                PageId pid = resident.get((start + i) % resident.size());
+                if (evictable.test(pid)) {
+                    resident.remove(pid);
+                    return pid;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Runs a mixed workload against a cache of CAPACITY pages managed by the
+     * given policy: a few passes of a sequential scan over SCAN_PAGES pages,
+     * with a point lookup on one of HOT_PAGES hot pages after every scanned
+     * page.
+     *
+     * @return the hit ratio of the hot page lookups
+     */
+    private static double hotHitRatio(ReplacementPolicy policy) {
+        Set<PageId> cache = new HashSet<>();
+        Random r = new Random(42);
+        int hotHits = 0, hotLookups = 0;
+        for (int pass = 0; pass < 3; pass++) {
+            for (int i = 0; i < SCAN_PAGES; i++) {
+                access(policy, cache, new HeapPageId(1, i));
+                hotLookups++;
+                if (access(policy, cache, new HeapPageId(2, r.nextInt(HOT_PAGES))))
+                    hotHits++;
+            }
+        }
+        return (double) hotHits / hotLookups;
+    }
+
+    private static boolean access(ReplacementPolicy policy, Set<PageId> cache, PageId pid) {
+        if (cache.contains(pid)) {
+            policy.pageAccessed(pid);
+            return true;
+        }
+        if (cache.size() >= CAPACITY) {
+            PageId victim = policy.chooseVictim(p -> true);
+            assertNotNull(victim);
+            assertTrue(cache.remove(victim));
+        }
+        cache.add(pid);
+        policy.pageAdded(pid);
+        return false;
+    }
+
+    @Test public void clockIsScanResistant() {
+        double random = hotHitRatio(new RandomReplacementPolicy());
+        double clock = hotHitRatio(new ClockReplacementPolicy(CAPACITY));
+        System.out.println("hot page hit ratio: random " + random + ", clock " + clock);
+        assertTrue(clock > 0.9);
+        assertTrue(clock > random);
+    }
+
+    @Test public void twoQueueIsScanResistant() {
+        double random = hotHitRatio(new RandomReplacementPolicy());
+        double twoQ = hotHitRatio(new TwoQueueReplacementPolicy(CAPACITY));
+        System.out.println("hot page hit ratio: random " + random + ", 2Q " + twoQ);
+        assertTrue(twoQ > 0.95);
+        assertTrue(twoQ > random);
+    }
+
+    @Test public void victimMustBeEvictable() {
+        for (ReplacementPolicy policy : new ReplacementPolicy[] {
+                new ClockReplacementPolicy(4), new TwoQueueReplacementPolicy(4) }) {
+            PageId dirty = new HeapPageId(1, 0);
+            PageId clean = new HeapPageId(1, 1);
+            policy.pageAdded(dirty);
+            policy.pageAdded(clean);
+            policy.pageAccessed(clean);
+            assertEquals(clean, policy.chooseVictim(p -> !p.equals(dirty)));
+            assertNull(policy.chooseVictim(p -> !p.equals(dirty)));
+            policy.pageRemoved(dirty);
+            assertNull(policy.chooseVictim(p -> true));
+        }
+    }
+
+    /**
+     * @return the order in which the policy evicts all of its pages
+     */
+    private static List<PageId> evictAll(ReplacementPolicy policy) {
+        List<PageId> order = new ArrayList<>();
+        for (PageId pid; (pid = policy.chooseVictim(p -> true)) != null; )
+            order.add(pid);
+        return order;
+    }
+
+    /**
+     * An eviction that the caller cancels does not change the victim's
+     * queue: a page from A1in is not promoted to Am as if it had been
+     * reused, and a page from Am does not drop back to A1in.
+     */
+    @Test public void cancelledVictimKeepsItsQueue() {
+        // A1in holds at most 2 pages before it is preferred
+        TwoQueueReplacementPolicy policy = new TwoQueueReplacementPolicy(8);
+        PageId hot = new HeapPageId(2, 0);
+        policy.pageAdded(hot);
+        assertEquals(hot, policy.chooseVictim(p -> true));
+        policy.pageAdded(hot);
+        PageId[] a1in = { new HeapPageId(1, 0), new HeapPageId(1, 1), new HeapPageId(1, 2) };
+        for (PageId pid : a1in)
+            policy.pageAdded(pid);
+        assertEquals(a1in[0], policy.chooseVictim(p -> true));
+        policy.victimKept(a1in[0]);
+        assertEquals(Arrays.asList(a1in[0], hot, a1in[1], a1in[2]), evictAll(policy));
+
+        policy = new TwoQueueReplacementPolicy(8);
+        PageId[] am = { new HeapPageId(2, 0), new HeapPageId(2, 1) };
+        for (PageId pid : am)
+            policy.pageAdded(pid);
+        evictAll(policy);
+        for (PageId pid : am)
+            policy.pageAdded(pid);
+        PageId cold = new HeapPageId(1, 0);
+        policy.pageAdded(cold);
+        assertEquals(am[0], policy.chooseVictim(p -> true));
+        policy.victimKept(am[0]);
+        assertEquals(Arrays.asList(am[0], am[1], cold), evictAll(policy));
+    }
+
+    /**
+     * Same workload as above, but through a real BufferPool over a heap
+     * file, comparing the number of page reads.
+     */
+    @Test public void bufferPoolMixedWorkload() throws Exception {
+        // two int columns: 504 tuples per page
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * 120, null, null);
+        int hot = 4;
+        long[] missesPerPolicy = new long[2];
+        ReplacementPolicy[] policies = { new RandomReplacementPolicy(), new TwoQueueReplacementPolicy(16) };
+        for (int k = 0; k < policies.length; k++) {
+            BufferPool bp = new BufferPool(16, policies[k]);
+            TransactionId tid = new TransactionId();
+            Random r = new Random(7);
+            for (int pass = 0; pass < 3; pass++) {
+                for (int pgno = hot; pgno < f.numPages(); pgno++) {
+                    bp.getPage(tid, new HeapPageId(f.getId(), pgno), Permissions.READ_ONLY);
+                    bp.getPage(tid, new HeapPageId(f.getId(), r.nextInt(hot)), Permissions.READ_ONLY);
+                }
+            }
+            missesPerPolicy[k] = bp.getMissCount();
+            assertEquals(2L * 3 * (f.numPages() - hot), bp.getHitCount() + bp.getMissCount());
+        }
+        System.out.println("page reads: random " + missesPerPolicy[0] + ", 2Q " + missesPerPolicy[1]);
+        assertTrue(missesPerPolicy[1] < missesPerPolicy[0]);
+        // apart from the scan itself, hot pages miss only until they are
+        // promoted to Am (at least twice each, once in A1in and once from A1out)
+        long hotMisses = missesPerPolicy[1] - 3L * (f.numPages() - hot);
+        assertTrue(hotMisses < 4 * hot);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
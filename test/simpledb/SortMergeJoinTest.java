@@ -0,0 +1,145 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.Test;
+
+import simpledb.execution.*;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+    /** Creates an unsorted two-column tuple list with keys in [0, keys). */
+    private static OpIterator randomTuples(Random r, int rows, int keys) {
+        int[] data = new int[2 * rows];
+        for (int i = 0; i < rows; i++) {
+            data[2 * i] = r.nextInt(keys);
+            data[2 * i + 1] = i;
+        }
+        return TestUtil.createTupleList(2, data);
+    }
+
+    private static List<List<Integer>> rows(OpIterator it) throws Exception {
+        List<List<Integer>> rows = new ArrayList<>();
+        it.open();
+        while (it.hasNext())
+            rows.add(SystemTestUtil.tupleToList(it.next()));
+        it.close();
+        return rows;
+    }
+
+    private static List<List<Integer>> sorted(List<List<Integer>> rows) {
+        List<List<Integer>> s = new ArrayList<>(rows);
+        s.sort(Comparator.comparing(Object::toString));
+        return s;
+    }
+
+    /**
+     * Joins random inputs with the given predicate and checks that the
+     * result equals that of a nested-loops join and is sorted on the field
+     * given by getSortedField().
+     */
+    private static void checkJoin(Predicate.Op op, int maxRunTuples) throws Exception {
+        Random r = new Random(op.ordinal());
+        OpIterator left = randomTuples(r, 300, 40);
+        OpIterator right = randomTuples(r, 200, 40);
+        JoinPredicate p = new JoinPredicate(0, op, 0);
+        SortMergeJoin smj = new SortMergeJoin(p, left, right, maxRunTuples);
+
+        List<List<Integer>> expected = rows(new Join(p, left, right));
+        List<List<Integer>> actual = rows(smj);
+        assertFalse(expected.isEmpty());
+        assertEquals(op.toString(), sorted(expected), sorted(actual));
+
+        int field = smj.getSortedField();
+        for (int i = 1; i < actual.size(); i++)
+            assertTrue(actual.get(i - 1).get(field) <= actual.get(i).get(field));
+    }
+
+    /**
+     * Equality joins return every pair of matching tuples, also when runs
+     * of duplicate keys are longer than the in-memory buffer.
+     */
+    @Test public void equalityWithDuplicates() throws Exception {
+        checkJoin(Predicate.Op.EQUALS, SortMergeJoin.RUN_BUFFER_SIZE);
+        checkJoin(Predicate.Op.EQUALS, 2);
+    }
+
+    /**
+     * Range joins return the same tuples as nested loops, also when the
+     * buffered prefix is spilled to disk.
+     */
+    @Test public void rangeJoins() throws Exception {
+        for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ,
+                Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ }) {
+            checkJoin(op, SortMergeJoin.RUN_BUFFER_SIZE);
+            checkJoin(op, 7);
+        }
+    }
+
+    /**
+     * A child already sorted on its join field is read as is; any other
+     * child is sorted first. Nested sort-merge joins on the same key are not
+     * re-sorted either.
+     */
+    @Test public void sortedInputs() throws Exception {
+        Random r = new Random(1);
+        OrderBy sortedLeft = new OrderBy(0, true, randomTuples(r, 50, 10));
+        OpIterator unsorted = randomTuples(r, 50, 10);
+        JoinPredicate eq = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+
+        SortMergeJoin smj = new SortMergeJoin(eq, sortedLeft, unsorted);
+        assertSame(sortedLeft, smj.getChildren()[0]);
+        assertTrue(smj.getChildren()[1] instanceof OrderBy);
+
+        OpIterator descending = new OrderBy(0, false, randomTuples(r, 50, 10));
+        assertNotSame(descending, new SortMergeJoin(eq, descending, unsorted).getChildren()[0]);
+
+        SortMergeJoin outer = new SortMergeJoin(new JoinPredicate(2, Predicate.Op.EQUALS, 0),
+                smj, randomTuples(r, 50, 10));
+        assertSame(smj, outer.getChildren()[0]);
+        assertFalse(rows(outer).isEmpty());
+    }
+
+    /**
+     * Rewinding returns the same tuples again.
+     */
+    @Test public void rewind() throws Exception {
+        Random r = new Random(2);
+        SortMergeJoin smj = new SortMergeJoin(new JoinPredicate(0, Predicate.Op.LESS_THAN, 0),
+                randomTuples(r, 40, 10), randomTuples(r, 40, 10), 3);
+        List<List<Integer>> first = rows(smj);
+        smj.open();
+        while (smj.hasNext())
+            smj.next();
+        smj.rewind();
+        List<List<Integer>> second = new ArrayList<>();
+        while (smj.hasNext()) {
+            Tuple t = smj.next();
+            second.add(SystemTestUtil.tupleToList(t));
+        }
+        smj.close();
+        assertEquals(first, second);
+    }
+
+    /**
+     * Predicates without an order to merge by are rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void notEqualsRejected() {
+        new SortMergeJoin(new JoinPredicate(0, Predicate.Op.NOT_EQUALS, 0),
+                TestUtil.createTupleList(2, new int[] { 1, 2 }), TestUtil.createTupleList(2, new int[] { 1, 2 }));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SortMergeJoinTest.class);
+    }
+}
@@ -9,6 +9,10 @@ import simpledb.common.Type;
 import simpledb.execution.Aggregator;
 import simpledb.execution.OpIterator;
 import simpledb.execution.StringAggregator;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
 import simpledb.systemtest.SimpleDbTestBase;
 import static org.junit.Assert.assertEquals;
 import junit.framework.JUnit4TestAdapter;
@@ -109,6 +113,37 @@ public class StringAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * String group-by values get one group each, including strings with
+   * equal hash codes
+   */
+  @Test public void manyStringGroups() throws Exception {
+    TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.STRING_TYPE });
+    StringAggregator agg = new StringAggregator(0, Type.STRING_TYPE, 1, Aggregator.Op.COUNT);
+    Tuple tup = new Tuple(td);
+    tup.setField(1, new StringField("x", Type.STRING_LEN));
+    // "Aa" and "BB" have the same hash code
+    String[] keys = new String[10000];
+    for (int i = 0; i < keys.length; i++)
+      keys[i] = (i % 2 == 0 ? "Aa" : "BB") + (i / 2);
+    for (int rep = 0; rep < 3; rep++) {
+      for (String k : keys) {
+        tup.setField(0, new StringField(k, Type.STRING_LEN));
+        agg.mergeTupleIntoGroup(tup);
+      }
+    }
+
+    OpIterator it = agg.iterator();
+    it.open();
+    Set<String> seen = new HashSet<>();
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      seen.add(((StringField) t.getField(0)).getValue());
+      assertEquals(3, ((IntField) t.getField(1)).getValue());
+    }
+    assertEquals(new HashSet<>(Arrays.asList(keys)), seen);
+  }
+
   /**
    * JUnit suite target
    */
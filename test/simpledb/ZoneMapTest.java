@@ -0,0 +1,173 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.*;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+
+    private static final int PAGES = 40;
+    private static final int PER_PAGE = 504;
+
+    private File f;
+    private HeapFile hf;
+    private TransactionId tid;
+    private final List<List<Integer>> tuples = new ArrayList<>();
+
+    /**
+     * A table ordered by its first field, as if by arrival time, and with
+     * random values in its second.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        Random r = new Random(3);
+        for (int i = 0; i < PAGES * PER_PAGE; i++)
+            tuples.add(Arrays.asList(i, r.nextInt(1000)));
+        f = File.createTempFile("zonemap", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".zm").deleteOnExit();
+        new File(f.getPath() + ".fsm").deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 2);
+        hf = Utility.openHeapFile(2, f);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static long pagesFetched() {
+        return Database.getBufferPool().getHitCount() + Database.getBufferPool().getMissCount();
+    }
+
+    /**
+     * Scans the table with the predicates both pushed into the scan and
+     * applied by filters above it, as the planner does, and checks the
+     * result.
+     *
+     * @return the number of pages the scan fetched from the BufferPool
+     */
+    private long scan(Predicate... preds) throws Exception {
+        SeqScan ss = new SeqScan(tid, hf.getId(), "z");
+        OpIterator it = ss;
+        List<List<Integer>> expected = new ArrayList<>();
+        for (Predicate p : preds) {
+            ss.addPruningPredicate(p);
+            it = new Filter(p, it);
+        }
+        for (List<Integer> t : tuples) {
+            boolean match = true;
+            for (Predicate p : preds)
+                match &= p.filter(Utility.getHeapTuple(new int[]{t.get(0), t.get(1)}));
+            if (match)
+                expected.add(t);
+        }
+        long before = pagesFetched();
+        SystemTestUtil.matchTuples(it, expected);
+        return pagesFetched() - before;
+    }
+
+    private static Predicate pred(int field, Predicate.Op op, int v) {
+        return new Predicate(field, op, new IntField(v));
+    }
+
+    /**
+     * Range predicates on the ordered field only fetch the pages holding
+     * the range; predicates on the random field cannot skip any.
+     */
+    @Test public void skipsPages() throws Exception {
+        assertEquals(PAGES, scan());
+        assertEquals(3, scan(pred(0, Predicate.Op.LESS_THAN, 3 * PER_PAGE)));
+        assertEquals(2, scan(pred(0, Predicate.Op.GREATER_THAN_OR_EQ, 10 * PER_PAGE + 5),
+                pred(0, Predicate.Op.LESS_THAN_OR_EQ, 11 * PER_PAGE + 5)));
+        assertEquals(1, scan(pred(0, Predicate.Op.EQUALS, 20 * PER_PAGE)));
+        assertEquals(0, scan(pred(0, Predicate.Op.GREATER_THAN, PAGES * PER_PAGE)));
+        assertEquals(PAGES, scan(pred(1, Predicate.Op.LESS_THAN, 500)));
+        assertEquals(PAGES, scan(pred(0, Predicate.Op.NOT_EQUALS, 7)));
+    }
+
+    /**
+     * Inserted tuples widen the range of their page and are found; deleted
+     * ones are not, and once their page is written its range shrinks.
+     */
+    @Test public void insertsAndDeletes() throws Exception {
+        scan(pred(0, Predicate.Op.LESS_THAN, 0)); // load the zone map
+
+        SeqScan ss = new SeqScan(tid, hf.getId(), "z");
+        ss.addPruningPredicate(pred(0, Predicate.Op.GREATER_THAN_OR_EQ, 5 * PER_PAGE));
+        Filter doomed = new Filter(pred(0, Predicate.Op.GREATER_THAN_OR_EQ, 5 * PER_PAGE),
+                new Filter(pred(0, Predicate.Op.LESS_THAN, 5 * PER_PAGE + 20), ss));
+        List<Tuple> deleted = new ArrayList<>();
+        doomed.open();
+        while (doomed.hasNext())
+            deleted.add(doomed.next());
+        doomed.close();
+        assertEquals(20, deleted.size());
+        for (Tuple t : deleted) {
+            Database.getBufferPool().deleteTuple(tid, t);
+            tuples.remove(SystemTestUtil.tupleToList(t));
+        }
+        Predicate[] range = {pred(0, Predicate.Op.GREATER_THAN_OR_EQ, 5 * PER_PAGE),
+                pred(0, Predicate.Op.LESS_THAN, 5 * PER_PAGE + 20)};
+        assertEquals(1, scan(range));
+        Database.getBufferPool().flushAllPages();
+        assertEquals(0, scan(range));
+
+        // the free slots on page 5 take these
+        for (int i = 0; i < 20; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[]{-1 - i, i}));
+            tuples.add(Arrays.asList(-1 - i, i));
+        }
+        assertEquals(PAGES, hf.numPages());
+        assertEquals(1, scan(pred(0, Predicate.Op.LESS_THAN, 0)));
+        Database.getBufferPool().flushAllPages();
+        assertEquals(1, scan(pred(0, Predicate.Op.LESS_THAN, 0)));
+    }
+
+    /**
+     * A side file that is up to date is read back rather than rebuilt, and
+     * keeps the ranges of written pages; one older than the table is
+     * rebuilt.
+     */
+    @Test public void reloadOrRebuild() throws Exception {
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[]{-1, 0}));
+        tuples.add(Arrays.asList(-1, 0));
+        Database.getBufferPool().flushAllPages();
+        Database.getBufferPool().transactionComplete(tid);
+        File zm = new File(f.getPath() + ".zm");
+        assertTrue(zm.exists());
+        long written = zm.lastModified();
+
+        hf = Utility.openHeapFile(2, f);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(1, scan(pred(0, Predicate.Op.LESS_THAN, 0)));
+        assertEquals(written, zm.lastModified());
+
+        assertTrue(zm.setLastModified(f.lastModified() - 10000));
+        hf = Utility.openHeapFile(2, f);
+        assertEquals(1, scan(pred(0, Predicate.Op.LESS_THAN, 0)));
+        assertTrue(zm.lastModified() >= f.lastModified());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}
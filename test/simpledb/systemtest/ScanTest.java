@@ -136,6 +136,25 @@ public class ScanTest extends SimpleDbTestBase {
         }
     }
 
+    /** Verifies that a SeqScan over a subset of the columns returns just those columns. */
+    @Test public void testColumnSubset() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(4, 2000, null, tuples, "test");
+        int[] columns = { 3, 1 };
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            List<Integer> projected = new ArrayList<>();
+            for (int c : columns)
+                projected.add(t.get(c));
+            expected.add(projected);
+        }
+
+        SeqScan scan = new SeqScan(new TransactionId(), f.getId(), "t", columns);
+        assertEquals(2, scan.getTupleDesc().numFields());
+        assertEquals("t." + f.getTupleDesc().getFieldName(3), scan.getTupleDesc().getFieldName(0));
+        SystemTestUtil.matchTuples(scan, expected);
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(ScanTest.class);